@@ -0,0 +1,234 @@
+import java.util.Arrays;
+
+/**
+ * Registry of tickets for vehicles currently parked, with O(1) lookup by
+ * ticket id and by licence plate
+ * Ticket ids live in striped LongIndexMaps of primitive long keys (no
+ * boxing, no per-entry node objects); each stripe has its own lock so
+ * gates rarely meet. Plates map to ticket ids in the same kind of table,
+ * keyed by the plate string the vehicle already holds, so a parked car
+ * costs two array cells per index and no map nodes
+ */
+public class ActiveTicketRegistry {
+    private static final int STRIPES = 64;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final PlateStripe[] plateStripes = new PlateStripe[STRIPES];
+
+    public ActiveTicketRegistry() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+            plateStripes[i] = new PlateStripe();
+        }
+    }
+
+    /**
+     * Registers a ticket unless its vehicle is already parked
+     * The id goes in before the plate, so a plate lookup never finds an id
+     * that is not there yet; the id is taken out again if the plate is
+     * already parked
+     *
+     * @return false if another active ticket holds the same plate
+     */
+    public boolean register(Ticket ticket) {
+        String plate = ticket.getVehicle().getId();
+        Stripe stripe = stripeFor(ticket.getId());
+        stripe.put(ticket.getId(), ticket);
+        if (!plateStripeFor(plate).putIfAbsent(plate, ticket.getId())) {
+            stripe.remove(ticket.getId());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Removes an active ticket; exactly one concurrent caller wins
+     *
+     * @return The removed ticket, or null if it was not active
+     */
+    public Ticket remove(long ticketId) {
+        Ticket ticket = stripeFor(ticketId).remove(ticketId);
+        if (ticket != null) {
+            String plate = ticket.getVehicle().getId();
+            plateStripeFor(plate).remove(plate, ticketId);
+        }
+        return ticket;
+    }
+
+    public Ticket removeByPlate(String plate) {
+        long ticketId = plateStripeFor(plate).get(plate);
+        return ticketId != 0 ? remove(ticketId) : null;
+    }
+
+    public Ticket find(long ticketId) {
+        return stripeFor(ticketId).get(ticketId);
+    }
+
+    public Ticket findByPlate(String plate) {
+        long ticketId = plateStripeFor(plate).get(plate);
+        return ticketId != 0 ? find(ticketId) : null;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    private Stripe stripeFor(long ticketId) {
+        return stripes[(int) (LongIndexMap.mix(ticketId) >>> 58)];
+    }
+
+    private PlateStripe plateStripeFor(String plate) {
+        return plateStripes[mix(plate.hashCode()) >>> 26];
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Tickets by id: a LongIndexMap from id to a row of the tickets
+     * column. Freed rows are reused, so a steady day allocates nothing
+     */
+    private static final class Stripe {
+        private final LongIndexMap rowsById = new LongIndexMap();
+        private Ticket[] tickets = new Ticket[8];
+        private int rows;
+        private int[] freeRows = new int[8];
+        private int freeCount;
+
+        synchronized Ticket get(long key) {
+            int row = rowsById.get(key);
+            return row >= 0 ? tickets[row] : null;
+        }
+
+        synchronized void put(long key, Ticket value) {
+            if (key == 0) {
+                throw new IllegalArgumentException("Ticket id 0 is reserved");
+            }
+            int row = rowsById.get(key);
+            if (row < 0) {
+                row = freeCount > 0 ? freeRows[--freeCount] : newRow();
+                rowsById.put(key, row);
+            }
+            tickets[row] = value;
+        }
+
+        synchronized Ticket remove(long key) {
+            int row = rowsById.remove(key);
+            if (row < 0) {
+                return null;
+            }
+            Ticket removed = tickets[row];
+            tickets[row] = null;
+            freeRows[freeCount++] = row;
+            return removed;
+        }
+
+        synchronized int size() {
+            return rowsById.size();
+        }
+
+        private int newRow() {
+            if (rows == tickets.length) {
+                tickets = Arrays.copyOf(tickets, rows * 2);
+                freeRows = Arrays.copyOf(freeRows, rows * 2);
+            }
+            return rows++;
+        }
+    }
+
+    /**
+     * Linear-probing table of plates (null marks an empty cell) to ticket
+     * ids, with the same backward-shift deletion as LongIndexMap
+     */
+    private static final class PlateStripe {
+        private String[] plates = new String[16];
+        private long[] ticketIds = new long[16];
+        private int size;
+
+        /**
+         * @return The plate's ticket id, or 0 if it is not parked
+         */
+        synchronized long get(String plate) {
+            int mask = plates.length - 1;
+            for (int i = mix(plate.hashCode()) & mask; plates[i] != null; i = (i + 1) & mask) {
+                if (plates[i].equals(plate)) {
+                    return ticketIds[i];
+                }
+            }
+            return 0;
+        }
+
+        synchronized boolean putIfAbsent(String plate, long ticketId) {
+            if (get(plate) != 0) {
+                return false;
+            }
+            if ((size + 1) * 4 > plates.length * 3) {
+                resize(plates.length * 2);
+            }
+            insert(plate, ticketId);
+            return true;
+        }
+
+        /**
+         * Removes the plate only if it still maps to this ticket
+         */
+        synchronized void remove(String plate, long ticketId) {
+            int mask = plates.length - 1;
+            int i = mix(plate.hashCode()) & mask;
+            while (!plate.equals(plates[i])) {
+                if (plates[i] == null) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            if (ticketIds[i] != ticketId) {
+                return;
+            }
+            size--;
+            int hole = i;
+            for (int j = (hole + 1) & mask; plates[j] != null; j = (j + 1) & mask) {
+                int home = mix(plates[j].hashCode()) & mask;
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    plates[hole] = plates[j];
+                    ticketIds[hole] = ticketIds[j];
+                    hole = j;
+                }
+            }
+            plates[hole] = null;
+            ticketIds[hole] = 0;
+            if (plates.length > 16 && size * 8 < plates.length) {
+                resize(plates.length / 2);
+            }
+        }
+
+        private void insert(String plate, long ticketId) {
+            int mask = plates.length - 1;
+            int i = mix(plate.hashCode()) & mask;
+            while (plates[i] != null) {
+                i = (i + 1) & mask;
+            }
+            plates[i] = plate;
+            ticketIds[i] = ticketId;
+            size++;
+        }
+
+        private void resize(int capacity) {
+            String[] oldPlates = plates;
+            long[] oldTicketIds = ticketIds;
+            plates = new String[capacity];
+            ticketIds = new long[capacity];
+            size = 0;
+            for (int i = 0; i < oldPlates.length; i++) {
+                if (oldPlates[i] != null) {
+                    insert(oldPlates[i], oldTicketIds[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,331 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Arrivals at a full lot: times turning a vehicle away through the live
+ * free counts against asking the strategy to search every fitting size.
+ * Then checks the waitlists: released slots go to the longest-waiting
+ * vehicle they fit (a charging bay to a waiting EV first), waiters time
+ * out, a full waitlist turns arrivals away at once, a slot a cancelled
+ * reservation gives back goes to a waiting vehicle too, and under load
+ * with gates waiting and leaving concurrently no slot gets two holders
+ *
+ * java AdmissionBenchmark slots=100000 arrivals=2000000
+ */
+public class AdmissionBenchmark {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+
+    public static void main(String[] args) throws Exception {
+        int slotCount = 100_000;
+        int arrivals = 2_000_000;
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length == 2 && pair[0].equals("slots")) {
+                slotCount = Integer.parseInt(pair[1]);
+            } else if (pair.length == 2 && pair[0].equals("arrivals")) {
+                arrivals = Integer.parseInt(pair[1]);
+            } else {
+                System.out.println("Unknown argument: " + arg + ", expected slots=N or arrivals=N");
+                return;
+            }
+        }
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ParkingLot lot = new ParkingLot(new NearestParkingStrategy(),
+                new EventPipeline(new NullEventSink(), 1 << 10, EventPipeline.OverflowPolicy.DROP));
+        Floor floor = new Floor(1);
+        for (int i = 0; i < slotCount; i++) {
+            Slot slot = new BasicSlot(i + 1, SIZES[i % SIZES.length], 5.0, i);
+            floor.addSlot(i % 10 == 0 ? new ChargingDecorator(slot, 3.0) : slot);
+        }
+        lot.addFloor(floor);
+        SlotStore store = lot.getSlotStore();
+        for (VehicleSize size : SIZES) {
+            while (store.claimNearest(0, size, 0, 0) >= 0) {
+                // Fill the lot
+            }
+        }
+        System.setOut(console);
+
+        Vehicle[] arriving = new Vehicle[1024];
+        for (int i = 0; i < arriving.length; i++) {
+            arriving[i] = i % 5 == 0
+                    ? new Vehicle("A" + i, SIZES[i % SIZES.length], SlotFeature.CHARGING)
+                    : new Vehicle("A" + i, SIZES[i % SIZES.length]);
+        }
+        ParkingStrategy strategy = lot.getParkingStrategy();
+        System.out.println("=== ADMISSION AT A FULL LOT (" + String.format("%,d", slotCount) + " slots) ===");
+        long refusedByCounts = 0;
+        long refusedByStrategy = 0;
+        long countsNanos = 0;
+        long strategyNanos = 0;
+        for (int round = 0; round < 2; round++) {
+            long begin = System.nanoTime();
+            for (int n = 0; n < arrivals; n++) {
+                if (lot.allocateSlot(arriving[n & (arriving.length - 1)], 0) == null) {
+                    refusedByCounts++;
+                }
+            }
+            countsNanos = System.nanoTime() - begin;
+            begin = System.nanoTime();
+            for (int n = 0; n < arrivals; n++) {
+                if (strategy.chooseSlot(arriving[n & (arriving.length - 1)], 0, store) < 0) {
+                    refusedByStrategy++;
+                }
+            }
+            strategyNanos = System.nanoTime() - begin;
+        }
+        System.out.printf("Refusal: live free counts %,.1f ns, strategy search %,.1f ns%n",
+                (double) countsNanos / arrivals, (double) strategyNanos / arrivals);
+        boolean allRefused = refusedByCounts == 2L * arrivals && refusedByStrategy == 2L * arrivals;
+        System.out.println("Arrivals refused: " + (allRefused ? "all" : "not all") + " by both");
+        lot.getEvents().close();
+
+        boolean order = checkOrder();
+        boolean cancelled = checkCancelHandOff();
+        boolean load = checkLoad();
+        boolean passed = allRefused && order && cancelled && load;
+        System.out.println(passed
+                ? "PASSED: full lots refuse in O(1) and waitlists hand slots over in order without double holders"
+                : "FAILED: an arrival was admitted wrongly or a waitlist served out of order");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Four slots, one a charging bay; two gates with waitlists of two
+     */
+    private static boolean checkOrder() throws Exception {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ParkingLot lot = new ParkingLot(new NearestParkingStrategy(),
+                new EventPipeline(new NullEventSink(), 1 << 10, EventPipeline.OverflowPolicy.DROP));
+        Floor floor = new Floor(1);
+        for (int i = 1; i <= 3; i++) {
+            floor.addSlot(new BasicSlot(i, VehicleSize.MEDIUM, 5.0, i));
+        }
+        floor.addSlot(new ChargingDecorator(new BasicSlot(4, VehicleSize.MEDIUM, 5.0, 4), 3.0));
+        lot.addFloor(floor);
+        EntryGate north = new EntryGate(1);
+        EntryGate south = new EntryGate(2);
+        ExitGate exit = new ExitGate(1);
+        lot.addEntryGate(north);
+        lot.addEntryGate(south);
+        lot.addExitGate(exit);
+        Waitlist northList = lot.enableWaitlist(1, 2, Duration.ofMillis(400));
+        Waitlist southList = lot.enableWaitlist(2, 2, Duration.ofMillis(400));
+
+        Ticket[] parked = new Ticket[4];
+        for (int i = 0; i < parked.length; i++) {
+            parked[i] = north.generateTicket(lot, new Vehicle("P" + i, VehicleSize.MEDIUM));
+        }
+        ExecutorService pool = Executors.newCachedThreadPool();
+        Future<Ticket> first = pool.submit(() -> north.generateTicket(lot, new Vehicle("W1", VehicleSize.SMALL)));
+        awaitWaiting(northList, 1);
+        Future<Ticket> ev = pool.submit(() ->
+                south.generateTicket(lot, new Vehicle("W2-EV", VehicleSize.MEDIUM, SlotFeature.CHARGING)));
+        awaitWaiting(southList, 1);
+        Future<Ticket> third = pool.submit(() -> north.generateTicket(lot, new Vehicle("W3", VehicleSize.MEDIUM)));
+        awaitWaiting(northList, 2);
+        Future<Ticket> last = pool.submit(() -> south.generateTicket(lot, new Vehicle("W4", VehicleSize.LARGE)));
+        awaitWaiting(southList, 2);
+        Waitlist.Pressure pressure = northList.pressure();
+        long begin = System.nanoTime();
+        Ticket turnedAway = north.generateTicket(lot, new Vehicle("W5", VehicleSize.MEDIUM));
+        long turnedAwayMicros = (System.nanoTime() - begin) / 1_000;
+
+        // A plain slot, then the charging bay, then another plain slot
+        exit.generateBill(lot, parked[0]);
+        Ticket firstTicket = first.get();
+        exit.generateBill(lot, parked[3]);
+        Ticket evTicket = ev.get();
+        exit.generateBill(lot, parked[1]);
+        Ticket thirdTicket = third.get();
+        Ticket lastTicket = last.get();
+        pool.shutdown();
+        System.setOut(console);
+
+        System.out.println();
+        System.out.println("=== WAITLIST ORDER (4 slots, 2 gates, 2 waiting per gate) ===");
+        System.out.println("Gate 1 pressure with 2 waiting: " + pressure + ", W5 turned away in "
+                + turnedAwayMicros + " us: " + (turnedAway == null));
+        System.out.println("W1 got slot " + slotOf(firstTicket) + " (freed " + slotOf(parked[0]) + "), W2-EV got "
+                + slotOf(evTicket) + " (freed " + slotOf(parked[3]) + "), W3 got " + slotOf(thirdTicket) + " (freed "
+                + slotOf(parked[1]) + "), LARGE W4 timed out: " + (lastTicket == null));
+        System.out.println(northList);
+        System.out.println(southList);
+        return pressure == Waitlist.Pressure.FULL && turnedAway == null
+                && slotOf(firstTicket) == slotOf(parked[0])
+                && slotOf(evTicket) == 4 && slotOf(parked[3]) == 4
+                && slotOf(thirdTicket) == slotOf(parked[1])
+                && lastTicket == null && southList.getTimedOut() == 1 && northList.getTurnedAway() == 1
+                && lot.getActiveTicketCount() == 4 && lot.getSlotStore().freeSlots(VehicleSize.MEDIUM) == 0;
+    }
+
+    /**
+     * Two slots, one held for a reservation and one taken; the reservation
+     * is cancelled while a walk-in waits, who must get the slot at once
+     * rather than at the end of the wait
+     */
+    private static boolean checkCancelHandOff() throws Exception {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ParkingLot lot = new ParkingLot(new NearestParkingStrategy(),
+                new EventPipeline(new NullEventSink(), 1 << 10, EventPipeline.OverflowPolicy.DROP));
+        Floor floor = new Floor(1);
+        floor.addSlot(new BasicSlot(1, VehicleSize.MEDIUM, 5.0, 1));
+        floor.addSlot(new BasicSlot(2, VehicleSize.MEDIUM, 5.0, 2));
+        lot.addFloor(floor);
+        EntryGate gate = new EntryGate(1);
+        lot.addEntryGate(gate);
+        Waitlist waitlist = lot.enableWaitlist(1, 1, Duration.ofSeconds(5));
+
+        // Within the walk-in margin, so the next entry holds the slot
+        long now = TariffEngine.localSecond(lot.getClock().millis());
+        Reservation reservation = lot.getReservations().reserve(new Vehicle("R", VehicleSize.MEDIUM),
+                now + 600, now + 3600);
+        Ticket parked = gate.generateTicket(lot, new Vehicle("P", VehicleSize.MEDIUM));
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Future<Ticket> waiting = pool.submit(() -> gate.generateTicket(lot, new Vehicle("W", VehicleSize.MEDIUM)));
+        awaitWaiting(waitlist, 1);
+        long begin = System.nanoTime();
+        boolean cancelled = lot.getReservations().cancel(reservation.getId());
+        Ticket served = waiting.get();
+        long waitedMs = (System.nanoTime() - begin) / 1_000_000;
+        pool.shutdown();
+        lot.close();
+        System.setOut(console);
+
+        System.out.println();
+        System.out.println("=== CANCELLED RESERVATION (2 slots, 1 held, 1 waiting) ===");
+        System.out.println("W got slot " + slotOf(served) + " (held " + reservation.getSlotId() + ") "
+                + waitedMs + " ms after the cancel; wait timeout 5000 ms");
+        return parked != null && cancelled && served != null
+                && slotOf(served) == reservation.getSlotId() && waitedMs < 2_500;
+    }
+
+    /**
+     * Entry gates that wait and exit gates that release, all at once, on a
+     * lot too small for them
+     */
+    private static boolean checkLoad() throws Exception {
+        final int entryGates = 4;
+        final int exitGates = 2;
+        final int vehiclesPerGate = 2_000;
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ParkingLot lot = new ParkingLot(new NearestParkingStrategy(),
+                new EventPipeline(new NullEventSink(), 1 << 10, EventPipeline.OverflowPolicy.DROP));
+        Floor floor = new Floor(1);
+        for (int i = 1; i <= 24; i++) {
+            Slot slot = new BasicSlot(i, SIZES[i % SIZES.length], 5.0, i);
+            floor.addSlot(i % 6 == 0 ? new ChargingDecorator(slot, 3.0) : slot);
+        }
+        lot.addFloor(floor);
+        for (int g = 1; g <= entryGates; g++) {
+            lot.addEntryGate(new EntryGate(g));
+            lot.enableWaitlist(g, 8, Duration.ofMillis(50));
+        }
+
+        Map<Integer, Ticket> holders = new ConcurrentHashMap<>();
+        BlockingQueue<Ticket> leaving = new LinkedBlockingQueue<>();
+        AtomicInteger violations = new AtomicInteger();
+        AtomicLong issued = new AtomicLong();
+        AtomicLong refused = new AtomicLong();
+        CountDownLatch entriesDone = new CountDownLatch(entryGates);
+        ExecutorService pool = Executors.newFixedThreadPool(entryGates + exitGates);
+        for (EntryGate gate : lot.getEntryGates()) {
+            pool.submit(() -> {
+                try {
+                    for (int v = 0; v < vehiclesPerGate; v++) {
+                        String plate = "G" + gate.getId() + "-" + v;
+                        Vehicle vehicle = v % 7 == 0
+                                ? new Vehicle(plate, SIZES[v % SIZES.length], SlotFeature.CHARGING)
+                                : new Vehicle(plate, SIZES[v % SIZES.length]);
+                        Ticket ticket = gate.generateTicket(lot, vehicle);
+                        if (ticket == null) {
+                            refused.incrementAndGet();
+                            continue;
+                        }
+                        issued.incrementAndGet();
+                        Slot slot = ticket.getSlot();
+                        if (holders.putIfAbsent(slot.getId(), ticket) != null
+                                || slot.getSize().ordinal() < vehicle.getSize().ordinal()
+                                || (slot.getFeatureFlags() & vehicle.getRequestedFeatures()) != vehicle.getRequestedFeatures()) {
+                            violations.incrementAndGet();
+                        }
+                        leaving.add(ticket);
+                    }
+                } finally {
+                    entriesDone.countDown();
+                }
+            });
+        }
+        for (int g = 1; g <= exitGates; g++) {
+            ExitGate gate = new ExitGate(g);
+            Random random = new Random(g);
+            pool.submit(() -> {
+                while (true) {
+                    Ticket ticket = leaving.poll(10, TimeUnit.MILLISECONDS);
+                    if (ticket == null) {
+                        if (entriesDone.getCount() == 0 && leaving.isEmpty()) {
+                            return null;
+                        }
+                        continue;
+                    }
+                    if (random.nextInt(4) == 0) {
+                        Thread.yield();
+                    }
+                    holders.remove(ticket.getSlot().getId(), ticket);
+                    gate.generateBill(lot, ticket);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(5, TimeUnit.MINUTES);
+        System.setOut(console);
+
+        long served = 0;
+        long timedOut = 0;
+        long turnedAway = 0;
+        for (EntryGate gate : lot.getEntryGates()) {
+            Waitlist waitlist = lot.getWaitlist(gate.getId());
+            served += waitlist.getServed();
+            timedOut += waitlist.getTimedOut();
+            turnedAway += waitlist.getTurnedAway();
+        }
+        SlotStore store = lot.getSlotStore();
+        int free = 0;
+        for (VehicleSize size : SIZES) {
+            free += store.freeSlots(size);
+        }
+        long counted = store.occupancy().occupied(null, null, 0);
+        System.out.println();
+        System.out.println("=== WAITLISTS UNDER LOAD (24 slots, " + entryGates + " waiting entry gates, "
+                + exitGates + " exit gates) ===");
+        System.out.println("Tickets issued: " + issued.get() + ", refused: " + refused.get() + "; handed over from "
+                + "waitlists: " + served + ", timed out: " + timedOut + ", turned away: " + turnedAway);
+        System.out.println("Double holders or misfits: " + violations.get() + "; after the run free slots " + free
+                + "/24, counters " + counted + " occupied");
+        return violations.get() == 0 && served > 0 && free == 24 && counted == 0
+                && issued.get() + refused.get() == (long) entryGates * vehiclesPerGate;
+    }
+
+    private static void awaitWaiting(Waitlist waitlist, int count) throws InterruptedException {
+        while (waitlist.getWaiting() < count) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static int slotOf(Ticket ticket) {
+        return ticket != null ? ticket.getSlot().getId() : -1;
+    }
+}
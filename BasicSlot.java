@@ -1,19 +1,45 @@
+import java.util.Arrays;
+
 /**
  * Basic implementation of a parking slot without any extra features
  */
 public class BasicSlot implements Slot {
     private final int id;
     private final VehicleSize size;
-    private boolean occupied;
+    // Mirror of the slot store's occupancy bit, which is what gates claim
+    private volatile boolean occupied;
     private final double baseRate;
-    private final int distanceToGate;
+    // Distance per gate, indexed by gate id; null when read from a graph
+    private final int[] distanceToGate;
+    private final FloorGraph graph;
 
-    public BasicSlot(int id, VehicleSize size, double baseRate, int distanceToGate) {
+    /**
+     * @param distanceToGate Distance to each gate indexed by gate id; gates
+     *                       without an entry use the gate 0 distance
+     */
+    public BasicSlot(int id, VehicleSize size, double baseRate, int... distanceToGate) {
+        if (distanceToGate.length == 0) {
+            throw new IllegalArgumentException("Slot " + id + " needs at least one gate distance");
+        }
         this.id = id;
         this.size = size;
         this.baseRate = baseRate;
-        this.distanceToGate = distanceToGate;
-        this.occupied = false;
+        this.distanceToGate = distanceToGate.clone();
+        this.graph = null;
+    }
+
+    /**
+     * Slot whose gate distances are read from the graph's distance matrix,
+     * so they follow the graph's updates
+     *
+     * @param graph Graph the slot is attached to under the same id
+     */
+    public BasicSlot(int id, VehicleSize size, double baseRate, FloorGraph graph) {
+        this.id = id;
+        this.size = size;
+        this.baseRate = baseRate;
+        this.distanceToGate = null;
+        this.graph = graph;
     }
 
     @Override
@@ -58,13 +84,19 @@ public class BasicSlot implements Slot {
 
     @Override
     public int getDistanceToGate(int gateId) {
-        return distanceToGate;
+        if (graph != null) {
+            return graph.distance(gateId, id);
+        }
+        if (gateId >= 0 && gateId < distanceToGate.length) {
+            return distanceToGate[gateId];
+        }
+        return distanceToGate[0];
     }
 
     @Override
     public int compareTo(Slot other) {
-        // Compare by distance first, then by id for consistency
-        int distanceComparison = Integer.compare(this.distanceToGate, other.getDistanceToGate(0));
+        // Natural order is by gate 0 distance, then by id for consistency
+        int distanceComparison = Integer.compare(getDistanceToGate(0), other.getDistanceToGate(0));
         if (distanceComparison == 0) {
             return Integer.compare(this.id, other.getId());
         }
@@ -74,6 +106,6 @@ public class BasicSlot implements Slot {
     @Override
     public String toString() {
         return "BasicSlot{id=" + id + ", size=" + size + ", occupied=" + occupied +
-                ", baseRate=" + baseRate + ", distance=" + distanceToGate + "}";
+                ", baseRate=" + baseRate + ", distance=" + (graph != null ? "graph" : Arrays.toString(distanceToGate)) + "}";
     }
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+/**
+ * Best-fit parking strategy - allocates the tightest slot for the vehicle
+ * The smallest fitting size comes first, then the slot with the fewest
+ * features the vehicle did not ask for, so larger and better equipped
+ * slots stay free for vehicles that need them; distance breaks ties
+ */
+public class BestFitParkingStrategy implements ParkingStrategy {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+    private static final int ALL_FEATURES = (1 << SlotFeature.values().length) - 1;
+
+    @Override
+    public int chooseSlot(Vehicle vehicle, int gateId, SlotIndexView slots) {
+        int required = vehicle.getRequestedFeatures();
+        int optional = ALL_FEATURES & ~required;
+        // Second pass only looks at the reserved bays skipped by the first
+        for (int pass = 0; pass < ((optional & RESERVED_FEATURES) != 0 ? 2 : 1); pass++) {
+            for (int size = vehicle.getSize().ordinal(); size < SIZES.length; size++) {
+                for (int extras = 0; extras <= Integer.bitCount(optional); extras++) {
+                    int best = -1;
+                    // Every feature mask with exactly this many unrequested features
+                    for (int extra = optional; ; extra = (extra - 1) & optional) {
+                        boolean reserved = (extra & RESERVED_FEATURES) != 0;
+                        if (Integer.bitCount(extra) == extras && reserved == (pass == 1)) {
+                            int mask = required | extra;
+                            int index = slots.nearest(gateId, SIZES[size], mask, ALL_FEATURES & ~mask);
+                            if (index >= 0 && (best < 0 || slots.rank(gateId, index) < slots.rank(gateId, best))) {
+                                best = index;
+                            }
+                        }
+                        if (extra == 0) {
+                            break;
+                        }
+                    }
+                    if (best >= 0) {
+                        return best;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String getStrategyName() {
+        return "Best Fit Parking Strategy";
+    }
+}
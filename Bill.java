@@ -1,34 +1,79 @@
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 
 /**
  * Represents a parking bill generated when a vehicle exits the parking lot
  */
 public class Bill {
     private final Ticket ticket;
-    private final LocalDateTime exitTime;
-    private final double totalAmount;
+    private final long exitEpochMillis;
+    // Built on first use when the bill was made from epoch millis
+    private LocalDateTime exitTime;
+    // Money is kept in cents so charges add up without rounding drift
+    private final long baseCents;
+    private final long extraCents;
 
-    public Bill(Ticket ticket, LocalDateTime exitTime, double totalAmount) {
-        this.ticket = ticket;
+    /**
+     * @param baseCents  Charge for the slot itself
+     * @param extraCents Charge for slot features (charging, cleaning)
+     */
+    public Bill(Ticket ticket, LocalDateTime exitTime, long baseCents, long extraCents) {
+        this(ticket, exitTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(), baseCents, extraCents);
         this.exitTime = exitTime;
-        this.totalAmount = totalAmount;
+    }
+
+    /**
+     * @param exitEpochMillis Exit time as read from the lot's ParkingClock
+     */
+    public Bill(Ticket ticket, long exitEpochMillis, long baseCents, long extraCents) {
+        this.ticket = ticket;
+        this.exitEpochMillis = exitEpochMillis;
+        this.baseCents = baseCents;
+        this.extraCents = extraCents;
+    }
+
+    /**
+     * Bill for a total computed elsewhere, without a base/extra breakdown
+     */
+    public Bill(Ticket ticket, LocalDateTime exitTime, double totalAmount) {
+        this(ticket, exitTime, Math.round(totalAmount * 100), 0);
     }
 
     public Ticket getTicket() {
         return ticket;
     }
 
+    public long getExitEpochMillis() {
+        return exitEpochMillis;
+    }
+
     public LocalDateTime getExitTime() {
+        if (exitTime == null) {
+            exitTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(exitEpochMillis), ZoneId.systemDefault());
+        }
         return exitTime;
     }
 
+    public long getBaseCents() {
+        return baseCents;
+    }
+
+    public long getExtraCents() {
+        return extraCents;
+    }
+
+    public long getTotalCents() {
+        return baseCents + extraCents;
+    }
+
     public double getTotalAmount() {
-        return totalAmount;
+        return getTotalCents() / 100.0;
     }
 
     @Override
     public String toString() {
-        return "Bill{ticket=" + ticket.getId() + ", exitTime=" + exitTime +
-                ", totalAmount=" + totalAmount + "}";
+        return "Bill{ticket=" + ticket.getId() + ", exitTime=" + getExitTime() +
+                ", totalAmount=" + getTotalAmount() + "}";
     }
 }
\ No newline at end of file
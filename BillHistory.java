@@ -0,0 +1,416 @@
+import java.io.PrintStream;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/**
+ * Append-only, columnar history of completed bills for reconciliation and
+ * end-of-day reporting
+ * Rows live in fixed-size chunks of primitive columns (about 32 bytes per
+ * bill), so appending never copies old rows and reports can aggregate the
+ * chunks in parallel on the common fork/join pool. Exit gates append to
+ * one of several stripes picked by thread, each with its own lock and its
+ * own chunks, so gates do not serialize on one monitor; a report takes each
+ * stripe's lock once to see its chunks. Times are local-calendar seconds
+ * (see TariffEngine.localSecond), kept between 1952 and 2088 and clamped
+ * to that range; amounts are kept in full
+ */
+public class BillHistory {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+    private static final SlotFeature[] FEATURES = SlotFeature.values();
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_ROWS = 1 << CHUNK_BITS;
+    // Entry times are stored as int seconds from 2020-01-01T00:00
+    private static final long BASE_SECOND = TariffEngine.localSecond(LocalDateTime.of(2020, 1, 1, 0, 0));
+
+    private final SlotStore store;
+    private final Stripe[] stripes;
+    // Floor number to column, copied on write; new floors are rare
+    private volatile SlotStore.IntIndexMap floorColumns = new SlotStore.IntIndexMap();
+    private volatile int[] floorNumbers = new int[0];
+
+    /**
+     * @param store Slot store the billed slots belong to
+     */
+    public BillHistory(SlotStore store) {
+        this.store = store;
+        // A power of two at least twice the processor count
+        int count = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    private static final class Chunk {
+        private final long[] ticketIds = new long[CHUNK_ROWS];
+        private final int[] slotIds = new int[CHUNK_ROWS];
+        private final short[] floorColumns = new short[CHUNK_ROWS];
+        private final byte[] sizes = new byte[CHUNK_ROWS];
+        private final byte[] features = new byte[CHUNK_ROWS];
+        private final int[] entrySeconds = new int[CHUNK_ROWS];
+        private final int[] dwellSeconds = new int[CHUNK_ROWS];
+        private final long[] amountCents = new long[CHUNK_ROWS];
+    }
+
+    /**
+     * One appender's share of the history: chunks filled in order, the last
+     * one partly. Guarded by the stripe; rows below the fill are never
+     * written again, so a reader keeps what it saw under the lock
+     */
+    private static final class Stripe {
+        private Chunk[] chunks = new Chunk[4];
+        private int chunkCount;
+        // Rows used in chunks[chunkCount - 1]
+        private int lastRows = CHUNK_ROWS;
+        private long size;
+    }
+
+    public void add(Bill bill) {
+        Stripe stripe = stripe();
+        synchronized (stripe) {
+            append(stripe, bill);
+        }
+    }
+
+    /**
+     * Appends a batch of bills under one stripe lock; null entries are skipped
+     */
+    public void add(Bill[] bills) {
+        Stripe stripe = stripe();
+        synchronized (stripe) {
+            for (Bill bill : bills) {
+                if (bill != null) {
+                    append(stripe, bill);
+                }
+            }
+        }
+    }
+
+    private void append(Stripe stripe, Bill bill) {
+        Ticket ticket = bill.getTicket();
+        int index = store.indexOf(ticket.getSlot());
+        if (index < 0) {
+            throw new IllegalArgumentException("Slot " + ticket.getSlot().getId() + " is not in this lot");
+        }
+        append(stripe, ticket.getId(), store.id(index), store.floorNumber(index), store.size(index),
+                store.featureFlags(index), TariffEngine.localSecond(ticket.getEntryEpochMillis()),
+                TariffEngine.localSecond(bill.getExitEpochMillis()), bill.getTotalCents());
+    }
+
+    /**
+     * Appends one completed stay from its raw fields (imports, replays)
+     */
+    public void append(long ticketId, int slotId, int floorNumber, VehicleSize slotSize, int featureFlags,
+                       long entrySecond, long exitSecond, long amountCents) {
+        Stripe stripe = stripe();
+        synchronized (stripe) {
+            append(stripe, ticketId, slotId, floorNumber, slotSize, featureFlags, entrySecond, exitSecond,
+                    amountCents);
+        }
+    }
+
+    private void append(Stripe stripe, long ticketId, int slotId, int floorNumber, VehicleSize slotSize,
+                        int featureFlags, long entrySecond, long exitSecond, long amountCents) {
+        if (stripe.lastRows == CHUNK_ROWS) {
+            if (stripe.chunkCount == stripe.chunks.length) {
+                stripe.chunks = Arrays.copyOf(stripe.chunks, stripe.chunkCount * 2);
+            }
+            stripe.chunks[stripe.chunkCount++] = new Chunk();
+            stripe.lastRows = 0;
+        }
+        Chunk chunk = stripe.chunks[stripe.chunkCount - 1];
+        int at = stripe.lastRows;
+        long entry = clamp(entrySecond - BASE_SECOND, Integer.MIN_VALUE);
+        chunk.ticketIds[at] = ticketId;
+        chunk.slotIds[at] = slotId;
+        chunk.floorColumns[at] = (short) floorColumn(floorNumber);
+        chunk.sizes[at] = (byte) slotSize.ordinal();
+        chunk.features[at] = (byte) featureFlags;
+        chunk.entrySeconds[at] = (int) entry;
+        // Measured from the stored entry, so a clamped entry keeps its exit
+        chunk.dwellSeconds[at] = (int) clamp(exitSecond - BASE_SECOND - entry, 0);
+        chunk.amountCents[at] = amountCents;
+        stripe.lastRows = at + 1;
+        stripe.size++;
+    }
+
+    private static long clamp(long value, long min) {
+        return Math.max(min, Math.min(Integer.MAX_VALUE, value));
+    }
+
+    private Stripe stripe() {
+        int h = (int) Thread.currentThread().getId() * 0x9E3779B9;
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    private int floorColumn(int floorNumber) {
+        int column = floorColumns.get(floorNumber);
+        return column >= 0 ? column : addFloor(floorNumber);
+    }
+
+    private synchronized int addFloor(int floorNumber) {
+        int column = floorColumns.get(floorNumber);
+        if (column < 0) {
+            column = floorNumbers.length;
+            SlotStore.IntIndexMap columns = floorColumns.copy();
+            columns.put(floorNumber, column);
+            int[] numbers = Arrays.copyOf(floorNumbers, column + 1);
+            numbers[column] = floorNumber;
+            floorNumbers = numbers;
+            floorColumns = columns;
+        }
+        return column;
+    }
+
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Aggregates every recorded bill, in parallel
+     */
+    public Report report() {
+        return report(Long.MIN_VALUE, Long.MAX_VALUE, true);
+    }
+
+    /**
+     * Aggregates bills whose exit falls in [fromSecond, toSecond), e.g. one
+     * shift or day, in parallel
+     */
+    public Report report(long fromSecond, long toSecond) {
+        return report(fromSecond, toSecond, true);
+    }
+
+    /**
+     * @param parallel Split the chunks across the common fork/join pool
+     */
+    public Report report(long fromSecond, long toSecond, boolean parallel) {
+        // Every stripe's chunks and how many rows of each are filled
+        Chunk[] rows = new Chunk[0];
+        int[] rowCounts = new int[0];
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                if (count + stripe.chunkCount > rows.length) {
+                    rows = Arrays.copyOf(rows, count + stripe.chunkCount);
+                    rowCounts = Arrays.copyOf(rowCounts, rows.length);
+                }
+                for (int c = 0; c < stripe.chunkCount; c++) {
+                    rows[count] = stripe.chunks[c];
+                    rowCounts[count++] = c == stripe.chunkCount - 1 ? stripe.lastRows : CHUNK_ROWS;
+                }
+            }
+        }
+        // Read after the rows, so it names every floor they refer to
+        int[] floors = floorNumbers;
+        // Relative to BASE_SECOND, clamped to what the int columns can hold
+        long from = Math.max(fromSecond, BASE_SECOND + Integer.MIN_VALUE) - BASE_SECOND;
+        long to = Math.min(toSecond, BASE_SECOND + 2L * Integer.MAX_VALUE) - BASE_SECOND;
+        Chunk[] chunks = rows;
+        int[] filled = rowCounts;
+        IntStream chunkIndexes = IntStream.range(0, count);
+        if (parallel) {
+            chunkIndexes = chunkIndexes.parallel();
+        }
+        Totals totals = chunkIndexes.collect(() -> new Totals(floors.length),
+                (partial, c) -> partial.add(chunks[c], filled[c], from, to),
+                Totals::merge);
+
+        OccupancyCounters.Snapshot occupancy = store.occupancy();
+        long[] capacity = new long[SIZES.length];
+        for (VehicleSize size : SIZES) {
+            capacity[size.ordinal()] = occupancy.capacity(size);
+        }
+        // An open-ended window spans the exits actually found
+        long windowFrom = fromSecond;
+        long windowTo = toSecond;
+        if (fromSecond == Long.MIN_VALUE || toSecond == Long.MAX_VALUE) {
+            windowFrom = totals.bills == 0 ? 0 : BASE_SECOND + totals.firstExit;
+            windowTo = totals.bills == 0 ? 0 : BASE_SECOND + totals.lastExit + 1;
+        }
+        return new Report(totals, floors, capacity, windowFrom, windowTo);
+    }
+
+    /**
+     * Running sums for one fork/join task; merged pairwise
+     */
+    private static final class Totals {
+        private long bills;
+        private long revenue;
+        private long dwellSeconds;
+        private long firstExit = Long.MAX_VALUE;
+        private long lastExit = Long.MIN_VALUE;
+        private final long[] floorRevenue;
+        private final long[] sizeRevenue = new long[SIZES.length];
+        private final long[] sizeBills = new long[SIZES.length];
+        // Indexed by feature mask
+        private final long[] maskRevenue = new long[1 << FEATURES.length];
+        private final long[] hourRevenue = new long[24];
+
+        private Totals(int floors) {
+            this.floorRevenue = new long[floors];
+        }
+
+        private void add(Chunk chunk, int rows, long from, long to) {
+            for (int at = 0; at < rows; at++) {
+                long exit = (long) chunk.entrySeconds[at] + chunk.dwellSeconds[at];
+                if (exit < from || exit >= to) {
+                    continue;
+                }
+                long amount = chunk.amountCents[at];
+                bills++;
+                revenue += amount;
+                dwellSeconds += chunk.dwellSeconds[at];
+                firstExit = Math.min(firstExit, exit);
+                lastExit = Math.max(lastExit, exit);
+                floorRevenue[chunk.floorColumns[at]] += amount;
+                sizeRevenue[chunk.sizes[at]] += amount;
+                sizeBills[chunk.sizes[at]]++;
+                maskRevenue[chunk.features[at]] += amount;
+                // BASE_SECOND is midnight, so this is the exit's hour of day
+                hourRevenue[(int) Math.floorMod(exit, 24 * 3600L) / 3600] += amount;
+            }
+        }
+
+        private void merge(Totals other) {
+            bills += other.bills;
+            revenue += other.revenue;
+            dwellSeconds += other.dwellSeconds;
+            firstExit = Math.min(firstExit, other.firstExit);
+            lastExit = Math.max(lastExit, other.lastExit);
+            addAll(floorRevenue, other.floorRevenue);
+            addAll(sizeRevenue, other.sizeRevenue);
+            addAll(sizeBills, other.sizeBills);
+            addAll(maskRevenue, other.maskRevenue);
+            addAll(hourRevenue, other.hourRevenue);
+        }
+
+        private static void addAll(long[] into, long[] values) {
+            for (int i = 0; i < into.length; i++) {
+                into[i] += values[i];
+            }
+        }
+    }
+
+    /**
+     * Revenue, dwell time and turnover over a window of exits
+     * Amounts are in cents
+     */
+    public static final class Report {
+        private final Totals totals;
+        private final int[] floorNumbers;
+        private final long[] capacity;
+        private final long fromSecond;
+        private final long toSecond;
+
+        private Report(Totals totals, int[] floorNumbers, long[] capacity, long fromSecond, long toSecond) {
+            this.totals = totals;
+            this.floorNumbers = floorNumbers;
+            this.capacity = capacity;
+            this.fromSecond = fromSecond;
+            this.toSecond = toSecond;
+        }
+
+        public long getBills() {
+            return totals.bills;
+        }
+
+        public long getRevenueCents() {
+            return totals.revenue;
+        }
+
+        public SortedMap<Integer, Long> getRevenueByFloor() {
+            SortedMap<Integer, Long> revenue = new TreeMap<>();
+            for (int column = 0; column < floorNumbers.length; column++) {
+                revenue.put(floorNumbers[column], totals.floorRevenue[column]);
+            }
+            return revenue;
+        }
+
+        public long getRevenue(VehicleSize size) {
+            return totals.sizeRevenue[size.ordinal()];
+        }
+
+        /**
+         * Revenue from slots that have the feature (a slot with several
+         * features counts towards each)
+         */
+        public long getRevenue(SlotFeature feature) {
+            long revenue = 0;
+            for (int mask = 0; mask < totals.maskRevenue.length; mask++) {
+                if ((mask & feature.flag()) != 0) {
+                    revenue += totals.maskRevenue[mask];
+                }
+            }
+            return revenue;
+        }
+
+        /**
+         * Revenue from slots without any feature
+         */
+        public long getBasicRevenue() {
+            return totals.maskRevenue[0];
+        }
+
+        /**
+         * @return Revenue by hour of day of the exit, midnight first
+         */
+        public long[] getRevenueByHour() {
+            return totals.hourRevenue.clone();
+        }
+
+        public double getAverageDwellMinutes() {
+            return totals.bills == 0 ? 0 : totals.dwellSeconds / 60.0 / totals.bills;
+        }
+
+        /**
+         * Completed stays per slot per day, over slots of one size
+         */
+        public double getTurnover(VehicleSize size) {
+            return turnover(totals.sizeBills[size.ordinal()], capacity[size.ordinal()]);
+        }
+
+        public double getTurnover() {
+            long slots = 0;
+            for (long c : capacity) {
+                slots += c;
+            }
+            return turnover(totals.bills, slots);
+        }
+
+        private double turnover(long bills, long slots) {
+            double days = Math.max(1, toSecond - fromSecond) / 86_400.0;
+            return slots == 0 ? 0 : bills / (double) slots / days;
+        }
+
+        public void print(PrintStream out) {
+            out.printf("Bills: %d, revenue: $%.2f, average dwell: %.1f min, turnover: %.2f stays/slot/day over %.1f days%n",
+                    getBills(), getRevenueCents() / 100.0, getAverageDwellMinutes(), getTurnover(),
+                    Math.max(1, toSecond - fromSecond) / 86_400.0);
+            out.println("Revenue by floor:");
+            getRevenueByFloor().forEach((floor, cents) -> out.printf("  Floor %-4d $%,14.2f%n", floor, cents / 100.0));
+            out.println("Revenue by size:");
+            for (VehicleSize size : SIZES) {
+                out.printf("  %-9s $%,14.2f  turnover %.2f%n", size, getRevenue(size) / 100.0, getTurnover(size));
+            }
+            out.println("Revenue by feature:");
+            out.printf("  %-9s $%,14.2f%n", "Basic", getBasicRevenue() / 100.0);
+            for (SlotFeature feature : FEATURES) {
+                out.printf("  %-9s $%,14.2f%n", feature.getLabel(), getRevenue(feature) / 100.0);
+            }
+            out.println("Revenue by exit hour:");
+            for (int hour = 0; hour < 24; hour++) {
+                out.printf("  %02d:00 $%,14.2f%n", hour, totals.hourRevenue[hour] / 100.0);
+            }
+        }
+    }
+}
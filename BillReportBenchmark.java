@@ -0,0 +1,161 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fills a bill history with a month of synthetic stays and times the
+ * end-of-day reports over it, sequentially and on the fork/join pool
+ * The parallel and sequential reports must agree to the cent with the
+ * revenue summed while generating the bills. A second history is then
+ * filled by several threads at once, with rows whose amount and times do
+ * not fit an int, and must report every bill and every cent
+ *
+ * java -Xmx2g BillReportBenchmark bills=20000000 slots=20000 days=30
+ */
+public class BillReportBenchmark {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+    private static final int FLOORS = 8;
+
+    public static void main(String[] args) throws Exception {
+        long billCount = 20_000_000;
+        int slotCount = 20_000;
+        int days = 30;
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length == 2 && pair[0].equals("bills")) {
+                billCount = Long.parseLong(pair[1]);
+            } else if (pair.length == 2 && pair[0].equals("slots")) {
+                slotCount = Integer.parseInt(pair[1]);
+            } else if (pair.length == 2 && pair[0].equals("days")) {
+                days = Integer.parseInt(pair[1]);
+            } else {
+                System.out.println("Unknown argument: " + arg + ", expected bills=N, slots=N or days=N");
+                return;
+            }
+        }
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ParkingLot lot = new ParkingLot(new NearestParkingStrategy(),
+                new EventPipeline(new NullEventSink(), 1 << 10, EventPipeline.OverflowPolicy.DROP));
+        int perFloor = (slotCount + FLOORS - 1) / FLOORS;
+        for (int f = 0; f < FLOORS; f++) {
+            Floor floor = new Floor(f + 1);
+            for (int i = 0; i < perFloor && f * perFloor + i < slotCount; i++) {
+                Slot slot = new BasicSlot(f * perFloor + i + 1, SIZES[i % SIZES.length], 4.0 + i % 3 * 2, i);
+                if (i % 7 == 0) {
+                    slot = new ChargingDecorator(slot, 3.0);
+                }
+                if (i % 11 == 0) {
+                    slot = new CleaningDecorator(slot, 10.0);
+                }
+                floor.addSlot(slot);
+            }
+            lot.addFloor(floor);
+        }
+        System.setOut(console);
+
+        SlotStore store = lot.getSlotStore();
+        BillHistory history = lot.getBillHistory();
+        Random random = new Random(7);
+        long monthStart = TariffEngine.localSecond(LocalDateTime.of(2024, 5, 1, 0, 0));
+        long expectedRevenue = 0;
+        long fillStart = System.nanoTime();
+        for (long n = 0; n < billCount; n++) {
+            int index = random.nextInt(store.count());
+            // Exits cluster around the evening rush; dwell 10 minutes to 10 hours
+            int day = random.nextInt(days);
+            int hour = Math.floorMod((int) Math.round(17 + random.nextGaussian() * 4), 24);
+            long exit = monthStart + day * 86_400L + hour * 3_600L + random.nextInt(3_600);
+            long dwell = 600 + random.nextInt(10 * 3_600);
+            long hours = Math.max(1, dwell / 3_600);
+            long amount = (store.baseCents(index) + store.extraHourlyCents(index)) * hours + store.extraFlatCents(index);
+            expectedRevenue += amount;
+            history.append(n, store.id(index), store.floorNumber(index), store.size(index),
+                    store.featureFlags(index), exit - dwell, exit, amount);
+        }
+        long fillMs = (System.nanoTime() - fillStart) / 1_000_000;
+
+        System.out.println("=== BILL HISTORY REPORT BENCHMARK ===");
+        System.out.println("Bills: " + history.size() + " over " + days + " days, " + store.count()
+                + " slots, appended in " + fillMs + " ms");
+        System.out.println("Fork/join parallelism: " + java.util.concurrent.ForkJoinPool.commonPool().getParallelism());
+
+        BillHistory.Report sequential = null;
+        BillHistory.Report parallel = null;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            sequential = history.report(Long.MIN_VALUE, Long.MAX_VALUE, false);
+            long sequentialMs = (System.nanoTime() - start) / 1_000_000;
+            start = System.nanoTime();
+            parallel = history.report();
+            long parallelMs = (System.nanoTime() - start) / 1_000_000;
+            start = System.nanoTime();
+            BillHistory.Report oneDay = history.report(monthStart + 86_400L * (days / 2), monthStart + 86_400L * (days / 2 + 1));
+            long dayMs = (System.nanoTime() - start) / 1_000_000;
+            System.out.printf("Round %d: month sequential %d ms, month parallel %d ms, one day (%d bills) %d ms%n",
+                    round + 1, sequentialMs, parallelMs, oneDay.getBills(), dayMs);
+        }
+
+        boolean concurrent = checkConcurrentAppends(store);
+        boolean agree = concurrent && sequential.getRevenueCents() == expectedRevenue
+                && parallel.getRevenueCents() == expectedRevenue
+                && parallel.getBills() == billCount
+                && sequential.getRevenueByFloor().equals(parallel.getRevenueByFloor())
+                && java.util.Arrays.equals(sequential.getRevenueByHour(), parallel.getRevenueByHour());
+        System.out.println();
+        parallel.print(System.out);
+        System.out.println(agree
+                ? "PASSED: parallel and sequential reports match the generated revenue"
+                : "FAILED: reports disagree with the generated revenue");
+        lot.getEvents().close();
+        if (!agree) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Four threads append at once, as four exit gates would; one row has
+     * an amount and a dwell beyond int range and an entry before 1952
+     */
+    private static boolean checkConcurrentAppends(SlotStore store) throws InterruptedException {
+        BillHistory history = new BillHistory(store);
+        int threads = 4;
+        int perThread = 500_000;
+        AtomicLong revenue = new AtomicLong();
+        Thread[] appenders = new Thread[threads];
+        long begin = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int first = t * perThread;
+            appenders[t] = new Thread(() -> {
+                long sum = 0;
+                for (int n = first; n < first + perThread; n++) {
+                    int index = n % store.count();
+                    long exit = 1_700_000_000L + n;
+                    history.append(n, store.id(index), store.floorNumber(index), store.size(index),
+                            store.featureFlags(index), exit - 3_600, exit, 100 + n % 900);
+                    sum += 100 + n % 900;
+                }
+                revenue.addAndGet(sum);
+            });
+            appenders[t].start();
+        }
+        for (Thread appender : appenders) {
+            appender.join();
+        }
+        long appendMs = (System.nanoTime() - begin) / 1_000_000;
+        long huge = 5_000_000_000L;
+        history.append(-1, store.id(0), store.floorNumber(0), store.size(0), store.featureFlags(0),
+                TariffEngine.localSecond(LocalDateTime.of(1900, 1, 1, 0, 0)), 1_700_000_000L, huge);
+        BillHistory.Report report = history.report();
+        boolean passed = history.size() == (long) threads * perThread + 1
+                && report.getBills() == history.size()
+                && report.getRevenueCents() == revenue.get() + huge;
+        System.out.println("Concurrent appends: " + threads + " threads x " + perThread + " bills in " + appendMs
+                + " ms, " + (passed ? "all counted" : "MISCOUNTED") + "; oversized row "
+                + (passed ? "kept" : "LOST"));
+        return passed;
+    }
+}
@@ -14,6 +14,11 @@ public class ChargingDecorator extends SlotDecorator {
         return slot.getExtraCharges(hours) + chargingRatePerHour * hours;
     }
 
+    @Override
+    public int getFeatureFlags() {
+        return slot.getFeatureFlags() | SlotFeature.CHARGING.flag();
+    }
+
     @Override
     public String getFeatures() {
         String baseFeatures = slot.getFeatures();
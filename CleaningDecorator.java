@@ -14,6 +14,11 @@ public class CleaningDecorator extends SlotDecorator {
         return slot.getExtraCharges(hours) + cleaningCharge;
     }
 
+    @Override
+    public int getFeatureFlags() {
+        return slot.getFeatureFlags() | SlotFeature.CLEANING.flag();
+    }
+
     @Override
     public String getFeatures() {
         String baseFeatures = slot.getFeatures();
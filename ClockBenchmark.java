@@ -0,0 +1,245 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Cost of a clock reading (LocalDateTime.now against the precise and the
+ * coarse ParkingClock) and of a gate round trip under each clock. Then
+ * drives a lot by a SimulatedClock and checks every bill against the stay
+ * lengths it was given, on both the object and the compact ticket paths
+ *
+ * java ClockBenchmark readings=10000000 cycles=200000
+ */
+public class ClockBenchmark {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    // Keeps the JIT from dropping the readings
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        int readings = 10_000_000;
+        int cycles = 200_000;
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length == 2 && pair[0].equals("readings")) {
+                readings = Integer.parseInt(pair[1]);
+            } else if (pair.length == 2 && pair[0].equals("cycles")) {
+                cycles = Integer.parseInt(pair[1]);
+            } else {
+                System.out.println("Unknown argument: " + arg + ", expected readings=N or cycles=N");
+                return;
+            }
+        }
+
+        System.out.println("=== CLOCK READINGS ===");
+        System.out.printf("%-16s %10s %10s%n", "Clock", "ns/read", "bytes/read");
+        PreciseClock precise = new PreciseClock();
+        CoarseClock coarse = new CoarseClock();
+        long[] dateTime = new long[2];
+        long[] preciseRead = new long[2];
+        long[] coarseRead = new long[2];
+        for (int round = 0; round < 3; round++) {
+            dateTime = readDateTime(readings);
+            preciseRead = read(precise, readings);
+            coarseRead = read(coarse, readings);
+        }
+        print("LocalDateTime", dateTime, readings);
+        print("PreciseClock", preciseRead, readings);
+        print("CoarseClock", coarseRead, readings);
+        boolean free = preciseRead[1] == 0 && coarseRead[1] == 0;
+        long lag = Math.abs(System.currentTimeMillis() - coarse.millis());
+        boolean fresh = lag < 100;
+        System.out.println("ParkingClock readings " + (free ? "allocate nothing" : "ALLOCATE")
+                + ", coarse clock is " + lag + " ms behind");
+
+        System.out.println();
+        System.out.println("=== GATE ROUND TRIP ===");
+        System.out.printf("%-16s %10s %10s%n", "Clock", "ns/cycle", "bytes/cycle");
+        long[] preciseTrip = new long[2];
+        long[] coarseTrip = new long[2];
+        ParkingLot lot = buildLot(10_000, false);
+        for (int round = 0; round < 3; round++) {
+            lot.setClock(precise);
+            preciseTrip = roundTrips(lot, cycles);
+            lot.setClock(coarse);
+            coarseTrip = roundTrips(lot, cycles);
+        }
+        print("PreciseClock", preciseTrip, cycles);
+        print("CoarseClock", coarseTrip, cycles);
+        lot.getEvents().close();
+        coarse.close();
+
+        boolean billed = checkSimulated(false) & checkSimulated(true);
+        boolean monotonic = checkMonotonic();
+        boolean passed = free && fresh && billed && monotonic;
+        System.out.println(passed
+                ? "PASSED: clock readings are allocation-free and simulated stays are billed exactly"
+                : "FAILED: a clock reading allocated or a simulated stay was billed wrongly");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static long[] readDateTime(int readings) {
+        long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long begin = System.nanoTime();
+        long sum = 0;
+        for (int n = 0; n < readings; n++) {
+            sum += LocalDateTime.now().getNano();
+        }
+        long nanos = System.nanoTime() - begin;
+        long bytes = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        sink += sum;
+        return new long[] {nanos, bytes};
+    }
+
+    private static long[] read(ParkingClock clock, int readings) {
+        long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long begin = System.nanoTime();
+        long sum = 0;
+        for (int n = 0; n < readings; n++) {
+            sum += clock.millis();
+        }
+        long nanos = System.nanoTime() - begin;
+        long bytes = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        sink += sum;
+        return new long[] {nanos, bytes};
+    }
+
+    private static void print(String name, long[] result, int count) {
+        System.out.printf("%-16s %,10.1f %,10.1f%n", name, (double) result[0] / count, (double) result[1] / count);
+    }
+
+    private static long[] roundTrips(ParkingLot lot, int cycles) {
+        EntryGate entry = lot.getEntryGates().get(0);
+        ExitGate exit = lot.getExitGates().get(0);
+        Vehicle[] vehicles = new Vehicle[1024];
+        for (int i = 0; i < vehicles.length; i++) {
+            vehicles[i] = new Vehicle("RT-" + i, SIZES[i % SIZES.length]);
+        }
+        long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long begin = System.nanoTime();
+        for (int n = 0; n < cycles; n++) {
+            Ticket ticket = entry.generateTicket(lot, vehicles[n & (vehicles.length - 1)]);
+            if (ticket != null) {
+                exit.generateBill(lot, ticket.getId());
+            }
+        }
+        long nanos = System.nanoTime() - begin;
+        long bytes = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        return new long[] {nanos, bytes};
+    }
+
+    private static ParkingLot buildLot(int slotCount, boolean compactTickets) {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ParkingLot lot = new ParkingLot(new NearestParkingStrategy(),
+                new EventPipeline(new NullEventSink(), 1 << 16, EventPipeline.OverflowPolicy.DROP));
+        lot.addEntryGate(new EntryGate(1));
+        lot.addExitGate(new ExitGate(1));
+        Floor floor = new Floor(1);
+        for (int i = 0; i < slotCount; i++) {
+            floor.addSlot(new BasicSlot(i + 1, SIZES[i % SIZES.length], 5.0, i));
+        }
+        lot.addFloor(floor);
+        if (compactTickets) {
+            lot.enableCompactTickets();
+        }
+        System.setOut(console);
+        return lot;
+    }
+
+    /**
+     * Three slots at $5/h: basic, +$3/h charging and +$10 cleaning. Each
+     * vehicle stays a known time on the simulated clock
+     */
+    private static boolean checkSimulated(boolean compactTickets) throws Exception {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ParkingLot lot = new ParkingLot(new NearestParkingStrategy(),
+                new EventPipeline(new NullEventSink(), 1 << 10, EventPipeline.OverflowPolicy.DROP));
+        Floor floor = new Floor(1);
+        floor.addSlot(new BasicSlot(1, VehicleSize.MEDIUM, 5.0, 1));
+        floor.addSlot(new ChargingDecorator(new BasicSlot(2, VehicleSize.MEDIUM, 5.0, 2), 3.0));
+        floor.addSlot(new CleaningDecorator(new BasicSlot(3, VehicleSize.MEDIUM, 5.0, 3), 10.0));
+        lot.addFloor(floor);
+        if (compactTickets) {
+            lot.enableCompactTickets();
+        }
+        SimulatedClock clock = new SimulatedClock(LocalDateTime.of(2026, 3, 2, 8, 0));
+        lot.setClock(clock);
+        EntryGate entry = new EntryGate(1);
+        ExitGate exit = new ExitGate(1);
+
+        // Whole hours, truncated, at least one
+        long[] stays = {30, 150, 26 * 60};
+        long[] expected = new long[stays.length];
+        long[] charged = new long[stays.length];
+        long entryMillis = clock.millis();
+        long[] ticketIds = new long[stays.length];
+        for (int i = 0; i < stays.length; i++) {
+            ticketIds[i] = compactTickets
+                    ? entry.enter(lot, "SIM-" + i, VehicleSize.MEDIUM, 0)
+                    : entry.generateTicket(lot, new Vehicle("SIM-" + i, VehicleSize.MEDIUM)).getId();
+        }
+        for (int i = 0; i < stays.length; i++) {
+            int slotId = lot.findTicket(ticketIds[i]).getSlot().getId();
+            long hours = Math.max(1, stays[i] / 60);
+            expected[i] = hours * 500 + (slotId == 2 ? hours * 300 : 0) + (slotId == 3 ? 1000 : 0);
+        }
+        boolean stamped = lot.findTicket(ticketIds[0]).getEntryEpochMillis() == entryMillis
+                && lot.findTicket(ticketIds[0]).getEntryTime().equals(LocalDateTime.of(2026, 3, 2, 8, 0));
+        long exitMillis = 0;
+        for (int i = 0; i < stays.length; i++) {
+            clock.set(entryMillis + stays[i] * 60_000);
+            exitMillis = clock.millis();
+            if (compactTickets) {
+                charged[i] = exit.exit(lot, ticketIds[i]);
+            } else {
+                Bill bill = exit.generateBill(lot, ticketIds[i]);
+                charged[i] = bill.getTotalCents();
+                stamped &= bill.getExitEpochMillis() == exitMillis
+                        && bill.getExitTime().equals(LocalDateTime.of(2026, 3, 2, 8, 0).plusMinutes(stays[i]));
+            }
+        }
+
+        // A gate with its own clock stamps with it, whatever the lot's clock says
+        SimulatedClock gateClock = new SimulatedClock(entryMillis - 3_600_000);
+        EntryGate early = new EntryGate(2, gateClock);
+        long earlyId = compactTickets
+                ? early.enter(lot, "SIM-GATE", VehicleSize.MEDIUM, 0)
+                : early.generateTicket(lot, new Vehicle("SIM-GATE", VehicleSize.MEDIUM)).getId();
+        stamped &= lot.findTicket(earlyId).getEntryEpochMillis() == gateClock.millis();
+        System.setOut(console);
+
+        boolean exact = true;
+        for (int i = 0; i < stays.length; i++) {
+            exact &= charged[i] == expected[i];
+        }
+        BillHistory.Report report = lot.getBillHistory().report();
+        double dwell = (30 + 150 + 26 * 60) / 3.0;
+        exact &= report.getBills() == 3 && Math.abs(report.getAverageDwellMinutes() - dwell) < 1e-9;
+        System.out.println((compactTickets ? "Compact" : "Object") + " tickets on simulated time: stays of 30 min,"
+                + " 2 h 30 min and 26 h billed " + (exact ? "exactly" : "WRONGLY")
+                + ", times " + (stamped ? "stamped from the clock" : "NOT stamped from the clock"));
+        lot.getEvents().close();
+        return exact && stamped;
+    }
+
+    private static boolean checkMonotonic() {
+        SimulatedClock clock = new SimulatedClock(1_000_000);
+        clock.advance(Duration.ofMinutes(5));
+        boolean refused = false;
+        try {
+            clock.set(1_000_000);
+        } catch (IllegalArgumentException e) {
+            refused = true;
+        }
+        boolean monotonic = refused && clock.millis() == 1_300_000;
+        System.out.println("Simulated clock " + (monotonic ? "refuses" : "DOES NOT refuse") + " to go back");
+        return monotonic;
+    }
+}
@@ -0,0 +1,64 @@
+import java.time.Duration;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Clock whose reading is a cached field, refreshed by a ticker thread
+ * Gates pay one volatile read per reading instead of a system call, at the
+ * price of readings up to one resolution behind the system time (a stay
+ * is billed in whole seconds, so the default 1 ms never shows)
+ */
+public class CoarseClock implements ParkingClock, AutoCloseable {
+    private final long resolutionNanos;
+    private final Thread ticker;
+    private volatile long now;
+    private volatile boolean running = true;
+
+    public CoarseClock() {
+        this(Duration.ofMillis(1));
+    }
+
+    /**
+     * @param resolution How often the ticker refreshes the reading
+     */
+    public CoarseClock(Duration resolution) {
+        if (resolution.isNegative() || resolution.isZero()) {
+            throw new IllegalArgumentException("Clock resolution must be positive: " + resolution);
+        }
+        this.resolutionNanos = resolution.toNanos();
+        this.now = System.currentTimeMillis();
+        this.ticker = new Thread(this::tick, "parking-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    private void tick() {
+        while (running) {
+            LockSupport.parkNanos(resolutionNanos);
+            now = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public long millis() {
+        return now;
+    }
+
+    /**
+     * Stops the ticker; the reading stays at its last value
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(ticker);
+        try {
+            ticker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CoarseClock{resolution=" + Duration.ofNanos(resolutionNanos) + "}";
+    }
+}
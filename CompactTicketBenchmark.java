@@ -0,0 +1,397 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Entry/exit cycles with Ticket objects against compact tickets (pooled
+ * primitive rows, dictionary-encoded plates): bytes allocated per cycle,
+ * time per cycle, and heap kept per parked vehicle. Compact tickets are
+ * judged on bytes, not time; the time is printed so the cost is seen.
+ * Then checks that the Ticket getters still work as lazy views, that the
+ * object API works on a compact lot, that concurrent gates on one compact
+ * lot leave every slot, plate and row consistent, and that the plate
+ * dictionary drops plates idle for a day
+ *
+ * java CompactTicketBenchmark slots=100000 cycles=1000000
+ */
+public class CompactTicketBenchmark {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+    private static final int PLATE_RING = 4096;
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int slotCount = 100_000;
+        int cycles = 1_000_000;
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length == 2 && pair[0].equals("slots")) {
+                slotCount = Integer.parseInt(pair[1]);
+            } else if (pair.length == 2 && pair[0].equals("cycles")) {
+                cycles = Integer.parseInt(pair[1]);
+            } else {
+                System.out.println("Unknown argument: " + arg + ", expected slots=N or cycles=N");
+                return;
+            }
+        }
+
+        String[] plates = new String[PLATE_RING];
+        for (int i = 0; i < plates.length; i++) {
+            plates[i] = "KA-" + (10_000 + i);
+        }
+        ParkingLot objects = buildLot(slotCount, false);
+        ParkingLot compact = buildLot(slotCount, true);
+        System.out.println("=== COMPACT TICKETS (" + String.format("%,d", slotCount) + " slots) ===");
+        long[] objectCycle = new long[2];
+        long[] compactCycle = new long[2];
+        for (int round = 0; round < 3; round++) {
+            objectCycle = cycleObjects(objects, plates, cycles);
+            compactCycle = cycleCompact(compact, plates, cycles);
+        }
+        System.out.printf("%-8s %12s %12s%n", "Mode", "ns/cycle", "bytes/cycle");
+        System.out.printf("%-8s %,12.1f %,12.1f%n", "objects",
+                (double) objectCycle[0] / cycles, (double) objectCycle[1] / cycles);
+        System.out.printf("%-8s %,12.1f %,12.1f%n", "compact",
+                (double) compactCycle[0] / cycles, (double) compactCycle[1] / cycles);
+        boolean lighter = compactCycle[1] * 4 < objectCycle[1];
+        System.out.println("Allocation per cycle: compact is " + (lighter ? "under" : "NOT under")
+                + " a quarter of objects");
+        System.out.printf("Time per cycle: compact takes %.0f%% of objects (a memory option, not a speed one)%n",
+                100.0 * compactCycle[0] / objectCycle[0]);
+
+        // Retained heap: park half the lot in each mode
+        int parked = slotCount / 2;
+        String[] parkedPlates = new String[parked];
+        for (int i = 0; i < parked; i++) {
+            parkedPlates[i] = "MH-" + (100_000 + i);
+        }
+        long objectRetained = retained(objects, parkedPlates, false);
+        long compactRetained = retained(compact, parkedPlates, true);
+        System.out.printf("Heap per parked vehicle: objects %,d bytes, compact %,d bytes%n",
+                objectRetained / parked, compactRetained / parked);
+        objects.getEvents().close();
+        compact.getEvents().close();
+
+        boolean views = checkViews();
+        boolean load = checkLoad();
+        boolean rollover = checkRollover();
+        boolean published = checkPlateOrder();
+        boolean passed = lighter && views && load && rollover && published;
+        System.out.println(passed
+                ? "PASSED: compact tickets allocate a fraction per cycle and read back through Ticket views"
+                : "FAILED: compact tickets allocated too much or disagreed with the object API");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static ParkingLot buildLot(int slotCount, boolean compactTickets) {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ParkingLot lot = new ParkingLot(new NearestParkingStrategy(),
+                new EventPipeline(new NullEventSink(), 1 << 16, EventPipeline.OverflowPolicy.DROP));
+        lot.addEntryGate(new EntryGate(1));
+        lot.addExitGate(new ExitGate(1));
+        Floor floor = new Floor(1);
+        for (int i = 0; i < slotCount; i++) {
+            Slot slot = new BasicSlot(i + 1, SIZES[i % SIZES.length], 5.0, i);
+            floor.addSlot(i % 10 == 0 ? new ChargingDecorator(slot, 3.0) : slot);
+        }
+        lot.addFloor(floor);
+        if (compactTickets) {
+            lot.enableCompactTickets();
+        }
+        System.setOut(console);
+        return lot;
+    }
+
+    /**
+     * @return Nanoseconds and bytes allocated for the cycles
+     */
+    private static long[] cycleObjects(ParkingLot lot, String[] plates, int cycles) {
+        EntryGate entry = lot.getEntryGates().get(0);
+        ExitGate exit = lot.getExitGates().get(0);
+        long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long begin = System.nanoTime();
+        for (int n = 0; n < cycles; n++) {
+            Vehicle vehicle = new Vehicle(plates[n & (PLATE_RING - 1)], SIZES[n % SIZES.length]);
+            Ticket ticket = entry.generateTicket(lot, vehicle);
+            if (ticket != null) {
+                exit.generateBill(lot, ticket.getId());
+            }
+        }
+        long nanos = System.nanoTime() - begin;
+        return new long[] {nanos, THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore};
+    }
+
+    private static long[] cycleCompact(ParkingLot lot, String[] plates, int cycles) {
+        EntryGate entry = lot.getEntryGates().get(0);
+        ExitGate exit = lot.getExitGates().get(0);
+        long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long begin = System.nanoTime();
+        for (int n = 0; n < cycles; n++) {
+            long ticketId = entry.enter(lot, plates[n & (PLATE_RING - 1)], SIZES[n % SIZES.length], 0);
+            if (ticketId >= 0) {
+                exit.exit(lot, ticketId);
+            }
+        }
+        long nanos = System.nanoTime() - begin;
+        return new long[] {nanos, THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore};
+    }
+
+    /**
+     * Heap growth while the vehicles are parked; they leave afterwards
+     */
+    private static long retained(ParkingLot lot, String[] plates, boolean compactTickets) {
+        EntryGate entry = lot.getEntryGates().get(0);
+        ExitGate exit = lot.getExitGates().get(0);
+        long[] ticketIds = new long[plates.length];
+        long before = usedHeap();
+        for (int i = 0; i < plates.length; i++) {
+            VehicleSize size = SIZES[i % SIZES.length];
+            ticketIds[i] = compactTickets
+                    ? entry.enter(lot, plates[i], size, 0)
+                    : entry.generateTicket(lot, new Vehicle(plates[i], size)).getId();
+        }
+        long after = usedHeap();
+        for (long ticketId : ticketIds) {
+            if (compactTickets) {
+                exit.exit(lot, ticketId);
+            } else {
+                exit.generateBill(lot, ticketId);
+            }
+        }
+        return Math.max(0, after - before);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Four slots, one a charging bay, on a compact lot
+     */
+    private static boolean checkViews() throws Exception {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ParkingLot lot = new ParkingLot(new NearestParkingStrategy(),
+                new EventPipeline(new NullEventSink(), 1 << 10, EventPipeline.OverflowPolicy.DROP));
+        Floor floor = new Floor(1);
+        for (int i = 1; i <= 3; i++) {
+            floor.addSlot(new BasicSlot(i, VehicleSize.MEDIUM, 5.0, i));
+        }
+        floor.addSlot(new ChargingDecorator(new BasicSlot(4, VehicleSize.MEDIUM, 5.0, 4), 3.0));
+        lot.addFloor(floor);
+        EntryGate entry = new EntryGate(1);
+        ExitGate exit = new ExitGate(1);
+        lot.addEntryGate(entry);
+        lot.addExitGate(exit);
+        TicketTable table = lot.enableCompactTickets();
+
+        LocalDateTime before = LocalDateTime.now().withNano(0);
+        long ev = entry.enter(lot, "EV-1", VehicleSize.SMALL, SlotFeature.CHARGING.flag());
+        long car = entry.enter(lot, "CAR-1", VehicleSize.MEDIUM, 0);
+        long again = entry.enter(lot, "CAR-1", VehicleSize.MEDIUM, 0);
+        long van = entry.enter(lot, "VAN-1", VehicleSize.LARGE, 0);
+        Ticket bike = entry.generateTicket(lot, new Vehicle("BIKE-1", VehicleSize.SMALL));
+        long last = entry.enter(lot, "CAR-2", VehicleSize.SMALL, 0);
+        long full = entry.enter(lot, "CAR-3", VehicleSize.SMALL, 0);
+        System.setOut(console);
+
+        boolean admitted = ev > 0 && car > 0 && again == -1 && van == -1 && bike != null && last > 0 && full == -1;
+        System.out.println("Admission: duplicate plate, oversize and full lot " + (admitted ? "refused" : "NOT refused"));
+
+        Ticket evTicket = lot.findTicket(ev);
+        Ticket carTicket = lot.findTicketByPlate("CAR-1");
+        boolean viewsMatch = evTicket != null && evTicket.getVehicle().getId().equals("EV-1")
+                && evTicket.getVehicle().getSize() == VehicleSize.SMALL
+                && evTicket.getVehicle().getRequestedFeatures() == SlotFeature.CHARGING.flag()
+                && evTicket.getSlot().getId() == 4
+                && !evTicket.getEntryTime().isBefore(before)
+                && carTicket != null && carTicket.getId() == car && carTicket.getSlot().getId() == 1
+                && bike.getVehicle().getId().equals("BIKE-1") && lot.findTicket(bike.getId()) != null
+                && table.getPlates().size() == 4 && lot.getActiveTicketCount() == 4;
+        System.out.println("Ticket views: " + (viewsMatch ? "match" : "DO NOT match") + " the entries");
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long evCents = exit.exit(lot, ev);
+        long twice = exit.exit(lot, ev);
+        Bill bikeBill = exit.generateBill(lot, bike);
+        long carCents = exit.exitForPlate(lot, "CAR-1");
+        long gone = exit.exitForPlate(lot, "CAR-1");
+        // The freed rows and the known plates are reused
+        long back = entry.enter(lot, "CAR-1", VehicleSize.MEDIUM, 0);
+        System.setOut(console);
+        BillHistory.Report report = lot.getBillHistory().report();
+        boolean settled = evCents >= 0 && twice == -1 && carCents >= 0 && gone == -1
+                && bikeBill != null && bikeBill.getTicket().getVehicle().getId().equals("BIKE-1")
+                && lot.findTicket(ev) == null && lot.findTicketByPlate("CAR-1").getId() == back
+                && report.getBills() == 3
+                && report.getRevenueCents() == evCents + carCents + bikeBill.getTotalCents()
+                && table.getPlates().size() == 4 && lot.getActiveTicketCount() == 2;
+        System.out.println("Exits: " + (settled ? "each settled once" : "NOT settled once")
+                + ", bill history holds " + report.getBills() + " bills");
+        lot.getEvents().close();
+        return admitted && viewsMatch && settled;
+    }
+
+    /**
+     * Plates not parked and not seen for a whole day are dropped at the
+     * next rollover and their codes reused; a parked plate is kept
+     */
+    private static boolean checkRollover() throws Exception {
+        PlateDictionary plates = new PlateDictionary();
+        plates.rollover(100);
+        int parked = plates.encode("PARKED-1");
+        plates.open(parked, 1);
+        plates.encode("GONE-1");
+        plates.encode("GONE-2");
+        int keptOverNight = plates.rollover(101);
+        int seenAgain = plates.encode("GONE-1");
+        int dropped = plates.rollover(102);
+        int dayTwo = plates.rollover(102);
+        int reused = plates.encode("NEW-1");
+        boolean passed = keptOverNight == 0 && dropped == 1 && dayTwo == 0
+                && plates.find("GONE-2") < 0 && plates.find("GONE-1") == seenAgain
+                && plates.plate(parked).equals("PARKED-1") && plates.openTicket(parked) == 1
+                && plates.size() == 3 && plates.plate(reused).equals("NEW-1");
+        System.out.println("Plate dictionary rollover: " + (passed ? "drops" : "DOES NOT drop")
+                + " plates idle for a day");
+
+        // A closed ticket's view keeps its plate after the code is reused
+        ParkingLot lot = buildLot(10, true);
+        long ticketId = lot.getEntryGates().get(0).enter(lot, "VIEW-1", VehicleSize.SMALL, 0);
+        Ticket closed = lot.closeTicket(ticketId);
+        PlateDictionary lotPlates = lot.getTicketTable().getPlates();
+        long today = Math.floorDiv(TariffEngine.localSecond(lot.getClock().millis()), 86_400);
+        boolean evicted = lotPlates.rollover(today + 2) == 1;
+        lotPlates.encode("VIEW-2");
+        boolean kept = evicted && closed.getVehicle().getId().equals("VIEW-1");
+        lot.getEvents().close();
+        System.out.println("Closed ticket view after its plate code was reused: "
+                + (kept ? "keeps its plate" : "LOST ITS PLATE"));
+        return passed && kept;
+    }
+
+    /**
+     * A reader that sees a plate parked must find its ticket, even while
+     * the ticket is still being opened
+     */
+    private static boolean checkPlateOrder() throws Exception {
+        ParkingLot lot = buildLot(10, true);
+        TicketTable table = lot.getTicketTable();
+        int count = 200_000;
+        String[] plates = new String[count];
+        for (int i = 0; i < count; i++) {
+            plates[i] = "PO-" + i;
+        }
+        AtomicLong opened = new AtomicLong();
+        AtomicLong misses = new AtomicLong();
+        Thread reader = new Thread(() -> {
+            while (opened.get() < count) {
+                // The plate being opened now, or the one just before it
+                int i = (int) Math.min(opened.get(), count - 1);
+                for (int k = i; k <= Math.min(i + 1, count - 1); k++) {
+                    if (table.isParked(plates[k]) && table.findByPlate(plates[k]) == null) {
+                        misses.incrementAndGet();
+                    }
+                }
+            }
+        });
+        reader.start();
+        long now = lot.getClock().millis();
+        for (int i = 0; i < count; i++) {
+            table.open(i + 1, 0, plates[i], VehicleSize.SMALL, 0, now);
+            opened.incrementAndGet();
+        }
+        reader.join();
+        lot.getEvents().close();
+        boolean passed = misses.get() == 0;
+        System.out.println("Plate lookups while tickets open: " + (passed ? "always find" : misses.get()
+                + " DID NOT find") + " the ticket of a parked plate");
+        return passed;
+    }
+
+    /**
+     * Gates enter and leave concurrently with plates shared between them
+     */
+    private static boolean checkLoad() throws Exception {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ParkingLot lot = new ParkingLot(new NearestParkingStrategy(),
+                new EventPipeline(new NullEventSink(), 1 << 10, EventPipeline.OverflowPolicy.DROP));
+        Floor floor = new Floor(1);
+        for (int i = 0; i < 48; i++) {
+            floor.addSlot(new BasicSlot(i + 1, SIZES[i % SIZES.length], 5.0, i));
+        }
+        lot.addFloor(floor);
+        lot.enableCompactTickets();
+        lot.enableWaitlist(1, 4, Duration.ofMillis(5));
+        System.setOut(console);
+
+        int gates = 4;
+        String[] plates = new String[96];
+        for (int i = 0; i < plates.length; i++) {
+            plates[i] = "LD-" + i;
+        }
+        AtomicLong entered = new AtomicLong();
+        AtomicLong left = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(gates);
+        CountDownLatch start = new CountDownLatch(1);
+        Future<?>[] runs = new Future<?>[gates];
+        for (int g = 0; g < gates; g++) {
+            int gateId = g + 1;
+            runs[g] = pool.submit(() -> {
+                EntryGate entry = new EntryGate(gateId);
+                ExitGate exit = new ExitGate(gateId);
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                start.await();
+                for (int n = 0; n < 20_000; n++) {
+                    String plate = plates[random.nextInt(plates.length)];
+                    if (random.nextBoolean()) {
+                        if (entry.enter(lot, plate, SIZES[plate.length() % SIZES.length], 0) > 0) {
+                            entered.incrementAndGet();
+                        }
+                    } else if (exit.exitForPlate(lot, plate) >= 0) {
+                        left.incrementAndGet();
+                    }
+                }
+                return null;
+            });
+        }
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        start.countDown();
+        for (Future<?> run : runs) {
+            run.get();
+        }
+        pool.shutdown();
+        ExitGate sweeper = new ExitGate(9);
+        for (String plate : plates) {
+            if (sweeper.exitForPlate(lot, plate) >= 0) {
+                left.incrementAndGet();
+            }
+        }
+        System.setOut(console);
+
+        SlotStore store = lot.getSlotStore();
+        int free = 0;
+        for (VehicleSize size : SIZES) {
+            free += store.freeSlots(size);
+        }
+        boolean consistent = entered.get() == left.get() && lot.getActiveTicketCount() == 0
+                && free == store.count() && lot.getBillHistory().size() == left.get()
+                && lot.getTicketTable().getPlates().size() == plates.length;
+        System.out.println("Load: " + entered.get() + " entries, " + left.get() + " exits, "
+                + (consistent ? "all slots free and all tickets settled" : "LEFT INCONSISTENT"));
+        lot.getEvents().close();
+        return consistent;
+    }
+}
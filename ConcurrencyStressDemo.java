@@ -0,0 +1,173 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-threaded stress run proving that no slot is ever handed out twice
+ * Runs 8 entry gates and 6 exit gates on their own threads against one lot;
+ * half of the gates use the batch entry/exit APIs
+ */
+public class ConcurrencyStressDemo {
+    private static final int ENTRY_GATES = 8;
+    private static final int EXIT_GATES = 6;
+    private static final int FLOORS = 4;
+    private static final int SLOTS_PER_FLOOR = 50;
+    private static final int VEHICLES_PER_GATE = 20_000;
+    private static final int BATCH_SIZE = 16;
+
+    public static void main(String[] args) throws Exception {
+        ParkingLot lot = new ParkingLot();
+        for (int f = 1; f <= FLOORS; f++) {
+            Floor floor = new Floor(f);
+            for (int i = 0; i < SLOTS_PER_FLOOR; i++) {
+                VehicleSize size = VehicleSize.values()[i % VehicleSize.values().length];
+                // Every gate sees a different nearest-slot ordering
+                int[] distances = new int[ENTRY_GATES + 1];
+                for (int g = 0; g <= ENTRY_GATES; g++) {
+                    distances[g] = f * 100 + (i * 7 + g * 13) % SLOTS_PER_FLOOR;
+                }
+                floor.addSlot(new BasicSlot(f * 1000 + i, size, 5.0, distances));
+            }
+            lot.addFloor(floor);
+        }
+        for (int g = 1; g <= ENTRY_GATES; g++) {
+            lot.addEntryGate(new EntryGate(g));
+        }
+
+        // slotId -> ticket currently parked there; a second put means a double allocation
+        Map<Integer, Ticket> parked = new ConcurrentHashMap<>();
+        BlockingQueue<Ticket> leaving = new LinkedBlockingQueue<>();
+        AtomicInteger violations = new AtomicInteger();
+        AtomicLong issued = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        CountDownLatch entriesDone = new CountDownLatch(ENTRY_GATES);
+
+        // Keep the event log quiet for the run; only the summary is printed
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        ExecutorService pool = Executors.newFixedThreadPool(ENTRY_GATES + EXIT_GATES);
+        long start = System.nanoTime();
+
+        // Odd gates take vehicles one at a time, even gates in bursts
+        for (EntryGate gate : lot.getEntryGates()) {
+            pool.submit(() -> {
+                try {
+                    int batch = gate.getId() % 2 == 0 ? BATCH_SIZE : 1;
+                    for (int i = 0; i < VEHICLES_PER_GATE; i += batch) {
+                        List<Vehicle> arriving = new ArrayList<>(batch);
+                        for (int v = i; v < i + batch; v++) {
+                            VehicleSize size = VehicleSize.values()[v % VehicleSize.values().length];
+                            arriving.add(new Vehicle("G" + gate.getId() + "-" + v, size));
+                        }
+                        Ticket[] tickets = batch == 1
+                                ? new Ticket[] {gate.generateTicket(lot, arriving.get(0))}
+                                : gate.generateTickets(lot, arriving);
+                        for (Ticket ticket : tickets) {
+                            if (ticket == null) {
+                                rejected.incrementAndGet();
+                                continue;
+                            }
+                            issued.incrementAndGet();
+                            if (parked.putIfAbsent(ticket.getSlot().getId(), ticket) != null) {
+                                violations.incrementAndGet();
+                            }
+                            leaving.add(ticket);
+                        }
+                    }
+                } finally {
+                    entriesDone.countDown();
+                }
+            });
+        }
+
+        for (int g = 1; g <= EXIT_GATES; g++) {
+            ExitGate gate = new ExitGate(g);
+            int batch = g % 2 == 0 ? BATCH_SIZE : 1;
+            pool.submit(() -> {
+                List<Ticket> departing = new ArrayList<>(batch);
+                while (true) {
+                    Ticket ticket = leaving.poll(10, TimeUnit.MILLISECONDS);
+                    if (ticket == null) {
+                        if (entriesDone.getCount() == 0 && leaving.isEmpty()) {
+                            return null;
+                        }
+                        continue;
+                    }
+                    departing.add(ticket);
+                    leaving.drainTo(departing, batch - 1);
+                    // Forget the holders before the slots go back to the pool
+                    for (Ticket leavingTicket : departing) {
+                        parked.remove(leavingTicket.getSlot().getId(), leavingTicket);
+                    }
+                    if (departing.size() == 1) {
+                        gate.generateBill(lot, departing.get(0));
+                    } else {
+                        gate.generateBills(lot, departing);
+                    }
+                    departing.clear();
+                }
+            });
+        }
+
+        // Display board: every snapshot must be within [0, capacity]
+        AtomicLong snapshots = new AtomicLong();
+        AtomicInteger badSnapshots = new AtomicInteger();
+        Thread board = new Thread(() -> {
+            while (!pool.isTerminated()) {
+                OccupancyCounters.Snapshot occupancy = lot.getSlotStore().occupancy();
+                for (int floor : occupancy.getFloorNumbers()) {
+                    for (VehicleSize size : VehicleSize.values()) {
+                        long occupied = occupancy.occupied(floor, size);
+                        if (occupied < 0 || occupied > occupancy.capacity(floor, size)) {
+                            badSnapshots.incrementAndGet();
+                        }
+                    }
+                }
+                snapshots.incrementAndGet();
+                Thread.yield();
+            }
+        });
+        board.start();
+
+        pool.shutdown();
+        pool.awaitTermination(5, TimeUnit.MINUTES);
+        board.join();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        lot.close();
+        System.setOut(console);
+
+        System.out.println("=== CONCURRENCY STRESS RUN ===");
+        System.out.println("Entry gates: " + ENTRY_GATES + ", exit gates: " + EXIT_GATES);
+        System.out.println("Tickets issued: " + issued.get() + ", rejected (lot full): " + rejected.get());
+        System.out.println("Elapsed: " + elapsedMs + " ms");
+        System.out.println("Double allocations: " + violations.get());
+        System.out.println("Active tickets left: " + lot.getActiveTicketCount());
+        SlotStore store = lot.getSlotStore();
+        int occupiedBits = 0;
+        for (int index = 0; index < store.count(); index++) {
+            if (store.isOccupied(index)) {
+                occupiedBits++;
+            }
+        }
+        long counted = store.occupancy().occupied(null, null, 0);
+        System.out.println("Occupancy snapshots: " + snapshots.get() + ", out of range: " + badSnapshots.get() +
+                ", counters " + counted + " vs occupied slots " + occupiedBits);
+        lot.printStatus();
+
+        if (violations.get() != 0) {
+            System.out.println("FAILED: a slot was handed out twice");
+            System.exit(1);
+        }
+        if (badSnapshots.get() != 0 || counted != occupiedBits) {
+            System.out.println("FAILED: occupancy counters disagree with slot occupancy");
+            System.exit(1);
+        }
+        System.out.println("PASSED: every slot had at most one holder and occupancy counters agree");
+    }
+}
@@ -0,0 +1,164 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Fixed-size bit set whose bits can be set, cleared and claimed from many
+ * threads without locks. Each operation is a single atomic word update
+ * Summary levels above the words hold one bit per word below that may be
+ * non-zero, so nextSetBit skips empty stretches 64 words at a time and
+ * finds a bit in O(log64 n) word reads even in a nearly empty set.
+ * Setting a bit marks its summaries; clearing leaves them, and a scan that
+ * finds a marked word empty unmarks it
+ */
+public class ConcurrentBitSet {
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    // levels[0] holds the bits; bit i of levels[k] covers word i of levels[k - 1]
+    private final long[][] levels;
+    private final long[] words;
+    private final int size;
+
+    public ConcurrentBitSet(int size) {
+        this.size = size;
+        int depth = 1;
+        for (int n = (size + 63) >>> 6; n > 1; n = (n + 63) >>> 6) {
+            depth++;
+        }
+        this.levels = new long[depth][];
+        int n = (size + 63) >>> 6;
+        for (int k = 0; k < depth; k++) {
+            levels[k] = new long[n];
+            n = (n + 63) >>> 6;
+        }
+        this.words = levels[0];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean get(int bit) {
+        long word = (long) WORDS.getAcquire(words, bit >>> 6);
+        return (word & (1L << bit)) != 0;
+    }
+
+    public void set(int bit) {
+        WORDS.getAndBitwiseOr(words, bit >>> 6, 1L << bit);
+        mark(bit >>> 6);
+    }
+
+    public void clear(int bit) {
+        WORDS.getAndBitwiseAndRelease(words, bit >>> 6, ~(1L << bit));
+    }
+
+    // Marks a word of levels[0] as possibly non-zero in every summary level.
+    // Stops at a mark that is already set: the word under it is non-zero,
+    // so the levels above are marked too. Volatile accesses on both sides
+    // make sure a scan unmarking a word re-checks it after this set
+    private void mark(int word) {
+        for (int k = 1; k < levels.length; k++) {
+            long mask = 1L << word;
+            word >>>= 6;
+            if (((long) WORDS.getVolatile(levels[k], word) & mask) != 0) {
+                return;
+            }
+            WORDS.getAndBitwiseOr(levels[k], word, mask);
+        }
+    }
+
+    /**
+     * Sets every bit; meant for initialisation before the set is shared
+     */
+    public void setAll() {
+        int bits = size;
+        for (long[] level : levels) {
+            for (int w = 0; w < level.length; w++) {
+                int inWord = Math.min(64, bits - (w << 6));
+                WORDS.setRelease(level, w, inWord == 64 ? -1L : (1L << inWord) - 1);
+            }
+            bits = level.length;
+        }
+    }
+
+    /**
+     * Atomically sets a bit that is currently clear
+     *
+     * @return true if this call changed the bit
+     */
+    public boolean trySet(int bit) {
+        long mask = 1L << bit;
+        if (((long) WORDS.getAndBitwiseOr(words, bit >>> 6, mask) & mask) != 0) {
+            return false;
+        }
+        mark(bit >>> 6);
+        return true;
+    }
+
+    /**
+     * Atomically clears a bit that is currently set
+     *
+     * @return true if this call changed the bit
+     */
+    public boolean tryClear(int bit) {
+        long mask = 1L << bit;
+        return ((long) WORDS.getAndBitwiseAnd(words, bit >>> 6, ~mask) & mask) != 0;
+    }
+
+    /**
+     * Returns the first set bit at or after the given index, or -1
+     * Climbs the summary levels past empty words and descends into the
+     * first marked one
+     */
+    public int nextSetBit(int from) {
+        if (from >= size) {
+            return -1;
+        }
+        int k = 0;
+        // Lowest candidate bit at level k; everything before it is excluded
+        int index = Math.max(from, 0);
+        while (true) {
+            long[] level = levels[k];
+            int w = index >>> 6;
+            if (w >= level.length) {
+                return -1;
+            }
+            long word = (long) WORDS.getVolatile(level, w) & (-1L << index);
+            if (word == 0) {
+                if (k + 1 == levels.length) {
+                    return -1;
+                }
+                // Continue with the next word, found through the level above
+                k++;
+                index = w + 1;
+                continue;
+            }
+            int found = (w << 6) + Long.numberOfTrailingZeros(word);
+            if (k == 0) {
+                return found < size ? found : -1;
+            }
+            if ((long) WORDS.getVolatile(levels[k - 1], found) == 0) {
+                // Stale mark: clear it, unless a set raced in after the read
+                WORDS.getAndBitwiseAnd(level, w, ~(1L << found));
+                if ((long) WORDS.getVolatile(levels[k - 1], found) == 0) {
+                    index = found + 1;
+                    continue;
+                }
+                WORDS.getAndBitwiseOr(level, w, 1L << found);
+            }
+            k--;
+            index = found << 6;
+        }
+    }
+
+    /**
+     * Counts set bits with one popcount per word. Not a snapshot when other
+     * threads are writing concurrently
+     */
+    public int cardinality() {
+        int count = 0;
+        for (int w = 0; w < words.length; w++) {
+            count += Long.bitCount((long) WORDS.getAcquire(words, w));
+        }
+        return count;
+    }
+}
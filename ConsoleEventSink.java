@@ -0,0 +1,21 @@
+/**
+ * Event sink that writes batches to standard output
+ */
+public class ConsoleEventSink implements EventSink {
+
+    @Override
+    public void write(CharSequence batch) {
+        // Resolved per batch so System.setOut redirection is honoured
+        System.out.append(batch);
+    }
+
+    @Override
+    public void flush() {
+        System.out.flush();
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+}
@@ -0,0 +1,370 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Gate-to-slot distances from a FloorGraph of aisles, ramps and lifts
+ * Builds a multi-storey lot (an aisle grid per floor, ramps at two corners,
+ * a lift in the middle, gates on the ground floor), times the full
+ * computation sequentially and on the fork/join pool, and checks every
+ * gate-to-slot distance against a plain reference Dijkstra. Then changes
+ * one ramp at a time (longer, closed, reopened, shorter) and checks that
+ * the repair touches only a small part of the graph and still matches a
+ * from-scratch run. Finally a lot built on the graph must send vehicles
+ * to the slots the graph says are nearest, before and after a ramp change,
+ * and must refuse a vehicle whose only fitting slot is behind a closed ramp
+ *
+ * java DistanceGraphBenchmark floors=6 grid=60 gates=8
+ */
+public class DistanceGraphBenchmark {
+    private static final int SLOTS_PER_NODE = 2;
+    private static final int AISLE = 6;
+    private static final int RAMP = 40;
+    private static final int LIFT = 25;
+
+    public static void main(String[] args) throws Exception {
+        int floors = 6;
+        int grid = 60;
+        int gates = 8;
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length == 2 && pair[0].equals("floors")) {
+                floors = Integer.parseInt(pair[1]);
+            } else if (pair.length == 2 && pair[0].equals("grid")) {
+                grid = Integer.parseInt(pair[1]);
+            } else if (pair.length == 2 && pair[0].equals("gates")) {
+                gates = Integer.parseInt(pair[1]);
+            } else {
+                System.out.println("Unknown argument: " + arg + ", expected floors=N, grid=N or gates=N");
+                return;
+            }
+        }
+        if (floors < 2 || grid < 2 || gates < 1 || gates > 4 * (grid - 1)) {
+            System.out.println("Need floors >= 2, grid >= 2 and 1 <= gates <= " + 4 * (grid - 1));
+            return;
+        }
+
+        Garage sequential = new Garage(floors, grid, gates);
+        Garage parallel = new Garage(floors, grid, gates);
+        System.out.println("=== FULL COMPUTE ===");
+        System.out.printf("%d floors, %,d nodes, %,d edges, %,d slots, %d gates%n", floors,
+                sequential.graph.nodeCount(), sequential.graph.edgeCount(), sequential.slotCount(), gates);
+        long begin = System.nanoTime();
+        sequential.graph.update(false);
+        long sequentialNanos = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        parallel.graph.update(true);
+        long parallelNanos = System.nanoTime() - begin;
+        System.out.printf("%-12s %10.1f ms%n", "Sequential", sequentialNanos / 1e6);
+        System.out.printf("%-12s %10.1f ms  (%d fork/join threads)%n", "Parallel", parallelNanos / 1e6,
+                java.util.concurrent.ForkJoinPool.getCommonPoolParallelism());
+        boolean agree = sequential.sameAs(parallel);
+        boolean exact = parallel.matchesReference();
+        System.out.println("Parallel and sequential matrices " + (agree ? "agree" : "DIFFER")
+                + ", reference check " + (exact ? "exact" : "WRONG"));
+
+        System.out.println();
+        System.out.println("=== ONE RAMP CHANGED ===");
+        System.out.printf("%-26s %6s %12s %8s %10s %s%n", "Change", "gates", "nodes", "of full", "us", "check");
+        long full = (long) gates * parallel.graph.nodeCount();
+        Garage g = parallel;
+        boolean local = true;
+        int rampA = g.ramps.get(0);
+        int rampB = g.ramps.get(g.ramps.size() - 1);
+        int lift = g.lifts.get(g.lifts.size() - 1);
+        local &= change(g, "ramp 1->2 +200 m", full, 0.1, () -> g.graph.setLength(rampA, RAMP + 200));
+        local &= change(g, "ramp 1->2 closed", full, 0.1, () -> g.graph.close(rampA));
+        local &= change(g, "ramp 1->2 reopened", full, 0.1, () -> g.graph.open(rampA));
+        local &= change(g, "ramp 1->2 back to " + RAMP + " m", full, 0.1, () -> g.graph.setLength(rampA, RAMP));
+        local &= change(g, "top ramp shortened to 5 m", full, 0.1, () -> g.graph.setLength(rampB, 5));
+        local &= change(g, "top ramp length unchanged", full, 0.1, () -> g.graph.setLength(rampB, 5));
+        // Sends the top floor's traffic round by the ramp: one floor of work
+        local &= change(g, "top lift closed, ramp " + RAMP + " m", full, 1.5 / floors, () -> {
+            g.graph.close(lift);
+            g.graph.setLength(rampB, RAMP);
+        });
+        boolean lot = checkLot();
+        boolean passed = agree && exact && local && lot;
+        System.out.println(passed
+                ? "PASSED: graph distances match the reference and single-edge changes repair only what they affect"
+                : "FAILED: a distance was wrong or a repair touched too much");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Applies a change, times the repair and checks it against a reference
+     * run; the repair must touch under the given share of a full recompute
+     */
+    private static boolean change(Garage g, String name, long full, double share, Runnable change) {
+        long settledBefore = g.graph.settledNodes();
+        change.run();
+        long begin = System.nanoTime();
+        int[] changed = g.graph.update();
+        long nanos = System.nanoTime() - begin;
+        long settled = g.graph.settledNodes() - settledBefore;
+        boolean exact = g.matchesReference();
+        boolean small = settled < share * full;
+        System.out.printf("%-26s %6d %,12d %7.2f%% %,10.0f %s%n", name, changed.length, settled,
+                100.0 * settled / full, nanos / 1e3, exact ? (small ? "exact" : "exact, TOO MUCH WORK") : "WRONG");
+        return exact && small;
+    }
+
+    /**
+     * Gate 1 on floor 1; slot 1 down a 50 m aisle on floor 1, slot 2 up a
+     * 10 m ramp on floor 2. The ramp is then made 100 m long. Then slot 2,
+     * the only large slot, is cut off by closing the ramp: a large vehicle
+     * must be refused, also by a lot loaded from a layout written meanwhile,
+     * and admitted again once the ramp reopens
+     */
+    private static boolean checkLot() throws Exception {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        FloorGraph graph = new FloorGraph();
+        int gateNode = graph.addNode(1);
+        int aisleEnd = graph.addNode(1);
+        int rampTop = graph.addNode(2);
+        graph.addAisle(gateNode, aisleEnd, 50);
+        int ramp = graph.addRamp(gateNode, rampTop, 10);
+        graph.attachGate(1, gateNode);
+        graph.attachSlot(1, aisleEnd, 0);
+        graph.attachSlot(2, rampTop, 2);
+        graph.update();
+
+        ParkingLot lot = new ParkingLot(new NearestParkingStrategy(),
+                new EventPipeline(new NullEventSink(), 1 << 10, EventPipeline.OverflowPolicy.DROP));
+        lot.addEntryGate(new EntryGate(1));
+        Floor ground = new Floor(1);
+        ground.addSlot(new BasicSlot(1, VehicleSize.MEDIUM, 5.0, graph));
+        lot.addFloor(ground);
+        Floor upper = new Floor(2);
+        upper.addSlot(new BasicSlot(2, VehicleSize.MEDIUM, 5.0, graph));
+        lot.addFloor(upper);
+        lot.applyDistances(graph);
+        EntryGate entry = lot.getEntryGates().get(0);
+        ExitGate exit = new ExitGate(1);
+
+        Ticket first = entry.generateTicket(lot, new Vehicle("GRAPH-1", VehicleSize.MEDIUM));
+        int before = first.getSlot().getId();
+        exit.generateBill(lot, first.getId());
+        graph.setLength(ramp, 100);
+        int[] changed = lot.applyDistances(graph);
+        Ticket second = entry.generateTicket(lot, new Vehicle("GRAPH-2", VehicleSize.MEDIUM));
+        int after = second.getSlot().getId();
+        exit.generateBill(lot, second.getId());
+
+        // A resized slot keeps reading the graph
+        lot.resizeSlot(2, VehicleSize.LARGE);
+        graph.setLength(ramp, 30);
+        lot.applyDistances(graph);
+        SlotStore store = lot.getSlotStore();
+        int index = store.indexOfId(2);
+        boolean followed = store.distance(1, index) == 32 && store.slotAt(index).getDistanceToGate(1) == 32
+                && store.distance(0, index) == 32;
+
+        graph.close(ramp);
+        lot.applyDistances(graph);
+        boolean refused = entry.generateTicket(lot, new Vehicle("GRAPH-3", VehicleSize.LARGE)) == null;
+        // Floor-ordered strategies pass over the slot too
+        refused &= new FillFromTopParkingStrategy().chooseSlot(new Vehicle("GRAPH-5", VehicleSize.MEDIUM), 1, store)
+                == store.indexOfId(1)
+                && new FloorBalancingParkingStrategy().chooseSlot(new Vehicle("GRAPH-6", VehicleSize.LARGE), 1, store) < 0;
+        Path file = Files.createTempFile("graph-layout", ".bin");
+        LotLayout.write(lot, file);
+        ParkingLot loaded = new ParkingLot(new NearestParkingStrategy(),
+                new EventPipeline(new NullEventSink(), 1 << 10, EventPipeline.OverflowPolicy.DROP));
+        loaded.loadLayout(file);
+        refused &= loaded.getSlotStore().claimNearest(1, VehicleSize.LARGE) < 0
+                && loaded.getSlotStore().claimNearest(1, VehicleSize.MEDIUM) >= 0;
+        loaded.getEvents().close();
+        Files.delete(file);
+        graph.open(ramp);
+        lot.applyDistances(graph);
+        Ticket third = entry.generateTicket(lot, new Vehicle("GRAPH-4", VehicleSize.LARGE));
+        boolean reopened = third != null && third.getSlot().getId() == 2;
+        lot.getEvents().close();
+        System.setOut(console);
+
+        boolean passed = before == 2 && after == 1 && changed.length == 1 && followed && refused && reopened;
+        System.out.println("Lot on the graph: nearest slot " + before + " via the 10 m ramp, slot " + after
+                + " once it is 100 m; resized slot " + (followed ? "follows" : "DOES NOT follow") + " the graph");
+        System.out.println("Ramp closed: slot 2 " + (refused ? "refused" : "STILL HANDED OUT")
+                + ", after reopening " + (reopened ? "handed out" : "NOT HANDED OUT"));
+        return passed;
+    }
+
+    /**
+     * One storey per floor: a grid x grid aisle grid with two slots per
+     * junction, ramps up at two opposite corners and a lift in the middle.
+     * Gates sit along the ground floor's edge. The edge list is kept for
+     * the reference run
+     */
+    private static final class Garage {
+        private final FloorGraph graph = new FloorGraph();
+        private final int grid;
+        private final int[] gateIds;
+        private final int[] gateNodes;
+        // Edge id and its two ends, as added
+        private final List<int[]> edges = new ArrayList<>();
+        private final List<Integer> ramps = new ArrayList<>();
+        private final List<Integer> lifts = new ArrayList<>();
+
+        private Garage(int floors, int grid, int gates) {
+            this.grid = grid;
+            for (int f = 1; f <= floors; f++) {
+                for (int n = 0; n < grid * grid; n++) {
+                    graph.addNode(f);
+                }
+            }
+            for (int f = 1; f <= floors; f++) {
+                for (int r = 0; r < grid; r++) {
+                    for (int c = 0; c < grid; c++) {
+                        int here = node(f, r, c);
+                        if (c + 1 < grid) {
+                            edge(graph.addAisle(here, here + 1, AISLE), here, here + 1);
+                        }
+                        if (r + 1 < grid) {
+                            edge(graph.addAisle(here, here + grid, AISLE), here, here + grid);
+                        }
+                    }
+                }
+                if (f < floors) {
+                    // Up ramps alternate corners so each level is a climb across
+                    int corner = f % 2 == 1 ? grid - 1 : 0;
+                    int bottom = node(f, corner, corner);
+                    int top = node(f + 1, corner, corner);
+                    ramps.add(edge(graph.addRamp(bottom, top, RAMP), bottom, top));
+                    bottom = node(f, grid / 2, grid / 2);
+                    top = node(f + 1, grid / 2, grid / 2);
+                    lifts.add(edge(graph.addLift(bottom, top, LIFT), bottom, top));
+                }
+            }
+            gateIds = new int[gates];
+            gateNodes = new int[gates];
+            int perimeter = 4 * (grid - 1);
+            for (int i = 0; i < gates; i++) {
+                int step = i * perimeter / gates;
+                gateIds[i] = i + 1;
+                gateNodes[i] = perimeterNode(step);
+                graph.attachGate(gateIds[i], gateNodes[i]);
+            }
+            for (int n = 0; n < graph.nodeCount(); n++) {
+                for (int s = 0; s < SLOTS_PER_NODE; s++) {
+                    graph.attachSlot(slotId(n, s), n, 2 + 3 * s);
+                }
+            }
+        }
+
+        private int edge(int id, int a, int b) {
+            edges.add(new int[] {id, a, b});
+            return id;
+        }
+
+        private int node(int floor, int row, int column) {
+            return (floor - 1) * grid * grid + row * grid + column;
+        }
+
+        private int perimeterNode(int step) {
+            int side = step / (grid - 1);
+            int at = step % (grid - 1);
+            switch (side) {
+                case 0:
+                    return node(1, 0, at);
+                case 1:
+                    return node(1, at, grid - 1);
+                case 2:
+                    return node(1, grid - 1, grid - 1 - at);
+                default:
+                    return node(1, grid - 1 - at, 0);
+            }
+        }
+
+        private static int slotId(int node, int s) {
+            return node * SLOTS_PER_NODE + s + 1;
+        }
+
+        private int slotCount() {
+            return graph.nodeCount() * SLOTS_PER_NODE;
+        }
+
+        private boolean sameAs(Garage other) {
+            for (int gateId : gateIds) {
+                for (int n = 0; n < graph.nodeCount(); n++) {
+                    for (int s = 0; s < SLOTS_PER_NODE; s++) {
+                        if (graph.distance(gateId, slotId(n, s)) != other.graph.distance(gateId, slotId(n, s))) {
+                            return false;
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Textbook Dijkstra over the edge list with a boxed priority queue,
+         * sharing no code with FloorGraph
+         */
+        private boolean matchesReference() {
+            int nodes = graph.nodeCount();
+            List<List<int[]>> adjacent = new ArrayList<>();
+            for (int n = 0; n < nodes; n++) {
+                adjacent.add(new ArrayList<>());
+            }
+            for (int[] e : edges) {
+                if (graph.isClosed(e[0])) {
+                    continue;
+                }
+                adjacent.get(e[1]).add(new int[] {e[2], graph.length(e[0])});
+                adjacent.get(e[2]).add(new int[] {e[1], graph.length(e[0])});
+            }
+            int[] nearest = new int[nodes];
+            Arrays.fill(nearest, Integer.MAX_VALUE);
+            for (int i = 0; i < gateIds.length; i++) {
+                long[] distance = new long[nodes];
+                Arrays.fill(distance, Long.MAX_VALUE);
+                distance[gateNodes[i]] = 0;
+                PriorityQueue<long[]> queue = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+                queue.add(new long[] {0, gateNodes[i]});
+                while (!queue.isEmpty()) {
+                    long[] top = queue.poll();
+                    int x = (int) top[1];
+                    if (top[0] > distance[x]) {
+                        continue;
+                    }
+                    for (int[] next : adjacent.get(x)) {
+                        long candidate = distance[x] + next[1];
+                        if (candidate < distance[next[0]]) {
+                            distance[next[0]] = candidate;
+                            queue.add(new long[] {candidate, next[0]});
+                        }
+                    }
+                }
+                for (int n = 0; n < nodes; n++) {
+                    for (int s = 0; s < SLOTS_PER_NODE; s++) {
+                        int expected = distance[n] == Long.MAX_VALUE ? FloorGraph.UNREACHABLE
+                                : (int) distance[n] + 2 + 3 * s;
+                        if (graph.distance(gateIds[i], slotId(n, s)) != expected) {
+                            return false;
+                        }
+                        if (s == 0) {
+                            nearest[n] = Math.min(nearest[n], expected);
+                        }
+                    }
+                }
+            }
+            // A gate that is not attached sees the nearest attached gate
+            for (int n = 0; n < nodes; n++) {
+                if (graph.distance(0, slotId(n, 0)) != nearest[n]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,19 +1,36 @@
-import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Represents an entry gate where vehicles enter the parking lot
  */
 public class EntryGate {
     private final int id;
+    // Null to use the lot's clock
+    private final ParkingClock clock;
 
     public EntryGate(int id) {
+        this(id, null);
+    }
+
+    /**
+     * @param clock Time source for this gate instead of the lot's
+     */
+    public EntryGate(int id, ParkingClock clock) {
         this.id = id;
+        this.clock = clock;
     }
 
     public int getId() {
         return id;
     }
 
+    private long now(ParkingLot lot) {
+        return (clock != null ? clock : lot.getClock()).millis();
+    }
+
     /**
      * Generates a ticket for a vehicle entering the parking lot
      * 
@@ -22,18 +39,219 @@ public class EntryGate {
      * @return Ticket if slot allocated successfully, null otherwise
      */
     public Ticket generateTicket(ParkingLot lot, Vehicle vehicle) {
-        Slot slot = lot.allocateSlot(vehicle, id);
+        ParkingMetrics metrics = lot.getMetrics();
+        long start = metrics.startTimer();
+
+        // Cheap early refusal; the registry re-checks atomically below
+        if (lot.findTicketByPlate(vehicle.getId()) != null) {
+            lot.getEvents().entryRefused(vehicle, id);
+            metrics.recordEntry(id, start, vehicle, null, ParkingMetrics.EntryOutcome.REFUSED);
+            return null;
+        }
+
+        // A booked vehicle gets the slot held for it; others are walk-ins
+        long now = now(lot);
+        int reserved = lot.getReservations().arrive(vehicle, TariffEngine.localSecond(now));
+        Slot slot = reserved >= 0 ? lot.getSlotStore().slotAt(reserved) : lot.allocateSlot(vehicle, id);
         if (slot == null) {
-            System.out.println("No available slot for vehicle: " + vehicle);
+            // Full: wait for a departing vehicle's slot if the gate has a waitlist
+            slot = lot.awaitSlot(vehicle, id);
+        }
+        if (slot == null) {
+            lot.getEvents().allocationFailed(vehicle, id);
+            metrics.recordEntry(id, start, vehicle, null, ParkingMetrics.EntryOutcome.NO_SLOT);
             return null;
         }
 
-        slot.occupy();
-        Ticket ticket = new Ticket(lot.nextTicketId(), slot, vehicle, LocalDateTime.now());
-        System.out.println("Ticket generated: " + ticket);
+        // Slot was already claimed by the strategy or the reservation
+        Ticket ticket = new Ticket(lot.nextTicketId(id), slot, vehicle, now);
+        boolean opened = false;
+        try {
+            opened = lot.openTicket(ticket);
+        } finally {
+            if (!opened) {
+                giveBack(lot, vehicle.getId(), reserved, slot);
+            }
+        }
+        if (!opened) {
+            // Same plate entered at another gate at the same moment
+            lot.getEvents().entryRefused(vehicle, id);
+            metrics.recordEntry(id, start, vehicle, null, ParkingMetrics.EntryOutcome.REFUSED);
+            return null;
+        }
+        lot.getEvents().ticketIssued(ticket, id);
+        metrics.recordEntry(id, start, vehicle, slot, ParkingMetrics.EntryOutcome.ISSUED);
         return ticket;
     }
 
+    /**
+     * Admits a vehicle as a compact ticket (see ParkingLot.enableCompactTickets)
+     * Same rules as generateTicket, but no Vehicle, Ticket or LocalDateTime
+     * is created: the ticket is a row in the lot's TicketTable
+     * 
+     * @param lot               The parking lot system, in compact mode
+     * @param plate             The vehicle's licence plate
+     * @param size              The vehicle's size
+     * @param requestedFeatures Mask of SlotFeature flags the vehicle needs
+     * @return The ticket id, or -1 if the vehicle was turned away
+     */
+    public long enter(ParkingLot lot, String plate, VehicleSize size, int requestedFeatures) {
+        TicketTable tickets = lot.getTicketTable();
+        if (tickets == null) {
+            throw new IllegalStateException("Compact tickets are not enabled");
+        }
+        ParkingMetrics metrics = lot.getMetrics();
+        long start = metrics.startTimer();
+        EventPipeline events = lot.getEvents();
+
+        // Cheap early refusal; the table re-checks atomically below
+        if (tickets.isParked(plate)) {
+            events.entryRefused(plate, size, requestedFeatures, id);
+            metrics.recordEntry(id, start, plate, size, null, ParkingMetrics.EntryOutcome.REFUSED);
+            return -1;
+        }
+
+        // Strategies and waitlists only read the size and needs
+        Vehicle shape = Vehicle.shape(size, requestedFeatures);
+        SlotStore store = lot.getSlotStore();
+        long now = now(lot);
+        int reserved = lot.getReservations().arrive(plate, TariffEngine.localSecond(now));
+        int index = reserved;
+        if (index < 0) {
+            index = lot.allocateSlotIndex(shape, id);
+        }
+        if (index < 0) {
+            Slot slot = lot.awaitSlot(shape, id);
+            index = slot != null ? store.indexOf(slot) : -1;
+        }
+        if (index < 0) {
+            events.allocationFailed(plate, size, requestedFeatures, id);
+            metrics.recordEntry(id, start, plate, size, null, ParkingMetrics.EntryOutcome.NO_SLOT);
+            return -1;
+        }
+
+        Slot slot = store.slotAt(index);
+        long ticketId = lot.nextTicketId(id);
+        boolean opened = false;
+        try {
+            opened = lot.openTicket(ticketId, index, plate, size, requestedFeatures, now);
+        } finally {
+            if (!opened) {
+                giveBack(lot, plate, reserved, slot);
+            }
+        }
+        if (!opened) {
+            // Same plate entered at another gate at the same moment
+            events.entryRefused(plate, size, requestedFeatures, id);
+            metrics.recordEntry(id, start, plate, size, null, ParkingMetrics.EntryOutcome.REFUSED);
+            return -1;
+        }
+        events.ticketIssued(ticketId, slot, plate, now, id);
+        metrics.recordEntry(id, start, plate, size, slot, ParkingMetrics.EntryOutcome.ISSUED);
+        return ticketId;
+    }
+
+    /**
+     * Gives back a slot whose ticket could not be opened: a booked
+     * vehicle's slot stays held for its booking, any other is released
+     *
+     * @param reserved Slot index the reservation gave, or -1 for a walk-in
+     */
+    private static void giveBack(ParkingLot lot, String plate, int reserved, Slot slot) {
+        if (reserved < 0 || !lot.getReservations().undoArrival(plate, reserved)) {
+            lot.releaseSlot(slot);
+        }
+    }
+
+    /**
+     * Issues tickets for a batch of vehicles arriving together (bus convoy,
+     * ANPR lane burst). All slots are claimed in one pass over the store and
+     * the entries are journaled with one commit
+     * 
+     * @param lot      The parking lot system
+     * @param vehicles The vehicles entering, in arrival order
+     * @return Ticket per vehicle, null where the vehicle was turned away
+     */
+    public Ticket[] generateTickets(ParkingLot lot, List<Vehicle> vehicles) {
+        ParkingMetrics metrics = lot.getMetrics();
+        long start = metrics.startTimer();
+        Ticket[] tickets = new Ticket[vehicles.size()];
+
+        // Plates already parked, or repeated within the batch, are refused
+        List<Vehicle> admitted = new ArrayList<>(vehicles.size());
+        int[] positions = new int[vehicles.size()];
+        Set<String> plates = new HashSet<>();
+        for (int i = 0; i < vehicles.size(); i++) {
+            Vehicle vehicle = vehicles.get(i);
+            if (!plates.add(vehicle.getId()) || lot.findTicketByPlate(vehicle.getId()) != null) {
+                lot.getEvents().entryRefused(vehicle, id);
+                metrics.recordEntry(id, start, vehicle, null, ParkingMetrics.EntryOutcome.REFUSED);
+            } else {
+                positions[admitted.size()] = i;
+                admitted.add(vehicle);
+            }
+        }
+
+        // Booked vehicles get their held slots; the walk-ins go to the strategy
+        long now = now(lot);
+        long nowSecond = TariffEngine.localSecond(now);
+        Slot[] slots = new Slot[admitted.size()];
+        int[] reserved = new int[admitted.size()];
+        List<Vehicle> walkIns = new ArrayList<>(admitted.size());
+        int[] walkInPositions = new int[admitted.size()];
+        for (int a = 0; a < slots.length; a++) {
+            reserved[a] = lot.getReservations().arrive(admitted.get(a), nowSecond);
+            if (reserved[a] >= 0) {
+                slots[a] = lot.getSlotStore().slotAt(reserved[a]);
+            } else {
+                walkInPositions[walkIns.size()] = a;
+                walkIns.add(admitted.get(a));
+            }
+        }
+        // Slots were already claimed by the strategy or the reservation
+        Slot[] allocated = lot.allocateSlots(walkIns, id);
+        for (int w = 0; w < allocated.length; w++) {
+            slots[walkInPositions[w]] = allocated[w];
+        }
+        Ticket[] issued = new Ticket[slots.length];
+        for (int a = 0; a < slots.length; a++) {
+            if (slots[a] != null) {
+                issued[a] = new Ticket(lot.nextTicketId(id), slots[a], admitted.get(a), now);
+            }
+        }
+        boolean[] opened = new boolean[slots.length];
+        try {
+            opened = lot.openTickets(issued);
+        } finally {
+            // Same plate entered at another gate at the same moment, or
+            // nothing was opened because the journal write failed
+            Slot[] unused = new Slot[slots.length];
+            for (int a = 0; a < slots.length; a++) {
+                if (slots[a] != null && !opened[a] && (reserved[a] < 0
+                        || !lot.getReservations().undoArrival(admitted.get(a).getId(), reserved[a]))) {
+                    unused[a] = slots[a];
+                }
+            }
+            lot.releaseSlots(unused);
+        }
+
+        for (int a = 0; a < slots.length; a++) {
+            Vehicle vehicle = admitted.get(a);
+            if (slots[a] == null) {
+                lot.getEvents().allocationFailed(vehicle, id);
+                metrics.recordEntry(id, start, vehicle, null, ParkingMetrics.EntryOutcome.NO_SLOT);
+            } else if (!opened[a]) {
+                lot.getEvents().entryRefused(vehicle, id);
+                metrics.recordEntry(id, start, vehicle, null, ParkingMetrics.EntryOutcome.REFUSED);
+            } else {
+                tickets[positions[a]] = issued[a];
+                lot.getEvents().ticketIssued(issued[a], id);
+                metrics.recordEntry(id, start, vehicle, slots[a], ParkingMetrics.EntryOutcome.ISSUED);
+            }
+        }
+        return tickets;
+    }
+
     @Override
     public String toString() {
         return "EntryGate{id=" + id + "}";
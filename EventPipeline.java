@@ -0,0 +1,394 @@
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous event log that keeps console and file output off the gate
+ * threads. Gates write events into a bounded lock-free ring buffer of
+ * preallocated entries; a background consumer formats them in batches and
+ * hands each batch to a pluggable EventSink
+ */
+public class EventPipeline implements AutoCloseable {
+
+    /**
+     * What a producer does when the ring buffer is full
+     */
+    public enum OverflowPolicy {
+        // Discard the new event and count it
+        DROP,
+        // Wait for the consumer to free space (backpressure onto the gate)
+        BLOCK
+    }
+
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final int MAX_BATCH = 256;
+    // How long flush() callers wait between checks
+    private static final long FLUSH_POLL_NANOS = 100_000;
+
+    private final Entry[] entries;
+    private final int mask;
+    private final int capacity;
+    // Sequence stored in a slot once its entry is fully written
+    private final AtomicLongArray published;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final EventSink sink;
+    private final OverflowPolicy policy;
+    private final Thread consumer;
+
+    // Every sequence below this has been formatted and its entry reused
+    private volatile long consumed;
+    // Every sequence below this has been flushed through the sink
+    private volatile long flushed;
+    // Highest sequence a caller of flush() is waiting on
+    private volatile long flushTarget;
+    private volatile boolean running = true;
+    // Set while the consumer is parked (or about to park) on an empty ring;
+    // producers only unpark it then, so a busy ring costs them one read
+    private volatile boolean sleeping;
+
+    public EventPipeline() {
+        this(new ConsoleEventSink(), DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param sink     Destination for formatted batches
+     * @param capacity Ring size, rounded up to a power of two
+     * @param policy   What to do when the ring is full
+     */
+    public EventPipeline(EventSink sink, int capacity, OverflowPolicy policy) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        this.entries = new Entry[this.capacity];
+        this.published = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            entries[i] = new Entry();
+            published.set(i, -1);
+        }
+        this.sink = sink;
+        this.policy = policy;
+        this.consumer = new Thread(this::consume, "parking-events");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    public void ticketIssued(Ticket ticket, int gateId) {
+        publish(ParkingEventType.TICKET_ISSUED, gateId, ticket, 0, 0);
+    }
+
+    public void billGenerated(Bill bill, int gateId, double baseCharges, double extraCharges) {
+        publish(ParkingEventType.BILL_GENERATED, gateId, bill, baseCharges, extraCharges);
+    }
+
+    /**
+     * A compact ticket was issued; see TicketTable
+     */
+    public void ticketIssued(long ticketId, Slot slot, String plate, long entryEpochMillis, int gateId) {
+        publish(ParkingEventType.TICKET_ISSUED, gateId, slot, plate, ticketId, entryEpochMillis, 0, 0);
+    }
+
+    /**
+     * A compact ticket was settled; charges are in cents
+     */
+    public void billGenerated(long ticketId, long exitEpochMillis, long baseCents, long extraCents, int gateId) {
+        publish(ParkingEventType.BILL_GENERATED, gateId, null, null, ticketId, exitEpochMillis,
+                baseCents / 100.0, extraCents / 100.0);
+    }
+
+    public void slotReleased(Slot slot) {
+        publish(ParkingEventType.SLOT_RELEASED, -1, slot, 0, 0);
+    }
+
+    public void allocationFailed(Vehicle vehicle, int gateId) {
+        publish(ParkingEventType.ALLOCATION_FAILED, gateId, vehicle, 0, 0);
+    }
+
+    /**
+     * allocationFailed for a vehicle known by its fields (compact tickets)
+     */
+    public void allocationFailed(String plate, VehicleSize size, int requestedFeatures, int gateId) {
+        publish(ParkingEventType.ALLOCATION_FAILED, gateId, plate, size, requestedFeatures, 0, 0, 0);
+    }
+
+    /**
+     * A vehicle whose plate is already parked tried to enter again
+     */
+    public void entryRefused(Vehicle vehicle, int gateId) {
+        publish(ParkingEventType.ENTRY_REFUSED, gateId, vehicle, 0, 0);
+    }
+
+    public void entryRefused(String plate, VehicleSize size, int requestedFeatures, int gateId) {
+        publish(ParkingEventType.ENTRY_REFUSED, gateId, plate, size, requestedFeatures, 0, 0, 0);
+    }
+
+    /**
+     * An exit was requested for a ticket id that is not active
+     */
+    public void exitRefused(long ticketId, int gateId) {
+        publish(ParkingEventType.EXIT_REFUSED, gateId, null, ticketId);
+    }
+
+    /**
+     * An exit was requested for a plate that is not parked
+     */
+    public void exitRefused(String plate, int gateId) {
+        publish(ParkingEventType.EXIT_REFUSED, gateId, plate, 0, 0);
+    }
+
+    /**
+     * A change to the lot itself (floors, slots, gates, settings); these are
+     * rare, so the caller builds the text
+     */
+    public void notice(String text) {
+        publish(ParkingEventType.LOT_NOTICE, -1, text, 0, 0);
+    }
+
+    /**
+     * Number of events discarded because the ring was full (DROP policy)
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Blocks until every event published so far has reached the sink
+     */
+    public void flush() {
+        long target = nextSequence.get();
+        if (target > flushTarget) {
+            flushTarget = target;
+        }
+        while (flushed < target && consumer.isAlive()) {
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(FLUSH_POLL_NANOS);
+        }
+    }
+
+    /**
+     * Drains outstanding events, stops the consumer and closes the sink
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sink.close();
+    }
+
+    // Only references and primitives are stored, so nothing is allocated
+    // on the gate thread; all string building happens on the consumer
+    private void publish(ParkingEventType type, int gateId, Object subject, double first, double second) {
+        publish(type, gateId, subject, 0, first, second);
+    }
+
+    private void publish(ParkingEventType type, int gateId, Object subject, long number) {
+        publish(type, gateId, subject, number, 0, 0);
+    }
+
+    private void publish(ParkingEventType type, int gateId, Object subject, long number,
+            double first, double second) {
+        publish(type, gateId, subject, null, number, 0, first, second);
+    }
+
+    private void publish(ParkingEventType type, int gateId, Object subject, Object detail, long number, long time,
+            double first, double second) {
+        long sequence = claim();
+        if (sequence < 0) {
+            return;
+        }
+        Entry entry = entries[(int) sequence & mask];
+        entry.type = type;
+        entry.gateId = gateId;
+        entry.subject = subject;
+        entry.detail = detail;
+        entry.number = number;
+        entry.time = time;
+        entry.first = first;
+        entry.second = second;
+        // A full store, not lazySet: it must be visible before sleeping is
+        // read, or the consumer could park on an event it never saw
+        published.set((int) sequence & mask, sequence);
+        if (sleeping) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private long claim() {
+        if (policy == OverflowPolicy.DROP) {
+            while (true) {
+                long sequence = nextSequence.get();
+                if (sequence - consumed >= capacity) {
+                    dropped.incrementAndGet();
+                    return -1;
+                }
+                if (nextSequence.compareAndSet(sequence, sequence + 1)) {
+                    return sequence;
+                }
+            }
+        }
+        long sequence = nextSequence.getAndIncrement();
+        while (sequence - consumed >= capacity) {
+            LockSupport.unpark(consumer);
+            Thread.onSpinWait();
+        }
+        return sequence;
+    }
+
+    private void consume() {
+        StringBuilder batch = new StringBuilder(16 * 1024);
+        long next = 0;
+        while (running || next < nextSequence.get()) {
+            int count = 0;
+            while (count < MAX_BATCH && published.get((int) (next + count) & mask) == next + count) {
+                Entry entry = entries[(int) (next + count) & mask];
+                format(entry, batch);
+                entry.subject = null;
+                entry.detail = null;
+                count++;
+            }
+
+            if (count > 0) {
+                write(batch);
+                batch.setLength(0);
+                next += count;
+                consumed = next;
+                // Under sustained load the ring never goes idle, so honour
+                // explicit flush requests between batches
+                if (flushTarget > flushed && next >= flushTarget) {
+                    flushSink(next);
+                }
+            } else {
+                // Ring drained: flush once per burst rather than per event
+                if (flushed < next) {
+                    flushSink(next);
+                }
+                // Park until a producer, flush or close wakes us; checking
+                // the ring after announcing closes the race with publish
+                sleeping = true;
+                if (running && published.get((int) next & mask) != next) {
+                    LockSupport.park(this);
+                }
+                sleeping = false;
+            }
+        }
+    }
+
+    private void flushSink(long through) {
+        try {
+            sink.flush();
+        } catch (IOException e) {
+            System.err.println("EventPipeline: sink flush failed: " + e.getMessage());
+        }
+        flushed = through;
+    }
+
+    private void write(StringBuilder batch) {
+        try {
+            sink.write(batch);
+        } catch (IOException e) {
+            System.err.println("EventPipeline: sink write failed: " + e.getMessage());
+        }
+    }
+
+    private static void format(Entry entry, StringBuilder out) {
+        switch (entry.type) {
+            case TICKET_ISSUED: {
+                Slot slot;
+                out.append("Ticket generated at gate ").append(entry.gateId).append(": ");
+                if (entry.subject instanceof Ticket) {
+                    Ticket ticket = (Ticket) entry.subject;
+                    slot = ticket.getSlot();
+                    out.append(ticket);
+                } else {
+                    // Compact ticket: same text as Ticket.toString
+                    slot = (Slot) entry.subject;
+                    out.append("Ticket{id=").append(entry.number).append(", slot=").append(slot.getId())
+                            .append(", vehicle=").append(entry.detail)
+                            .append(", entryTime=").append(localTime(entry.time)).append('}');
+                }
+                out.append(" (distance: ").append(slot.getDistanceToGate(entry.gateId))
+                        .append(", size: ").append(slot.getSize())
+                        .append(", features: ").append(slot.getFeatures()).append(")\n");
+                break;
+            }
+            case BILL_GENERATED: {
+                out.append("Bill generated at gate ").append(entry.gateId).append(": ");
+                double total;
+                if (entry.subject != null) {
+                    Bill bill = (Bill) entry.subject;
+                    total = bill.getTotalAmount();
+                    out.append(bill);
+                } else {
+                    // Compact bill: same text as Bill.toString
+                    total = (Math.round(entry.first * 100) + Math.round(entry.second * 100)) / 100.0;
+                    out.append("Bill{ticket=").append(entry.number).append(", exitTime=").append(localTime(entry.time))
+                            .append(", totalAmount=").append(total).append('}');
+                }
+                out.append('\n')
+                        .append("Base charges: $").append(entry.first)
+                        .append(", Extra charges: $").append(entry.second)
+                        .append(", Total: $").append(total).append("\n\n");
+                break;
+            }
+            case SLOT_RELEASED:
+                out.append("Released slot ").append(((Slot) entry.subject).getId())
+                        .append(" back to available pool\n");
+                break;
+            case ALLOCATION_FAILED:
+                out.append("No available slot for vehicle: ").append(vehicle(entry))
+                        .append(" at gate ").append(entry.gateId).append('\n');
+                break;
+            case ENTRY_REFUSED:
+                out.append("Vehicle already parked, entry refused: ").append(vehicle(entry))
+                        .append(" at gate ").append(entry.gateId).append('\n');
+                break;
+            case EXIT_REFUSED:
+                out.append("No active ticket for ");
+                if (entry.subject != null) {
+                    out.append("plate ").append(entry.subject);
+                } else {
+                    out.append("ticket ").append(entry.number);
+                }
+                out.append(" at exit gate ").append(entry.gateId).append('\n');
+                break;
+            case LOT_NOTICE:
+                out.append(entry.subject).append('\n');
+                break;
+        }
+    }
+
+    // A Vehicle, or a compact vehicle's plate with its size as detail
+    private static Object vehicle(Entry entry) {
+        if (entry.detail == null) {
+            return entry.subject;
+        }
+        return Vehicle.describe((String) entry.subject, (VehicleSize) entry.detail, (int) entry.number);
+    }
+
+    private static LocalDateTime localTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    /**
+     * Preallocated, reusable ring buffer slot
+     */
+    private static final class Entry {
+        private ParkingEventType type;
+        private int gateId;
+        private Object subject;
+        private Object detail;
+        private long number;
+        private long time;
+        private double first;
+        private double second;
+    }
+}
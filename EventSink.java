@@ -0,0 +1,16 @@
+import java.io.IOException;
+
+/**
+ * Destination for formatted event batches written by the EventPipeline
+ * consumer thread
+ */
+public interface EventSink {
+    /**
+     * Writes one batch of already formatted event lines
+     */
+    void write(CharSequence batch) throws IOException;
+
+    void flush() throws IOException;
+
+    void close() throws IOException;
+}
@@ -1,50 +1,234 @@
-import java.time.LocalDateTime;
-import java.time.Duration;
+import java.util.List;
 
 /**
  * Represents an exit gate where vehicles leave the parking lot
  */
 public class ExitGate {
     private final int id;
+    // Null to use the lot's clock
+    private final ParkingClock clock;
 
     public ExitGate(int id) {
+        this(id, null);
+    }
+
+    /**
+     * @param clock Time source for this gate instead of the lot's
+     */
+    public ExitGate(int id, ParkingClock clock) {
         this.id = id;
+        this.clock = clock;
     }
 
     public int getId() {
         return id;
     }
 
+    private long now(ParkingLot lot) {
+        return (clock != null ? clock : lot.getClock()).millis();
+    }
+
     /**
      * Generates a bill for a vehicle exiting the parking lot
      * 
      * @param lot    The parking lot system
      * @param ticket The ticket of the exiting vehicle
-     * @return Bill with calculated charges
+     * @return Bill with calculated charges, or null if the ticket is not active
      */
     public Bill generateBill(ParkingLot lot, Ticket ticket) {
-        Slot slot = ticket.getSlot();
-        slot.vacate();
+        return generateBill(lot, ticket.getId());
+    }
 
-        LocalDateTime exitTime = LocalDateTime.now();
-        long hours = Duration.between(ticket.getEntryTime(), exitTime).toHours();
-        if (hours == 0)
-            hours = 1; // Minimum 1 hour charge
+    /**
+     * Generates a bill from a ticket id alone (lost-ticket kiosk, ticket scan)
+     * 
+     * @param lot      The parking lot system
+     * @param ticketId The id printed on the ticket
+     * @return Bill with calculated charges, or null if the ticket is not active
+     */
+    public Bill generateBill(ParkingLot lot, long ticketId) {
+        long start = lot.getMetrics().startTimer();
+        Ticket ticket = lot.closeTicket(ticketId);
+        if (ticket == null) {
+            lot.getEvents().exitRefused(ticketId, id);
+            lot.getMetrics().recordExit(id, start, null);
+            return null;
+        }
+        return settle(lot, ticket, start);
+    }
 
-        double baseCharges = slot.getBaseRate() * hours;
-        double extraCharges = slot.getExtraCharges(hours);
-        double totalAmount = baseCharges + extraCharges;
+    /**
+     * Generates a bill from the licence plate alone (ANPR camera)
+     * 
+     * @param lot   The parking lot system
+     * @param plate The vehicle's licence plate
+     * @return Bill with calculated charges, or null if the plate is not parked
+     */
+    public Bill generateBillForPlate(ParkingLot lot, String plate) {
+        long start = lot.getMetrics().startTimer();
+        Ticket ticket = lot.closeTicketForPlate(plate);
+        if (ticket == null) {
+            lot.getEvents().exitRefused(plate, id);
+            lot.getMetrics().recordExit(id, start, null);
+            return null;
+        }
+        return settle(lot, ticket, start);
+    }
 
-        lot.releaseSlot(slot);
+    /**
+     * Settles a compact ticket (see ParkingLot.enableCompactTickets); the
+     * stay goes straight into the bill history without a Bill object
+     * 
+     * @param lot      The parking lot system, in compact mode
+     * @param ticketId The id printed on the ticket
+     * @return The charge in cents, or -1 if the ticket is not active
+     */
+    public long exit(ParkingLot lot, long ticketId) {
+        TicketTable tickets = ticketTable(lot);
+        long start = lot.getMetrics().startTimer();
+        int row = tickets.remove(ticketId);
+        if (row < 0) {
+            lot.getEvents().exitRefused(ticketId, id);
+            lot.getMetrics().recordExit(id, start, null);
+            return -1;
+        }
+        return settle(lot, tickets, row, start);
+    }
 
-        Bill bill = new Bill(ticket, exitTime, totalAmount);
-        System.out.println("Bill generated: " + bill);
-        System.out.println("Base charges: $" + baseCharges +
-                ", Extra charges: $" + extraCharges +
-                ", Total: $" + totalAmount);
+    /**
+     * Settles a compact ticket from the licence plate alone (ANPR camera)
+     * 
+     * @return The charge in cents, or -1 if the plate is not parked
+     */
+    public long exitForPlate(ParkingLot lot, String plate) {
+        TicketTable tickets = ticketTable(lot);
+        long start = lot.getMetrics().startTimer();
+        int row = tickets.removeByPlate(plate);
+        if (row < 0) {
+            lot.getEvents().exitRefused(plate, id);
+            lot.getMetrics().recordExit(id, start, null);
+            return -1;
+        }
+        return settle(lot, tickets, row, start);
+    }
+
+    private static TicketTable ticketTable(ParkingLot lot) {
+        TicketTable tickets = lot.getTicketTable();
+        if (tickets == null) {
+            throw new IllegalStateException("Compact tickets are not enabled");
+        }
+        return tickets;
+    }
+
+    /**
+     * Generates bills for a batch of tickets leaving together; the exits
+     * are journaled with one commit and the slots released in one pass
+     * 
+     * @param lot     The parking lot system
+     * @param tickets The tickets of the exiting vehicles
+     * @return Bill per ticket, null where the ticket was not active
+     */
+    public Bill[] generateBills(ParkingLot lot, List<Ticket> tickets) {
+        long start = lot.getMetrics().startTimer();
+        Ticket[] closed = new Ticket[tickets.size()];
+        for (int i = 0; i < closed.length; i++) {
+            long ticketId = tickets.get(i).getId();
+            closed[i] = lot.closeTicket(ticketId);
+            if (closed[i] == null) {
+                lot.getEvents().exitRefused(ticketId, id);
+                lot.getMetrics().recordExit(id, start, null);
+            }
+        }
+        return settle(lot, closed, start);
+    }
+
+    /**
+     * Generates bills for a batch of plates read by an ANPR exit lane
+     * 
+     * @param lot    The parking lot system
+     * @param plates The licence plates of the exiting vehicles
+     * @return Bill per plate, null where the plate was not parked
+     */
+    public Bill[] generateBillsForPlates(ParkingLot lot, List<String> plates) {
+        long start = lot.getMetrics().startTimer();
+        Ticket[] closed = new Ticket[plates.size()];
+        for (int i = 0; i < closed.length; i++) {
+            closed[i] = lot.closeTicketForPlate(plates.get(i));
+            if (closed[i] == null) {
+                lot.getEvents().exitRefused(plates.get(i), id);
+                lot.getMetrics().recordExit(id, start, null);
+            }
+        }
+        return settle(lot, closed, start);
+    }
+
+    // The ticket has already been removed from the registry, so only one
+    // exit can ever bill it and release its slot
+    private Bill settle(ParkingLot lot, Ticket ticket, long start) {
+        Slot slot = ticket.getSlot();
+
+        Bill bill = lot.getTariff().bill(ticket, now(lot));
+        try {
+            lot.recordExit(bill);
+        } finally {
+            // Vacates the slot and returns it to the pool in one step; the
+            // ticket is closed, so the slot must not leak if recording fails
+            lot.releaseSlot(slot);
+        }
+        lot.getEvents().billGenerated(bill, id, bill.getBaseCents() / 100.0, bill.getExtraCents() / 100.0);
+        lot.getMetrics().recordExit(id, start, bill);
         return bill;
     }
 
+    // The row has already been removed from the table, as above
+    private long settle(ParkingLot lot, TicketTable tickets, int row, long start) {
+        long ticketId = tickets.ticketId(row);
+        int index = tickets.slotIndex(row);
+        long entryMillis = tickets.entryEpochMillis(row);
+        tickets.free(row);
+
+        long exitMillis = now(lot);
+        TariffEngine tariff = lot.getTariff();
+        long weight = tariff.weight(TariffEngine.localSecond(entryMillis), TariffEngine.localSecond(exitMillis));
+        long baseCents = tariff.baseCents(index, weight);
+        long extraCents = tariff.extraCents(index, weight);
+        Slot slot = lot.getSlotStore().slotAt(index);
+        try {
+            lot.recordExit(ticketId, index, entryMillis, exitMillis, baseCents + extraCents);
+        } finally {
+            lot.releaseSlot(slot);
+        }
+        lot.getEvents().billGenerated(ticketId, exitMillis, baseCents, extraCents, id);
+        lot.getMetrics().recordExit(id, start, ticketId, slot.getId(), baseCents + extraCents);
+        return baseCents + extraCents;
+    }
+
+    private Bill[] settle(ParkingLot lot, Ticket[] closed, long start) {
+        Bill[] bills = new Bill[closed.length];
+        Slot[] slots = new Slot[closed.length];
+        TariffEngine tariff = lot.getTariff();
+        long exitTime = now(lot);
+        for (int i = 0; i < closed.length; i++) {
+            if (closed[i] == null) {
+                continue;
+            }
+            slots[i] = closed[i].getSlot();
+            bills[i] = tariff.bill(closed[i], exitTime);
+        }
+        try {
+            lot.recordExits(bills);
+        } finally {
+            lot.releaseSlots(slots);
+        }
+        for (int i = 0; i < bills.length; i++) {
+            if (bills[i] != null) {
+                lot.getEvents().billGenerated(bills[i], id, bills[i].getBaseCents() / 100.0, bills[i].getExtraCents() / 100.0);
+                lot.getMetrics().recordExit(id, start, bills[i]);
+            }
+        }
+        return bills;
+    }
+
     @Override
     public String toString() {
         return "ExitGate{id=" + id + "}";
@@ -0,0 +1,150 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+/**
+ * Times "nearest free slot of a size with a feature" on a large, mostly
+ * occupied lot with sparse charging bays, against a scan of the gate's
+ * distance order that checks each slot's flags. Both must pick the same
+ * slot. Then fills the lot with vehicles that ask for nothing and checks
+ * that charging bays are handed out only after every other slot is taken
+ *
+ * java FeatureLookupBenchmark slots=200000 charging=2 occupancy=90 lookups=20000
+ */
+public class FeatureLookupBenchmark {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+    private static final int FLOORS = 20;
+    private static final int CHARGING = SlotFeature.CHARGING.flag();
+
+    public static void main(String[] args) throws Exception {
+        int slotCount = 200_000;
+        int chargingPerMille = 2;
+        int occupancy = 90;
+        int lookups = 20_000;
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length == 2 && pair[0].equals("slots")) {
+                slotCount = Integer.parseInt(pair[1]);
+            } else if (pair.length == 2 && pair[0].equals("charging")) {
+                chargingPerMille = Integer.parseInt(pair[1]);
+            } else if (pair.length == 2 && pair[0].equals("occupancy")) {
+                occupancy = Integer.parseInt(pair[1]);
+            } else if (pair.length == 2 && pair[0].equals("lookups")) {
+                lookups = Integer.parseInt(pair[1]);
+            } else {
+                System.out.println("Unknown argument: " + arg
+                        + ", expected slots=N, charging=N (per mille), occupancy=N (%) or lookups=N");
+                return;
+            }
+        }
+
+        Random random = new Random(11);
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ParkingLot lot = new ParkingLot(new NearestParkingStrategy(),
+                new EventPipeline(new NullEventSink(), 1 << 10, EventPipeline.OverflowPolicy.DROP));
+        lot.addEntryGate(new EntryGate(1));
+        int perFloor = (slotCount + FLOORS - 1) / FLOORS;
+        for (int f = 0; f < FLOORS; f++) {
+            Floor floor = new Floor(f + 1);
+            for (int i = 0; i < perFloor && f * perFloor + i < slotCount; i++) {
+                int id = f * perFloor + i + 1;
+                // Distinct distances so both lookups agree on a single nearest slot
+                Slot slot = new BasicSlot(id, SIZES[random.nextInt(SIZES.length)], 5.0, new int[] {id, id});
+                if (random.nextInt(1000) < chargingPerMille) {
+                    slot = new ChargingDecorator(slot, 3.0);
+                }
+                if (random.nextInt(10) == 0) {
+                    slot = new CleaningDecorator(slot, 10.0);
+                }
+                floor.addSlot(slot);
+            }
+            lot.addFloor(floor);
+        }
+        System.setOut(console);
+
+        SlotStore store = lot.getSlotStore();
+        int n = store.count();
+        for (int i = 0; i < n; i++) {
+            if (random.nextInt(100) < occupancy) {
+                store.claim(i);
+            }
+        }
+        int[][] orders = new int[SIZES.length][];
+        for (VehicleSize size : SIZES) {
+            orders[size.ordinal()] = store.nearestOrder(1, size);
+        }
+
+        System.out.println("=== FEATURE LOOKUP BENCHMARK ===");
+        System.out.println("Slots: " + n + ", charging bays: " + chargingPerMille + " per mille, occupancy: "
+                + occupancy + "%");
+        long mismatches = 0;
+        for (int round = 0; round < 3; round++) {
+            long scanNanos = 0;
+            long indexNanos = 0;
+            long sink = 0;
+            for (int q = 0; q < lookups; q++) {
+                VehicleSize size = SIZES[q % SIZES.length];
+                long start = System.nanoTime();
+                int expected = scan(store, orders[size.ordinal()], CHARGING);
+                scanNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                int actual = store.claimNearest(1, size, CHARGING, 0);
+                indexNanos += System.nanoTime() - start;
+                if (actual != expected) {
+                    mismatches++;
+                }
+                if (actual >= 0) {
+                    store.release(actual);
+                }
+                sink += actual;
+            }
+            if (round > 0 && sink != Long.MIN_VALUE) {
+                System.out.printf("Round %d: distance-order scan %,10.0f ns/lookup, feature index %,8.0f ns/lookup%n",
+                        round, (double) scanNanos / lookups, (double) indexNanos / lookups);
+            }
+        }
+        System.out.println("Nearest charging slot mismatches: " + mismatches);
+
+        // Steering: vehicles without requests fill every other slot before a charging bay
+        for (int i = 0; i < n; i++) {
+            store.release(i);
+        }
+        int plain = 0;
+        for (int i = 0; i < n; i++) {
+            if ((store.featureFlags(i) & CHARGING) == 0) {
+                plain++;
+            }
+        }
+        int early = 0;
+        for (int v = 0; v < n; v++) {
+            Slot slot = lot.allocateSlot(new Vehicle("V" + v, VehicleSize.SMALL), 1);
+            if (slot != null && v < plain && (slot.getFeatureFlags() & CHARGING) != 0) {
+                early++;
+            }
+        }
+        System.out.println("Charging bays given to plain vehicles before other slots ran out: " + early);
+
+        lot.getEvents().close();
+        boolean passed = mismatches == 0 && early == 0;
+        System.out.println(passed
+                ? "PASSED: feature index matches the scan and charging bays are kept for vehicles that need them"
+                : "FAILED: feature index disagrees with the scan or gave away charging bays early");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * First free slot in the distance order having every required feature
+     */
+    private static int scan(SlotStore store, int[] order, int required) {
+        for (int index : order) {
+            if (!store.isOccupied(index) && (store.featureFlags(index) & required) == required) {
+                return index;
+            }
+        }
+        return -1;
+    }
+}
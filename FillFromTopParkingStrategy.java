@@ -0,0 +1,33 @@
+/**
+ * Fill-from-top strategy - fills the highest floor first
+ * Lower floors stay empty as long as possible, for example so they can be
+ * closed off at quiet times. Within a floor the smallest fitting size comes
+ * first, in the floor's layout order
+ */
+public class FillFromTopParkingStrategy implements ParkingStrategy {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+
+    @Override
+    public int chooseSlot(Vehicle vehicle, int gateId, SlotIndexView slots) {
+        int required = vehicle.getRequestedFeatures();
+        int avoided = RESERVED_FEATURES & ~required;
+        // Second pass lets vehicles that did not ask for reserved bays use them
+        for (int pass = 0; pass < (avoided != 0 ? 2 : 1); pass++) {
+            for (int f = slots.floorCount() - 1; f >= 0; f--) {
+                for (int size = vehicle.getSize().ordinal(); size < SIZES.length; size++) {
+                    int index = slots.firstFreeOnFloor(gateId, slots.floorNumberAt(f), SIZES[size], required,
+                            pass == 0 ? avoided : 0);
+                    if (index >= 0) {
+                        return index;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String getStrategyName() {
+        return "Fill From Top Parking Strategy";
+    }
+}
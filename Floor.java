@@ -10,10 +10,8 @@ public class Floor {
 
     public Floor(int floorNumber) {
         this.floorNumber = floorNumber;
-        // TreeSet for efficient slot retrieval sorted by distance to gate
-        this.slots = new TreeSet<>(Comparator
-                .comparingInt((Slot s) -> s.getDistanceToGate(0))
-                .thenComparing(Slot::getId));
+        // Slots ordered by id; gate-specific ordering lives in ParkingLot
+        this.slots = new TreeSet<>(Comparator.comparingInt(Slot::getId));
     }
 
     public int getFloorNumber() {
@@ -28,6 +26,10 @@ public class Floor {
         slots.add(slot);
     }
 
+    /**
+     * Only changes this floor's list; use ParkingLot.removeSlot to take a
+     * slot out of service
+     */
     public void removeSlot(Slot slot) {
         slots.remove(slot);
     }
@@ -0,0 +1,69 @@
+/**
+ * Floor balancing strategy - spreads vehicles over the floors so no single
+ * ramp takes all the traffic
+ * Each vehicle goes to the floor with the largest share of free slots of
+ * the smallest size that fits it, and takes the first free slot there in
+ * the floor's layout order that the gate can reach
+ */
+public class FloorBalancingParkingStrategy implements ParkingStrategy {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+
+    @Override
+    public int chooseSlot(Vehicle vehicle, int gateId, SlotIndexView slots) {
+        int required = vehicle.getRequestedFeatures();
+        int avoided = RESERVED_FEATURES & ~required;
+        // Second pass lets vehicles that did not ask for reserved bays use them
+        for (int pass = 0; pass < (avoided != 0 ? 2 : 1); pass++) {
+            int excluded = pass == 0 ? avoided : 0;
+            for (int size = vehicle.getSize().ordinal(); size < SIZES.length; size++) {
+                // Floors by falling share of free slots, ties lowest first; a
+                // floor whose free slots the gate cannot reach passes to the next
+                long lastFree = 1;
+                long lastTotal = 0;
+                int lastFloor = -1;
+                while (true) {
+                    int bestFloor = -1;
+                    long bestFree = 0;
+                    long bestTotal = 1;
+                    for (int f = 0; f < slots.floorCount(); f++) {
+                        int floorNumber = slots.floorNumberAt(f);
+                        int free = slots.freeSlotsOnFloor(floorNumber, SIZES[size], required, excluded);
+                        int total = slots.totalSlotsOnFloor(floorNumber, SIZES[size]);
+                        if (free == 0 || total == 0) {
+                            continue;
+                        }
+                        // Only floors after the last one tried: free / total below
+                        // lastFree / lastTotal, or equal and further up the list
+                        long versusLast = free * lastTotal - lastFree * total;
+                        if (versusLast > 0 || versusLast == 0 && f <= lastFloor) {
+                            continue;
+                        }
+                        // free / total > bestFree / bestTotal, without division
+                        if (bestFloor < 0 || free * bestTotal > bestFree * total) {
+                            bestFloor = f;
+                            bestFree = free;
+                            bestTotal = total;
+                        }
+                    }
+                    if (bestFloor < 0) {
+                        break;
+                    }
+                    int index = slots.firstFreeOnFloor(gateId, slots.floorNumberAt(bestFloor), SIZES[size],
+                            required, excluded);
+                    if (index >= 0) {
+                        return index;
+                    }
+                    lastFree = bestFree;
+                    lastTotal = bestTotal;
+                    lastFloor = bestFloor;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String getStrategyName() {
+        return "Floor Balancing Parking Strategy";
+    }
+}
@@ -0,0 +1,610 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Floors described as a graph of aisles, ramps and lifts, with the entry
+ * gates and slots attached to its nodes
+ * Every gate-to-slot distance is worked out once, by one shortest-path run
+ * per gate on the common fork/join pool, and published as a primitive
+ * matrix [gate][slot] that BasicSlot reads for getDistanceToGate. Each run
+ * keeps its node distances and shortest-path tree, so changing one edge
+ * (a ramp closed for works, a longer lift wait) only repairs the gates
+ * whose distances it can change, and within them only the nodes it can
+ * reach: the subtree hanging off a longer edge, or the nodes a shorter
+ * edge improves. Adding nodes or edges recomputes everything
+ *
+ * Lengths are whole metres (or any one unit); an unreachable slot is at
+ * UNREACHABLE. A gate that is not attached sees each slot at its distance
+ * to the nearest attached gate, as BasicSlot falls back to gate 0
+ */
+public class FloorGraph {
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    public enum Link {
+        AISLE,
+        RAMP,
+        LIFT
+    }
+
+    private static final Link[] LINKS = Link.values();
+
+    private int nodeCount;
+    private int[] nodeFloors = new int[16];
+
+    private int edgeCount;
+    private int[] edgeFrom = new int[16];
+    private int[] edgeTo = new int[16];
+    private int[] edgeLengths = new int[16];
+    private byte[] edgeLinks = new byte[16];
+    private boolean[] edgeClosed = new boolean[16];
+    // Incident edge ids of each node, as compressed rows: node n's edges are
+    // adjacency[adjacencyStart[n] .. adjacencyStart[n + 1])
+    private int[] adjacencyStart = new int[1];
+    private int[] adjacency = new int[0];
+
+    private int gateCount;
+    private int[] gateIds = new int[4];
+    private int[] gateNodes = new int[4];
+    // Gates attached or moved since the last update, which need a full run
+    private boolean[] gateMoved = new boolean[4];
+
+    private int slotCount;
+    private int[] slotNodes = new int[16];
+    private int[] slotOffsets = new int[16];
+    private final SlotStore.IntIndexMap slotPositions = new SlotStore.IntIndexMap();
+
+    // Per gate column: distance to every node and the edge each node is
+    // reached by (-1 for the gate's own node and unreached nodes)
+    private int[][] nodeDistances = new int[0][];
+    private int[][] parentEdges = new int[0][];
+
+    // Edges changed since the last update, with their effective length
+    // before the first change
+    private int pendingCount;
+    private int[] pendingEdges = new int[4];
+    private int[] pendingBefore = new int[4];
+    private boolean structureChanged = true;
+    private boolean slotsChanged;
+    private long settledNodes;
+
+    // What getDistanceToGate reads, swapped as a whole by update()
+    private volatile Distances published = new Distances(0, new int[0], new int[0][], new int[0],
+            new SlotStore.IntIndexMap());
+
+    /**
+     * @return Id of a new node (an aisle junction, ramp end or lift stop)
+     */
+    public synchronized int addNode(int floorNumber) {
+        if (nodeCount == nodeFloors.length) {
+            nodeFloors = Arrays.copyOf(nodeFloors, nodeCount * 2);
+        }
+        nodeFloors[nodeCount] = floorNumber;
+        structureChanged = true;
+        return nodeCount++;
+    }
+
+    /**
+     * Two-way aisle between nodes on the same floor
+     *
+     * @return Edge id for setLength, close and open
+     */
+    public int addAisle(int a, int b, int length) {
+        return addEdge(Link.AISLE, a, b, length);
+    }
+
+    /**
+     * Two-way ramp between nodes on different floors
+     */
+    public int addRamp(int a, int b, int length) {
+        return addEdge(Link.RAMP, a, b, length);
+    }
+
+    /**
+     * Two-way lift between nodes on different floors
+     */
+    public int addLift(int a, int b, int length) {
+        return addEdge(Link.LIFT, a, b, length);
+    }
+
+    private synchronized int addEdge(Link link, int a, int b, int length) {
+        checkNode(a);
+        checkNode(b);
+        checkLength(length);
+        boolean sameFloor = nodeFloors[a] == nodeFloors[b];
+        if (link == Link.AISLE ? !sameFloor : sameFloor) {
+            throw new IllegalArgumentException(link + " from floor " + nodeFloors[a] + " to floor " + nodeFloors[b]
+                    + ": aisles stay on one floor, ramps and lifts change floor");
+        }
+        if (edgeCount == edgeFrom.length) {
+            int length2 = edgeCount * 2;
+            edgeFrom = Arrays.copyOf(edgeFrom, length2);
+            edgeTo = Arrays.copyOf(edgeTo, length2);
+            edgeLengths = Arrays.copyOf(edgeLengths, length2);
+            edgeLinks = Arrays.copyOf(edgeLinks, length2);
+            edgeClosed = Arrays.copyOf(edgeClosed, length2);
+        }
+        edgeFrom[edgeCount] = a;
+        edgeTo[edgeCount] = b;
+        edgeLengths[edgeCount] = length;
+        edgeLinks[edgeCount] = (byte) link.ordinal();
+        structureChanged = true;
+        return edgeCount++;
+    }
+
+    /**
+     * Changes an edge's length; the next update only repairs what it affects
+     */
+    public synchronized void setLength(int edge, int length) {
+        checkEdge(edge);
+        checkLength(length);
+        int before = effectiveLength(edge);
+        edgeLengths[edge] = length;
+        changed(edge, before);
+    }
+
+    /**
+     * Takes an edge out of every route, e.g. a ramp closed for works
+     */
+    public synchronized void close(int edge) {
+        checkEdge(edge);
+        int before = effectiveLength(edge);
+        edgeClosed[edge] = true;
+        changed(edge, before);
+    }
+
+    public synchronized void open(int edge) {
+        checkEdge(edge);
+        int before = effectiveLength(edge);
+        edgeClosed[edge] = false;
+        changed(edge, before);
+    }
+
+    /**
+     * Attaches an entry gate to a node, or moves it there
+     */
+    public synchronized void attachGate(int gateId, int node) {
+        checkNode(node);
+        int column = gateColumn(gateId);
+        if (column < 0) {
+            if (gateCount == gateIds.length) {
+                gateIds = Arrays.copyOf(gateIds, gateCount * 2);
+                gateNodes = Arrays.copyOf(gateNodes, gateCount * 2);
+                gateMoved = Arrays.copyOf(gateMoved, gateCount * 2);
+            }
+            column = gateCount++;
+            gateIds[column] = gateId;
+        }
+        gateNodes[column] = node;
+        gateMoved[column] = true;
+    }
+
+    /**
+     * Attaches a slot to a node, or moves it there
+     *
+     * @param offset Distance from the node to the slot itself
+     */
+    public synchronized void attachSlot(int slotId, int node, int offset) {
+        checkNode(node);
+        checkLength(offset);
+        int position = slotPositions.get(slotId);
+        if (position < 0) {
+            if (slotCount == slotNodes.length) {
+                slotNodes = Arrays.copyOf(slotNodes, slotCount * 2);
+                slotOffsets = Arrays.copyOf(slotOffsets, slotCount * 2);
+            }
+            position = slotCount++;
+            slotPositions.put(slotId, position);
+        }
+        slotNodes[position] = node;
+        slotOffsets[position] = offset;
+        slotsChanged = true;
+    }
+
+    /**
+     * Distance from a gate to a slot as of the last update; lock-free
+     *
+     * @return UNREACHABLE if the slot is not attached or cannot be reached
+     */
+    public int distance(int gateId, int slotId) {
+        Distances d = published;
+        int position = d.slotPositions.get(slotId);
+        if (position < 0) {
+            return UNREACHABLE;
+        }
+        for (int column = 0; column < d.gateIds.length; column++) {
+            if (d.gateIds[column] == gateId) {
+                return d.bySlot[column][position];
+            }
+        }
+        return d.nearest[position];
+    }
+
+    /**
+     * Number of distance matrices published so far; moves whenever a
+     * distance may have changed
+     */
+    public long version() {
+        return published.version;
+    }
+
+    /**
+     * Whether the slot was attached as of the last update
+     */
+    public boolean contains(int slotId) {
+        return published.slotPositions.get(slotId) >= 0;
+    }
+
+    /**
+     * Recomputes what changed since the last update, on the common fork/join
+     * pool, and publishes the new distances
+     *
+     * @return Ids of the gates whose slot distances may have changed
+     */
+    public int[] update() {
+        return update(true);
+    }
+
+    /**
+     * @param parallel Run the gates' shortest-path searches on the common
+     *                 fork/join pool
+     */
+    public synchronized int[] update(boolean parallel) {
+        int[] settled = new int[gateCount];
+        if (structureChanged) {
+            buildAdjacency();
+        }
+        boolean all = structureChanged;
+        nodeDistances = Arrays.copyOf(nodeDistances, gateCount);
+        parentEdges = Arrays.copyOf(parentEdges, gateCount);
+        gates(parallel).forEach(g -> settled[g] = all || gateMoved[g] ? search(g) : repair(g));
+        Arrays.fill(gateMoved, false);
+        structureChanged = false;
+        pendingCount = 0;
+
+        int[] changed = new int[gateCount];
+        int changedCount = 0;
+        for (int g = 0; g < gateCount; g++) {
+            settledNodes += settled[g];
+            if (settled[g] > 0) {
+                changed[changedCount++] = gateIds[g];
+            }
+        }
+        if (changedCount > 0 || slotsChanged || published.gateIds.length != gateCount) {
+            publish(settled);
+        }
+        slotsChanged = false;
+        return Arrays.copyOf(changed, changedCount);
+    }
+
+    private IntStream gates(boolean parallel) {
+        IntStream gates = IntStream.range(0, gateCount);
+        return parallel ? gates.parallel() : gates;
+    }
+
+    /**
+     * Full shortest-path run from one gate
+     *
+     * @return Nodes settled
+     */
+    private int search(int g) {
+        int[] distances = new int[nodeCount];
+        int[] parents = new int[nodeCount];
+        Arrays.fill(distances, UNREACHABLE);
+        Arrays.fill(parents, -1);
+        nodeDistances[g] = distances;
+        parentEdges[g] = parents;
+        Heap heap = new Heap();
+        distances[gateNodes[g]] = 0;
+        heap.push(0, gateNodes[g]);
+        return settle(heap, distances, parents);
+    }
+
+    /**
+     * Repairs one gate's shortest-path tree for the pending edge changes
+     * Nodes reached through a longer edge are reset and re-entered from
+     * their surviving neighbours; shorter edges are relaxed; one Dijkstra
+     * pass from there settles exactly the nodes whose distance changed
+     *
+     * @return Nodes touched, 0 if the gate's distances cannot have changed
+     */
+    private int repair(int g) {
+        int[] distances = nodeDistances[g];
+        int[] parents = parentEdges[g];
+        Heap heap = new Heap();
+        int[] reset = new int[0];
+        for (int p = 0; p < pendingCount; p++) {
+            int edge = pendingEdges[p];
+            if (effectiveLength(edge) > pendingBefore[p]) {
+                int child = parents[edgeTo[edge]] == edge ? edgeTo[edge]
+                        : parents[edgeFrom[edge]] == edge ? edgeFrom[edge] : -1;
+                if (child >= 0) {
+                    reset = subtree(child, parents, reset);
+                }
+            }
+        }
+        for (int x : reset) {
+            distances[x] = UNREACHABLE;
+            parents[x] = -1;
+        }
+        for (int x : reset) {
+            for (int a = adjacencyStart[x]; a < adjacencyStart[x + 1]; a++) {
+                int f = adjacency[a];
+                relax(heap, distances, parents, f, other(f, x), x, effectiveLength(f));
+            }
+        }
+        for (int p = 0; p < pendingCount; p++) {
+            int edge = pendingEdges[p];
+            int after = effectiveLength(edge);
+            if (after < pendingBefore[p]) {
+                relax(heap, distances, parents, edge, edgeFrom[edge], edgeTo[edge], after);
+                relax(heap, distances, parents, edge, edgeTo[edge], edgeFrom[edge], after);
+            }
+        }
+        // Reset nodes left unreachable changed too, though none settled
+        return Math.max(reset.length, settle(heap, distances, parents));
+    }
+
+    /**
+     * Appends the nodes whose shortest path runs through the given node,
+     * itself included; nodes already reset have no parent and are skipped
+     */
+    private int[] subtree(int root, int[] parents, int[] nodes) {
+        int count = nodes.length;
+        nodes = Arrays.copyOf(nodes, count + 16);
+        int at = count;
+        nodes[count++] = root;
+        for (; at < count; at++) {
+            int x = nodes[at];
+            for (int a = adjacencyStart[x]; a < adjacencyStart[x + 1]; a++) {
+                int f = adjacency[a];
+                int y = other(f, x);
+                if (parents[y] == f) {
+                    if (count == nodes.length) {
+                        nodes = Arrays.copyOf(nodes, count * 2);
+                    }
+                    nodes[count++] = y;
+                }
+            }
+        }
+        return Arrays.copyOf(nodes, count);
+    }
+
+    /**
+     * Dijkstra from whatever is queued; a node is only queued again when its
+     * distance improves, so the nodes it settles are the ones that changed
+     */
+    private int settle(Heap heap, int[] distances, int[] parents) {
+        int settled = 0;
+        while (heap.size > 0) {
+            long top = heap.pop();
+            int x = (int) top;
+            if ((int) (top >>> 32) != distances[x]) {
+                continue;
+            }
+            settled++;
+            for (int a = adjacencyStart[x]; a < adjacencyStart[x + 1]; a++) {
+                int f = adjacency[a];
+                relax(heap, distances, parents, f, x, other(f, x), effectiveLength(f));
+            }
+        }
+        return settled;
+    }
+
+    private static void relax(Heap heap, int[] distances, int[] parents, int edge, int from, int to, int length) {
+        if (distances[from] == UNREACHABLE || length == UNREACHABLE) {
+            return;
+        }
+        long candidate = (long) distances[from] + length;
+        if (candidate < distances[to]) {
+            distances[to] = (int) candidate;
+            parents[to] = edge;
+            heap.push((int) candidate, to);
+        }
+    }
+
+    /**
+     * Publishes the slot columns of the gates that changed, sharing the rest
+     */
+    private void publish(int[] settled) {
+        Distances current = published;
+        int[][] bySlot = new int[gateCount][];
+        for (int g = 0; g < gateCount; g++) {
+            boolean reuse = !slotsChanged && settled[g] == 0 && g < current.bySlot.length
+                    && current.gateIds[g] == gateIds[g];
+            bySlot[g] = reuse ? current.bySlot[g] : slotColumn(g);
+        }
+        int[] nearest = new int[slotCount];
+        Arrays.fill(nearest, UNREACHABLE);
+        for (int[] column : bySlot) {
+            for (int s = 0; s < slotCount; s++) {
+                nearest[s] = Math.min(nearest[s], column[s]);
+            }
+        }
+        published = new Distances(current.version + 1, Arrays.copyOf(gateIds, gateCount), bySlot, nearest,
+                slotsChanged ? slotPositions.copy() : current.slotPositions);
+    }
+
+    private int[] slotColumn(int g) {
+        int[] distances = nodeDistances[g];
+        int[] column = new int[slotCount];
+        for (int s = 0; s < slotCount; s++) {
+            int node = distances[slotNodes[s]];
+            column[s] = node == UNREACHABLE ? UNREACHABLE
+                    : (int) Math.min((long) node + slotOffsets[s], UNREACHABLE - 1);
+        }
+        return column;
+    }
+
+    private void buildAdjacency() {
+        int[] start = new int[nodeCount + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            start[edgeFrom[e] + 1]++;
+            start[edgeTo[e] + 1]++;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            start[n + 1] += start[n];
+        }
+        int[] filled = Arrays.copyOf(start, nodeCount);
+        int[] edges = new int[2 * edgeCount];
+        for (int e = 0; e < edgeCount; e++) {
+            edges[filled[edgeFrom[e]]++] = e;
+            edges[filled[edgeTo[e]]++] = e;
+        }
+        adjacencyStart = start;
+        adjacency = edges;
+    }
+
+    private void changed(int edge, int before) {
+        if (structureChanged) {
+            return;
+        }
+        for (int p = 0; p < pendingCount; p++) {
+            if (pendingEdges[p] == edge) {
+                return;
+            }
+        }
+        if (pendingCount == pendingEdges.length) {
+            pendingEdges = Arrays.copyOf(pendingEdges, pendingCount * 2);
+            pendingBefore = Arrays.copyOf(pendingBefore, pendingCount * 2);
+        }
+        pendingEdges[pendingCount] = edge;
+        pendingBefore[pendingCount] = before;
+        pendingCount++;
+    }
+
+    private int effectiveLength(int edge) {
+        return edgeClosed[edge] ? UNREACHABLE : edgeLengths[edge];
+    }
+
+    private int other(int edge, int node) {
+        return edgeFrom[edge] == node ? edgeTo[edge] : edgeFrom[edge];
+    }
+
+    private int gateColumn(int gateId) {
+        for (int column = 0; column < gateCount; column++) {
+            if (gateIds[column] == gateId) {
+                return column;
+            }
+        }
+        return -1;
+    }
+
+    private void checkNode(int node) {
+        if (node < 0 || node >= nodeCount) {
+            throw new IllegalArgumentException("Unknown node: " + node);
+        }
+    }
+
+    private void checkEdge(int edge) {
+        if (edge < 0 || edge >= edgeCount) {
+            throw new IllegalArgumentException("Unknown edge: " + edge);
+        }
+    }
+
+    private static void checkLength(int length) {
+        if (length < 0 || length == UNREACHABLE) {
+            throw new IllegalArgumentException("Length must be in [0, " + UNREACHABLE + "): " + length);
+        }
+    }
+
+    public synchronized int nodeCount() {
+        return nodeCount;
+    }
+
+    public synchronized int edgeCount() {
+        return edgeCount;
+    }
+
+    public synchronized int floorOf(int node) {
+        checkNode(node);
+        return nodeFloors[node];
+    }
+
+    public synchronized Link link(int edge) {
+        checkEdge(edge);
+        return LINKS[edgeLinks[edge]];
+    }
+
+    public synchronized int length(int edge) {
+        checkEdge(edge);
+        return edgeLengths[edge];
+    }
+
+    public synchronized boolean isClosed(int edge) {
+        checkEdge(edge);
+        return edgeClosed[edge];
+    }
+
+    /**
+     * Nodes settled by every shortest-path run and repair so far; shows how
+     * much of the graph an update actually touched
+     */
+    public synchronized long settledNodes() {
+        return settledNodes;
+    }
+
+    /**
+     * One published version of the gate-to-slot matrix
+     */
+    private static final class Distances {
+        private final long version;
+        private final int[] gateIds;
+        // [gate column][slot position]
+        private final int[][] bySlot;
+        private final int[] nearest;
+        private final SlotStore.IntIndexMap slotPositions;
+
+        private Distances(long version, int[] gateIds, int[][] bySlot, int[] nearest,
+                          SlotStore.IntIndexMap slotPositions) {
+            this.version = version;
+            this.gateIds = gateIds;
+            this.bySlot = bySlot;
+            this.nearest = nearest;
+            this.slotPositions = slotPositions;
+        }
+    }
+
+    /**
+     * Binary min-heap of (distance, node) packed into longs, with stale
+     * entries skipped on pop rather than decreased in place
+     */
+    private static final class Heap {
+        private long[] keys = new long[16];
+        private int size;
+
+        void push(int distance, int node) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            long key = (long) distance << 32 | node;
+            int i = size++;
+            while (i > 0 && keys[(i - 1) >>> 1] > key) {
+                keys[i] = keys[(i - 1) >>> 1];
+                i = (i - 1) >>> 1;
+            }
+            keys[i] = key;
+        }
+
+        long pop() {
+            long top = keys[0];
+            long last = keys[--size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && keys[child + 1] < keys[child]) {
+                    child++;
+                }
+                if (keys[child] >= last) {
+                    break;
+                }
+                keys[i] = keys[child];
+                i = child;
+            }
+            keys[i] = last;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Client for a GateServer
+ * One connection carries any number of requests in flight: the async
+ * methods write a frame and return at once, and a reader thread completes
+ * each future when the reply with its request id arrives. The blocking
+ * methods wait for their own reply. Safe for use by many threads.
+ * A future completes with null when the gate rejects the request, and
+ * exceptionally when the server reports an error or the connection drops
+ */
+public class GateClient implements AutoCloseable {
+    private static final int BUFFER_BYTES = 2 * GateProtocol.MAX_FRAME_BYTES;
+
+    private final SocketChannel channel;
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final Map<Integer, Pending<?>> pending = new ConcurrentHashMap<>();
+    // Guarded by itself
+    private final ByteBuffer out = ByteBuffer.allocate(GateProtocol.MAX_FRAME_BYTES);
+    private final Thread reader;
+    private volatile IOException failure;
+
+    public GateClient(String host, int port) throws IOException {
+        this.channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+        this.reader = new Thread(this::readLoop, "gate-client-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * A ticket issued at an entry gate, or found by plate
+     */
+    public static final class TicketReply {
+        public final long ticketId;
+        public final int slotId;
+        public final long entryEpochMillis;
+
+        private TicketReply(ByteBuffer payload) {
+            this(payload.getLong(), payload.getInt(), payload.getLong());
+        }
+
+        TicketReply(long ticketId, int slotId, long entryEpochMillis) {
+            this.ticketId = ticketId;
+            this.slotId = slotId;
+            this.entryEpochMillis = entryEpochMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Ticket[" + ticketId + ", slot " + slotId + "]";
+        }
+    }
+
+    /**
+     * A bill settled at an exit gate
+     */
+    public static final class BillReply {
+        public final long ticketId;
+        public final int slotId;
+        public final double amount;
+        public final long exitEpochMillis;
+        // Null from servers that predate it
+        public final String plate;
+
+        private BillReply(ByteBuffer payload) {
+            this(payload.getLong(), payload.getInt(), payload.getDouble(), payload.getLong(),
+                    payload.hasRemaining() ? GateProtocol.getString(payload) : null);
+        }
+
+        BillReply(long ticketId, int slotId, double amount, long exitEpochMillis, String plate) {
+            this.ticketId = ticketId;
+            this.slotId = slotId;
+            this.amount = amount;
+            this.exitEpochMillis = exitEpochMillis;
+            this.plate = plate;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Bill[ticket %d, slot %d, $%.2f]", ticketId, slotId, amount);
+        }
+    }
+
+    /**
+     * Parked vehicles and free/total slots per vehicle size, and free slots
+     * per size and feature mask
+     */
+    public static final class StatusReply {
+        public final int parked;
+        private final long[] available;
+        private final long[] capacity;
+        // Per size and mask: free slots with at least the mask's features
+        private final long[] availableWith;
+        private final int masks;
+
+        private StatusReply(ByteBuffer payload) {
+            this.parked = payload.getInt();
+            int sizes = payload.get();
+            this.available = new long[sizes];
+            this.capacity = new long[sizes];
+            for (int i = 0; i < sizes; i++) {
+                available[i] = payload.getLong();
+                capacity[i] = payload.getLong();
+            }
+            // Older servers only send totals; their featured slots read as none
+            this.masks = payload.hasRemaining() ? payload.get() : 1;
+            this.availableWith = new long[sizes * masks];
+            for (int i = 0; i < availableWith.length; i++) {
+                availableWith[i] = payload.hasRemaining() ? payload.getLong() : available[i / masks];
+            }
+        }
+
+        StatusReply(int parked, long[] available, long[] capacity, long[] availableWith, int masks) {
+            this.parked = parked;
+            this.available = available;
+            this.capacity = capacity;
+            this.availableWith = availableWith;
+            this.masks = masks;
+        }
+
+        public long available(VehicleSize size) {
+            return available[size.ordinal()];
+        }
+
+        /**
+         * Free slots of a size having every required feature
+         */
+        public long available(VehicleSize size, int requiredFeatures) {
+            if (requiredFeatures >= masks) {
+                return 0;
+            }
+            return availableWith[size.ordinal() * masks + requiredFeatures];
+        }
+
+        public long capacity(VehicleSize size) {
+            return capacity[size.ordinal()];
+        }
+    }
+
+    private static final class Pending<T> {
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final Function<ByteBuffer, T> decoder;
+
+        private Pending(Function<ByteBuffer, T> decoder) {
+            this.decoder = decoder;
+        }
+
+        private void complete(byte status, ByteBuffer payload) {
+            try {
+                switch (status) {
+                    case GateProtocol.OK:
+                        future.complete(decoder.apply(payload));
+                        break;
+                    case GateProtocol.REJECTED:
+                        future.complete(null);
+                        break;
+                    default:
+                        future.completeExceptionally(new IOException("Gate server error: " + GateProtocol.getString(payload)));
+                        break;
+                }
+            } catch (RuntimeException e) {
+                future.completeExceptionally(new IOException("Malformed reply from gate server", e));
+            }
+        }
+    }
+
+    public CompletableFuture<TicketReply> enterAsync(int gateId, Vehicle vehicle) {
+        return send(GateProtocol.ENTER, out -> {
+            out.putInt(gateId).put((byte) vehicle.getSize().ordinal());
+            GateProtocol.putString(out, vehicle.getId());
+            out.put((byte) vehicle.getRequestedFeatures());
+        }, TicketReply::new);
+    }
+
+    public CompletableFuture<BillReply> exitAsync(int gateId, long ticketId) {
+        return send(GateProtocol.EXIT, out -> out.putInt(gateId).putLong(ticketId), BillReply::new);
+    }
+
+    public CompletableFuture<BillReply> exitByPlateAsync(int gateId, String plate) {
+        return send(GateProtocol.EXIT_PLATE, out -> {
+            out.putInt(gateId);
+            GateProtocol.putString(out, plate);
+        }, BillReply::new);
+    }
+
+    public CompletableFuture<TicketReply> findPlateAsync(String plate) {
+        return send(GateProtocol.FIND_PLATE, out -> GateProtocol.putString(out, plate), TicketReply::new);
+    }
+
+    public CompletableFuture<StatusReply> statusAsync() {
+        return send(GateProtocol.STATUS, out -> {
+        }, StatusReply::new);
+    }
+
+    /**
+     * @return The issued ticket, or null if the gate turned the vehicle away
+     */
+    public TicketReply enter(int gateId, Vehicle vehicle) throws IOException {
+        return await(enterAsync(gateId, vehicle));
+    }
+
+    /**
+     * @return The bill, or null if the ticket is not active
+     */
+    public BillReply exit(int gateId, long ticketId) throws IOException {
+        return await(exitAsync(gateId, ticketId));
+    }
+
+    /**
+     * @return The bill, or null if the plate is not parked
+     */
+    public BillReply exitByPlate(int gateId, String plate) throws IOException {
+        return await(exitByPlateAsync(gateId, plate));
+    }
+
+    /**
+     * @return The plate's active ticket, or null if it is not parked
+     */
+    public TicketReply findPlate(String plate) throws IOException {
+        return await(findPlateAsync(plate));
+    }
+
+    public StatusReply status() throws IOException {
+        return await(statusAsync());
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private <T> CompletableFuture<T> send(byte op, Consumer<ByteBuffer> payload, Function<ByteBuffer, T> decoder) {
+        Pending<T> request = new Pending<>(decoder);
+        if (failure != null) {
+            request.future.completeExceptionally(failure);
+            return request.future;
+        }
+        int requestId = nextRequestId.incrementAndGet();
+        pending.put(requestId, request);
+        if (failure != null && pending.remove(requestId) != null) {
+            request.future.completeExceptionally(failure);
+            return request.future;
+        }
+        try {
+            synchronized (out) {
+                out.clear();
+                int start = GateProtocol.beginFrame(out, requestId, op);
+                payload.accept(out);
+                GateProtocol.endFrame(out, start);
+                out.flip();
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            pending.remove(requestId);
+            request.future.completeExceptionally(e);
+        }
+        return request.future;
+    }
+
+    private void readLoop() {
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_BYTES);
+        try {
+            while (channel.read(in) >= 0) {
+                in.flip();
+                while (in.remaining() >= 4) {
+                    int length = in.getInt(in.position());
+                    if (length < GateProtocol.HEADER_BYTES - 4 || length > GateProtocol.MAX_FRAME_BYTES) {
+                        throw new IOException("Bad frame length from gate server: " + length);
+                    }
+                    if (in.remaining() < 4 + length) {
+                        break;
+                    }
+                    int end = in.position() + 4 + length;
+                    in.getInt();
+                    int requestId = in.getInt();
+                    byte status = in.get();
+                    ByteBuffer payload = in.slice();
+                    payload.limit(end - in.position());
+                    in.position(end);
+                    Pending<?> request = pending.remove(requestId);
+                    if (request != null) {
+                        request.complete(status, payload);
+                    }
+                }
+                in.compact();
+            }
+            fail(new IOException("Gate server closed the connection"));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Fails every request still waiting for a reply, and all later ones
+     */
+    private void fail(IOException cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+        for (Integer requestId : pending.keySet()) {
+            Pending<?> request = pending.remove(requestId);
+            if (request != null) {
+                request.future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        fail(new IOException("Gate client closed"));
+        channel.close();
+        try {
+            reader.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for one vehicle at an entry gate, committed when parking
+ * metrics are enabled and a recording has the event turned on
+ */
+@Name("parking.GateEntry")
+@Label("Gate Entry")
+@Category({"Parking Lot", "Gates"})
+@Description("A vehicle handled by an entry gate")
+public class GateEntryEvent extends Event {
+    @Label("Gate")
+    int gateId;
+
+    @Label("Plate")
+    String plate;
+
+    @Label("Vehicle Size")
+    String vehicleSize;
+
+    @Label("Slot")
+    int slotId;
+
+    @Label("Slot Size")
+    String slotSize;
+
+    @Label("Outcome")
+    String outcome;
+
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+}
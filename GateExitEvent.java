@@ -0,0 +1,35 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for one vehicle at an exit gate, committed when parking
+ * metrics are enabled and a recording has the event turned on
+ */
+@Name("parking.GateExit")
+@Label("Gate Exit")
+@Category({"Parking Lot", "Gates"})
+@Description("A vehicle handled by an exit gate")
+public class GateExitEvent extends Event {
+    @Label("Gate")
+    int gateId;
+
+    @Label("Ticket")
+    long ticketId;
+
+    @Label("Slot")
+    int slotId;
+
+    @Label("Amount")
+    double amount;
+
+    @Label("Settled")
+    boolean settled;
+
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+}
@@ -0,0 +1,182 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loopback load test for GateServer and GateClient
+ * Each client connection has a driver thread keeping a fixed window of
+ * pipelined requests in flight: every issued ticket is exited again, so the
+ * lot stays near window x connections vehicles. Reports requests per second
+ * and end-to-end latency percentiles for entries and exits
+ *
+ * java GateLoadTest connections=8 window=64 seconds=10 slots=20000 warmup=2
+ */
+public class GateLoadTest {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Integer> params = new HashMap<>();
+        params.put("connections", 4);
+        params.put("window", 64);
+        params.put("seconds", 5);
+        params.put("warmup", 1);
+        params.put("slots", 20_000);
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length != 2 || !params.containsKey(pair[0])) {
+                System.out.println("Unknown argument: " + arg + ", expected one of " + params.keySet());
+                return;
+            }
+            params.put(pair[0], Integer.parseInt(pair[1]));
+        }
+        int connections = params.get("connections");
+        int window = params.get("window");
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ParkingLot lot = buildLot(params.get("slots"), connections);
+        System.setOut(console);
+
+        try (GateServer server = new GateServer(lot, 0)) {
+            GateClient[] clients = new GateClient[connections];
+            for (int c = 0; c < connections; c++) {
+                clients[c] = new GateClient("127.0.0.1", server.getPort());
+            }
+            System.out.println("=== GATE SERVER LOAD TEST ===");
+            System.out.println("Connections: " + connections + ", pipelined window: " + window
+                    + ", slots: " + params.get("slots"));
+
+            run(clients, window, params.get("warmup") * 1000L, new Stats());
+            Stats stats = new Stats();
+            long elapsed = run(clients, window, params.get("seconds") * 1000L, stats);
+
+            long requests = stats.enterLatency.count() + stats.exitLatency.count();
+            System.out.printf("Requests: %d in %.2f s = %.0f req/s (%d rejected, %d failed)%n",
+                    requests, elapsed / 1e9, requests * 1e9 / elapsed, stats.rejected.sum(), stats.failed.sum());
+            print("ENTER", stats.enterLatency);
+            print("EXIT", stats.exitLatency);
+
+            GateClient.StatusReply status = clients[0].status();
+            System.out.println("Parked after drain: " + status.parked + " (server tickets: " + lot.getActiveTicketCount() + ")");
+            for (GateClient client : clients) {
+                client.close();
+            }
+        }
+        lot.getEvents().close();
+    }
+
+    private static final class Stats {
+        private final LatencyHistogram enterLatency = new LatencyHistogram();
+        private final LatencyHistogram exitLatency = new LatencyHistogram();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+    }
+
+    /**
+     * Drives every connection for the given time, then drains the lot
+     *
+     * @return Measured wall time in nanoseconds
+     */
+    private static long run(GateClient[] clients, int window, long millis, Stats stats) throws InterruptedException {
+        Thread[] drivers = new Thread[clients.length];
+        long start = System.nanoTime();
+        long deadline = start + millis * 1_000_000L;
+        for (int c = 0; c < clients.length; c++) {
+            int connection = c;
+            drivers[c] = new Thread(() -> drive(clients[connection], connection + 1, window, deadline, stats),
+                    "gate-load-" + connection);
+            drivers[c].start();
+        }
+        for (Thread driver : drivers) {
+            driver.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void drive(GateClient client, int gateId, int window, long deadline, Stats stats) {
+        Semaphore inFlight = new Semaphore(window);
+        ConcurrentLinkedQueue<Long> parked = new ConcurrentLinkedQueue<>();
+        long sequence = 0;
+        boolean draining = false;
+        while (true) {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            Long ticketId = parked.poll();
+            if (ticketId != null) {
+                long sent = System.nanoTime();
+                client.exitAsync(gateId, ticketId).whenComplete((bill, error) -> {
+                    stats.exitLatency.record(System.nanoTime() - sent);
+                    count(stats, bill, error);
+                    inFlight.release();
+                });
+                continue;
+            }
+            draining |= System.nanoTime() >= deadline;
+            if (draining) {
+                inFlight.release();
+                if (inFlight.availablePermits() == window && parked.isEmpty()) {
+                    return;
+                }
+                LockSupport.parkNanos(100_000);
+                continue;
+            }
+            long n = sequence++;
+            Vehicle vehicle = new Vehicle("G" + gateId + "-" + n, SIZES[(int) (n % SIZES.length)]);
+            long sent = System.nanoTime();
+            client.enterAsync(gateId, vehicle).whenComplete((ticket, error) -> {
+                stats.enterLatency.record(System.nanoTime() - sent);
+                count(stats, ticket, error);
+                if (ticket != null) {
+                    parked.add(ticket.ticketId);
+                }
+                inFlight.release();
+            });
+        }
+    }
+
+    private static void count(Stats stats, Object reply, Throwable error) {
+        if (error != null) {
+            stats.failed.increment();
+        } else if (reply == null) {
+            stats.rejected.increment();
+        }
+    }
+
+    private static void print(String name, LatencyHistogram histogram) {
+        System.out.printf("%-6s %10d requests  p50 %8.1f us  p99 %8.1f us  p99.9 %8.1f us  max %8.1f us%n",
+                name, histogram.count(), histogram.percentile(50) / 1e3, histogram.percentile(99) / 1e3,
+                histogram.percentile(99.9) / 1e3, histogram.max() / 1e3);
+    }
+
+    private static ParkingLot buildLot(int slots, int gates) {
+        ParkingLot lot = new ParkingLot(new NearestParkingStrategy(),
+                new EventPipeline(new NullEventSink(), 1 << 16, EventPipeline.OverflowPolicy.DROP));
+        int floors = Math.max(1, slots / 2_500);
+        int perFloor = (slots + floors - 1) / floors;
+        for (int g = 1; g <= gates; g++) {
+            lot.addEntryGate(new EntryGate(g));
+            lot.addExitGate(new ExitGate(g));
+        }
+        for (int f = 0; f < floors; f++) {
+            Floor floor = new Floor(f + 1);
+            for (int i = 0; i < perFloor && f * perFloor + i < slots; i++) {
+                int[] distances = new int[gates + 1];
+                for (int g = 0; g <= gates; g++) {
+                    distances[g] = Math.abs(f - g % floors) * perFloor + (i * 31 + g * 17) % perFloor;
+                }
+                floor.addSlot(new BasicSlot(f * 100_000 + i + 1, SIZES[i % SIZES.length], 5.0, distances));
+            }
+            lot.addFloor(floor);
+        }
+        return lot;
+    }
+}
@@ -0,0 +1,75 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary wire format shared by GateServer and GateClient
+ * Every message is a frame: [int length][int requestId][byte code][payload],
+ * where length counts everything after itself. Requests carry an op code,
+ * responses a status code and the request id they answer, so a client can
+ * pipeline many requests on one connection. Integers are big-endian and
+ * strings are [short length][UTF-8 bytes]
+ *
+ * ENTER       gateId int, size byte, plate,  -> ticketId long, slotId int, entryMillis long
+ *             [features byte]
+ * EXIT        gateId int, ticketId long      -> ticketId long, slotId int, amount double, exitMillis long,
+ *                                               [plate]
+ * EXIT_PLATE  gateId int, plate              -> same as EXIT
+ * FIND_PLATE  plate                          -> same as ENTER
+ * STATUS      (empty)                        -> parked int, sizes byte, per size: available long, capacity long,
+ *                                               [masks byte, per size and mask: available long]
+ *
+ * Fields in brackets were added later at the end of their message; readers
+ * take them only when present, so older clients and servers still work
+ */
+public final class GateProtocol {
+    public static final byte ENTER = 1;
+    public static final byte EXIT = 2;
+    public static final byte EXIT_PLATE = 3;
+    public static final byte FIND_PLATE = 4;
+    public static final byte STATUS = 5;
+
+    public static final byte OK = 0;
+    // The gate turned the request away (lot full, plate not parked, ...)
+    public static final byte REJECTED = 1;
+    // Malformed request or server failure; payload is a message string
+    public static final byte ERROR = 2;
+
+    public static final int HEADER_BYTES = 4 + 4 + 1;
+    public static final int MAX_FRAME_BYTES = 64 * 1024;
+
+    private GateProtocol() {
+    }
+
+    public static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("String too long for the gate protocol: " + bytes.length + " bytes");
+        }
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    public static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Bad string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reserves a frame header at the buffer's position
+     *
+     * @return Position of the frame, to pass to endFrame once the payload is written
+     */
+    public static int beginFrame(ByteBuffer buffer, int requestId, byte code) {
+        int start = buffer.position();
+        buffer.putInt(0).putInt(requestId).put(code);
+        return start;
+    }
+
+    public static void endFrame(ByteBuffer buffer, int start) {
+        buffer.putInt(start, buffer.position() - start - 4);
+    }
+}
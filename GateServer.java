@@ -0,0 +1,260 @@
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves a parking lot's entry gates, exit gates and status over TCP using
+ * the GateProtocol binary frames
+ * Each connection is handled by its own thread doing blocking NIO reads:
+ * a virtual thread where the JVM has them (Java 21+), otherwise a pooled
+ * platform thread. Clients may pipeline requests; every complete frame in
+ * a read is answered, in order, and the replies go out in a single write
+ */
+public class GateServer implements AutoCloseable {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+    private static final int MASKS = 1 << SlotFeature.values().length;
+    private static final int BUFFER_BYTES = 2 * GateProtocol.MAX_FRAME_BYTES;
+
+    private final ParkingLot lot;
+    private final ServerSocketChannel server;
+    private final ExecutorService connections;
+    private final Thread acceptor;
+    private final Set<SocketChannel> open = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = true;
+
+    /**
+     * Starts serving on a loopback port
+     *
+     * @param port Port to listen on, or 0 for any free port
+     */
+    public GateServer(ParkingLot lot, int port) throws IOException {
+        this(lot, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    public GateServer(ParkingLot lot, SocketAddress address) throws IOException {
+        this.lot = lot;
+        this.server = ServerSocketChannel.open();
+        server.bind(address);
+        this.connections = connectionExecutor();
+        this.acceptor = new Thread(this::acceptLoop, "gate-server-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * One virtual thread per connection when available, otherwise a cached
+     * pool of daemon platform threads
+     */
+    private static ExecutorService connectionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "gate-connection-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel channel = server.accept();
+                channel.socket().setTcpNoDelay(true);
+                open.add(channel);
+                connections.execute(() -> serve(channel));
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (running) {
+                    System.out.println("Gate server accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_BYTES);
+        ByteBuffer out = ByteBuffer.allocate(BUFFER_BYTES);
+        try {
+            while (channel.read(in) >= 0) {
+                in.flip();
+                while (in.remaining() >= 4) {
+                    int length = in.getInt(in.position());
+                    if (length < GateProtocol.HEADER_BYTES - 4 || length > GateProtocol.MAX_FRAME_BYTES) {
+                        System.out.println("Gate server dropped a client sending a bad frame length: " + length);
+                        return;
+                    }
+                    if (in.remaining() < 4 + length) {
+                        break;
+                    }
+                    if (out.remaining() < GateProtocol.MAX_FRAME_BYTES) {
+                        flush(channel, out);
+                    }
+                    int end = in.position() + 4 + length;
+                    in.getInt();
+                    int requestId = in.getInt();
+                    byte op = in.get();
+                    ByteBuffer payload = in.slice();
+                    payload.limit(end - in.position());
+                    in.position(end);
+                    handle(op, requestId, payload, out);
+                }
+                in.compact();
+                flush(channel, out);
+            }
+        } catch (IOException e) {
+            // Client went away; nothing to answer
+        } finally {
+            open.remove(channel);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+
+    private static void flush(SocketChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Runs one request and appends its reply frame to out
+     */
+    private void handle(byte op, int requestId, ByteBuffer payload, ByteBuffer out) {
+        int start = GateProtocol.beginFrame(out, requestId, GateProtocol.OK);
+        try {
+            byte status;
+            switch (op) {
+                case GateProtocol.ENTER: {
+                    EntryGate gate = entryGate(payload.getInt());
+                    VehicleSize size = SIZES[payload.get()];
+                    String plate = GateProtocol.getString(payload);
+                    int features = payload.hasRemaining() ? payload.get() : 0;
+                    Vehicle vehicle = new Vehicle(plate, size, SlotFeature.of(features));
+                    status = putTicket(out, gate.generateTicket(lot, vehicle));
+                    break;
+                }
+                case GateProtocol.EXIT: {
+                    ExitGate gate = exitGate(payload.getInt());
+                    status = putBill(out, gate.generateBill(lot, payload.getLong()));
+                    break;
+                }
+                case GateProtocol.EXIT_PLATE: {
+                    ExitGate gate = exitGate(payload.getInt());
+                    status = putBill(out, gate.generateBillForPlate(lot, GateProtocol.getString(payload)));
+                    break;
+                }
+                case GateProtocol.FIND_PLATE:
+                    status = putTicket(out, lot.findTicketByPlate(GateProtocol.getString(payload)));
+                    break;
+                case GateProtocol.STATUS:
+                    status = putStatus(out);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown op code: " + op);
+            }
+            out.put(start + 8, status);
+        } catch (RuntimeException e) {
+            out.position(start);
+            GateProtocol.beginFrame(out, requestId, GateProtocol.ERROR);
+            GateProtocol.putString(out, String.valueOf(e.getMessage()));
+        }
+        GateProtocol.endFrame(out, start);
+    }
+
+    private EntryGate entryGate(int gateId) {
+        for (EntryGate gate : lot.getEntryGates()) {
+            if (gate.getId() == gateId) {
+                return gate;
+            }
+        }
+        throw new IllegalArgumentException("No entry gate " + gateId);
+    }
+
+    private ExitGate exitGate(int gateId) {
+        for (ExitGate gate : lot.getExitGates()) {
+            if (gate.getId() == gateId) {
+                return gate;
+            }
+        }
+        throw new IllegalArgumentException("No exit gate " + gateId);
+    }
+
+    private static byte putTicket(ByteBuffer out, Ticket ticket) {
+        if (ticket == null) {
+            return GateProtocol.REJECTED;
+        }
+        out.putLong(ticket.getId()).putInt(ticket.getSlot().getId()).putLong(ticket.getEntryEpochMillis());
+        return GateProtocol.OK;
+    }
+
+    private static byte putBill(ByteBuffer out, Bill bill) {
+        if (bill == null) {
+            return GateProtocol.REJECTED;
+        }
+        Ticket ticket = bill.getTicket();
+        out.putLong(ticket.getId()).putInt(ticket.getSlot().getId())
+                .putDouble(bill.getTotalAmount()).putLong(bill.getExitEpochMillis());
+        GateProtocol.putString(out, ticket.getVehicle().getId());
+        return GateProtocol.OK;
+    }
+
+    private byte putStatus(ByteBuffer out) {
+        OccupancyCounters.Snapshot occupancy = lot.getSlotStore().occupancy();
+        out.putInt(lot.getActiveTicketCount()).put((byte) SIZES.length);
+        for (VehicleSize size : SIZES) {
+            out.putLong(occupancy.available(size)).putLong(occupancy.capacity(size));
+        }
+        out.put((byte) MASKS);
+        for (VehicleSize size : SIZES) {
+            for (int mask = 0; mask < MASKS; mask++) {
+                out.putLong(occupancy.capacity(null, size, mask) - occupancy.occupied(null, size, mask));
+            }
+        }
+        return GateProtocol.OK;
+    }
+
+    /**
+     * Stops accepting, disconnects every client and waits for their
+     * handlers to finish
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        for (SocketChannel channel : open) {
+            channel.close();
+        }
+        connections.shutdown();
+        try {
+            connections.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
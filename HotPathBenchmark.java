@@ -0,0 +1,284 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Throughput and allocation benchmark for the gate hot paths:
+ * slot allocation, ticket/bill round trip (single and batched), slot
+ * release and status report
+ *
+ * Parameters are given as key=list arguments, for example
+ * java -Xmx4g HotPathBenchmark size=1000,1000000 occupancy=0,90,99 depth=0,3 threads=1,8 metrics=0,1
+ * Each row reports operations per second (summed over gate threads), bytes
+ * allocated per operation and GC activity during the measured window
+ */
+public class HotPathBenchmark {
+    private static final int FLOORS = 10;
+    private static final int BATCH = 256;
+    private static final int VEHICLE_RING = 4096;
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private enum Case {
+        ALLOCATE, ROUND_TRIP, BATCH_TRIP, RELEASE, STATUS
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, int[]> params = new HashMap<>();
+        params.put("size", new int[] {1_000, 100_000});
+        params.put("occupancy", new int[] {0, 90, 99});
+        params.put("depth", new int[] {0, 3});
+        params.put("threads", new int[] {1, 4});
+        params.put("metrics", new int[] {0});
+        params.put("millis", new int[] {300});
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length != 2 || !params.containsKey(pair[0])) {
+                System.out.println("Unknown argument: " + arg + ", expected one of " + params.keySet());
+                return;
+            }
+            params.put(pair[0], Arrays.stream(pair[1].split(",")).mapToInt(Integer::parseInt).toArray());
+        }
+        int maxThreads = Arrays.stream(params.get("threads")).max().getAsInt();
+        long millis = params.get("millis")[0];
+
+        PrintStream console = System.out;
+        PrintStream muted = new PrintStream(OutputStream.nullOutputStream());
+        console.println("=== HOT PATH BENCHMARK ===");
+        console.printf("%-10s %-5s %-5s %-7s %-7s %-10s %15s %12s %8s %8s%n",
+                "Slots", "Occ%", "Depth", "Threads", "Metrics", "Case", "ops/sec", "bytes/op", "GCs", "GC ms");
+
+        for (int size : params.get("size")) {
+            for (int depth : params.get("depth")) {
+                System.setOut(muted);
+                ParkingLot lot = buildLot(size, depth, maxThreads);
+                System.setOut(console);
+                for (int occupancy : params.get("occupancy")) {
+                    fill(lot.getSlotStore(), occupancy);
+                    for (int threads : params.get("threads")) {
+                        for (int metrics : params.get("metrics")) {
+                            lot.getMetrics().setEnabled(metrics != 0);
+                            for (Case c : Case.values()) {
+                                System.setOut(muted);
+                                run(lot, c, threads, millis / 2);
+                                Result result = run(lot, c, threads, millis);
+                                System.setOut(console);
+                                console.printf("%-10d %-5d %-5d %-7d %-7s %-10s %,15d %,12d %8d %8d%n",
+                                        size, occupancy, depth, threads, metrics != 0 ? "on" : "off", c,
+                                        result.opsPerSecond(), result.bytesPerOp(), result.gcCount, result.gcMillis);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static ParkingLot buildLot(int size, int depth, int gates) {
+        ParkingLot lot = new ParkingLot(new NearestParkingStrategy(),
+                new EventPipeline(new NullEventSink(), 1 << 16, EventPipeline.OverflowPolicy.DROP));
+        for (int g = 1; g <= gates; g++) {
+            lot.addEntryGate(new EntryGate(g));
+        }
+        int perFloor = (size + FLOORS - 1) / FLOORS;
+        for (int f = 0; f * perFloor < size; f++) {
+            Floor floor = new Floor(f + 1);
+            for (int i = 0; i < perFloor && f * perFloor + i < size; i++) {
+                int[] distances = new int[gates + 1];
+                for (int g = 0; g <= gates; g++) {
+                    distances[g] = Math.abs(f - g % FLOORS) * perFloor + (i * 31 + g * 17) % perFloor;
+                }
+                Slot slot = new BasicSlot(f * perFloor + i + 1, SIZES[i % SIZES.length], 5.0, distances);
+                for (int d = 0; d < depth; d++) {
+                    slot = d % 2 == 0 ? new ChargingDecorator(slot, 3.0) : new CleaningDecorator(slot, 10.0);
+                }
+                floor.addSlot(slot);
+            }
+            lot.addFloor(floor);
+        }
+        return lot;
+    }
+
+    /**
+     * Frees every slot, then occupies a random subset of the given percentage
+     */
+    private static void fill(SlotStore store, int occupancy) {
+        int n = store.count();
+        for (int i = 0; i < n; i++) {
+            store.release(i);
+        }
+        int[] shuffled = new int[n];
+        for (int i = 0; i < n; i++) {
+            shuffled[i] = i;
+        }
+        Random random = new Random(42);
+        int target = (int) ((long) n * occupancy / 100);
+        for (int i = 0; i < target; i++) {
+            int j = i + random.nextInt(n - i);
+            int index = shuffled[j];
+            shuffled[j] = shuffled[i];
+            shuffled[i] = index;
+            store.claim(index);
+        }
+    }
+
+    private static Result run(ParkingLot lot, Case c, int threads, long millis) throws InterruptedException {
+        SlotStore store = lot.getSlotStore();
+        int free = 0;
+        for (VehicleSize size : SIZES) {
+            free += store.freeSlots(size);
+        }
+        // Each thread may hold at most its share of free slots at once
+        int batch = Math.max(1, Math.min(BATCH, free / threads));
+        long[] ops = new long[threads];
+        long[] nanos = new long[threads];
+        long[] bytes = new long[threads];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        long[] gcBefore = gcTotals();
+
+        for (int t = 0; t < threads; t++) {
+            int worker = t;
+            workers[t] = new Thread(() -> {
+                EntryGate entry = lot.getEntryGates().get(worker);
+                ExitGate exit = new ExitGate(worker + 1);
+                Vehicle[] vehicles = new Vehicle[VEHICLE_RING];
+                for (int i = 0; i < VEHICLE_RING; i++) {
+                    vehicles[i] = new Vehicle("B" + worker + "-" + i, SIZES[i % SIZES.length]);
+                }
+                Slot[] held = new Slot[batch];
+                List<Vehicle> arrivals = new ArrayList<>(batch);
+                List<Ticket> departures = new ArrayList<>(batch);
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long deadline = System.nanoTime() + millis * 1_000_000;
+                int next = 0;
+                while (System.nanoTime() < deadline) {
+                    long allocatedBefore;
+                    long begin;
+                    switch (c) {
+                        case ALLOCATE:
+                            allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+                            begin = System.nanoTime();
+                            for (int i = 0; i < batch; i++) {
+                                held[i] = lot.allocateSlot(vehicles[next++ & (VEHICLE_RING - 1)], entry.getId());
+                            }
+                            nanos[worker] += System.nanoTime() - begin;
+                            bytes[worker] += THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+                            releaseAll(lot, held);
+                            break;
+                        case BATCH_TRIP:
+                            // The same vehicles as ROUND_TRIP, entering and leaving as one batch
+                            for (int i = 0; i < batch; i++) {
+                                arrivals.add(vehicles[next++ & (VEHICLE_RING - 1)]);
+                            }
+                            allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+                            begin = System.nanoTime();
+                            for (Ticket ticket : entry.generateTickets(lot, arrivals)) {
+                                if (ticket != null) {
+                                    departures.add(ticket);
+                                }
+                            }
+                            exit.generateBills(lot, departures);
+                            nanos[worker] += System.nanoTime() - begin;
+                            bytes[worker] += THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+                            arrivals.clear();
+                            departures.clear();
+                            break;
+                        case RELEASE:
+                            for (int i = 0; i < batch; i++) {
+                                held[i] = lot.allocateSlot(vehicles[next++ & (VEHICLE_RING - 1)], entry.getId());
+                            }
+                            allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+                            begin = System.nanoTime();
+                            releaseAll(lot, held);
+                            nanos[worker] += System.nanoTime() - begin;
+                            bytes[worker] += THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+                            break;
+                        case ROUND_TRIP:
+                            allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+                            begin = System.nanoTime();
+                            for (int i = 0; i < batch; i++) {
+                                Ticket ticket = entry.generateTicket(lot, vehicles[next++ & (VEHICLE_RING - 1)]);
+                                if (ticket != null) {
+                                    exit.generateBill(lot, ticket);
+                                }
+                            }
+                            nanos[worker] += System.nanoTime() - begin;
+                            bytes[worker] += THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+                            break;
+                        default:
+                            allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+                            begin = System.nanoTime();
+                            lot.printStatus();
+                            nanos[worker] += System.nanoTime() - begin;
+                            bytes[worker] += THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+                            ops[worker]++;
+                            continue;
+                    }
+                    ops[worker] += batch;
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        long[] gcAfter = gcTotals();
+        Result result = new Result();
+        for (int t = 0; t < threads; t++) {
+            if (nanos[t] > 0) {
+                result.opsPerSecond += ops[t] * 1_000_000_000.0 / nanos[t];
+            }
+            result.ops += ops[t];
+            result.bytes += bytes[t];
+        }
+        result.gcCount = gcAfter[0] - gcBefore[0];
+        result.gcMillis = gcAfter[1] - gcBefore[1];
+        return result;
+    }
+
+    private static void releaseAll(ParkingLot lot, Slot[] held) {
+        for (int i = 0; i < held.length; i++) {
+            if (held[i] != null) {
+                lot.releaseSlot(held[i]);
+                held[i] = null;
+            }
+        }
+    }
+
+    private static long[] gcTotals() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[] {count, millis};
+    }
+
+    private static final class Result {
+        double opsPerSecond;
+        long ops;
+        long bytes;
+        long gcCount;
+        long gcMillis;
+
+        long opsPerSecond() {
+            return (long) opsPerSecond;
+        }
+
+        long bytesPerOp() {
+            return ops == 0 ? 0 : bytes / ops;
+        }
+    }
+}
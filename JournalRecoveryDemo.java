@@ -0,0 +1,120 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Demonstrates crash recovery from the ticket journal
+ * A first lot parks and releases vehicles with journaling on, then is
+ * abandoned without shutdown; a second lot with the same layout replays
+ * the journal and carries on where the first one stopped, including the
+ * slots the first lot changed at runtime. A torn newest segment and a
+ * leftover snapshot temp file are planted first to show that recovery
+ * falls back to the last whole segment
+ */
+public class JournalRecoveryDemo {
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("parking-journal");
+        System.out.println("=== JOURNAL RECOVERY DEMO ===\n");
+
+        // Route the first lot's gate events to a file to keep the demo readable
+        ParkingLot before = buildLot(new ParkingLot(new NearestParkingStrategy(),
+                new EventPipeline(new FileEventSink(directory.resolve("events.log")), 1024,
+                        EventPipeline.OverflowPolicy.BLOCK)));
+        // Small compaction threshold so the run also rolls a snapshot segment
+        before.enableJournal(TicketJournal.open(directory, TicketJournal.Durability.SYNC, 50));
+        EntryGate entry = before.getEntryGates().get(0);
+        ExitGate exit = before.getExitGates().get(0);
+
+        // Churn enough traffic to trigger several compactions
+        for (int i = 0; i < 200; i++) {
+            Ticket ticket = entry.generateTicket(before, new Vehicle("CHURN-" + i, VehicleSize.SMALL));
+            exit.generateBill(before, ticket);
+        }
+        entry.generateTicket(before, new Vehicle("CAR-1", VehicleSize.SMALL));
+        entry.generateTicket(before, new Vehicle("VAN-2", VehicleSize.MEDIUM));
+        Ticket leaving = entry.generateTicket(before, new Vehicle("SUV-3", VehicleSize.LARGE));
+        entry.generateTicket(before, new Vehicle("BIKE-4", VehicleSize.SMALL));
+        exit.generateBill(before, leaving);
+
+        // Runtime slot changes the restarted lot must not forget
+        before.removeSlot(105);
+        before.resizeSlot(104, VehicleSize.LARGE);
+        before.attachFeature(103, SlotFeature.CHARGING, 2.0);
+        before.addSlot(2, new BasicSlot(200, VehicleSize.SMALL, 6.0, 7));
+        before.attachFeature(200, SlotFeature.CHARGING, 2.0);
+        entry.generateTicket(before, new Vehicle("EV-5", VehicleSize.SMALL, SlotFeature.CHARGING));
+        before.printStatus();
+
+        System.out.println("-- JVM 'crashes' here; nothing is shut down --\n");
+
+        // A crash in the middle of writing a segment, as older versions could leave
+        long newest;
+        try (var segments = Files.list(directory)) {
+            newest = segments.map(path -> path.getFileName().toString())
+                    .filter(name -> name.matches("journal-\\d+\\.log"))
+                    .mapToLong(name -> Long.parseLong(name.replaceAll("\\D", "")))
+                    .max().orElse(0);
+        }
+        Files.write(directory.resolve(String.format("journal-%010d.log", newest + 1)), new byte[]{0x50, 0x4B});
+        Files.write(directory.resolve(String.format("journal-%010d.log.tmp", newest + 2)), new byte[16]);
+
+        ParkingLot after = buildLot(new ParkingLot());
+        after.enableJournal(directory, TicketJournal.Durability.SYNC);
+        after.printStatus();
+        Ticket restored = after.findTicketByPlate("VAN-2");
+        System.out.println("VAN-2 restored in slot " + restored.getSlot().getId() +
+                ", entered at " + restored.getEntryTime());
+        SlotStore store = after.getSlotStore();
+        Ticket ev = after.findTicketByPlate("EV-5");
+        boolean slotsRestored = store.indexOfId(105) < 0
+                && store.size(store.indexOfId(104)) == VehicleSize.LARGE
+                && (store.featureFlags(store.indexOfId(103)) & SlotFeature.CHARGING.flag()) != 0
+                && store.extraHourly(store.indexOfId(103)) == 2.0
+                && store.indexOfId(200) >= 0 && store.floorNumber(store.indexOfId(200)) == 2
+                && after.findTicketByPlate("BIKE-4").getSlot().getId() == 103
+                && ev != null && ev.getSlot().getId() == 200
+                && ev.getVehicle().getRequestedFeatures() == SlotFeature.CHARGING.flag();
+        System.out.println("Slot changes and requested features restored: " + (slotsRestored ? "PASSED" : "FAILED"));
+        long highest = 0;
+        long latestEntry = 0;
+        for (String plate : new String[] {"CAR-1", "VAN-2", "BIKE-4", "EV-5"}) {
+            Ticket parked = after.findTicketByPlate(plate);
+            highest = Math.max(highest, parked.getId());
+            latestEntry = Math.max(latestEntry, parked.getEntryEpochMillis());
+        }
+        after.getExitGates().get(0).generateBillForPlate(after, "VAN-2");
+        after.printStatus();
+
+        // Ticket ids come from the lot's clock, and stay above the restored
+        // ones even when that clock is behind them
+        EntryGate restarted = after.getEntryGates().get(0);
+        after.setClock(new SimulatedClock(latestEntry - 3_600_000));
+        long behind = restarted.generateTicket(after, new Vehicle("LATE-6", VehicleSize.SMALL)).getId();
+        long tomorrow = System.currentTimeMillis() + 86_400_000;
+        after.setClock(new SimulatedClock(tomorrow));
+        long ahead = restarted.generateTicket(after, new Vehicle("LATE-7", VehicleSize.SMALL)).getId();
+        boolean idsOrdered = behind > highest && TicketIdGenerator.epochMillisOf(ahead) == tomorrow;
+        System.out.println("Ticket ids after the restart: " + (idsOrdered ? "PASSED" : "FAILED")
+                + " (above the restored ones with the clock an hour behind, on the lot's clock ahead)");
+        after.getJournal().close();
+        after.close();
+
+        try (var segments = Files.list(directory)) {
+            System.out.println("Journal directory now holds:");
+            segments.sorted().forEach(path -> System.out.println("  " + path.getFileName()));
+        }
+        if (!slotsRestored || !idsOrdered) {
+            System.exit(1);
+        }
+    }
+
+    private static ParkingLot buildLot(ParkingLot lot) {
+        Floor floor = new Floor(1);
+        for (int i = 0; i < 6; i++) {
+            floor.addSlot(new BasicSlot(100 + i, VehicleSize.values()[i % 3], 5.0, i));
+        }
+        lot.addFloor(floor);
+        lot.addEntryGate(new EntryGate(1));
+        lot.addExitGate(new ExitGate(1));
+        return lot;
+    }
+}
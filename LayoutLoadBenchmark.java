@@ -0,0 +1,109 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Compares startup of a campus-sized lot built from slot objects against
+ * loading the same lot from a memory-mapped layout file, then checks that
+ * both lots hand out the same nearest slots
+ */
+public class LayoutLoadBenchmark {
+    private static final int FLOORS = 40;
+    private static final int SLOTS_PER_FLOOR = 3750;
+    private static final int ENTRY_GATES = 8;
+    private static final int CLAIMS_PER_BUCKET = 500;
+
+    public static void main(String[] args) throws Exception {
+        Path file = Files.createTempFile("campus", ".layout");
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            long start = System.nanoTime();
+            ParkingLot built = buildFromObjects();
+            long buildNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            LotLayout.write(built, file);
+            long writeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ParkingLot loaded = new ParkingLot();
+            loaded.loadLayout(file);
+            for (int g = 1; g <= ENTRY_GATES; g++) {
+                loaded.addEntryGate(new EntryGate(g));
+            }
+            long loadNanos = System.nanoTime() - start;
+
+            int mismatches = compare(built.getSlotStore(), loaded.getSlotStore());
+            built.close();
+            loaded.close();
+            System.setOut(console);
+
+            System.out.println("=== LAYOUT STARTUP ===");
+            System.out.printf("Slots: %,d on %d floors, %d entry gates%n",
+                    built.getSlotStore().count(), FLOORS, ENTRY_GATES);
+            System.out.printf("Layout file: %,d bytes%n", Files.size(file));
+            System.out.printf("Build from slot objects: %,8d ms%n", buildNanos / 1_000_000);
+            System.out.printf("Write layout:            %,8d ms%n", writeNanos / 1_000_000);
+            System.out.printf("Load mapped layout:      %,8d ms%n", loadNanos / 1_000_000);
+            System.out.println("Nearest-slot mismatches: " + mismatches);
+            if (mismatches != 0) {
+                System.exit(1);
+            }
+        } finally {
+            System.setOut(console);
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static ParkingLot buildFromObjects() {
+        ParkingLot lot = new ParkingLot();
+        for (int f = 1; f <= FLOORS; f++) {
+            Floor floor = new Floor(f);
+            for (int i = 0; i < SLOTS_PER_FLOOR; i++) {
+                VehicleSize size = VehicleSize.values()[i % VehicleSize.values().length];
+                int[] distances = new int[ENTRY_GATES + 1];
+                for (int g = 0; g <= ENTRY_GATES; g++) {
+                    // Ramps sit on different floors for different gates
+                    distances[g] = Math.abs(f - (g * 5) % FLOORS) * 1000 + (i * 31 + g * 17) % SLOTS_PER_FLOOR;
+                }
+                Slot slot = new BasicSlot(f * 10_000 + i, size, 4.0 + size.ordinal() * 3, distances);
+                if (i % 10 == 0) {
+                    slot = new ChargingDecorator(slot, 3.0);
+                }
+                if (i % 20 == 0) {
+                    slot = new CleaningDecorator(slot, 10.0);
+                }
+                floor.addSlot(slot);
+            }
+            lot.addFloor(floor);
+        }
+        for (int g = 1; g <= ENTRY_GATES; g++) {
+            lot.addEntryGate(new EntryGate(g));
+        }
+        return lot;
+    }
+
+    /**
+     * Claims nearest slots from both lots and counts differing answers
+     */
+    private static int compare(SlotStore expected, SlotStore actual) {
+        int mismatches = 0;
+        for (int g = 0; g <= ENTRY_GATES; g++) {
+            for (VehicleSize size : VehicleSize.values()) {
+                for (int i = 0; i < CLAIMS_PER_BUCKET; i++) {
+                    int a = expected.claimNearest(g, size);
+                    int b = actual.claimNearest(g, size);
+                    if (expected.id(a) != actual.id(b)
+                            || expected.baseRate(a) != actual.baseRate(b)
+                            || expected.slotAt(a).getExtraCharges(3) != actual.slotAt(b).getExtraCharges(3)
+                            || !expected.slotAt(a).getFeatures().equals(actual.slotAt(b).getFeatures())) {
+                        mismatches++;
+                    }
+                }
+            }
+        }
+        return mismatches;
+    }
+}
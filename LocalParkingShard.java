@@ -0,0 +1,96 @@
+/**
+ * Parking shard for a lot in the same process; calls its gates directly
+ */
+public class LocalParkingShard implements ParkingShard {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+    private static final int MASKS = 1 << SlotFeature.values().length;
+
+    private final ParkingLot lot;
+
+    public LocalParkingShard(ParkingLot lot) {
+        this.lot = lot;
+    }
+
+    public ParkingLot getLot() {
+        return lot;
+    }
+
+    @Override
+    public int getSiteId() {
+        return lot.getSiteId();
+    }
+
+    @Override
+    public GateClient.TicketReply enter(int gateId, Vehicle vehicle) {
+        return ticketReply(entryGate(gateId).generateTicket(lot, vehicle));
+    }
+
+    @Override
+    public GateClient.BillReply exit(int gateId, long ticketId) {
+        return billReply(exitGate(gateId).generateBill(lot, ticketId));
+    }
+
+    @Override
+    public GateClient.BillReply exitByPlate(int gateId, String plate) {
+        return billReply(exitGate(gateId).generateBillForPlate(lot, plate));
+    }
+
+    @Override
+    public GateClient.TicketReply findPlate(String plate) {
+        return ticketReply(lot.findTicketByPlate(plate));
+    }
+
+    /**
+     * Reads the occupancy counters once; never scans slots
+     */
+    @Override
+    public GateClient.StatusReply status() {
+        OccupancyCounters.Snapshot occupancy = lot.getSlotStore().occupancy();
+        long[] available = new long[SIZES.length];
+        long[] capacity = new long[SIZES.length];
+        long[] availableWith = new long[SIZES.length * MASKS];
+        for (VehicleSize size : SIZES) {
+            available[size.ordinal()] = occupancy.available(size);
+            capacity[size.ordinal()] = occupancy.capacity(size);
+            for (int mask = 0; mask < MASKS; mask++) {
+                availableWith[size.ordinal() * MASKS + mask] =
+                        occupancy.capacity(null, size, mask) - occupancy.occupied(null, size, mask);
+            }
+        }
+        return new GateClient.StatusReply(lot.getActiveTicketCount(), available, capacity, availableWith, MASKS);
+    }
+
+    private EntryGate entryGate(int gateId) {
+        for (EntryGate gate : lot.getEntryGates()) {
+            if (gate.getId() == gateId) {
+                return gate;
+            }
+        }
+        throw new IllegalArgumentException("No entry gate " + gateId + " at site " + lot.getSiteId());
+    }
+
+    private ExitGate exitGate(int gateId) {
+        for (ExitGate gate : lot.getExitGates()) {
+            if (gate.getId() == gateId) {
+                return gate;
+            }
+        }
+        throw new IllegalArgumentException("No exit gate " + gateId + " at site " + lot.getSiteId());
+    }
+
+    private static GateClient.TicketReply ticketReply(Ticket ticket) {
+        if (ticket == null) {
+            return null;
+        }
+        return new GateClient.TicketReply(ticket.getId(), ticket.getSlot().getId(), ticket.getEntryEpochMillis());
+    }
+
+    private static GateClient.BillReply billReply(Bill bill) {
+        if (bill == null) {
+            return null;
+        }
+        Ticket ticket = bill.getTicket();
+        return new GateClient.BillReply(ticket.getId(), ticket.getSlot().getId(), bill.getTotalAmount(),
+                bill.getExitEpochMillis(), ticket.getVehicle().getId());
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Linear-probing table from long keys to int values, e.g. ticket ids to
+ * the rows that hold them; no boxing and no per-entry nodes
+ * Key 0 marks an empty cell and cannot be stored. Deletion shifts the
+ * following cluster back, so no tombstones build up over a day, and the
+ * table shrinks again after a peak. Not thread-safe: callers lock
+ */
+public final class LongIndexMap {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys = new long[MIN_CAPACITY];
+    private int[] values = new int[MIN_CAPACITY];
+    private int size;
+
+    /**
+     * @return The key's value, or -1 if it is absent
+     */
+    public int get(long key) {
+        int mask = keys.length - 1;
+        for (int i = (int) mix(key) & mask; keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Maps a key to a value, replacing any value it had
+     *
+     * @return The previous value, or -1 if the key was absent
+     */
+    public int put(long key, int value) {
+        if (key == 0) {
+            throw new IllegalArgumentException("Key 0 is reserved");
+        }
+        if ((size + 1) * 4 > keys.length * 3) {
+            resize(keys.length * 2);
+        }
+        return insert(key, value);
+    }
+
+    /**
+     * @return The removed value, or -1 if the key was absent
+     */
+    public int remove(long key) {
+        int mask = keys.length - 1;
+        int i = (int) mix(key) & mask;
+        while (keys[i] != key) {
+            if (keys[i] == 0) {
+                return -1;
+            }
+            i = (i + 1) & mask;
+        }
+        int removed = values[i];
+        size--;
+        // Backward-shift deletion
+        int hole = i;
+        for (int j = (hole + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+            int home = (int) mix(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        keys[hole] = 0;
+        // Give memory back after a peak
+        if (keys.length > MIN_CAPACITY && size * 8 < keys.length) {
+            resize(keys.length / 2);
+        }
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Spreads a key's bits; the table probes from the low bits, so callers
+     * striping by key should pick stripes from the high bits
+     */
+    public static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private int insert(long key, int value) {
+        int mask = keys.length - 1;
+        int i = (int) mix(key) & mask;
+        while (keys[i] != 0 && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        int previous = -1;
+        if (keys[i] == 0) {
+            size++;
+        } else {
+            previous = values[i];
+        }
+        keys[i] = key;
+        values[i] = value;
+        return previous;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                insert(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary description of a parking lot's floors, slots and gate
+ * distances, read through a memory-mapped file
+ * Columns are stored exactly as SlotStore keeps them, together with every
+ * (gate, size) nearest-slot ordering already sorted, so a lot of any size
+ * starts with a few bulk copies and one linear pass instead of building
+ * slot objects and sorting
+ *
+ * File layout (little-endian, every section 8-byte aligned):
+ * header      magic, version, slotCount, floorCount, gateCount, sizeCount
+ * floors      int[floorCount]                floor numbers
+ * gates       int[gateCount]                 gate ids, column 0 is gate 0
+ * totals      int[sizeCount]                 slots per vehicle size
+ * rates       double[slotCount] x 3          base rate, extra flat, extra hourly
+ * slots       int[slotCount] x 3             id, floor number, feature flags
+ * distances   int[slotCount] per gate
+ * orders      per gate, per size: int[totals[size]] slot indexes by (distance, id)
+ * sizes       byte[slotCount]                VehicleSize ordinal
+ */
+public class LotLayout {
+    private static final int MAGIC = 0x504B4C59; // "PKLY"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+
+    private final ByteBuffer data;
+    private final int slotCount;
+    private final int floorCount;
+    private final int gateCount;
+    private final int[] totals;
+
+    // Section offsets in bytes
+    private final long floorsAt;
+    private final long gatesAt;
+    private final long ratesAt;
+    private final long slotsAt;
+    private final long distancesAt;
+    private final long ordersAt;
+    private final long sizesAt;
+
+    private LotLayout(ByteBuffer data) {
+        this.data = data.order(ByteOrder.LITTLE_ENDIAN);
+        if (data.capacity() < HEADER_BYTES || data.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a lot layout file");
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Unsupported lot layout version: " + data.getInt(4));
+        }
+        this.slotCount = data.getInt(8);
+        this.floorCount = data.getInt(12);
+        this.gateCount = data.getInt(16);
+        if (data.getInt(20) != SIZES.length) {
+            throw new IllegalArgumentException("Layout has " + data.getInt(20) + " vehicle sizes, expected " + SIZES.length);
+        }
+        if (slotCount < 0 || floorCount < 0 || gateCount < 1) {
+            throw new IllegalArgumentException("Corrupt lot layout header");
+        }
+
+        long at = HEADER_BYTES;
+        floorsAt = at;
+        at = align(at + 4L * floorCount);
+        gatesAt = at;
+        at = align(at + 4L * gateCount);
+        long totalsAt = at;
+        at = align(at + 4L * SIZES.length);
+        ratesAt = at;
+        at = align(at + 8L * 3 * slotCount);
+        slotsAt = at;
+        at = align(at + 4L * 3 * slotCount);
+        distancesAt = at;
+        at = align(at + 4L * gateCount * slotCount);
+        ordersAt = at;
+        at = align(at + 4L * gateCount * slotCount);
+        sizesAt = at;
+        at += slotCount;
+        if (at != data.capacity()) {
+            throw new IllegalArgumentException("Lot layout is " + data.capacity() + " bytes, expected " + at);
+        }
+
+        this.totals = ints(totalsAt, SIZES.length);
+        long sum = 0;
+        for (int total : totals) {
+            sum += total;
+        }
+        if (sum != slotCount) {
+            throw new IllegalArgumentException("Corrupt lot layout: size totals do not add up to " + slotCount);
+        }
+    }
+
+    /**
+     * Maps a layout file read-only; the mapping stays valid after the
+     * channel is closed
+     */
+    public static LotLayout open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new LotLayout(mapped);
+        }
+    }
+
+    /**
+     * Converts a configured lot into a layout file
+     * Gates registered on the lot are included, so call after floors and
+     * entry gates are added. The file is replaced atomically
+     *
+     * @param lot  The lot to convert
+     * @param file Where to write the layout
+     */
+    public static void write(ParkingLot lot, Path file) throws IOException {
+        SlotStore store = lot.getSlotStore();
+        List<Floor> floors = lot.getFloors();
+        int[] gateIds = store.gateIds();
+        // Slots taken out of service are left out and the rest renumbered
+        int[] live = new int[store.count()];
+        int[] position = new int[store.count()];
+        int n = 0;
+        for (int index = 0; index < store.count(); index++) {
+            if (store.isOpen(index)) {
+                position[index] = n;
+                live[n++] = index;
+            }
+        }
+
+        long length = align(HEADER_BYTES + 4L * floors.size());
+        length = align(length + 4L * gateIds.length);
+        length = align(length + 4L * SIZES.length);
+        length = align(length + 8L * 3 * n);
+        length = align(length + 4L * 3 * n);
+        length = align(length + 4L * gateIds.length * n);
+        length = align(length + 4L * gateIds.length * n);
+        length += n;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Lot is too large for a single layout file: " + length + " bytes");
+        }
+
+        ByteBuffer out = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(floors.size())
+                .putInt(gateIds.length).putInt(SIZES.length);
+        out.position(HEADER_BYTES);
+        for (Floor floor : floors) {
+            out.putInt(floor.getFloorNumber());
+        }
+        pad(out);
+        for (int gateId : gateIds) {
+            out.putInt(gateId);
+        }
+        pad(out);
+        for (VehicleSize size : SIZES) {
+            out.putInt(store.totalSlots(size));
+        }
+        pad(out);
+        for (int i = 0; i < n; i++) {
+            out.putDouble(store.baseRate(live[i]));
+        }
+        for (int i = 0; i < n; i++) {
+            out.putDouble(store.extraFlat(live[i]));
+        }
+        for (int i = 0; i < n; i++) {
+            out.putDouble(store.extraHourly(live[i]));
+        }
+        for (int i = 0; i < n; i++) {
+            out.putInt(store.id(live[i]));
+        }
+        for (int i = 0; i < n; i++) {
+            out.putInt(store.floorNumber(live[i]));
+        }
+        for (int i = 0; i < n; i++) {
+            out.putInt(store.featureFlags(live[i]));
+        }
+        pad(out);
+        for (int gateId : gateIds) {
+            for (int i = 0; i < n; i++) {
+                out.putInt(store.distance(gateId, live[i]));
+            }
+        }
+        pad(out);
+        // The store's own orderings are already sorted by (distance, id); they
+        // leave out slots the gate cannot reach, which sort last by id
+        for (int gateId : gateIds) {
+            for (VehicleSize size : SIZES) {
+                for (int index : store.nearestOrder(gateId, size)) {
+                    out.putInt(position[index]);
+                }
+                long[] unreachable = new long[n];
+                int u = 0;
+                for (int i = 0; i < n; i++) {
+                    if (store.size(live[i]) == size && store.distance(gateId, live[i]) == FloorGraph.UNREACHABLE) {
+                        unreachable[u++] = ((long) store.id(live[i]) << 32) | i;
+                    }
+                }
+                Arrays.sort(unreachable, 0, u);
+                for (int k = 0; k < u; k++) {
+                    out.putInt((int) unreachable[k]);
+                }
+            }
+        }
+        pad(out);
+        for (int i = 0; i < n; i++) {
+            out.put((byte) store.size(live[i]).ordinal());
+        }
+        out.flip();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static void pad(ByteBuffer out) {
+        out.position((int) align(out.position()));
+    }
+
+    public int slotCount() {
+        return slotCount;
+    }
+
+    public int[] floorNumbers() {
+        return ints(floorsAt, floorCount);
+    }
+
+    public int[] gateIds() {
+        return ints(gatesAt, gateCount);
+    }
+
+    public int totalSlots(VehicleSize size) {
+        return totals[size.ordinal()];
+    }
+
+    public int[] ids() {
+        return ints(slotsAt, slotCount);
+    }
+
+    public int[] slotFloorNumbers() {
+        return ints(slotsAt + 4L * slotCount, slotCount);
+    }
+
+    public int[] featureFlags() {
+        return ints(slotsAt + 8L * slotCount, slotCount);
+    }
+
+    public double[] baseRates() {
+        return doubles(ratesAt, slotCount);
+    }
+
+    public double[] extraFlat() {
+        return doubles(ratesAt + 8L * slotCount, slotCount);
+    }
+
+    public double[] extraHourly() {
+        return doubles(ratesAt + 16L * slotCount, slotCount);
+    }
+
+    public byte[] sizes() {
+        byte[] values = new byte[slotCount];
+        data.get((int) sizesAt, values);
+        return values;
+    }
+
+    /**
+     * Distances of every slot to the gate in the given column
+     */
+    public int[] distances(int gateColumn) {
+        return ints(distancesAt + 4L * gateColumn * slotCount, slotCount);
+    }
+
+    /**
+     * Slot indexes of one size ordered by (distance, id) for a gate column
+     */
+    public int[] order(int gateColumn, VehicleSize size) {
+        long at = ordersAt + 4L * gateColumn * slotCount;
+        for (int s = 0; s < size.ordinal(); s++) {
+            at += 4L * totals[s];
+        }
+        return ints(at, totals[size.ordinal()]);
+    }
+
+    private int[] ints(long offset, int length) {
+        int[] values = new int[length];
+        data.slice((int) offset, 4 * length).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(values);
+        return values;
+    }
+
+    private double[] doubles(long offset, int length) {
+        double[] values = new double[length];
+        data.slice((int) offset, 8 * length).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(values);
+        return values;
+    }
+}
@@ -1,8 +1,10 @@
+import java.io.IOException;
+
 /**
  * Main class demonstrating the parking lot system workflow
  */
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         System.out.println("=== MULTILEVEL PARKING LOT SYSTEM DEMO ===\n");
 
         // Create parking lot system
@@ -25,6 +27,9 @@ public class Main {
 
         // Demo workflow
         demonstrateWorkflow(parkingLot, entryGate1, entryGate2, exitGate1);
+
+        // Drain the event log and stop its thread
+        parkingLot.close();
     }
 
     private static void setupParkingLot(ParkingLot parkingLot) {
@@ -62,11 +67,12 @@ public class Main {
         floor1.addSlot(slot6);
         floor1.addSlot(slot7);
 
-        // Floor 2
+        // Floor 2 - far from gate 1 but right next to gate 2's ramp
+        // (distances indexed by gate id: gate 0, gate 1, gate 2)
         Floor floor2 = new Floor(2);
-        Slot slot8 = new BasicSlot(201, VehicleSize.SMALL, 4.0, 8);
+        Slot slot8 = new BasicSlot(201, VehicleSize.SMALL, 4.0, 8, 8, 1);
         Slot slot9 = new ChargingDecorator(
-                new BasicSlot(202, VehicleSize.MEDIUM, 7.0, 9), 3.0);
+                new BasicSlot(202, VehicleSize.MEDIUM, 7.0, 9, 9, 2), 3.0);
 
         floor2.addSlot(slot8);
         floor2.addSlot(slot9);
@@ -79,6 +85,8 @@ public class Main {
             EntryGate entryGate1,
             EntryGate entryGate2,
             ExitGate exitGate1) {
+        // Setup notices go through the event pipeline; print them first
+        parkingLot.getEvents().flush();
         System.out.println("=== DEMO WORKFLOW ===\n");
 
         // Create vehicles
@@ -110,22 +118,22 @@ public class Main {
         // Vehicles exit and generate bills
         if (ticket1 != null) {
             exitGate1.generateBill(parkingLot, ticket1);
-            System.out.println();
         }
 
-        if (ticket2 != null) {
-            exitGate1.generateBill(parkingLot, ticket2);
-            System.out.println();
+        // ANPR camera reads the plate; no paper ticket needed
+        Ticket parked = parkingLot.findTicketByPlate(suv1.getId());
+        if (parked != null) {
+            parkingLot.getEvents().flush();
+            System.out.println("Plate " + suv1.getId() + " is parked in slot " + parked.getSlot().getId());
+            exitGate1.generateBillForPlate(parkingLot, suv1.getId());
         }
 
         if (ticket3 != null) {
             exitGate1.generateBill(parkingLot, ticket3);
-            System.out.println();
         }
 
         if (ticket4 != null) {
             exitGate1.generateBill(parkingLot, ticket4);
-            System.out.println();
         }
 
         // Final status
@@ -1,41 +1,72 @@
-import java.util.*;
+import java.util.List;
 
 /**
  * Nearest parking strategy - allocates the slot closest to the entry gate
  * This is the default strategy that prioritizes convenience for customers
+ * Vehicles get a slot with every feature they request. Charging bays are
+ * kept for vehicles that ask for them and only go to others once no other
+ * slot of any fitting size is free
  */
 public class NearestParkingStrategy implements ParkingStrategy {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
 
     @Override
-    public Slot allocateSlot(Vehicle vehicle, int gateId, Map<VehicleSize, TreeSet<Slot>> availableSlots) {
-        // Check slots from vehicle size upwards (small vehicle can use larger slot)
-        for (VehicleSize size : VehicleSize.values()) {
-            if (size.ordinal() >= vehicle.getSize().ordinal()) {
-                TreeSet<Slot> slots = availableSlots.get(size);
-
-                // Find first available slot (TreeSet is sorted by distance)
-                Iterator<Slot> iterator = slots.iterator();
-                while (iterator.hasNext()) {
-                    Slot slot = iterator.next();
-                    if (!slot.isOccupied()) {
-                        iterator.remove(); // Remove from available slots
-                        System.out.println("NearestStrategy: Allocated slot " + slot.getId() +
-                                " (distance: " + slot.getDistanceToGate(gateId) +
-                                ", size: " + slot.getSize() +
-                                ", features: " + slot.getFeatures() +
-                                ") to vehicle " + vehicle.getId());
-                        return slot;
-                    }
+    public int chooseSlot(Vehicle vehicle, int gateId, SlotIndexView slots) {
+        int required = vehicle.getRequestedFeatures();
+        int avoided = RESERVED_FEATURES & ~required;
+        // Second pass lets vehicles that did not ask for reserved bays use them
+        for (int pass = 0; pass < (avoided != 0 ? 2 : 1); pass++) {
+            // Check slots from vehicle size upwards (small vehicle can use larger slot)
+            for (int size = vehicle.getSize().ordinal(); size < SIZES.length; size++) {
+                // Bit scan of this gate's free bits per feature mask, already in distance order
+                int index = slots.nearest(gateId, SIZES[size], required, pass == 0 ? avoided : 0);
+                if (index >= 0) {
+                    // Logged by the gate's ticket event, off the hot path
+                    return index;
                 }
             }
         }
+        return -1;
+    }
 
-        System.out.println("NearestStrategy: No suitable slot available for vehicle: " + vehicle);
-        return null;
+    @Override
+    public void chooseSlots(List<Vehicle> vehicles, int gateId, SlotIndexView slots, Claims claims) {
+        boolean[] placed = new boolean[vehicles.size()];
+        boolean anyAvoided = false;
+        for (Vehicle vehicle : vehicles) {
+            anyAvoided |= (RESERVED_FEATURES & ~vehicle.getRequestedFeatures()) != 0;
+        }
+        chooseRounds(vehicles, gateId, slots, claims, placed, true);
+        if (anyAvoided) {
+            // Leftovers may take reserved bays once nothing else fits
+            chooseRounds(vehicles, gateId, slots, claims, placed, false);
+        }
+    }
+
+    // One pass per round: vehicles left without a slot move one size up,
+    // so exact-size matches in the batch are served before upgrades
+    private static void chooseRounds(List<Vehicle> vehicles, int gateId, SlotIndexView slots, Claims claims,
+                                     boolean[] placed, boolean avoidReserved) {
+        for (int upgrade = 0; upgrade < SIZES.length; upgrade++) {
+            for (int i = 0; i < placed.length; i++) {
+                Vehicle vehicle = vehicles.get(i);
+                int size = vehicle.getSize().ordinal() + upgrade;
+                if (placed[i] || size >= SIZES.length) {
+                    continue;
+                }
+                int required = vehicle.getRequestedFeatures();
+                int avoided = avoidReserved ? RESERVED_FEATURES & ~required : 0;
+                int index = slots.nearest(gateId, SIZES[size], required, avoided);
+                while (index >= 0 && !claims.claim(i, index)) {
+                    index = slots.nearest(gateId, SIZES[size], required, avoided);
+                }
+                placed[i] = index >= 0;
+            }
+        }
     }
 
     @Override
     public String getStrategyName() {
         return "Nearest Parking Strategy";
     }
-}
\ No newline at end of file
+}
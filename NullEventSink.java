@@ -0,0 +1,16 @@
+/**
+ * Event sink that discards every batch, for benchmarks and simulations
+ */
+public class NullEventSink implements EventSink {
+    @Override
+    public void write(CharSequence batch) {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,292 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Occupancy counts per floor x vehicle size x feature mask, kept up to date
+ * on every claim and release so readers never scan slots
+ * Updates go to a per-thread stripe under that stripe's own lock, which is
+ * almost never contended. A snapshot holds every stripe lock at once, so
+ * all counts it returns belong to the same instant
+ */
+public class OccupancyCounters {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+    private static final int FEATURE_MASKS = 1 << SlotFeature.values().length;
+    private static final int CELLS_PER_FLOOR = SIZES.length * FEATURE_MASKS;
+
+    private final Stripe[] stripes;
+    private final Map<Integer, Integer> floorColumns = new HashMap<>();
+    // Guarded by every stripe lock
+    private int[] floorNumbers = new int[0];
+    // Volatile so unlocked readers (free) see grown arrays
+    private volatile long[] capacity = new long[0];
+
+    public OccupancyCounters() {
+        int count = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) * 2;
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Returns the counter cell for a kind of slot, adding the floor if needed
+     * Structural; called while slots are being added, not from gates
+     */
+    public synchronized int cell(int floorNumber, VehicleSize size, int featureMask) {
+        Integer column = floorColumns.get(floorNumber);
+        if (column == null) {
+            column = floorNumbers.length;
+            floorColumns.put(floorNumber, column);
+            lockAll();
+            try {
+                floorNumbers = Arrays.copyOf(floorNumbers, column + 1);
+                floorNumbers[column] = floorNumber;
+                capacity = Arrays.copyOf(capacity, (column + 1) * CELLS_PER_FLOOR);
+                for (Stripe stripe : stripes) {
+                    stripe.occupied = Arrays.copyOf(stripe.occupied, capacity.length);
+                }
+            } finally {
+                unlockAll();
+            }
+        }
+        return column * CELLS_PER_FLOOR + size.ordinal() * FEATURE_MASKS + featureMask;
+    }
+
+    /**
+     * Adds one slot of capacity to each listed cell
+     */
+    public synchronized void addCapacity(int[] cells, int from, int to) {
+        lockAll();
+        try {
+            for (int i = from; i < to; i++) {
+                capacity[cells[i]]++;
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Adds (or with a negative delta, removes) capacity in one cell
+     */
+    public synchronized void addCapacity(int cell, int delta) {
+        lockAll();
+        try {
+            capacity[cell] += delta;
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Moves one slot of capacity between cells in a single step, so no
+     * snapshot sees it in both or neither
+     */
+    public synchronized void moveCapacity(int from, int to) {
+        lockAll();
+        try {
+            capacity[from]--;
+            capacity[to]++;
+        } finally {
+            unlockAll();
+        }
+    }
+
+    public void increment(int cell) {
+        Stripe stripe = stripe();
+        stripe.lock.lock();
+        try {
+            stripe.occupied[cell]++;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    public void decrement(int cell) {
+        Stripe stripe = stripe();
+        stripe.lock.lock();
+        try {
+            stripe.occupied[cell]--;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Applies the same change to many cells under a single stripe lock
+     */
+    public void add(int[] cells, int length, int delta) {
+        if (length == 0) {
+            return;
+        }
+        Stripe stripe = stripe();
+        stripe.lock.lock();
+        try {
+            for (int i = 0; i < length; i++) {
+                stripe.occupied[cells[i]] += delta;
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * First cell of the floor a cell belongs to, for free()
+     */
+    public static int floorCell(int cell) {
+        return cell - cell % CELLS_PER_FLOOR;
+    }
+
+    /**
+     * Free slots of a size on the floor starting at floorCell whose feature
+     * mask has every required feature and none of the avoided ones
+     * Reads without locks, for allocation heuristics: claims and releases
+     * in flight may or may not be counted. Cost depends on feature masks
+     * and stripes, never on the number of slots
+     */
+    public long free(int floorCell, VehicleSize size, int requiredFeatures, int avoidedFeatures) {
+        int first = floorCell + size.ordinal() * FEATURE_MASKS;
+        long[] total = capacity;
+        if (first + FEATURE_MASKS > total.length) {
+            return 0;
+        }
+        long free = 0;
+        for (int mask = 0; mask < FEATURE_MASKS; mask++) {
+            if ((mask & requiredFeatures) == requiredFeatures && (mask & avoidedFeatures) == 0) {
+                free += total[first + mask];
+            }
+        }
+        for (Stripe stripe : stripes) {
+            long[] occupied = stripe.occupied;
+            if (first + FEATURE_MASKS > occupied.length) {
+                continue;
+            }
+            for (int mask = 0; mask < FEATURE_MASKS; mask++) {
+                if ((mask & requiredFeatures) == requiredFeatures && (mask & avoidedFeatures) == 0) {
+                    free -= occupied[first + mask];
+                }
+            }
+        }
+        return Math.max(free, 0);
+    }
+
+    /**
+     * Reads every count at one instant; cost depends on floors and
+     * stripes, never on the number of slots
+     */
+    public Snapshot snapshot() {
+        lockAll();
+        try {
+            long[] occupied = new long[capacity.length];
+            for (Stripe stripe : stripes) {
+                for (int cell = 0; cell < occupied.length; cell++) {
+                    occupied[cell] += stripe.occupied[cell];
+                }
+            }
+            return new Snapshot(floorNumbers.clone(), occupied, capacity.clone());
+        } finally {
+            unlockAll();
+        }
+    }
+
+    private Stripe stripe() {
+        long h = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (h >>> 32) & (stripes.length - 1)];
+    }
+
+    private void lockAll() {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].lock.unlock();
+        }
+    }
+
+    private static final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile long[] occupied = new long[0];
+        // Keep neighbouring stripes' hot fields on separate cache lines
+        @SuppressWarnings("unused")
+        private long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    /**
+     * Occupancy and capacity of every floor, size and feature mask at one
+     * instant
+     */
+    public static final class Snapshot {
+        private final int[] floorNumbers;
+        private final long[] occupied;
+        private final long[] capacity;
+
+        private Snapshot(int[] floorNumbers, long[] occupied, long[] capacity) {
+            this.floorNumbers = floorNumbers;
+            this.occupied = occupied;
+            this.capacity = capacity;
+        }
+
+        public int[] getFloorNumbers() {
+            return floorNumbers.clone();
+        }
+
+        /**
+         * Occupied slots on a floor (or every floor when floorNumber is
+         * null), of a size (or every size when null), whose feature mask
+         * contains all of the required features
+         */
+        public long occupied(Integer floorNumber, VehicleSize size, int requiredFeatures) {
+            return sum(occupied, floorNumber, size, requiredFeatures);
+        }
+
+        public long capacity(Integer floorNumber, VehicleSize size, int requiredFeatures) {
+            return sum(capacity, floorNumber, size, requiredFeatures);
+        }
+
+        public long occupied(int floorNumber, VehicleSize size) {
+            return occupied(floorNumber, size, 0);
+        }
+
+        public long capacity(int floorNumber, VehicleSize size) {
+            return capacity(floorNumber, size, 0);
+        }
+
+        public long occupied(VehicleSize size) {
+            return occupied(null, size, 0);
+        }
+
+        public long capacity(VehicleSize size) {
+            return capacity(null, size, 0);
+        }
+
+        public long available(VehicleSize size) {
+            return capacity(size) - occupied(size);
+        }
+
+        private long sum(long[] counts, Integer floorNumber, VehicleSize size, int requiredFeatures) {
+            long total = 0;
+            for (int column = 0; column < floorNumbers.length; column++) {
+                if (floorNumber != null && floorNumbers[column] != floorNumber) {
+                    continue;
+                }
+                for (int s = 0; s < SIZES.length; s++) {
+                    if (size != null && size.ordinal() != s) {
+                        continue;
+                    }
+                    int base = column * CELLS_PER_FLOOR + s * FEATURE_MASKS;
+                    for (int mask = 0; mask < FEATURE_MASKS; mask++) {
+                        if ((mask & requiredFeatures) == requiredFeatures) {
+                            total += counts[base + mask];
+                        }
+                    }
+                }
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+/**
+ * Source of the current time for gates, billing and reservations
+ * Readings are epoch milliseconds, so taking one allocates nothing and
+ * needs no time-zone lookup; a LocalDateTime is only built when a ticket
+ * or bill is printed. Set on the lot with ParkingLot.setClock, or on one
+ * gate through its constructor
+ */
+public interface ParkingClock {
+    /**
+     * @return Current time in milliseconds since 1970-01-01T00:00Z
+     */
+    long millis();
+}
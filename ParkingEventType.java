@@ -0,0 +1,13 @@
+/**
+ * Enum of structured events published by gates and the parking lot
+ */
+public enum ParkingEventType {
+    TICKET_ISSUED,
+    BILL_GENERATED,
+    SLOT_RELEASED,
+    ALLOCATION_FAILED,
+    ENTRY_REFUSED,
+    EXIT_REFUSED,
+    // Administrative message from the lot: layout, gate and setting changes
+    LOT_NOTICE
+}
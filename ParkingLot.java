@@ -1,38 +1,98 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Main class representing the entire parking lot system
  * Manages floors, gates, and slot allocation strategy using Strategy pattern
  */
-public class ParkingLot {
+public class ParkingLot implements AutoCloseable {
+    // Lost claims of one slot in a row before a strategy is taken to be
+    // choosing occupied slots; other gates cannot plausibly win that often
+    private static final int MAX_LOST_CLAIMS = 64;
+
     private final List<Floor> floors;
     private final List<EntryGate> entryGates;
     private final List<ExitGate> exitGates;
-    private int ticketCounter = 1;
+    private final int siteId;
+
+    // One ID generator per gate id, so gates never contend on a counter
+    private final AtomicReferenceArray<TicketIdGenerator> ticketIds;
 
     // Strategy pattern for parking allocation
-    private ParkingStrategy parkingStrategy;
+    private volatile ParkingStrategy parkingStrategy;
+
+    // Struct-of-arrays slot store with distance-ordered free bit sets per
+    // (gate, size, features). Slots are claimed by CAS on an occupancy bit and then
+    // unlinked from every gate's bit set, so no gate ever takes a lock
+    private final SlotStore slotStore;
+
+    // Tickets of vehicles currently parked, by ticket id and by plate
+    private final ActiveTicketRegistry activeTickets;
+
+    // Compact mode: active tickets as pooled primitive rows instead of
+    // Ticket objects; null until enabled
+    private volatile TicketTable ticketTable;
+
+    // Optional write-ahead journal of entries and exits; null when disabled
+    private volatile TicketJournal journal;
+
+    // Gate and release events are logged asynchronously, off the hot path
+    private final EventPipeline events;
+    // Whether the lot created the pipeline and so closes it in close()
+    private boolean ownsEvents;
+
+    // Latency histograms, counters and gauges; off until enabled
+    private final ParkingMetrics metrics;
+
+    // Completed bills, kept in columns for end-of-day reporting
+    private final BillHistory billHistory;
+
+    // Pricing rules compiled against the slot store's cent rates
+    private volatile TariffEngine tariff;
 
-    // Efficient data structure for slot allocation - TreeSet for O(log n)
-    // operations
-    // Map vehicle size to available slots sorted by distance
-    private final Map<VehicleSize, TreeSet<Slot>> availableSlots;
+    // Time source for tickets, bills and reservations; gates may override
+    private volatile ParkingClock clock = new PreciseClock();
+
+    // Graph the slot distances were last applied from, and its version
+    // then; null if none
+    private volatile FloorGraph floorGraph;
+    private long floorGraphVersion = -1;
+
+    // Advance bookings; their slots are held in the store when due
+    private final ReservationBook reservations;
+
+    // Entry gates' waitlists, empty unless enabled; released slots go to
+    // their waiters before the free-slot index
+    private volatile Waitlist[] waitlists = new Waitlist[0];
+    private final AtomicLong waitlistArrivals = new AtomicLong();
 
     public ParkingLot() {
-        this.floors = new ArrayList<>();
-        this.entryGates = new ArrayList<>();
-        this.exitGates = new ArrayList<>();
-        this.availableSlots = new HashMap<>();
+        this(0, new EventPipeline());
+        this.ownsEvents = true;
+    }
+
+    private ParkingLot(int siteId, EventPipeline events) {
+        this.siteId = siteId;
+        this.ticketIds = new AtomicReferenceArray<>(TicketIdGenerator.MAX_GATES);
+        this.floors = new CopyOnWriteArrayList<>();
+        this.entryGates = new CopyOnWriteArrayList<>();
+        this.exitGates = new CopyOnWriteArrayList<>();
+        this.slotStore = new SlotStore();
+        this.activeTickets = new ActiveTicketRegistry();
+        this.events = events;
+        this.metrics = new ParkingMetrics(slotStore);
+        this.tariff = new TariffEngine(Tariff.hourly(), slotStore);
+        this.billHistory = new BillHistory(slotStore);
+        this.reservations = new ReservationBook(slotStore, this::releaseIndex);
 
         // Default strategy is nearest parking
         this.parkingStrategy = new NearestParkingStrategy();
-
-        // Initialize TreeSets for each vehicle size
-        for (VehicleSize size : VehicleSize.values()) {
-            availableSlots.put(size, new TreeSet<>(Comparator
-                    .comparingInt((Slot s) -> s.getDistanceToGate(0))
-                    .thenComparing(Slot::getId)));
-        }
     }
 
     /**
@@ -41,33 +101,336 @@ public class ParkingLot {
      * @param strategy The parking allocation strategy to use
      */
     public ParkingLot(ParkingStrategy strategy) {
-        this();
+        this(strategy, new EventPipeline());
+        this.ownsEvents = true;
+    }
+
+    /**
+     * Constructor with custom parking strategy and event pipeline
+     * 
+     * @param strategy The parking allocation strategy to use
+     * @param events   Where gate and slot events are published
+     */
+    public ParkingLot(ParkingStrategy strategy, EventPipeline events) {
+        this(0, strategy, events);
+    }
+
+    /**
+     * Constructor for one site of a multi-site deployment
+     * 
+     * @param siteId   Site number encoded into every ticket id
+     * @param strategy The parking allocation strategy to use
+     * @param events   Where gate and slot events are published
+     */
+    public ParkingLot(int siteId, ParkingStrategy strategy, EventPipeline events) {
+        this(siteId, events);
+        if (siteId < 0 || siteId >= TicketIdGenerator.MAX_SITES) {
+            throw new IllegalArgumentException("Site id must be in [0, " + TicketIdGenerator.MAX_SITES + "): " + siteId);
+        }
         this.parkingStrategy = strategy;
-        System.out.println("ParkingLot initialized with: " + strategy.getStrategyName());
+        events.notice("ParkingLot initialized with: " + strategy.getStrategyName());
     }
 
     public void addFloor(Floor floor) {
         floors.add(floor);
-        // Add all slots from the floor to available slots
-        for (Slot slot : floor.getSlots()) {
-            availableSlots.get(slot.getSize()).add(slot);
-        }
-        System.out.println("Added floor " + floor.getFloorNumber() +
+        // Copy the floor's slots into the store and every gate's ordering
+        slotStore.addSlots(floor.getFloorNumber(), floor.getSlots());
+        events.notice("Added floor " + floor.getFloorNumber() +
                 " with " + floor.getSlots().size() + " slots");
     }
 
+    /**
+     * Builds the lot's floors, slots and gate orderings from a layout file
+     * Slots are served as flyweight views over the store's columns, so the
+     * floors added here hold no slot objects
+     *
+     * @param file Layout written by LotLayout.write
+     */
+    public void loadLayout(Path file) throws IOException {
+        loadLayout(LotLayout.open(file));
+    }
+
+    public void loadLayout(LotLayout layout) {
+        slotStore.load(layout);
+        for (int floorNumber : layout.floorNumbers()) {
+            floors.add(new Floor(floorNumber));
+        }
+        events.notice("Loaded layout with " + layout.floorNumbers().length + " floors and " +
+                layout.slotCount() + " slots");
+    }
+
+    /**
+     * Adds one slot to a floor, creating the floor if needed, while gates
+     * keep allocating
+     */
+    public synchronized void addSlot(int floorNumber, Slot slot) {
+        slotStore.addSlots(floorNumber, List.of(slot));
+        floorOrNew(floorNumber).addSlot(slot);
+        events.notice("Added slot " + slot.getId() + " to floor " + floorNumber);
+        journalSlot(slot.getId());
+    }
+
+    /**
+     * Brings a floor graph's gate-to-slot distances up to date and re-sorts
+     * the gate orderings if any changed, while gates keep allocating. Slots
+     * built on the graph (see BasicSlot) follow it from here on, including
+     * when resized or given features
+     *
+     * @return Ids of the gates whose distances changed
+     */
+    public synchronized int[] applyDistances(FloorGraph graph) {
+        int[] changed = graph.update();
+        // The graph may also have been updated since it was last applied
+        if (graph != floorGraph || graph.version() != floorGraphVersion) {
+            slotStore.refreshDistances();
+        }
+        floorGraph = graph;
+        floorGraphVersion = graph.version();
+        events.notice("Updated distances for " + changed.length + " gates");
+        return changed;
+    }
+
+    /**
+     * Takes a slot out of service while gates keep allocating. A vehicle
+     * parked there keeps its slot until it leaves
+     *
+     * @return false if no slot with that id is in service
+     */
+    public synchronized boolean removeSlot(int slotId) {
+        int index = slotStore.indexOfId(slotId);
+        if (index < 0 || slotStore.removeSlots(new int[]{slotId}) == 0) {
+            events.notice("Slot " + slotId + " is not in service, nothing to remove");
+            return false;
+        }
+        Floor floor = findFloor(slotStore.floorNumber(index));
+        if (floor != null) {
+            floor.removeSlot(slotStore.slotAt(index));
+        }
+        events.notice("Removed slot " + slotId);
+        journalSlot(slotId);
+        return true;
+    }
+
+    /**
+     * Takes a floor and all its slots out of service in one change
+     *
+     * @return false if the lot has no such floor
+     */
+    public synchronized boolean removeFloor(int floorNumber) {
+        Floor floor = findFloor(floorNumber);
+        if (floor == null) {
+            events.notice("Floor " + floorNumber + " not found, nothing to remove");
+            return false;
+        }
+        int[] slotIds = new int[slotStore.count()];
+        int n = 0;
+        for (int index = 0; index < slotStore.count(); index++) {
+            if (slotStore.floorNumber(index) == floorNumber && slotStore.isOpen(index)) {
+                slotIds[n++] = slotStore.id(index);
+            }
+        }
+        slotStore.removeSlots(Arrays.copyOf(slotIds, n));
+        floors.remove(floor);
+        events.notice("Removed floor " + floorNumber + " with " + n + " slots");
+        for (int i = 0; i < n; i++) {
+            journalSlot(slotIds[i]);
+        }
+        return true;
+    }
+
+    /**
+     * Changes the size of a slot while gates keep allocating. A vehicle
+     * parked there keeps its slot; the new size is offered once it leaves
+     *
+     * @return false if no slot with that id is in service or it already has that size
+     */
+    public synchronized boolean resizeSlot(int slotId, VehicleSize size) {
+        int index = slotStore.indexOfId(slotId);
+        if (index < 0 || slotStore.size(index) == size) {
+            events.notice("Slot " + slotId + " not resized");
+            return false;
+        }
+        return replaceSlot(index, size, slotStore.featureFlags(index),
+                slotStore.extraHourly(index), slotStore.extraFlat(index));
+    }
+
+    /**
+     * Adds a feature to a slot while gates keep allocating: a
+     * ChargingDecorator charging the given amount per hour, or a
+     * CleaningDecorator charging it once
+     *
+     * @return false if no slot with that id is in service or it already has the feature
+     */
+    public synchronized boolean attachFeature(int slotId, SlotFeature feature, double charge) {
+        int index = slotStore.indexOfId(slotId);
+        if (index < 0 || (slotStore.featureFlags(index) & feature.flag()) != 0) {
+            events.notice("Slot " + slotId + " not given " + feature);
+            return false;
+        }
+        double hourly = slotStore.extraHourly(index) + (feature == SlotFeature.CHARGING ? charge : 0);
+        double flat = slotStore.extraFlat(index) + (feature == SlotFeature.CLEANING ? charge : 0);
+        return replaceSlot(index, slotStore.size(index), slotStore.featureFlags(index) | feature.flag(), hourly, flat);
+    }
+
+    /**
+     * Removes a feature and its charge from a slot while gates keep allocating
+     *
+     * @return false if no slot with that id is in service or it lacks the feature
+     */
+    public synchronized boolean detachFeature(int slotId, SlotFeature feature) {
+        int index = slotStore.indexOfId(slotId);
+        if (index < 0 || (slotStore.featureFlags(index) & feature.flag()) == 0) {
+            events.notice("Slot " + slotId + " has no " + feature + " to remove");
+            return false;
+        }
+        double hourly = feature == SlotFeature.CHARGING ? 0 : slotStore.extraHourly(index);
+        double flat = feature == SlotFeature.CLEANING ? 0 : slotStore.extraFlat(index);
+        return replaceSlot(index, slotStore.size(index), slotStore.featureFlags(index) & ~feature.flag(), hourly, flat);
+    }
+
+    /**
+     * Publishes a changed copy of a slot: a BasicSlot with the same id, rate
+     * and gate distances, wrapped in a decorator per feature
+     */
+    private boolean replaceSlot(int index, VehicleSize size, int featureFlags, double extraHourly, double extraFlat) {
+        int[] gateIds = slotStore.gateIds();
+        int[] distances = new int[gateIds.length];
+        for (int g = 0; g < gateIds.length; g++) {
+            distances[g] = slotStore.distance(gateIds[g], index);
+        }
+        Slot slot = buildSlot(slotStore.id(index), size, slotStore.baseRate(index), gateIds, distances,
+                featureFlags, extraHourly, extraFlat);
+        Slot old = slotStore.slotAt(index);
+        if (slotStore.replaceSlot(slot) < 0) {
+            return false;
+        }
+        Floor floor = findFloor(slotStore.floorNumber(index));
+        if (floor != null && floor.getSlots().remove(old)) {
+            floor.addSlot(slot);
+        }
+        events.notice("Changed slot " + slot.getId() + " to " + size + ", " + slot.getFeatures());
+        journalSlot(slot.getId());
+        return true;
+    }
+
+    private Slot buildSlot(int slotId, VehicleSize size, double baseRate, int[] gateIds, int[] distances,
+                           int featureFlags, double extraHourly, double extraFlat) {
+        int[] distance = new int[Arrays.stream(gateIds).max().orElse(0) + 1];
+        // Gates without their own ordering use the gate 0 distance
+        for (int g = 0; g < gateIds.length; g++) {
+            if (gateIds[g] == 0) {
+                Arrays.fill(distance, distances[g]);
+            }
+        }
+        for (int g = 0; g < gateIds.length; g++) {
+            distance[gateIds[g]] = distances[g];
+        }
+        FloorGraph graph = floorGraph;
+        Slot slot = graph != null && graph.contains(slotId)
+                ? new BasicSlot(slotId, size, baseRate, graph)
+                : new BasicSlot(slotId, size, baseRate, distance);
+        if ((featureFlags & SlotFeature.CHARGING.flag()) != 0) {
+            slot = new ChargingDecorator(slot, extraHourly);
+        }
+        if ((featureFlags & SlotFeature.CLEANING.flag()) != 0) {
+            slot = new CleaningDecorator(slot, extraFlat);
+        }
+        return slot;
+    }
+
+    // Journals a slot's state after a runtime change, or its removal
+    private void journalSlot(int slotId) {
+        TicketJournal log = journal;
+        if (log == null) {
+            return;
+        }
+        int index = slotStore.indexOfId(slotId);
+        TicketJournal.SlotRecord record = TicketJournal.SlotRecord.removed(slotId);
+        if (index >= 0) {
+            int[] gateIds = slotStore.gateIds();
+            int[] distances = new int[gateIds.length];
+            for (int g = 0; g < gateIds.length; g++) {
+                distances[g] = slotStore.distance(gateIds[g], index);
+            }
+            record = new TicketJournal.SlotRecord(slotId, true, slotStore.floorNumber(index), slotStore.size(index),
+                    slotStore.featureFlags(index), slotStore.baseRate(index), slotStore.extraHourly(index),
+                    slotStore.extraFlat(index), gateIds, distances);
+        }
+        try {
+            log.logSlot(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ticket journal write failed", e);
+        }
+    }
+
+    // Brings one slot back to its journaled state: removed, added or changed
+    private void restoreSlot(TicketJournal.SlotRecord slot) {
+        int index = slotStore.indexOfId(slot.slotId);
+        if (!slot.inService) {
+            if (index >= 0) {
+                removeSlot(slot.slotId);
+            }
+        } else if (index < 0) {
+            addSlot(slot.floorNumber, buildSlot(slot.slotId, slot.size, slot.baseRate, slot.gateIds, slot.distances,
+                    slot.featureFlags, slot.extraHourly, slot.extraFlat));
+        } else if (slotStore.size(index) != slot.size || slotStore.featureFlags(index) != slot.featureFlags
+                || slotStore.extraHourly(index) != slot.extraHourly || slotStore.extraFlat(index) != slot.extraFlat) {
+            replaceSlot(index, slot.size, slot.featureFlags, slot.extraHourly, slot.extraFlat);
+        }
+    }
+
+    private Floor findFloor(int floorNumber) {
+        for (Floor floor : floors) {
+            if (floor.getFloorNumber() == floorNumber) {
+                return floor;
+            }
+        }
+        return null;
+    }
+
+    private Floor floorOrNew(int floorNumber) {
+        Floor floor = findFloor(floorNumber);
+        if (floor == null) {
+            floor = new Floor(floorNumber);
+            floors.add(floor);
+        }
+        return floor;
+    }
+
     public void addEntryGate(EntryGate gate) {
+        ticketIdGenerator(gate.getId());
         entryGates.add(gate);
-        System.out.println("Added entry gate: " + gate.getId());
+        // Build the gate's own nearest-slot ordering
+        slotStore.addGate(gate.getId());
+        events.notice("Added entry gate: " + gate.getId());
     }
 
     public void addExitGate(ExitGate gate) {
         exitGates.add(gate);
-        System.out.println("Added exit gate: " + gate.getId());
+        events.notice("Added exit gate: " + gate.getId());
     }
 
-    public int nextTicketId() {
-        return ticketCounter++;
+    /**
+     * Issues a ticket id from the gate's own generator
+     * 
+     * @param gateId The entry gate issuing the ticket
+     * @return Unique, time-ordered ticket id
+     */
+    public long nextTicketId(int gateId) {
+        return ticketIdGenerator(gateId).nextId();
+    }
+
+    private TicketIdGenerator ticketIdGenerator(int gateId) {
+        if (gateId < 0 || gateId >= TicketIdGenerator.MAX_GATES) {
+            throw new IllegalArgumentException("Gate id must be in [0, " + TicketIdGenerator.MAX_GATES + "): " + gateId);
+        }
+        TicketIdGenerator generator = ticketIds.get(gateId);
+        if (generator == null) {
+            // Reads the lot's clock at each call, so setClock applies to it
+            ticketIds.compareAndSet(gateId, null, new TicketIdGenerator(siteId, gateId, () -> clock.millis()));
+            generator = ticketIds.get(gateId);
+        }
+        return generator;
     }
 
     /**
@@ -78,7 +441,179 @@ public class ParkingLot {
      * @return Allocated slot or null if no suitable slot available
      */
     public Slot allocateSlot(Vehicle vehicle, int gateId) {
-        return parkingStrategy.allocateSlot(vehicle, gateId, availableSlots);
+        int index = allocateSlotIndex(vehicle, gateId);
+        return index >= 0 ? slotStore.slotAt(index) : null;
+    }
+
+    /**
+     * Same as allocateSlot, answering the claimed slot's store index
+     * 
+     * @return Index of the allocated slot, or -1 if none was available
+     */
+    public int allocateSlotIndex(Vehicle vehicle, int gateId) {
+        long start = metrics.startTimer();
+        ParkingStrategy strategy = parkingStrategy;
+        // Full for this vehicle: refuse from the live free counts without
+        // asking the strategy to search every fitting size
+        if (!slotStore.hasFreeSlot(vehicle.getSize(), vehicle.getRequestedFeatures())) {
+            metrics.recordAllocation(strategy, gateId, vehicle, null, start);
+            return -1;
+        }
+        int lost = -1;
+        int losses = 0;
+        int index = strategy.chooseSlot(vehicle, gateId, slotStore);
+        // A lost claim means another gate took the slot; ask again
+        while (index >= 0 && !claimChoice(strategy, index, index == lost ? losses : 0)) {
+            losses = index == lost ? losses + 1 : 1;
+            lost = index;
+            index = strategy.chooseSlot(vehicle, gateId, slotStore);
+        }
+        metrics.recordAllocation(strategy, gateId, vehicle, index >= 0 ? slotStore.slotAt(index) : null, start);
+        return index;
+    }
+
+    /**
+     * Claims a strategy's choice
+     *
+     * @param losses Claims of this slot the strategy just lost in a row
+     * @return false if another gate claimed the slot first
+     */
+    private boolean claimChoice(ParkingStrategy strategy, int index, int losses) {
+        if (index < 0 || index >= slotStore.count()) {
+            throw new IllegalStateException(strategy.getStrategyName() + " chose slot index " + index
+                    + " of a lot with " + slotStore.count() + " slots");
+        }
+        if (losses >= MAX_LOST_CLAIMS) {
+            // The view shows it taken; asking again would never end
+            throw new IllegalStateException(strategy.getStrategyName() + " keeps choosing occupied slot "
+                    + slotStore.id(index));
+        }
+        return slotStore.claim(index);
+    }
+
+    /**
+     * Allocates slots for a batch of vehicles arriving at one gate
+     * 
+     * @param vehicles The vehicles requesting parking
+     * @param gateId   The gate ID (for distance calculation)
+     * @return Allocated slot per vehicle, null where none was available
+     */
+    public Slot[] allocateSlots(List<Vehicle> vehicles, int gateId) {
+        long start = metrics.startTimer();
+        ParkingStrategy strategy = parkingStrategy;
+        BatchClaims claims = new BatchClaims(strategy, vehicles.size());
+        boolean anyFits = false;
+        for (Vehicle vehicle : vehicles) {
+            anyFits |= slotStore.hasFreeSlot(vehicle.getSize(), vehicle.getRequestedFeatures());
+        }
+        if (anyFits) {
+            strategy.chooseSlots(vehicles, gateId, slotStore, claims);
+        }
+        Slot[] slots = claims.slots;
+        for (int i = 0; i < slots.length; i++) {
+            metrics.recordAllocation(strategy, gateId, vehicles.get(i), slots[i], start);
+        }
+        return slots;
+    }
+
+    /**
+     * Lets vehicles that find the lot full wait at an entry gate for a
+     * released slot instead of being turned away
+     *
+     * @param capacity Vehicles that may wait at once; more are turned away
+     * @param timeout  How long a vehicle waits before giving up
+     * @return The gate's waitlist, for its backpressure signal and counts
+     */
+    public synchronized Waitlist enableWaitlist(int gateId, int capacity, Duration timeout) {
+        if (getWaitlist(gateId) != null) {
+            throw new IllegalStateException("Gate " + gateId + " already has a waitlist");
+        }
+        Waitlist waitlist = new Waitlist(gateId, capacity, timeout);
+        Waitlist[] grown = Arrays.copyOf(waitlists, waitlists.length + 1);
+        grown[grown.length - 1] = waitlist;
+        waitlists = grown;
+        events.notice("Waitlist enabled at gate " + gateId + " for " + capacity + " vehicles");
+        return waitlist;
+    }
+
+    /**
+     * @return The gate's waitlist, or null if it has none
+     */
+    public Waitlist getWaitlist(int gateId) {
+        for (Waitlist waitlist : waitlists) {
+            if (waitlist.getGateId() == gateId) {
+                return waitlist;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Waits at the gate's waitlist for a slot released by a departing
+     * vehicle. Call after allocateSlot found none
+     *
+     * @return The slot, claimed for the vehicle, or null if the gate has no
+     *         waitlist, it is full, or the wait timed out
+     */
+    public Slot awaitSlot(Vehicle vehicle, int gateId) {
+        Waitlist waitlist = getWaitlist(gateId);
+        if (waitlist == null) {
+            return null;
+        }
+        Waitlist.Waiter waiter = waitlist.join(vehicle, waitlistArrivals.incrementAndGet());
+        if (waiter == null) {
+            return null;
+        }
+        // A slot released before the vehicle joined went back to the index
+        Slot slot = allocateSlot(vehicle, gateId);
+        if (slot != null) {
+            if (waitlist.cancel(waiter)) {
+                return slot;
+            }
+            // Served at the same moment; pass the spare slot on
+            releaseSlot(slot);
+        }
+        return waitlist.await(waiter);
+    }
+
+    /**
+     * Gives an occupied slot straight to the longest-waiting vehicle it
+     * fits, keeping reserved bays for waiters that asked for them first
+     *
+     * @return false if nobody waiting fits; the slot is still occupied
+     */
+    private boolean handOff(int index) {
+        Waitlist[] lists = waitlists;
+        boolean anyWaiting = false;
+        for (Waitlist waitlist : lists) {
+            anyWaiting |= waitlist.getWaiting() > 0;
+        }
+        if (!anyWaiting || !slotStore.isOpen(index) || !slotStore.isOccupied(index)) {
+            return false;
+        }
+        VehicleSize size = slotStore.size(index);
+        int featureFlags = slotStore.featureFlags(index);
+        Slot slot = slotStore.slotAt(index);
+        for (int pass = 0; pass < 2; pass++) {
+            while (true) {
+                Waitlist best = null;
+                Waitlist.Waiter first = null;
+                for (Waitlist waitlist : lists) {
+                    Waitlist.Waiter candidate = waitlist.first(size, featureFlags, pass == 0);
+                    if (candidate != null && (first == null || candidate.sequence < first.sequence)) {
+                        best = waitlist;
+                        first = candidate;
+                    }
+                }
+                if (first == null) {
+                    break;
+                }
+                if (best.serve(first, slot)) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     /**
@@ -88,7 +623,33 @@ public class ParkingLot {
      */
     public void setParkingStrategy(ParkingStrategy strategy) {
         this.parkingStrategy = strategy;
-        System.out.println("Parking strategy changed to: " + strategy.getStrategyName());
+        events.notice("Parking strategy changed to: " + strategy.getStrategyName());
+    }
+
+    /**
+     * Replaces the pricing rules used by every exit gate
+     * 
+     * @param tariff The new tariff; later changes to it have no effect
+     */
+    public void setTariff(Tariff tariff) {
+        this.tariff = new TariffEngine(tariff, slotStore);
+    }
+
+    /**
+     * Sets the time source for tickets, bills and reservations, e.g. a
+     * CoarseClock on busy days or a SimulatedClock in load tests. Gates
+     * built with their own clock keep it
+     */
+    public void setClock(ParkingClock clock) {
+        this.clock = clock;
+    }
+
+    public ParkingClock getClock() {
+        return clock;
+    }
+
+    public TariffEngine getTariff() {
+        return tariff;
     }
 
     /**
@@ -101,34 +662,447 @@ public class ParkingLot {
     }
 
     /**
-     * Releases a slot back to the available slots pool
+     * Vacates a slot and releases it back to the available slots pool
      * 
      * @param slot The slot to release
      */
     public void releaseSlot(Slot slot) {
-        availableSlots.get(slot.getSize()).add(slot);
-        System.out.println("Released slot " + slot.getId() + " back to available pool");
+        int index = slotStore.indexOf(slot);
+        if (index >= 0 && handOff(index)) {
+            events.slotReleased(slot);
+            return;
+        }
+        if (index < 0 || !slotStore.release(index)) {
+            events.notice("Slot " + slot.getId() + " was not allocated, nothing to release");
+            return;
+        }
+        events.slotReleased(slot);
+    }
+
+    /**
+     * Gives a slot back by index, handing it to a waiting vehicle first;
+     * used for the slots reservations hold and let go
+     */
+    private void releaseIndex(int index) {
+        if (!handOff(index)) {
+            slotStore.release(index);
+        }
+    }
+
+    /**
+     * Releases a batch of slots with one occupancy counter update
+     * 
+     * @param slots The slots to release; null entries are skipped
+     */
+    public void releaseSlots(Slot[] slots) {
+        int[] indexes = new int[slots.length];
+        boolean[] handedOff = new boolean[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            indexes[i] = slots[i] != null ? slotStore.indexOf(slots[i]) : -1;
+            if (indexes[i] >= 0 && handOff(indexes[i])) {
+                handedOff[i] = true;
+                indexes[i] = -1;
+            }
+        }
+        boolean[] released = slotStore.release(indexes);
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] == null) {
+                continue;
+            }
+            if (released[i] || handedOff[i]) {
+                events.slotReleased(slots[i]);
+            } else {
+                events.notice("Slot " + slots[i].getId() + " was not allocated, nothing to release");
+            }
+        }
+    }
+
+    /**
+     * Turns on durable journaling and restores every vehicle the journal
+     * says is still parked (slot occupancy, free indexes, active tickets)
+     * Call after floors and gates are set up, before gates start
+     * 
+     * @param directory  Where journal segments are kept
+     * @param durability Whether gates wait for each group commit
+     * @return Number of parked vehicles restored
+     */
+    public int enableJournal(Path directory, TicketJournal.Durability durability) throws IOException {
+        int restored = enableJournal(TicketJournal.open(directory, durability));
+        events.notice("Journal enabled in " + directory + ", restored " + restored + " parked vehicles");
+        return restored;
+    }
+
+    /**
+     * Turns on journaling with an already opened journal
+     * 
+     * Slots added at runtime come back before the vehicles; removals and
+     * changes are applied after them, so a vehicle parked in a slot that
+     * was removed or changed keeps it until it leaves, as before the restart
+     * 
+     * @param opened Journal returned by TicketJournal.open
+     * @return Number of parked vehicles restored
+     */
+    public int enableJournal(TicketJournal opened) {
+        Collection<TicketJournal.SlotRecord> slots = opened.recoveredSlots();
+        for (TicketJournal.SlotRecord slot : slots) {
+            if (slot.inService && slotStore.indexOfId(slot.slotId) < 0) {
+                restoreSlot(slot);
+            }
+        }
+        int restored = 0;
+        for (TicketJournal.EntryRecord entry : opened.recoveredEntries()) {
+            // New tickets must not reuse a parked vehicle's id if the clock is behind
+            ticketIdGenerator(TicketIdGenerator.gateOf(entry.ticketId)).advancePast(entry.ticketId);
+            int index = slotStore.indexOfId(entry.slotId);
+            if (index < 0 || !slotStore.claim(index)) {
+                events.notice("Journal: cannot restore ticket " + entry.ticketId +
+                        ", slot " + entry.slotId + " is unknown or already taken");
+                continue;
+            }
+            TicketTable table = ticketTable;
+            if (table != null) {
+                table.open(entry.ticketId, index, entry.plate, entry.size, entry.requestedFeatures,
+                        entry.entryEpochMillis);
+                restored++;
+                continue;
+            }
+            Ticket ticket = new Ticket(entry.ticketId, slotStore.slotAt(index),
+                    new Vehicle(entry.plate, entry.size, entry.requestedFeatures), entry.entryEpochMillis);
+            activeTickets.register(ticket);
+            restored++;
+        }
+        for (TicketJournal.SlotRecord slot : slots) {
+            restoreSlot(slot);
+        }
+        this.journal = opened;
+        return restored;
+    }
+
+    /**
+     * Records a freshly issued ticket; called after its slot was claimed
+     * The entry is journaled before the ticket becomes visible to exits
+     * 
+     * @param ticket The new ticket
+     * @return false if the vehicle's plate already has an active ticket
+     */
+    public boolean openTicket(Ticket ticket) {
+        TicketJournal log = journal;
+        if (log == null) {
+            return register(ticket);
+        }
+        try {
+            log.logEntry(ticket, ticket.getEntryEpochMillis());
+            if (register(ticket)) {
+                return true;
+            }
+            // Cancel the journaled entry so replay does not restore it
+            log.logExit(ticket.getId(), clock.millis(), 0);
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ticket journal write failed", e);
+        }
+    }
+
+    /**
+     * Records a batch of freshly issued tickets with one journal commit
+     * 
+     * @param tickets The new tickets; null entries are skipped
+     * @return Per ticket, false if its plate already had an active ticket
+     */
+    public boolean[] openTickets(Ticket[] tickets) {
+        boolean[] opened = new boolean[tickets.length];
+        TicketJournal log = journal;
+        try {
+            if (log != null) {
+                long[] entryMillis = new long[tickets.length];
+                for (int i = 0; i < tickets.length; i++) {
+                    if (tickets[i] != null) {
+                        entryMillis[i] = tickets[i].getEntryEpochMillis();
+                    }
+                }
+                log.logEntries(tickets, entryMillis);
+            }
+            for (int i = 0; i < tickets.length; i++) {
+                if (tickets[i] == null) {
+                    continue;
+                }
+                opened[i] = register(tickets[i]);
+                if (!opened[i] && log != null) {
+                    // Cancel the journaled entry so replay does not restore it
+                    log.logExit(tickets[i].getId(), clock.millis(), 0);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ticket journal write failed", e);
+        }
+        return opened;
+    }
+
+    private boolean register(Ticket ticket) {
+        TicketTable table = ticketTable;
+        if (table == null) {
+            return activeTickets.register(ticket);
+        }
+        Vehicle vehicle = ticket.getVehicle();
+        return table.open(ticket.getId(), slotStore.indexOf(ticket.getSlot()), vehicle.getId(), vehicle.getSize(),
+                vehicle.getRequestedFeatures(), ticket.getEntryEpochMillis());
+    }
+
+    /**
+     * Switches the lot to compact tickets: active tickets are kept as
+     * pooled rows of primitives with dictionary-encoded plates, and the
+     * Ticket objects that lookups return are lazy views over them. Gates'
+     * enter and exit then allocate nothing per vehicle
+     * Cuts allocation and retained heap on high-volume days; a cycle is
+     * slower than with Ticket objects (see CompactTicketBenchmark)
+     * Call before any vehicle parks
+     * 
+     * @return The lot's ticket table
+     */
+    public synchronized TicketTable enableCompactTickets() {
+        if (ticketTable == null) {
+            if (activeTickets.size() > 0) {
+                throw new IllegalStateException("Compact tickets must be enabled before vehicles park");
+            }
+            ticketTable = new TicketTable(slotStore, new PlateDictionary());
+            events.notice("Compact tickets enabled");
+        }
+        return ticketTable;
+    }
+
+    /**
+     * @return The compact ticket table, or null if compact tickets are off
+     */
+    public TicketTable getTicketTable() {
+        return ticketTable;
+    }
+
+    /**
+     * Records a freshly issued compact ticket; called after its slot was
+     * claimed. The entry is journaled before the ticket becomes visible
+     * 
+     * @param slotIndex Store index of the claimed slot
+     * @return false if the plate already has an active ticket
+     */
+    public boolean openTicket(long ticketId, int slotIndex, String plate, VehicleSize size, int requestedFeatures,
+                              long entryEpochMillis) {
+        TicketTable table = ticketTable;
+        if (table == null) {
+            throw new IllegalStateException("Compact tickets are not enabled");
+        }
+        TicketJournal log = journal;
+        if (log == null) {
+            return table.open(ticketId, slotIndex, plate, size, requestedFeatures, entryEpochMillis);
+        }
+        try {
+            log.logEntry(ticketId, slotStore.id(slotIndex), size, plate, requestedFeatures, entryEpochMillis);
+            if (table.open(ticketId, slotIndex, plate, size, requestedFeatures, entryEpochMillis)) {
+                return true;
+            }
+            // Cancel the journaled entry so replay does not restore it
+            log.logExit(ticketId, clock.millis(), 0);
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ticket journal write failed", e);
+        }
+    }
+
+    /**
+     * Adds a completed compact stay to the bill history and journals it;
+     * called before the slot is released
+     * 
+     * @param slotIndex Store index of the vacated slot
+     */
+    public void recordExit(long ticketId, int slotIndex, long entryEpochMillis, long exitEpochMillis,
+                           long amountCents) {
+        billHistory.append(ticketId, slotStore.id(slotIndex), slotStore.floorNumber(slotIndex),
+                slotStore.size(slotIndex), slotStore.featureFlags(slotIndex),
+                TariffEngine.localSecond(entryEpochMillis), TariffEngine.localSecond(exitEpochMillis), amountCents);
+        TicketJournal log = journal;
+        if (log == null) {
+            return;
+        }
+        try {
+            log.logExit(ticketId, exitEpochMillis, amountCents / 100.0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ticket journal write failed", e);
+        }
+    }
+
+    /**
+     * Adds a completed bill to the bill history and journals it; called
+     * before the slot is released so a replay never sees the slot taken twice
+     * 
+     * @param bill The bill for a closed ticket
+     */
+    public void recordExit(Bill bill) {
+        billHistory.add(bill);
+        TicketJournal log = journal;
+        if (log == null) {
+            return;
+        }
+        try {
+            log.logExit(bill.getTicket().getId(), bill.getExitEpochMillis(), bill.getTotalAmount());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ticket journal write failed", e);
+        }
+    }
+
+    /**
+     * Adds a batch of completed bills to the bill history and journals
+     * them with one journal commit; called before their slots are released
+     * 
+     * @param bills Bills for closed tickets; null entries are skipped
+     */
+    public void recordExits(Bill[] bills) {
+        billHistory.add(bills);
+        TicketJournal log = journal;
+        if (log == null) {
+            return;
+        }
+        int count = 0;
+        for (Bill bill : bills) {
+            if (bill != null) {
+                count++;
+            }
+        }
+        long[] ticketIds = new long[count];
+        long[] exitMillis = new long[count];
+        double[] amounts = new double[count];
+        int i = 0;
+        for (Bill bill : bills) {
+            if (bill != null) {
+                ticketIds[i] = bill.getTicket().getId();
+                exitMillis[i] = bill.getExitEpochMillis();
+                amounts[i] = bill.getTotalAmount();
+                i++;
+            }
+        }
+        try {
+            log.logExits(ticketIds, exitMillis, amounts);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ticket journal write failed", e);
+        }
+    }
+
+    /**
+     * Removes an active ticket before its slot is released, so that only
+     * one exit can settle it
+     * 
+     * @param ticketId The ticket id
+     * @return The closed ticket, or null if it was not active
+     */
+    public Ticket closeTicket(long ticketId) {
+        TicketTable table = ticketTable;
+        return table != null ? closeRow(table, table.remove(ticketId)) : activeTickets.remove(ticketId);
+    }
+
+    public Ticket closeTicketForPlate(String plate) {
+        TicketTable table = ticketTable;
+        return table != null ? closeRow(table, table.removeByPlate(plate)) : activeTickets.removeByPlate(plate);
+    }
+
+    private static Ticket closeRow(TicketTable table, int row) {
+        if (row < 0) {
+            return null;
+        }
+        Ticket ticket = table.view(row);
+        table.free(row);
+        return ticket;
+    }
+
+    /**
+     * Looks up an active ticket by id
+     * 
+     * @param ticketId The ticket id
+     * @return The ticket, or null if no such vehicle is parked
+     */
+    public Ticket findTicket(long ticketId) {
+        TicketTable table = ticketTable;
+        return table != null ? table.find(ticketId) : activeTickets.find(ticketId);
+    }
+
+    /**
+     * Answers "is plate X parked, and where?"
+     * 
+     * @param plate The licence plate
+     * @return The active ticket (with its slot), or null if not parked
+     */
+    public Ticket findTicketByPlate(String plate) {
+        TicketTable table = ticketTable;
+        return table != null ? table.findByPlate(plate) : activeTickets.findByPlate(plate);
+    }
+
+    public int getActiveTicketCount() {
+        TicketTable table = ticketTable;
+        return table != null ? table.size() : activeTickets.size();
     }
 
     /**
      * Gets current status of the parking lot
      */
     public void printStatus() {
+        // Let pending gate events print first so the report reads in order
+        events.flush();
         System.out.println("\n=== PARKING LOT STATUS ===");
         System.out.println("Total floors: " + floors.size());
         System.out.println("Entry gates: " + entryGates.size());
         System.out.println("Exit gates: " + exitGates.size());
+        System.out.println("Vehicles parked: " + getActiveTicketCount());
 
+        // One consistent read of the occupancy counters, no slot scan
+        OccupancyCounters.Snapshot occupancy = slotStore.occupancy();
         for (VehicleSize size : VehicleSize.values()) {
-            int available = (int) availableSlots.get(size).stream()
-                    .filter(slot -> !slot.isOccupied()).count();
-            int total = availableSlots.get(size).size();
-            System.out.println(size + " slots - Available: " + available + "/" + total);
+            System.out.println(size + " slots - Available: " + occupancy.available(size) +
+                    "/" + occupancy.capacity(size));
+        }
+        for (int floorNumber : occupancy.getFloorNumbers()) {
+            System.out.println("Floor " + floorNumber + " - Occupied: " +
+                    occupancy.occupied(floorNumber, null, 0) + "/" + occupancy.capacity(floorNumber, null, 0));
         }
         System.out.println("========================\n");
     }
 
+    /**
+     * Drains and stops the event pipeline the lot created for itself; a
+     * pipeline passed in by the caller is left for the caller to close
+     */
+    @Override
+    public void close() throws IOException {
+        if (ownsEvents) {
+            events.close();
+        }
+    }
+
     // Getters
+    public int getSiteId() {
+        return siteId;
+    }
+
+    public SlotStore getSlotStore() {
+        return slotStore;
+    }
+
+    public TicketJournal getJournal() {
+        return journal;
+    }
+
+    public EventPipeline getEvents() {
+        return events;
+    }
+
+    public BillHistory getBillHistory() {
+        return billHistory;
+    }
+
+    public ReservationBook getReservations() {
+        return reservations;
+    }
+
+    public ParkingMetrics getMetrics() {
+        return metrics;
+    }
+
     public List<Floor> getFloors() {
         return floors;
     }
@@ -140,4 +1114,37 @@ public class ParkingLot {
     public List<ExitGate> getExitGates() {
         return exitGates;
     }
-}
\ No newline at end of file
+
+    /**
+     * Claims a strategy's batch choices, one slot per vehicle
+     */
+    private final class BatchClaims implements ParkingStrategy.Claims {
+        private final ParkingStrategy strategy;
+        private final Slot[] slots;
+        private int lostVehicle = -1;
+        private int lost = -1;
+        private int losses;
+
+        private BatchClaims(ParkingStrategy strategy, int vehicles) {
+            this.strategy = strategy;
+            this.slots = new Slot[vehicles];
+        }
+
+        @Override
+        public boolean claim(int vehicle, int index) {
+            if (slots[vehicle] != null) {
+                throw new IllegalStateException(strategy.getStrategyName() + " chose a second slot for vehicle "
+                        + vehicle + " of the batch");
+            }
+            boolean again = vehicle == lostVehicle && index == lost;
+            if (!claimChoice(strategy, index, again ? losses : 0)) {
+                losses = again ? losses + 1 : 1;
+                lostVehicle = vehicle;
+                lost = index;
+                return false;
+            }
+            slots[vehicle] = slotStore.slotAt(index);
+            return true;
+        }
+    }
+}
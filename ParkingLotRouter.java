@@ -0,0 +1,355 @@
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One front door for many sites: serves the same entry, exit, plate and
+ * status operations as a GateServer over a set of parking lot shards
+ * Each arrival goes to the better of two randomly picked shards by their
+ * cached free slots for the vehicle's size and features (refreshed every
+ * refresh interval and whenever a shard turns a vehicle away), then spills
+ * to the remaining shards, fullest last, if that one is full. Exits find
+ * their shard from the site bits of the ticket id; plate lookups go through
+ * a plate-to-site map. Safe for use by many threads
+ */
+public class ParkingLotRouter {
+    private static final int MASKS = 1 << SlotFeature.values().length;
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+    // Plate-map value while the plate's entry is being routed
+    private static final int ENTERING = -1;
+
+    private final Route[] bySite = new Route[TicketIdGenerator.MAX_SITES];
+    private volatile Route[] routes = new Route[0];
+    // Site of every plate the router placed; entries of plates that left
+    // by another way are found stale and dropped on their next lookup
+    private final ConcurrentHashMap<String, Integer> plateSites = new ConcurrentHashMap<>();
+    private volatile long refreshNanos = Duration.ofMillis(50).toNanos();
+
+    /**
+     * How long a shard's free-slot counts are trusted before being read again
+     */
+    public ParkingLotRouter refreshInterval(Duration interval) {
+        if (interval.isNegative()) {
+            throw new IllegalArgumentException("Refresh interval must not be negative: " + interval);
+        }
+        this.refreshNanos = interval.toNanos();
+        return this;
+    }
+
+    /**
+     * Adds a shard and reads its free-slot counts
+     */
+    public synchronized void addShard(ParkingShard shard) throws IOException {
+        int siteId = shard.getSiteId();
+        if (bySite[siteId] != null) {
+            throw new IllegalArgumentException("Site " + siteId + " already has a shard");
+        }
+        Route route = new Route(shard);
+        route.refresh(System.nanoTime() + refreshNanos);
+        bySite[siteId] = route;
+        Route[] grown = Arrays.copyOf(routes, routes.length + 1);
+        grown[grown.length - 1] = route;
+        routes = grown;
+        System.out.println("Router added shard for site " + siteId);
+    }
+
+    public int getShardCount() {
+        return routes.length;
+    }
+
+    /**
+     * Shard holding a ticket, from the site bits of its id
+     *
+     * @return The shard, or null if no shard serves that site
+     */
+    public ParkingShard shardOf(long ticketId) {
+        Route route = bySite[TicketIdGenerator.siteOf(ticketId)];
+        return route != null ? route.shard : null;
+    }
+
+    /**
+     * Parks a vehicle at whichever site has room for it
+     *
+     * @param gateId Entry gate to use at the chosen site
+     * @return The ticket, or null if the plate is already parked or no
+     *         site has a fitting slot
+     * @throws IOException if no site took the vehicle and a remote shard failed
+     */
+    public GateClient.TicketReply enter(int gateId, Vehicle vehicle) throws IOException {
+        String plate = vehicle.getId();
+        if (!claimPlate(plate)) {
+            return null;
+        }
+        Route[] all = routes;
+        int cell = vehicle.getSize().ordinal() * MASKS + vehicle.getRequestedFeatures();
+        IOException failure = null;
+        try {
+            Route first = chooseTwo(all, cell);
+            boolean[] tried = null;
+            if (first == null) {
+                first = next(all, cell, null);
+            }
+            for (Route route = first; route != null; route = next(all, cell, tried)) {
+                try {
+                    GateClient.TicketReply ticket = route.shard.enter(gateId, vehicle);
+                    if (ticket != null) {
+                        int site = TicketIdGenerator.siteOf(ticket.ticketId);
+                        if (site != route.shard.getSiteId()) {
+                            throw new IllegalStateException("Shard for site " + route.shard.getSiteId()
+                                    + " issued ticket " + ticket.ticketId + " of site " + site);
+                        }
+                        route.placed.incrementAndGet();
+                        plateSites.put(plate, site);
+                        return ticket;
+                    }
+                    // Full for this vehicle; let later arrivals see that at once
+                    route.refresh(System.nanoTime() + refreshNanos);
+                } catch (IOException e) {
+                    failure = e;
+                    route.markDown(System.nanoTime() + refreshNanos);
+                }
+                if (tried == null) {
+                    tried = new boolean[all.length];
+                }
+                tried[indexOf(all, route)] = true;
+            }
+        } finally {
+            plateSites.remove(plate, ENTERING);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return null;
+    }
+
+    /**
+     * Settles a ticket at the site that issued it
+     *
+     * @return The bill, or null if the ticket is not active or its site unknown
+     */
+    public GateClient.BillReply exit(int gateId, long ticketId) throws IOException {
+        Route route = bySite[TicketIdGenerator.siteOf(ticketId)];
+        if (route == null) {
+            return null;
+        }
+        GateClient.BillReply bill = route.shard.exit(gateId, ticketId);
+        if (bill != null) {
+            route.placed.decrementAndGet();
+            if (bill.plate != null) {
+                plateSites.remove(bill.plate, route.shard.getSiteId());
+            }
+        }
+        return bill;
+    }
+
+    /**
+     * Settles a plate's stay at the site it parked at
+     *
+     * @return The bill, or null if the router does not have the plate parked
+     */
+    public GateClient.BillReply exitByPlate(int gateId, String plate) throws IOException {
+        Integer site = plateSites.get(plate);
+        if (site == null || site == ENTERING) {
+            return null;
+        }
+        Route route = bySite[site];
+        GateClient.BillReply bill = route.shard.exitByPlate(gateId, plate);
+        if (bill != null) {
+            route.placed.decrementAndGet();
+        }
+        plateSites.remove(plate, site);
+        return bill;
+    }
+
+    /**
+     * @return The plate's active ticket, or null if it is not parked
+     */
+    public GateClient.TicketReply findPlate(String plate) throws IOException {
+        Integer site = plateSites.get(plate);
+        if (site == null || site == ENTERING) {
+            return null;
+        }
+        GateClient.TicketReply ticket = bySite[site].shard.findPlate(plate);
+        if (ticket == null) {
+            plateSites.remove(plate, site);
+        }
+        return ticket;
+    }
+
+    /**
+     * Live status summed over every shard
+     */
+    public GateClient.StatusReply status() throws IOException {
+        int parked = 0;
+        long[] available = new long[SIZES.length];
+        long[] capacity = new long[SIZES.length];
+        long[] availableWith = new long[SIZES.length * MASKS];
+        for (Route route : routes) {
+            GateClient.StatusReply status = route.shard.status();
+            parked += status.parked;
+            for (VehicleSize size : SIZES) {
+                available[size.ordinal()] += status.available(size);
+                capacity[size.ordinal()] += status.capacity(size);
+                for (int mask = 0; mask < MASKS; mask++) {
+                    availableWith[size.ordinal() * MASKS + mask] += status.available(size, mask);
+                }
+            }
+        }
+        return new GateClient.StatusReply(parked, available, capacity, availableWith, MASKS);
+    }
+
+    /**
+     * Reserves the plate for an entry; false if it is parked or entering
+     */
+    private boolean claimPlate(String plate) throws IOException {
+        while (true) {
+            Integer site = plateSites.putIfAbsent(plate, ENTERING);
+            if (site == null) {
+                return true;
+            }
+            if (site == ENTERING || bySite[site].shard.findPlate(plate) != null) {
+                return false;
+            }
+            // It left without the router seeing; take the stale entry over
+            if (plateSites.replace(plate, site, ENTERING)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * The better of two random shards, or null if neither seems to have room
+     */
+    private Route chooseTwo(Route[] all, int cell) throws IOException {
+        if (all.length == 0) {
+            return null;
+        }
+        if (all.length == 1) {
+            return all[0].estimate(cell, refreshNanos) > 0 ? all[0] : null;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int a = random.nextInt(all.length);
+        int b = random.nextInt(all.length - 1);
+        if (b >= a) {
+            b++;
+        }
+        long freeA = all[a].estimate(cell, refreshNanos);
+        long freeB = all[b].estimate(cell, refreshNanos);
+        if (Math.max(freeA, freeB) <= 0) {
+            return null;
+        }
+        return freeA >= freeB ? all[a] : all[b];
+    }
+
+    /**
+     * Untried shard with the most room, or null if none has any
+     * Counts lower every cell for each vehicle placed since the last
+     * refresh, so before giving up the shards that took vehicles are read again
+     */
+    private Route next(Route[] all, int cell, boolean[] tried) throws IOException {
+        Route route = best(all, cell, tried);
+        if (route != null) {
+            return route;
+        }
+        boolean refreshed = false;
+        for (int i = 0; i < all.length; i++) {
+            if ((tried == null || !tried[i]) && all[i].placed.get() > 0) {
+                try {
+                    all[i].refresh(System.nanoTime() + refreshNanos);
+                } catch (IOException e) {
+                    all[i].markDown(System.nanoTime() + refreshNanos);
+                }
+                refreshed = true;
+            }
+        }
+        return refreshed ? best(all, cell, tried) : null;
+    }
+
+    /**
+     * Untried shard with the most room by the cached counts
+     */
+    private Route best(Route[] all, int cell, boolean[] tried) throws IOException {
+        Route best = null;
+        long most = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (tried != null && tried[i]) {
+                continue;
+            }
+            long free = all[i].estimate(cell, refreshNanos);
+            if (free > most) {
+                most = free;
+                best = all[i];
+            }
+        }
+        return best;
+    }
+
+    private static int indexOf(Route[] all, Route route) {
+        for (int i = 0; i < all.length; i++) {
+            if (all[i] == route) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Route not in the shard list");
+    }
+
+    /**
+     * A shard with its cached free-slot counts
+     */
+    private static final class Route {
+        private final ParkingShard shard;
+        // Per size and mask: free slots of that size or larger having the
+        // mask's features, at the last refresh
+        private volatile long[] fits = new long[SIZES.length * MASKS];
+        // Vehicles this router parked there since, minus those it let out
+        private final AtomicLong placed = new AtomicLong();
+        private final AtomicLong refreshAt = new AtomicLong();
+
+        private Route(ParkingShard shard) {
+            this.shard = shard;
+        }
+
+        /**
+         * Free fitting slots, reading the shard again once the counts are
+         * older than the refresh interval
+         */
+        private long estimate(int cell, long refreshNanos) throws IOException {
+            long now = System.nanoTime();
+            long due = refreshAt.get();
+            if (now - due >= 0 && refreshAt.compareAndSet(due, now + refreshNanos)) {
+                try {
+                    refresh(now + refreshNanos);
+                } catch (IOException e) {
+                    System.out.println("Router: site " + shard.getSiteId() + " unavailable: " + e.getMessage());
+                    markDown(now + refreshNanos);
+                }
+            }
+            return fits[cell] - placed.get();
+        }
+
+        private void refresh(long nextRefresh) throws IOException {
+            placed.set(0);
+            GateClient.StatusReply status = shard.status();
+            long[] counts = new long[SIZES.length * MASKS];
+            for (int s = SIZES.length - 1; s >= 0; s--) {
+                for (int mask = 0; mask < MASKS; mask++) {
+                    long larger = s + 1 < SIZES.length ? counts[(s + 1) * MASKS + mask] : 0;
+                    counts[s * MASKS + mask] = larger + status.available(SIZES[s], mask);
+                }
+            }
+            fits = counts;
+            refreshAt.set(nextRefresh);
+        }
+
+        /**
+         * Sends no vehicles to the shard until its next refresh
+         */
+        private void markDown(long nextRefresh) {
+            fits = new long[SIZES.length * MASKS];
+            refreshAt.set(nextRefresh);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pollable metrics registry for one parking lot
+ * Keeps latency histograms per entry gate, exit gate and parking strategy,
+ * counters for gate outcomes and size upgrades, and occupancy gauges per
+ * floor, size and feature. Each recording is also published as a JFR event.
+ * Disabled by default; while disabled every hook is a single field read
+ */
+public class ParkingMetrics {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+
+    /**
+     * How an entry gate handled a vehicle
+     */
+    public enum EntryOutcome {
+        ISSUED, NO_SLOT, REFUSED
+    }
+
+    private final SlotStore store;
+    private volatile boolean enabled;
+
+    private final Map<Integer, LatencyHistogram> entryLatency = new ConcurrentHashMap<>();
+    private final Map<Integer, LatencyHistogram> exitLatency = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> strategyLatency = new ConcurrentHashMap<>();
+
+    private final LongAdder ticketsIssued = new LongAdder();
+    private final LongAdder allocationFailures = new LongAdder();
+    private final LongAdder entryRefusals = new LongAdder();
+    private final LongAdder billsGenerated = new LongAdder();
+    private final LongAdder exitRefusals = new LongAdder();
+    // Indexed by vehicleSize * SIZES.length + slotSize, only where slot > vehicle
+    private final LongAdder[] sizeUpgrades = new LongAdder[SIZES.length * SIZES.length];
+
+    public ParkingMetrics(SlotStore store) {
+        this.store = store;
+        for (int i = 0; i < sizeUpgrades.length; i++) {
+            sizeUpgrades[i] = new LongAdder();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Starts timing an operation
+     *
+     * @return Start time to hand back to a record method, or 0 when disabled
+     */
+    public long startTimer() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records one parking strategy call
+     *
+     * @param slot The claimed slot, or null if none was found
+     */
+    public void recordAllocation(ParkingStrategy strategy, int gateId, Vehicle vehicle, Slot slot, long start) {
+        if (start == 0) {
+            return;
+        }
+        long latency = System.nanoTime() - start;
+        String name = strategy.getStrategyName();
+        histogram(strategyLatency, name).record(latency);
+
+        SlotAllocationEvent event = new SlotAllocationEvent();
+        if (event.shouldCommit()) {
+            event.strategy = name;
+            event.gateId = gateId;
+            event.vehicleSize = vehicle.getSize().name();
+            event.slotId = slot != null ? slot.getId() : -1;
+            event.slotSize = slot != null ? slot.getSize().name() : null;
+            event.latency = latency;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records one vehicle at an entry gate
+     *
+     * @param slot The slot the vehicle was given, or null if it was turned away
+     */
+    public void recordEntry(int gateId, long start, Vehicle vehicle, Slot slot, EntryOutcome outcome) {
+        recordEntry(gateId, start, vehicle.getId(), vehicle.getSize(), slot, outcome);
+    }
+
+    /**
+     * recordEntry for a vehicle known by its plate and size (compact tickets)
+     */
+    public void recordEntry(int gateId, long start, String plate, VehicleSize size, Slot slot, EntryOutcome outcome) {
+        if (start == 0) {
+            return;
+        }
+        long latency = System.nanoTime() - start;
+        histogram(entryLatency, gateId).record(latency);
+        switch (outcome) {
+            case ISSUED:
+                ticketsIssued.increment();
+                int wanted = size.ordinal();
+                int given = slot.getSize().ordinal();
+                if (given > wanted) {
+                    sizeUpgrades[wanted * SIZES.length + given].increment();
+                }
+                break;
+            case NO_SLOT:
+                allocationFailures.increment();
+                break;
+            default:
+                entryRefusals.increment();
+                break;
+        }
+
+        GateEntryEvent event = new GateEntryEvent();
+        if (event.shouldCommit()) {
+            event.gateId = gateId;
+            event.plate = plate;
+            event.vehicleSize = size.name();
+            event.slotId = slot != null ? slot.getId() : -1;
+            event.slotSize = slot != null ? slot.getSize().name() : null;
+            event.outcome = outcome.name();
+            event.latency = latency;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records one vehicle at an exit gate
+     *
+     * @param bill The bill, or null if the ticket or plate was not active
+     */
+    public void recordExit(int gateId, long start, Bill bill) {
+        if (start == 0) {
+            return;
+        }
+        if (bill == null) {
+            recordExit(gateId, start, false, 0, -1, 0);
+        } else {
+            recordExit(gateId, start, true, bill.getTicket().getId(), bill.getTicket().getSlot().getId(),
+                    bill.getTotalAmount());
+        }
+    }
+
+    /**
+     * Records one settled compact ticket
+     */
+    public void recordExit(int gateId, long start, long ticketId, int slotId, long amountCents) {
+        recordExit(gateId, start, true, ticketId, slotId, amountCents / 100.0);
+    }
+
+    private void recordExit(int gateId, long start, boolean settled, long ticketId, int slotId, double amount) {
+        if (start == 0) {
+            return;
+        }
+        long latency = System.nanoTime() - start;
+        histogram(exitLatency, gateId).record(latency);
+        if (settled) {
+            billsGenerated.increment();
+        } else {
+            exitRefusals.increment();
+        }
+
+        GateExitEvent event = new GateExitEvent();
+        if (event.shouldCommit()) {
+            event.gateId = gateId;
+            event.settled = settled;
+            if (settled) {
+                event.ticketId = ticketId;
+                event.slotId = slotId;
+                event.amount = amount;
+            }
+            event.latency = latency;
+            event.commit();
+        }
+    }
+
+    private static <K> LatencyHistogram histogram(Map<K, LatencyHistogram> histograms, K key) {
+        LatencyHistogram histogram = histograms.get(key);
+        return histogram != null ? histogram : histograms.computeIfAbsent(key, k -> new LatencyHistogram());
+    }
+
+    public LatencyHistogram getEntryLatency(int gateId) {
+        return entryLatency.get(gateId);
+    }
+
+    public LatencyHistogram getExitLatency(int gateId) {
+        return exitLatency.get(gateId);
+    }
+
+    public LatencyHistogram getStrategyLatency(String strategyName) {
+        return strategyLatency.get(strategyName);
+    }
+
+    public long getSizeUpgrades(VehicleSize vehicleSize, VehicleSize slotSize) {
+        return sizeUpgrades[vehicleSize.ordinal() * SIZES.length + slotSize.ordinal()].sum();
+    }
+
+    /**
+     * Reads every metric into a flat, name-sorted map, e.g.
+     * "counter.tickets_issued", "entry.gate.1.p99_ns",
+     * "strategy.Nearest Parking Strategy.count", "occupancy.floor.2.MEDIUM"
+     * Gauges come from one consistent occupancy snapshot, without a slot scan
+     */
+    public SortedMap<String, Long> snapshot() {
+        SortedMap<String, Long> values = new TreeMap<>();
+        values.put("counter.tickets_issued", ticketsIssued.sum());
+        values.put("counter.allocation_failures", allocationFailures.sum());
+        values.put("counter.entry_refusals", entryRefusals.sum());
+        values.put("counter.bills_generated", billsGenerated.sum());
+        values.put("counter.exit_refusals", exitRefusals.sum());
+        for (VehicleSize wanted : SIZES) {
+            for (VehicleSize given : SIZES) {
+                if (given.ordinal() > wanted.ordinal()) {
+                    values.put("counter.upgrades." + wanted + "_to_" + given, getSizeUpgrades(wanted, given));
+                }
+            }
+        }
+        entryLatency.forEach((gate, histogram) -> putHistogram(values, "entry.gate." + gate, histogram));
+        exitLatency.forEach((gate, histogram) -> putHistogram(values, "exit.gate." + gate, histogram));
+        strategyLatency.forEach((name, histogram) -> putHistogram(values, "strategy." + name, histogram));
+
+        OccupancyCounters.Snapshot occupancy = store.occupancy();
+        for (int floor : occupancy.getFloorNumbers()) {
+            for (VehicleSize size : SIZES) {
+                String suffix = floor + "." + size;
+                values.put("capacity.floor." + suffix, occupancy.capacity(floor, size));
+                values.put("occupancy.floor." + suffix, occupancy.occupied(floor, size));
+            }
+        }
+        for (SlotFeature feature : SlotFeature.values()) {
+            values.put("capacity.feature." + feature, occupancy.capacity(null, null, feature.flag()));
+            values.put("occupancy.feature." + feature, occupancy.occupied(null, null, feature.flag()));
+        }
+        return values;
+    }
+
+    private static void putHistogram(Map<String, Long> values, String prefix, LatencyHistogram histogram) {
+        values.put(prefix + ".count", histogram.count());
+        values.put(prefix + ".p50_ns", histogram.percentile(50));
+        values.put(prefix + ".p99_ns", histogram.percentile(99));
+        values.put(prefix + ".p999_ns", histogram.percentile(99.9));
+        values.put(prefix + ".max_ns", histogram.max());
+    }
+}
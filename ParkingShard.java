@@ -0,0 +1,27 @@
+import java.io.IOException;
+
+/**
+ * One site's parking lot behind a ParkingLotRouter, in this process or
+ * reached over the gate protocol
+ * Replies are the ones GateClient returns; null means the shard turned
+ * the request away (lot full, ticket or plate not active)
+ */
+public interface ParkingShard {
+    /**
+     * Site number the shard's lot encodes into its ticket ids
+     */
+    int getSiteId();
+
+    GateClient.TicketReply enter(int gateId, Vehicle vehicle) throws IOException;
+
+    GateClient.BillReply exit(int gateId, long ticketId) throws IOException;
+
+    GateClient.BillReply exitByPlate(int gateId, String plate) throws IOException;
+
+    GateClient.TicketReply findPlate(String plate) throws IOException;
+
+    /**
+     * Parked vehicles and free slots per size and feature mask
+     */
+    GateClient.StatusReply status() throws IOException;
+}
@@ -1,21 +1,67 @@
+import java.util.List;
+
 /**
  * Strategy interface for different parking slot allocation strategies
+ * Strategies only read the lot through a SlotIndexView and return the
+ * slot they chose; the lot claims it atomically, so a strategy never
+ * changes occupancy itself and two gates can never get the same slot
  */
 public interface ParkingStrategy {
     /**
-     * Allocates the best available slot based on the strategy
-     * 
-     * @param vehicle        The vehicle requesting parking
-     * @param gateId         The entry gate ID
-     * @param availableSlots Map of available slots by vehicle size
-     * @return The allocated slot or null if no suitable slot found
+     * Features kept for vehicles that request them; strategies give such
+     * slots to other vehicles only once nothing else fits
+     */
+    int RESERVED_FEATURES = SlotFeature.CHARGING.flag();
+
+    /**
+     * Chooses the best free slot based on the strategy
+     * If another gate claims the choice first, the lot asks again with the
+     * view already showing that slot taken
+     *
+     * @param vehicle The vehicle requesting parking
+     * @param gateId  The entry gate ID
+     * @param slots   Read-only view of every slot and the free indexes
+     * @return Index of the chosen slot in the view, or -1 if none is suitable
+     */
+    int chooseSlot(Vehicle vehicle, int gateId, SlotIndexView slots);
+
+    /**
+     * Chooses slots for a batch of vehicles arriving together at one gate
+     * Every choice goes through claims, which claims it at once so later
+     * choices see it taken. The default chooses vehicle by vehicle in
+     * arrival order; strategies override it to order the batch themselves
+     *
+     * @param vehicles The vehicles requesting parking
+     * @param gateId   The entry gate ID
+     * @param slots    Read-only view of every slot and the free indexes
+     * @param claims   Claims a chosen slot for a vehicle of the batch
      */
-    Slot allocateSlot(Vehicle vehicle, int gateId, java.util.Map<VehicleSize, java.util.TreeSet<Slot>> availableSlots);
+    default void chooseSlots(List<Vehicle> vehicles, int gateId, SlotIndexView slots, Claims claims) {
+        for (int i = 0; i < vehicles.size(); i++) {
+            int index = chooseSlot(vehicles.get(i), gateId, slots);
+            while (index >= 0 && !claims.claim(i, index)) {
+                index = chooseSlot(vehicles.get(i), gateId, slots);
+            }
+        }
+    }
 
     /**
      * Gets the name of the strategy
-     * 
+     *
      * @return Strategy name
      */
     String getStrategyName();
-}
\ No newline at end of file
+
+    /**
+     * Claims slots for the vehicles of a batch on behalf of a strategy
+     */
+    interface Claims {
+        /**
+         * @param vehicle Position of the vehicle in the batch
+         * @param index   Index of the chosen slot in the view
+         * @return true if the slot is now the vehicle's; false if another
+         *         gate took it first
+         */
+        boolean claim(int vehicle, int index);
+    }
+}
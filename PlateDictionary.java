@@ -0,0 +1,244 @@
+import java.util.Arrays;
+
+/**
+ * Dictionary encoding of licence plates for compact ticket storage
+ * Each distinct plate is kept once and named by an int code. The code's
+ * entry also holds the ticket the plate has open, so "is this plate
+ * parked" needs no map of its own. Striped by plate hash, each stripe with
+ * its own lock, so gates rarely meet
+ *
+ * The dictionary rolls over with the day: the first rollover(day) for a
+ * later day drops every plate that is not parked and was not seen during
+ * the day before, and their codes are reused. Only parked plates' codes
+ * are read back, so close() hands back the plate for callers that still
+ * need it after the ticket closes
+ */
+public class PlateDictionary {
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    // Day of the last rollover; read by gates without a lock
+    private volatile long day = Long.MIN_VALUE;
+
+    public PlateDictionary() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Code of a plate, adding it on first sight
+     */
+    public int encode(String plate) {
+        int hash = mix(plate.hashCode());
+        int stripe = hash >>> (32 - STRIPE_BITS);
+        return stripes[stripe].encode(plate, hash, (int) day) << STRIPE_BITS | stripe;
+    }
+
+    /**
+     * Moves the dictionary to a new day, dropping plates that were neither
+     * parked nor seen during the previous day. Returns at once unless the
+     * day is later than the last one; the first call only sets the day
+     *
+     * @param day Days since the epoch, e.g. a local second / 86,400
+     * @return Number of plates dropped
+     */
+    public int rollover(long day) {
+        if (day <= this.day) {
+            return 0;
+        }
+        synchronized (this) {
+            long previous = this.day;
+            if (day <= previous) {
+                return 0;
+            }
+            this.day = day;
+            if (previous == Long.MIN_VALUE) {
+                return 0;
+            }
+            int dropped = 0;
+            for (Stripe stripe : stripes) {
+                dropped += stripe.evict((int) day - 1);
+            }
+            return dropped;
+        }
+    }
+
+    /**
+     * @return The plate's code, or -1 if it was never encoded
+     */
+    public int find(String plate) {
+        int hash = mix(plate.hashCode());
+        int stripe = hash >>> (32 - STRIPE_BITS);
+        int local = stripes[stripe].find(plate, hash);
+        return local >= 0 ? local << STRIPE_BITS | stripe : -1;
+    }
+
+    public String plate(int code) {
+        return stripes[code & (STRIPES - 1)].plate(code >>> STRIPE_BITS);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return Id of the ticket the plate has open, or 0 if it is not parked
+     */
+    public long openTicket(int code) {
+        return stripes[code & (STRIPES - 1)].ticket(code >>> STRIPE_BITS);
+    }
+
+    /**
+     * Marks a ticket open for the plate unless it already has one
+     *
+     * @return false if another ticket is open for the same plate
+     */
+    public boolean open(int code, long ticketId) {
+        return stripes[code & (STRIPES - 1)].open(code >>> STRIPE_BITS, ticketId);
+    }
+
+    /**
+     * Clears the plate's open ticket if it is still this one
+     *
+     * @return The plate, read while its code still names it
+     */
+    public String close(int code, long ticketId) {
+        return stripes[code & (STRIPES - 1)].close(code >>> STRIPE_BITS, ticketId);
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Linear-probing table of local codes (plus one, 0 marks an empty cell)
+     * over plates kept in code order; codes of dropped plates are reused
+     */
+    private static final class Stripe {
+        private int[] cells = new int[16];
+        private String[] plates = new String[8];
+        private long[] tickets = new long[8];
+        // Day each plate was last encoded, as the low bits of the day number
+        private int[] seen = new int[8];
+        // Codes handed out so far, and dropped codes waiting for reuse
+        private int codes;
+        private int[] freeCodes = new int[0];
+        private int freeCount;
+        private int size;
+
+        synchronized int encode(String plate, int hash, int day) {
+            int mask = cells.length - 1;
+            int i = hash & mask;
+            for (; cells[i] != 0; i = (i + 1) & mask) {
+                if (plates[cells[i] - 1].equals(plate)) {
+                    seen[cells[i] - 1] = day;
+                    return cells[i] - 1;
+                }
+            }
+            int code = freeCount > 0 ? freeCodes[--freeCount] : codes++;
+            if (code == plates.length) {
+                plates = Arrays.copyOf(plates, code * 2);
+                tickets = Arrays.copyOf(tickets, code * 2);
+                seen = Arrays.copyOf(seen, code * 2);
+            }
+            plates[code] = plate;
+            seen[code] = day;
+            cells[i] = code + 1;
+            size++;
+            if (size * 4 > cells.length * 3) {
+                rehash(cells.length * 2);
+            }
+            return code;
+        }
+
+        /**
+         * Drops plates with no open ticket not encoded since the given day
+         */
+        synchronized int evict(int sinceDay) {
+            int dropped = 0;
+            for (int code = 0; code < codes; code++) {
+                if (plates[code] != null && tickets[code] == 0 && seen[code] - sinceDay < 0) {
+                    plates[code] = null;
+                    if (freeCount == freeCodes.length) {
+                        freeCodes = Arrays.copyOf(freeCodes, Math.max(8, freeCount * 2));
+                    }
+                    freeCodes[freeCount++] = code;
+                    dropped++;
+                }
+            }
+            if (dropped > 0) {
+                size -= dropped;
+                int length = cells.length;
+                // Shrink the table after a busy day, keeping it under half full
+                while (length > 16 && size * 4 < length) {
+                    length >>>= 1;
+                }
+                rehash(length);
+            }
+            return dropped;
+        }
+
+        synchronized int find(String plate, int hash) {
+            int mask = cells.length - 1;
+            for (int i = hash & mask; cells[i] != 0; i = (i + 1) & mask) {
+                if (plates[cells[i] - 1].equals(plate)) {
+                    return cells[i] - 1;
+                }
+            }
+            return -1;
+        }
+
+        synchronized String plate(int code) {
+            if (code >= codes || plates[code] == null) {
+                throw new IllegalArgumentException("Unknown plate code: " + code);
+            }
+            return plates[code];
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized long ticket(int code) {
+            return tickets[code];
+        }
+
+        synchronized boolean open(int code, long ticketId) {
+            if (tickets[code] != 0) {
+                return false;
+            }
+            tickets[code] = ticketId;
+            return true;
+        }
+
+        synchronized String close(int code, long ticketId) {
+            if (tickets[code] == ticketId) {
+                tickets[code] = 0;
+            }
+            return plates[code];
+        }
+
+        private void rehash(int length) {
+            int[] next = new int[length];
+            int mask = length - 1;
+            for (int code = 0; code < codes; code++) {
+                if (plates[code] == null) {
+                    continue;
+                }
+                int i = mix(plates[code].hashCode()) & mask;
+                while (next[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                next[i] = code + 1;
+            }
+            cells = next;
+        }
+    }
+}
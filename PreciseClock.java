@@ -0,0 +1,14 @@
+/**
+ * Clock that reads the system time on every call; the lot's default
+ */
+public class PreciseClock implements ParkingClock {
+    @Override
+    public long millis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public String toString() {
+        return "PreciseClock";
+    }
+}
@@ -0,0 +1,438 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reconfigures a lot while its gates are busy: slots are resized, gain and
+ * lose charging and cleaning, are removed and added, and whole floors come
+ * and go, all while entry and exit gates run on their own threads
+ * Every ticket must fit its vehicle (a half-applied change would hand out
+ * slots of the wrong size or features), no slot may have two holders, and
+ * once the gates stop the free bits and counters must match the slots in
+ * service. A second, single-threaded part checks that removed slots are
+ * never handed out and that a parked vehicle keeps its slot through a change,
+ * and a third times single-slot changes on a large store, which splice into
+ * the orderings rather than re-sorting them
+ *
+ * java ReconfigurationDemo changes=3000
+ */
+public class ReconfigurationDemo {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+    private static final int ENTRY_GATES = 4;
+    private static final int EXIT_GATES = 3;
+    private static final int FLOORS = 4;
+    private static final int SLOTS_PER_FLOOR = 50;
+    private static final int VEHICLES_PER_GATE = 20_000;
+    private static final int BATCH_SIZE = 8;
+
+    public static void main(String[] args) throws Exception {
+        int changes = 3_000;
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length == 2 && pair[0].equals("changes")) {
+                changes = Integer.parseInt(pair[1]);
+            } else {
+                System.out.println("Unknown argument: " + arg + ", expected changes=N");
+                return;
+            }
+        }
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ParkingLot lot = new ParkingLot();
+        for (int f = 1; f <= FLOORS; f++) {
+            Floor floor = new Floor(f);
+            for (int i = 0; i < SLOTS_PER_FLOOR; i++) {
+                floor.addSlot(newSlot(f * 1000 + i, SIZES[i % SIZES.length], i));
+            }
+            lot.addFloor(floor);
+        }
+        for (int g = 1; g <= ENTRY_GATES; g++) {
+            lot.addEntryGate(new EntryGate(g));
+        }
+
+        Map<Integer, Ticket> parked = new ConcurrentHashMap<>();
+        BlockingQueue<Ticket> leaving = new LinkedBlockingQueue<>();
+        AtomicInteger violations = new AtomicInteger();
+        AtomicInteger misfits = new AtomicInteger();
+        AtomicLong issued = new AtomicLong();
+        CountDownLatch entriesDone = new CountDownLatch(ENTRY_GATES);
+        ExecutorService pool = Executors.newFixedThreadPool(ENTRY_GATES + EXIT_GATES);
+        long start = System.nanoTime();
+
+        for (EntryGate gate : lot.getEntryGates()) {
+            pool.submit(() -> {
+                try {
+                    int batch = gate.getId() % 2 == 0 ? BATCH_SIZE : 1;
+                    for (int i = 0; i < VEHICLES_PER_GATE; i += batch) {
+                        List<Vehicle> arriving = new ArrayList<>(batch);
+                        for (int v = i; v < i + batch; v++) {
+                            VehicleSize size = SIZES[v % SIZES.length];
+                            String plate = "G" + gate.getId() + "-" + v;
+                            arriving.add(v % 5 == 0
+                                    ? new Vehicle(plate, size, SlotFeature.CHARGING)
+                                    : new Vehicle(plate, size));
+                        }
+                        Ticket[] tickets = batch == 1
+                                ? new Ticket[] {gate.generateTicket(lot, arriving.get(0))}
+                                : gate.generateTickets(lot, arriving);
+                        for (Ticket ticket : tickets) {
+                            if (ticket == null) {
+                                continue;
+                            }
+                            issued.incrementAndGet();
+                            if (!fits(ticket)) {
+                                misfits.incrementAndGet();
+                            }
+                            if (parked.putIfAbsent(ticket.getSlot().getId(), ticket) != null) {
+                                violations.incrementAndGet();
+                            }
+                            leaving.add(ticket);
+                        }
+                    }
+                } finally {
+                    entriesDone.countDown();
+                }
+            });
+        }
+
+        for (int g = 1; g <= EXIT_GATES; g++) {
+            ExitGate gate = new ExitGate(g);
+            pool.submit(() -> {
+                while (true) {
+                    Ticket ticket = leaving.poll(10, TimeUnit.MILLISECONDS);
+                    if (ticket == null) {
+                        if (entriesDone.getCount() == 0 && leaving.isEmpty()) {
+                            return null;
+                        }
+                        continue;
+                    }
+                    parked.remove(ticket.getSlot().getId(), ticket);
+                    gate.generateBill(lot, ticket);
+                }
+            });
+        }
+
+        // Operator console: one change at a time while the gates run
+        Random random = new Random(21);
+        int nextSlotId = 100_000;
+        int nextFloor = FLOORS + 1;
+        int applied = 0;
+        for (int c = 0; c < changes && entriesDone.getCount() > 0; c++) {
+            SlotStore store = lot.getSlotStore();
+            int index = random.nextInt(store.count());
+            int slotId = store.id(index);
+            int change = random.nextInt(100);
+            boolean done;
+            if (change < 30) {
+                done = lot.resizeSlot(slotId, SIZES[random.nextInt(SIZES.length)]);
+            } else if (change < 50) {
+                done = lot.attachFeature(slotId, SlotFeature.CHARGING, 2.5);
+            } else if (change < 65) {
+                done = lot.detachFeature(slotId, SlotFeature.CHARGING);
+            } else if (change < 75) {
+                done = random.nextBoolean()
+                        ? lot.attachFeature(slotId, SlotFeature.CLEANING, 8.0)
+                        : lot.detachFeature(slotId, SlotFeature.CLEANING);
+            } else if (change < 87) {
+                done = lot.removeSlot(slotId);
+            } else if (change < 99) {
+                lot.addSlot(store.floorNumber(index), newSlot(nextSlotId++, SIZES[random.nextInt(SIZES.length)],
+                        random.nextInt(SLOTS_PER_FLOOR)));
+                done = true;
+            } else {
+                // Swap the lowest floor for a fresh one
+                Floor floor = new Floor(nextFloor);
+                for (int i = 0; i < SLOTS_PER_FLOOR; i++) {
+                    floor.addSlot(newSlot(nextFloor * 1000 + i, SIZES[i % SIZES.length], i));
+                }
+                lot.addFloor(floor);
+                done = lot.removeFloor(lot.getFloors().get(0).getFloorNumber());
+                nextFloor++;
+            }
+            if (done) {
+                applied++;
+            }
+            Thread.yield();
+        }
+
+        pool.shutdown();
+        pool.awaitTermination(5, TimeUnit.MINUTES);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        lot.close();
+        System.setOut(console);
+
+        SlotStore store = lot.getSlotStore();
+        System.out.println("=== LIVE RECONFIGURATION RUN ===");
+        System.out.println("Entry gates: " + ENTRY_GATES + ", exit gates: " + EXIT_GATES);
+        System.out.println("Changes applied: " + applied + ", store version " + store.version()
+                + ", slot indexes " + store.count());
+        System.out.println("Tickets issued: " + issued.get() + " in " + elapsedMs + " ms");
+        System.out.println("Double allocations: " + violations.get() + ", tickets not fitting the vehicle: "
+                + misfits.get());
+        boolean consistent = checkIdle(store) && checkOrders(store);
+        boolean rules = checkRules(console);
+        boolean spliced = checkChangeCost();
+
+        boolean passed = violations.get() == 0 && misfits.get() == 0 && consistent && rules && spliced;
+        System.out.println(passed
+                ? "PASSED: gates kept allocating through every change and never saw a half-applied one"
+                : "FAILED: a change was seen half-applied or left the store inconsistent");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static Slot newSlot(int id, VehicleSize size, int distance) {
+        int[] distances = new int[ENTRY_GATES + 1];
+        for (int g = 0; g <= ENTRY_GATES; g++) {
+            distances[g] = (distance * 7 + g * 13) % SLOTS_PER_FLOOR;
+        }
+        Slot slot = new BasicSlot(id, size, 5.0, distances);
+        return id % 4 == 0 ? new ChargingDecorator(slot, 2.5) : slot;
+    }
+
+    private static boolean fits(Ticket ticket) {
+        Slot slot = ticket.getSlot();
+        Vehicle vehicle = ticket.getVehicle();
+        int required = vehicle.getRequestedFeatures();
+        return slot.getSize().ordinal() >= vehicle.getSize().ordinal()
+                && (slot.getFeatureFlags() & required) == required;
+    }
+
+    /**
+     * With every vehicle gone, each slot in service must be free in the bit
+     * sets and the counters, and every other slot closed
+     */
+    private static boolean checkIdle(SlotStore store) {
+        int open = 0;
+        int occupiedOpen = 0;
+        int[] openBySize = new int[SIZES.length];
+        for (int index = 0; index < store.count(); index++) {
+            if (store.isOpen(index)) {
+                open++;
+                openBySize[store.size(index).ordinal()]++;
+                if (store.isOccupied(index)) {
+                    occupiedOpen++;
+                }
+            } else if (!store.isOccupied(index)) {
+                return false;
+            }
+        }
+        boolean freeBitsMatch = true;
+        for (VehicleSize size : SIZES) {
+            freeBitsMatch &= store.freeSlots(size) == openBySize[size.ordinal()]
+                    && store.totalSlots(size) == openBySize[size.ordinal()];
+        }
+        OccupancyCounters.Snapshot occupancy = store.occupancy();
+        long counted = occupancy.occupied(null, null, 0);
+        long capacity = occupancy.capacity(null, null, 0);
+        System.out.println("Slots in service: " + open + ", occupied " + occupiedOpen + ", counters "
+                + counted + "/" + capacity + ", free bits " + (freeBitsMatch ? "match" : "do not match"));
+        return occupiedOpen == 0 && counted == 0 && capacity == open && freeBitsMatch;
+    }
+
+    /**
+     * Capacity and occupied counters per floor and size must equal the
+     * slots in service and their occupancy bits; a slot still draining after
+     * a change is counted through the slot that replaced it
+     */
+    private static boolean countersMatch(SlotStore store) {
+        OccupancyCounters.Snapshot occupancy = store.occupancy();
+        for (int floorNumber : occupancy.getFloorNumbers()) {
+            for (VehicleSize size : SIZES) {
+                int open = 0;
+                int occupied = 0;
+                for (int index = 0; index < store.count(); index++) {
+                    if (store.isOpen(index) && store.floorNumber(index) == floorNumber && store.size(index) == size) {
+                        open++;
+                        if (store.isOccupied(index)) {
+                            occupied++;
+                        }
+                    }
+                }
+                if (occupancy.capacity(floorNumber, size) != open || occupancy.occupied(floorNumber, size) != occupied) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Every gate's orderings, built up change by change, must hold exactly
+     * the reachable slots in service sorted by (distance, id), with each
+     * slot's rank at its position
+     */
+    private static boolean checkOrders(SlotStore store) {
+        for (int gateId : store.gateIds()) {
+            for (VehicleSize size : SIZES) {
+                List<Integer> expected = new ArrayList<>();
+                for (int index = 0; index < store.count(); index++) {
+                    if (store.isOpen(index) && store.size(index) == size
+                            && store.distance(gateId, index) != FloorGraph.UNREACHABLE) {
+                        expected.add(index);
+                    }
+                }
+                expected.sort((a, b) -> store.distance(gateId, a) != store.distance(gateId, b)
+                        ? Integer.compare(store.distance(gateId, a), store.distance(gateId, b))
+                        : Integer.compare(store.id(a), store.id(b)));
+                int[] order = store.nearestOrder(gateId, size);
+                if (order.length != expected.size()) {
+                    return false;
+                }
+                for (int rank = 0; rank < order.length; rank++) {
+                    if (order[rank] != expected.get(rank) || store.rank(gateId, order[rank]) != rank) {
+                        return false;
+                    }
+                }
+            }
+        }
+        System.out.println("Orderings after the changes match a full sort");
+        return true;
+    }
+
+    /**
+     * Times single-slot changes on a large store and checks the spliced
+     * orderings against a full sort
+     */
+    private static boolean checkChangeCost() {
+        int slots = 200_000;
+        int changes = 200;
+        SlotStore store = new SlotStore();
+        List<Slot> floor = new ArrayList<>(slots);
+        Random random = new Random(21);
+        for (int i = 0; i < slots; i++) {
+            Slot slot = new BasicSlot(i, SIZES[i % SIZES.length], 5.0, random.nextInt(1000));
+            floor.add(i % 4 == 0 ? new ChargingDecorator(slot, 2.5) : slot);
+        }
+        store.addSlots(1, floor);
+        for (int g = 1; g <= ENTRY_GATES; g++) {
+            store.addGate(g);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < changes; i++) {
+            int id = random.nextInt(slots);
+            if (i % 3 == 0) {
+                Slot slot = new BasicSlot(id, SIZES[random.nextInt(SIZES.length)], 5.0, random.nextInt(1000));
+                store.replaceSlot(random.nextBoolean() ? new ChargingDecorator(slot, 2.5) : slot);
+            } else if (i % 3 == 1) {
+                store.removeSlots(new int[]{id});
+            } else {
+                store.addSlots(2, List.of(new BasicSlot(slots + i, VehicleSize.MEDIUM, 5.0, random.nextInt(1000))));
+            }
+        }
+        long perChangeUs = (System.nanoTime() - start) / changes / 1_000;
+        System.out.println();
+        System.out.println("=== SINGLE-SLOT CHANGES (" + slots + " slots, " + (ENTRY_GATES + 1) + " gates) ===");
+        System.out.println("Average change: " + perChangeUs + " us");
+        return checkOrders(store) && checkClaims(store, 1);
+    }
+
+    /**
+     * Claims every free slot of each size from one gate, charging slots
+     * first: each claim must be the next slot of that kind in the gate's
+     * ordering, which only holds if the feature buckets and their free bits
+     * were spliced along with the orderings
+     */
+    private static boolean checkClaims(SlotStore store, int gateId) {
+        int charging = SlotFeature.CHARGING.flag();
+        for (VehicleSize size : SIZES) {
+            int[] order = store.nearestOrder(gateId, size);
+            for (int pass = 0; pass < 2; pass++) {
+                for (int index : order) {
+                    boolean wanted = pass == 0 ? (store.featureFlags(index) & charging) != 0
+                            : (store.featureFlags(index) & charging) == 0;
+                    if (store.isOccupied(index) || !wanted) {
+                        continue;
+                    }
+                    int claimed = pass == 0 ? store.claimNearest(gateId, size, charging, 0)
+                            : store.claimNearest(gateId, size, 0, charging);
+                    if (claimed != index) {
+                        return false;
+                    }
+                }
+            }
+            if (store.claimNearest(gateId, size) >= 0) {
+                return false;
+            }
+        }
+        System.out.println("Claims after the changes follow the orderings, charging slots included");
+        return true;
+    }
+
+    /**
+     * Removed slots are never handed out, a parked vehicle keeps its slot
+     * and pays the old rate through a change, and a layout written after
+     * the changes loads back with only the slots in service
+     */
+    private static boolean checkRules(PrintStream console) throws Exception {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ParkingLot lot = new ParkingLot();
+        Floor floor = new Floor(1);
+        for (int i = 1; i <= 10; i++) {
+            floor.addSlot(new BasicSlot(i, VehicleSize.MEDIUM, 5.0, i));
+        }
+        lot.addFloor(floor);
+        EntryGate gate = new EntryGate(1);
+        ExitGate exit = new ExitGate(1);
+        lot.addEntryGate(gate);
+        lot.addExitGate(exit);
+
+        Ticket kept = gate.generateTicket(lot, new Vehicle("KEPT", VehicleSize.MEDIUM));
+        lot.attachFeature(kept.getSlot().getId(), SlotFeature.CHARGING, 4.0);
+        lot.removeSlot(2);
+        lot.removeSlot(3);
+        lot.resizeSlot(4, VehicleSize.SMALL);
+        // The attach replaced an occupied slot: counted once, in its new place
+        boolean countedOnce = countersMatch(lot.getSlotStore());
+        int[] given = new int[11];
+        int parked = 0;
+        Ticket ticket;
+        while ((ticket = gate.generateTicket(lot, new Vehicle("M" + parked, VehicleSize.MEDIUM))) != null) {
+            given[ticket.getSlot().getId()]++;
+            parked++;
+        }
+        Ticket small = gate.generateTicket(lot, new Vehicle("S", VehicleSize.SMALL));
+        Ticket ev = gate.generateTicket(lot, new Vehicle("EV", VehicleSize.MEDIUM, SlotFeature.CHARGING));
+        Bill bill = exit.generateBill(lot, kept);
+        Ticket charged = gate.generateTicket(lot, new Vehicle("EV", VehicleSize.MEDIUM, SlotFeature.CHARGING));
+        countedOnce &= countersMatch(lot.getSlotStore());
+
+        Path file = Files.createTempFile("reconfigured", ".layout");
+        LotLayout.write(lot, file);
+        ParkingLot reloaded = new ParkingLot();
+        reloaded.loadLayout(file);
+        Files.delete(file);
+        lot.close();
+        reloaded.close();
+        System.setOut(console);
+
+        boolean removedKept = given[2] == 0 && given[3] == 0 && given[4] == 0;
+        System.out.println();
+        System.out.println("=== CHANGE RULES (10 medium slots) ===");
+        System.out.println("Medium vehicles parked after removing 2 and shrinking 1: " + parked
+                + (removedKept ? ", none in a removed or shrunk slot" : ", some in a removed or shrunk slot"));
+        System.out.println("Small vehicle got slot: " + (small != null ? small.getSlot().getId() : "none")
+                + ", EV before the charger is free: " + (ev != null ? "parked" : "refused"));
+        System.out.println("Vehicle parked through the change paid: " + bill.getTotalAmount()
+                + ", EV after it left got slot: " + (charged != null ? charged.getSlot().getId() : "none"));
+        System.out.println("Layout written after the changes reloads with " + reloaded.getSlotStore().count()
+                + " slots");
+        System.out.println("Counters while the changed slot drained and after: "
+                + (countedOnce ? "match the slots in service" : "do not match the slots in service"));
+        return parked == 6 && removedKept && countedOnce
+                && small != null && small.getSlot().getId() == 4
+                && ev == null && bill != null && bill.getExtraCents() == 0
+                && charged != null && charged.getSlot().getId() == kept.getSlot().getId()
+                && reloaded.getSlotStore().count() == 8;
+    }
+}
@@ -0,0 +1,57 @@
+import java.io.IOException;
+
+/**
+ * Parking shard for a lot served by a GateServer, reached through one
+ * pipelining GateClient connection shared by every router thread
+ */
+public class RemoteParkingShard implements ParkingShard, AutoCloseable {
+    private final int siteId;
+    private final GateClient client;
+
+    /**
+     * @param siteId Site id the remote lot was created with; ticket ids
+     *               it issues must carry it
+     */
+    public RemoteParkingShard(int siteId, String host, int port) throws IOException {
+        if (siteId < 0 || siteId >= TicketIdGenerator.MAX_SITES) {
+            throw new IllegalArgumentException("Site id must be in [0, " + TicketIdGenerator.MAX_SITES + "): " + siteId);
+        }
+        this.siteId = siteId;
+        this.client = new GateClient(host, port);
+    }
+
+    @Override
+    public int getSiteId() {
+        return siteId;
+    }
+
+    @Override
+    public GateClient.TicketReply enter(int gateId, Vehicle vehicle) throws IOException {
+        return client.enter(gateId, vehicle);
+    }
+
+    @Override
+    public GateClient.BillReply exit(int gateId, long ticketId) throws IOException {
+        return client.exit(gateId, ticketId);
+    }
+
+    @Override
+    public GateClient.BillReply exitByPlate(int gateId, String plate) throws IOException {
+        return client.exitByPlate(gateId, plate);
+    }
+
+    @Override
+    public GateClient.TicketReply findPlate(String plate) throws IOException {
+        return client.findPlate(plate);
+    }
+
+    @Override
+    public GateClient.StatusReply status() throws IOException {
+        return client.status();
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+}
@@ -0,0 +1,111 @@
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Represents an advance booking of a slot for a time window
+ * Times are local seconds (see TariffEngine.localSecond). The slot may be
+ * moved to an equivalent one if its slot is still occupied when the
+ * booking is due; state changes are made by the ReservationBook
+ */
+public class Reservation {
+    public enum Status {
+        // Booked; the slot is still open to walk-ins
+        BOOKED,
+        // The slot is claimed and waiting for the vehicle
+        HELD,
+        ARRIVED,
+        CANCELLED,
+        // The vehicle never came; the slot went back to walk-ins at the end
+        EXPIRED,
+        // No equivalent slot was free when the booking was due
+        FAILED,
+        COMPLETED
+    }
+
+    private final long id;
+    private final String plate;
+    private final VehicleSize size;
+    private final int requiredFeatures;
+    private final long toSecond;
+    private final long holdSecond;
+    private long fromSecond;
+    private int slotIndex;
+    private int slotId;
+    private Status status = Status.BOOKED;
+
+    Reservation(long id, String plate, VehicleSize size, int requiredFeatures,
+                long fromSecond, long toSecond, long holdSecond) {
+        this.id = id;
+        this.plate = plate;
+        this.size = size;
+        this.requiredFeatures = requiredFeatures;
+        this.fromSecond = fromSecond;
+        this.toSecond = toSecond;
+        this.holdSecond = holdSecond;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getPlate() {
+        return plate;
+    }
+
+    public VehicleSize getSize() {
+        return size;
+    }
+
+    public int getRequiredFeatures() {
+        return requiredFeatures;
+    }
+
+    public LocalDateTime getFrom() {
+        return LocalDateTime.ofEpochSecond(fromSecond, 0, ZoneOffset.UTC);
+    }
+
+    public LocalDateTime getTo() {
+        return LocalDateTime.ofEpochSecond(toSecond, 0, ZoneOffset.UTC);
+    }
+
+    public int getSlotId() {
+        return slotId;
+    }
+
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    long fromSecond() {
+        return fromSecond;
+    }
+
+    long toSecond() {
+        return toSecond;
+    }
+
+    // When the slot is claimed for the booking: from minus the walk-in margin
+    long holdSecond() {
+        return holdSecond;
+    }
+
+    int slotIndex() {
+        return slotIndex;
+    }
+
+    void place(int slotIndex, int slotId, long fromSecond) {
+        this.slotIndex = slotIndex;
+        this.slotId = slotId;
+        this.fromSecond = fromSecond;
+    }
+
+    synchronized void setStatus(Status status) {
+        this.status = status;
+    }
+
+    @Override
+    public String toString() {
+        return "Reservation{id=" + id + ", plate=" + plate + ", slot=" + slotId + ", from=" + getFrom() +
+                ", to=" + getTo() + ", status=" + getStatus() + "}";
+    }
+}
@@ -0,0 +1,221 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Books a month of random reservations over a large lot and times "find a
+ * free slot for this window" on the gap index against a scan of every
+ * slot's bookings; both must find the same size class. Then runs gates on
+ * a small lot: a held slot is kept from walk-ins and given to its vehicle,
+ * and a booking whose slot is taken moves to a free one on arrival
+ *
+ * java ReservationBenchmark slots=100000 bookings=1000000 queries=20000
+ */
+public class ReservationBenchmark {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+    private static final int FLOORS = 10;
+    private static final long HOUR = 3_600;
+
+    public static void main(String[] args) throws Exception {
+        int slotCount = 100_000;
+        int bookingCount = 1_000_000;
+        int queries = 20_000;
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length == 2 && pair[0].equals("slots")) {
+                slotCount = Integer.parseInt(pair[1]);
+            } else if (pair.length == 2 && pair[0].equals("bookings")) {
+                bookingCount = Integer.parseInt(pair[1]);
+            } else if (pair.length == 2 && pair[0].equals("queries")) {
+                queries = Integer.parseInt(pair[1]);
+            } else {
+                System.out.println("Unknown argument: " + arg + ", expected slots=N, bookings=N or queries=N");
+                return;
+            }
+        }
+
+        Random random = new Random(19);
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ParkingLot lot = new ParkingLot(new NearestParkingStrategy(),
+                new EventPipeline(new NullEventSink(), 1 << 10, EventPipeline.OverflowPolicy.DROP));
+        int perFloor = (slotCount + FLOORS - 1) / FLOORS;
+        for (int f = 0; f < FLOORS; f++) {
+            Floor floor = new Floor(f + 1);
+            for (int i = 0; i < perFloor && f * perFloor + i < slotCount; i++) {
+                Slot slot = new BasicSlot(f * perFloor + i + 1, SIZES[random.nextInt(SIZES.length)], 5.0, i);
+                if (random.nextInt(20) == 0) {
+                    slot = new ChargingDecorator(slot, 3.0);
+                }
+                floor.addSlot(slot);
+            }
+            lot.addFloor(floor);
+        }
+        System.setOut(console);
+
+        SlotStore store = lot.getSlotStore();
+        ReservationBook book = lot.getReservations();
+        long monthStart = TariffEngine.localSecond(LocalDateTime.of(2030, 6, 1, 0, 0));
+        System.out.println("=== RESERVATION INDEX BENCHMARK ===");
+        long start = System.nanoTime();
+        int booked = 0;
+        for (int n = 0; n < bookingCount; n++) {
+            long from = monthStart + random.nextInt(30 * 24) * HOUR;
+            long to = from + (1 + random.nextInt(8)) * HOUR;
+            Vehicle vehicle = random.nextInt(10) == 0
+                    ? new Vehicle("R" + n, SIZES[random.nextInt(SIZES.length)], SlotFeature.CHARGING)
+                    : new Vehicle("R" + n, SIZES[random.nextInt(SIZES.length)]);
+            if (book.reserve(vehicle, from, to) != null) {
+                booked++;
+            }
+        }
+        System.out.printf("Booked %,d of %,d reservations on %,d slots in %,d ms%n",
+                booked, bookingCount, store.count(), (System.nanoTime() - start) / 1_000_000);
+
+        long mismatches = 0;
+        long indexNanos = 0;
+        long scanNanos = 0;
+        for (int q = 0; q < queries; q++) {
+            // Evening windows, when the month is busiest
+            long from = monthStart + random.nextInt(30) * 24 * HOUR + (16 + random.nextInt(4)) * HOUR;
+            long to = from + (2 + random.nextInt(4)) * HOUR;
+            VehicleSize size = SIZES[random.nextInt(SIZES.length)];
+            int required = random.nextInt(4) == 0 ? SlotFeature.CHARGING.flag() : 0;
+
+            long begin = System.nanoTime();
+            int found = book.findFreeSlot(size, required, from, to);
+            indexNanos += System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            int expected = scanClass(store, book, size, required, from, to);
+            scanNanos += System.nanoTime() - begin;
+            if (expected != sizeClass(store, found, required)
+                    || (found >= 0 && !book.isFree(found, from, to))) {
+                mismatches++;
+            }
+        }
+        System.out.printf("Free-slot query: gap index %,.0f ns, scan of every slot %,.0f ns%n",
+                (double) indexNanos / queries, (double) scanNanos / queries);
+        System.out.println("Index vs scan mismatches: " + mismatches);
+        lot.getEvents().close();
+
+        boolean gates = checkGates();
+        boolean passed = mismatches == 0 && gates;
+        System.out.println(passed
+                ? "PASSED: index agrees with the scan and gates honour reservations"
+                : "FAILED: index disagrees with the scan or a gate mishandled a reservation");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Category of the best free slot by scanning every slot: the avoid-charging
+     * pass and slot size it falls in, or -1 if none is free
+     */
+    private static int scanClass(SlotStore store, ReservationBook book, VehicleSize size, int required,
+                                 long from, long to) {
+        int best = -1;
+        for (int index = 0; index < store.count(); index++) {
+            int category = sizeClass(store, index, required);
+            if (category >= 0 && store.size(index).ordinal() >= size.ordinal()
+                    && (best < 0 || category < best) && book.isFree(index, from, to)) {
+                best = category;
+            }
+        }
+        return best;
+    }
+
+    private static int sizeClass(SlotStore store, int index, int required) {
+        if (index < 0 || (store.featureFlags(index) & required) != required) {
+            return -1;
+        }
+        int avoided = ParkingStrategy.RESERVED_FEATURES & ~required;
+        int pass = (store.featureFlags(index) & avoided) != 0 ? 1 : 0;
+        return pass * SIZES.length + store.size(index).ordinal();
+    }
+
+    private static boolean checkGates() throws Exception {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        // Fails one ticket on request, as a journal write error would
+        AtomicBoolean failNextTicket = new AtomicBoolean();
+        ParkingLot lot = new ParkingLot(new NearestParkingStrategy(),
+                new EventPipeline(new NullEventSink(), 1 << 10, EventPipeline.OverflowPolicy.DROP)) {
+            @Override
+            public boolean openTicket(Ticket ticket) {
+                if (failNextTicket.getAndSet(false)) {
+                    throw new UncheckedIOException("Ticket journal write failed", new IOException("disk full"));
+                }
+                return super.openTicket(ticket);
+            }
+        };
+        lot.getReservations().walkInMargin(Duration.ofHours(2));
+        Floor floor = new Floor(1);
+        for (int i = 1; i <= 10; i++) {
+            floor.addSlot(new BasicSlot(i, VehicleSize.MEDIUM, 5.0, i));
+        }
+        lot.addFloor(floor);
+        EntryGate gate = new EntryGate(1);
+        ExitGate exit = new ExitGate(1);
+        lot.addEntryGate(gate);
+        lot.addExitGate(exit);
+        System.setOut(console);
+
+        System.out.println();
+        System.out.println("=== GATES WITH RESERVATIONS (10 slots, 2 h walk-in margin) ===");
+        LocalDateTime now = LocalDateTime.now();
+        Reservation soon = lot.getReservations().reserve(new Vehicle("BOOKED-1", VehicleSize.MEDIUM),
+                now.plusHours(1), now.plusHours(3));
+        Reservation later = lot.getReservations().reserve(new Vehicle("BOOKED-2", VehicleSize.MEDIUM),
+                now.plusHours(6), now.plusHours(9));
+        System.out.println("Booked: " + soon);
+        System.out.println("Booked: " + later);
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Ticket[] walkIns = new Ticket[10];
+        int parked = 0;
+        boolean heldKept = true;
+        for (int i = 0; i < walkIns.length; i++) {
+            walkIns[i] = gate.generateTicket(lot, new Vehicle("WALK-" + i, VehicleSize.SMALL));
+            if (walkIns[i] != null) {
+                parked++;
+                heldKept &= walkIns[i].getSlot().getId() != soon.getSlotId();
+            }
+        }
+        // The first try fails after the booking was used; it must stay booked
+        failNextTicket.set(true);
+        boolean failed = false;
+        try {
+            gate.generateTicket(lot, new Vehicle("BOOKED-1", VehicleSize.MEDIUM));
+        } catch (UncheckedIOException e) {
+            failed = true;
+        }
+        boolean keptAfterFailure = failed && soon.getStatus() == Reservation.Status.HELD
+                && gate.generateTicket(lot, new Vehicle("WALK-X", VehicleSize.SMALL)) == null;
+        Ticket first = gate.generateTicket(lot, new Vehicle("BOOKED-1", VehicleSize.MEDIUM));
+        // Free one slot; the second booking's slot is still taken by a walk-in
+        exit.generateBill(lot, walkIns[0]);
+        Ticket second = gate.generateTicket(lot, new Vehicle("BOOKED-2", VehicleSize.MEDIUM));
+        System.setOut(console);
+
+        System.out.println("Walk-ins parked: " + parked + " of 10, held slot " + soon.getSlotId()
+                + (heldKept ? " kept free" : " given away"));
+        System.out.println("BOOKED-1 after a failed ticket: " + (keptAfterFailure
+                ? "still booked, slot still held" : "booking or slot lost"));
+        System.out.println("BOOKED-1 ticket: " + first);
+        System.out.println("BOOKED-2 ticket: " + second + " (booked slot " + later.getSlotId() + ")");
+        boolean ok = parked == 9 && heldKept && keptAfterFailure
+                && first != null && first.getSlot().getId() == soon.getSlotId()
+                && second != null && second.getSlot().getId() == walkIns[0].getSlot().getId()
+                && soon.getStatus() == Reservation.Status.ARRIVED
+                && later.getStatus() == Reservation.Status.ARRIVED;
+        lot.getEvents().close();
+        return ok;
+    }
+}
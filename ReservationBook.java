@@ -0,0 +1,676 @@
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+/**
+ * Advance reservations of slots for time windows
+ * Each slot's bookings are kept in sorted interval arrays, and the free
+ * gaps between them sit in one treap per (size, feature mask), ordered by
+ * gap start, where every subtree knows its largest gap end. "A slot free
+ * from a to b" is then the rightmost gap starting at or before a that ends
+ * at or after b, found in O(log n) over all slots of that kind.
+ * A booked slot stays open to walk-ins until the walk-in margin before the
+ * booking starts; then it is claimed in the slot store and held for the
+ * booked vehicle, so walk-ins only get slots whose next booking is at
+ * least the margin away. Times are local seconds, see
+ * TariffEngine.localSecond
+ */
+public class ReservationBook {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+    private static final int MASKS = 1 << SlotFeature.values().length;
+    private static final int DEFAULT_GATE = 0;
+    // Free slots looked at when a held booking has to move to another slot
+    private static final int MAX_MOVE_ATTEMPTS = 64;
+    private static final long[] NO_BOOKINGS = new long[0];
+
+    private final SlotStore store;
+    // Gives up a held slot; the lot's hands it to a waiting vehicle first
+    private final IntConsumer release;
+    private final AtomicLong nextId = new AtomicLong(1);
+    private long marginSeconds = 2 * 3600;
+
+    // Per slot index: bookings sorted by start, never overlapping
+    private int slots;
+    private long[][] starts = new long[0][];
+    private long[][] ends = new long[0][];
+    private int[] bookingCounts = new int[0];
+    // Slots taken out of service or replaced; their gaps are dropped and
+    // their bookings move to an equivalent slot when held
+    private boolean[] retired = new boolean[0];
+    private long storeVersion = -1;
+    private final GapTree[] gaps = new GapTree[SIZES.length * MASKS];
+
+    // Reservations not finished yet; byPlate only holds those still to arrive
+    // Both change under the lock; gates look plates up without it, so a
+    // walk-in with no booking never takes the lock
+    private final Map<Long, Reservation> byId = new HashMap<>();
+    private final Map<String, List<Reservation>> byPlate = new ConcurrentHashMap<>();
+    private final PriorityQueue<Reservation> holds =
+            new PriorityQueue<>(Comparator.comparingLong(Reservation::holdSecond));
+    private final PriorityQueue<Reservation> endings =
+            new PriorityQueue<>(Comparator.comparingLong(Reservation::toSecond));
+    // Read by gates without the lock; with nothing booked a walk-in costs
+    // two volatile reads, otherwise one more plate lookup
+    private volatile long nextEventSecond = Long.MAX_VALUE;
+    private volatile int awaited;
+
+    public ReservationBook(SlotStore store) {
+        this(store, store::release);
+    }
+
+    /**
+     * @param release Called with the index of every held slot the book
+     *                gives back, e.g. the lot's release with hand-off to
+     *                waiting vehicles
+     */
+    public ReservationBook(SlotStore store, IntConsumer release) {
+        this.store = store;
+        this.release = release;
+        for (int i = 0; i < gaps.length; i++) {
+            gaps[i] = new GapTree();
+        }
+    }
+
+    /**
+     * Sets how long before a booking its slot stops taking walk-ins
+     * Applies to reservations made afterwards
+     */
+    public synchronized ReservationBook walkInMargin(Duration margin) {
+        if (margin.isNegative()) {
+            throw new IllegalArgumentException("Walk-in margin must not be negative: " + margin);
+        }
+        this.marginSeconds = margin.getSeconds();
+        return this;
+    }
+
+    public Reservation reserve(Vehicle vehicle, LocalDateTime from, LocalDateTime to) {
+        return reserve(vehicle, TariffEngine.localSecond(from), TariffEngine.localSecond(to));
+    }
+
+    /**
+     * Books a slot that fits the vehicle and has its requested features for
+     * a whole time window
+     *
+     * @return The reservation, or null if no such slot is free throughout
+     */
+    public synchronized Reservation reserve(Vehicle vehicle, long fromSecond, long toSecond) {
+        if (fromSecond >= toSecond) {
+            throw new IllegalArgumentException("Reservation must end after it starts");
+        }
+        int index = findFreeSlot(vehicle.getSize(), vehicle.getRequestedFeatures(), fromSecond, toSecond);
+        if (index < 0) {
+            return null;
+        }
+        Reservation reservation = new Reservation(nextId.getAndIncrement(), vehicle.getId(), vehicle.getSize(),
+                vehicle.getRequestedFeatures(), fromSecond, toSecond, fromSecond - marginSeconds);
+        book(index, fromSecond, toSecond);
+        reservation.place(index, store.id(index), fromSecond);
+        byId.put(reservation.getId(), reservation);
+        byPlate.computeIfAbsent(reservation.getPlate(), plate -> new ArrayList<>(1)).add(reservation);
+        awaited++;
+        holds.add(reservation);
+        endings.add(reservation);
+        scheduleNext();
+        return reservation;
+    }
+
+    /**
+     * Cancels a reservation that has not been used yet, freeing its slot
+     *
+     * @return false if it is unknown, already used or already finished
+     */
+    public synchronized boolean cancel(long reservationId) {
+        Reservation reservation = byId.get(reservationId);
+        if (reservation == null) {
+            return false;
+        }
+        Reservation.Status status = reservation.getStatus();
+        if (status != Reservation.Status.BOOKED && status != Reservation.Status.HELD) {
+            return false;
+        }
+        unbook(reservation.slotIndex(), reservation.fromSecond());
+        if (status == Reservation.Status.HELD) {
+            release.accept(reservation.slotIndex());
+        }
+        holds.remove(reservation);
+        endings.remove(reservation);
+        finish(reservation, Reservation.Status.CANCELLED);
+        scheduleNext();
+        return true;
+    }
+
+    public synchronized Reservation find(long reservationId) {
+        return byId.get(reservationId);
+    }
+
+    /**
+     * Finds a slot with no booking in a time window, fitting a vehicle size
+     * (or larger) and having the required features. Charging bays are only
+     * offered to vehicles that did not ask for them once nothing else is free
+     *
+     * @return Slot index, or -1 if none
+     */
+    public synchronized int findFreeSlot(VehicleSize size, int requiredFeatures, long fromSecond, long toSecond) {
+        syncSlots();
+        int avoided = ParkingStrategy.RESERVED_FEATURES & ~requiredFeatures;
+        for (int pass = 0; pass < (avoided != 0 ? 2 : 1); pass++) {
+            for (int s = size.ordinal(); s < SIZES.length; s++) {
+                for (int m = 0; m < MASKS; m++) {
+                    // The second pass only looks at the masks skipped by the first
+                    if ((m & requiredFeatures) != requiredFeatures || ((m & avoided) != 0) != (pass == 1)) {
+                        continue;
+                    }
+                    int index = gaps[s * MASKS + m].find(fromSecond, toSecond);
+                    if (index >= 0) {
+                        return index;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Whether a slot has no booking overlapping a time window
+     */
+    public synchronized boolean isFree(int index, long fromSecond, long toSecond) {
+        syncSlots();
+        if (retired[index]) {
+            return false;
+        }
+        long[] slotStarts = starts[index];
+        int n = bookingCounts[index];
+        int p = lowerBound(slotStarts, n, fromSecond);
+        long gapStart = p > 0 ? ends[index][p - 1] : Long.MIN_VALUE;
+        long gapEnd = p < n ? slotStarts[p] : Long.MAX_VALUE;
+        return gapStart <= fromSecond && toSecond <= gapEnd;
+    }
+
+    /**
+     * Hands a booked vehicle its slot on arrival. Arrivals before the
+     * walk-in margin hold the slot from now on
+     *
+     * @return Index of the slot claimed for the vehicle, or -1 if it has no
+     *         booking to use now and is a walk-in
+     */
+    public int arrive(Vehicle vehicle, long nowSecond) {
+        return arrive(vehicle.getId(), nowSecond);
+    }
+
+    /**
+     * arrive() for a vehicle known only by its plate (compact tickets)
+     */
+    public int arrive(String plate, long nowSecond) {
+        update(nowSecond);
+        if (awaited == 0 || !byPlate.containsKey(plate)) {
+            return -1;
+        }
+        synchronized (this) {
+            List<Reservation> booked = byPlate.get(plate);
+            if (booked == null) {
+                return -1;
+            }
+            Reservation next = null;
+            for (Reservation reservation : booked) {
+                if (reservation.toSecond() > nowSecond
+                        && (next == null || reservation.fromSecond() < next.fromSecond())) {
+                    next = reservation;
+                }
+            }
+            if (next == null) {
+                return -1;
+            }
+            if (next.getStatus() == Reservation.Status.BOOKED) {
+                holds.remove(next);
+                if (!hold(next, Math.min(nowSecond, next.fromSecond()))) {
+                    scheduleNext();
+                    return -1;
+                }
+            }
+            finish(next, Reservation.Status.ARRIVED);
+            scheduleNext();
+            return next.slotIndex();
+        }
+    }
+
+    /**
+     * Takes back an arrival whose ticket could not be opened, e.g. the
+     * plate was already parked or the journal write failed: the booking is
+     * awaited again and keeps holding its slot. Rare, so the arrived
+     * bookings are searched rather than indexed
+     *
+     * @param slotIndex The index arrive() returned
+     * @return false if the booking has ended meanwhile; the caller then
+     *         releases the slot
+     */
+    public synchronized boolean undoArrival(String plate, int slotIndex) {
+        for (Reservation reservation : byId.values()) {
+            if (reservation.getStatus() == Reservation.Status.ARRIVED && reservation.slotIndex() == slotIndex
+                    && reservation.getPlate().equals(plate)) {
+                reservation.setStatus(Reservation.Status.HELD);
+                byPlate.computeIfAbsent(plate, p -> new ArrayList<>(1)).add(reservation);
+                awaited++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Holds slots whose bookings are within the walk-in margin and frees
+     * the slots of bookings that ended. Gates call this on every entry; it
+     * returns at once until the next hold or end is due
+     */
+    public void update(long nowSecond) {
+        if (nowSecond < nextEventSecond) {
+            return;
+        }
+        synchronized (this) {
+            while (!holds.isEmpty() && holds.peek().holdSecond() <= nowSecond) {
+                Reservation reservation = holds.poll();
+                if (reservation.getStatus() == Reservation.Status.BOOKED) {
+                    hold(reservation, reservation.fromSecond());
+                }
+            }
+            while (!endings.isEmpty() && endings.peek().toSecond() <= nowSecond) {
+                Reservation reservation = endings.poll();
+                Reservation.Status status = reservation.getStatus();
+                unbook(reservation.slotIndex(), reservation.fromSecond());
+                if (status == Reservation.Status.HELD) {
+                    // No-show: the slot goes back to walk-ins
+                    release.accept(reservation.slotIndex());
+                }
+                finish(reservation, status == Reservation.Status.ARRIVED
+                        ? Reservation.Status.COMPLETED
+                        : Reservation.Status.EXPIRED);
+            }
+            scheduleNext();
+        }
+    }
+
+    /**
+     * Claims a slot for a booking from the given second on: its own slot if
+     * it is free, otherwise the nearest equivalent free slot with no other
+     * booking in the way
+     *
+     * @return false if no such slot was free; the reservation has failed
+     */
+    private boolean hold(Reservation reservation, long fromSecond) {
+        syncSlots();
+        long toSecond = reservation.toSecond();
+        unbook(reservation.slotIndex(), reservation.fromSecond());
+        int placed = -1;
+        if (isFree(reservation.slotIndex(), fromSecond, toSecond) && store.claim(reservation.slotIndex())) {
+            placed = reservation.slotIndex();
+        } else {
+            // Still occupied, e.g. by an overstaying walk-in
+            placed = claimEquivalent(reservation, fromSecond, toSecond);
+        }
+        if (placed < 0) {
+            endings.remove(reservation);
+            finish(reservation, Reservation.Status.FAILED);
+            System.out.println("Reservation " + reservation.getId() + " for " + reservation.getPlate()
+                    + " failed: no free " + reservation.getSize() + " slot");
+            return false;
+        }
+        book(placed, fromSecond, toSecond);
+        reservation.place(placed, store.id(placed), fromSecond);
+        reservation.setStatus(Reservation.Status.HELD);
+        return true;
+    }
+
+    /**
+     * Walks the free slots nearest the default gate and claims the first
+     * one with no other booking in the window. Slots are only looked at,
+     * not claimed, until one fits, so other gates never see them taken
+     */
+    private int claimEquivalent(Reservation reservation, long fromSecond, long toSecond) {
+        int required = reservation.getRequiredFeatures();
+        int avoided = ParkingStrategy.RESERVED_FEATURES & ~required;
+        int attempts = 0;
+        for (int pass = 0; pass < (avoided != 0 ? 2 : 1); pass++) {
+            for (int s = reservation.getSize().ordinal(); s < SIZES.length; s++) {
+                int fromRank = 0;
+                while (attempts < MAX_MOVE_ATTEMPTS) {
+                    int index = store.ceiling(DEFAULT_GATE, SIZES[s], fromRank, required, pass == 0 ? avoided : 0);
+                    if (index < 0) {
+                        break;
+                    }
+                    attempts++;
+                    if (isFree(index, fromSecond, toSecond) && store.claim(index)) {
+                        return index;
+                    }
+                    // Booked by someone else during the window, or just taken
+                    fromRank = store.rank(DEFAULT_GATE, index) + 1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    // Drops a reservation from the arrivals index once it is used or finished
+    private void finish(Reservation reservation, Reservation.Status status) {
+        Reservation.Status previous = reservation.getStatus();
+        if (previous == Reservation.Status.BOOKED || previous == Reservation.Status.HELD) {
+            List<Reservation> booked = byPlate.get(reservation.getPlate());
+            booked.remove(reservation);
+            if (booked.isEmpty()) {
+                byPlate.remove(reservation.getPlate());
+            }
+            awaited--;
+        }
+        if (status != Reservation.Status.ARRIVED) {
+            byId.remove(reservation.getId());
+        }
+        reservation.setStatus(status);
+    }
+
+    private void scheduleNext() {
+        long next = Long.MAX_VALUE;
+        if (!holds.isEmpty()) {
+            next = holds.peek().holdSecond();
+        }
+        if (!endings.isEmpty()) {
+            next = Math.min(next, endings.peek().toSecond());
+        }
+        nextEventSecond = next;
+    }
+
+    /**
+     * Adds an empty booking list and an open-ended gap for slots added to
+     * the store since the last call, and drops the gaps of slots it has
+     * taken out of service
+     */
+    private void syncSlots() {
+        long version = store.version();
+        if (version == storeVersion) {
+            return;
+        }
+        int count = store.count();
+        starts = Arrays.copyOf(starts, count);
+        ends = Arrays.copyOf(ends, count);
+        bookingCounts = Arrays.copyOf(bookingCounts, count);
+        retired = Arrays.copyOf(retired, count);
+        for (int index = slots; index < count; index++) {
+            starts[index] = NO_BOOKINGS;
+            ends[index] = NO_BOOKINGS;
+            tree(index).insert(Long.MIN_VALUE, Long.MAX_VALUE, index);
+        }
+        slots = count;
+        for (int index = 0; index < count; index++) {
+            if (!retired[index] && !store.isOpen(index)) {
+                retire(index);
+            }
+        }
+        storeVersion = version;
+    }
+
+    // Removes every gap of a slot; its booking arrays stay for unbook
+    private void retire(int index) {
+        GapTree tree = tree(index);
+        int n = bookingCounts[index];
+        long gapStart = Long.MIN_VALUE;
+        for (int p = 0; p <= n; p++) {
+            long gapEnd = p < n ? starts[index][p] : Long.MAX_VALUE;
+            if (gapStart < gapEnd) {
+                tree.remove(gapStart, index);
+            }
+            gapStart = p < n ? ends[index][p] : gapStart;
+        }
+        retired[index] = true;
+    }
+
+    private GapTree tree(int index) {
+        return gaps[store.size(index).ordinal() * MASKS + store.featureFlags(index)];
+    }
+
+    // Splits the gap around a free window; callers check isFree first
+    private void book(int index, long fromSecond, long toSecond) {
+        int n = bookingCounts[index];
+        int p = lowerBound(starts[index], n, fromSecond);
+        long gapStart = p > 0 ? ends[index][p - 1] : Long.MIN_VALUE;
+        long gapEnd = p < n ? starts[index][p] : Long.MAX_VALUE;
+        GapTree tree = tree(index);
+        tree.remove(gapStart, index);
+        if (gapStart < fromSecond) {
+            tree.insert(gapStart, fromSecond, index);
+        }
+        if (toSecond < gapEnd) {
+            tree.insert(toSecond, gapEnd, index);
+        }
+
+        if (n == starts[index].length) {
+            starts[index] = Arrays.copyOf(starts[index], Math.max(2, n * 2));
+            ends[index] = Arrays.copyOf(ends[index], Math.max(2, n * 2));
+        }
+        System.arraycopy(starts[index], p, starts[index], p + 1, n - p);
+        System.arraycopy(ends[index], p, ends[index], p + 1, n - p);
+        starts[index][p] = fromSecond;
+        ends[index][p] = toSecond;
+        bookingCounts[index] = n + 1;
+    }
+
+    // Merges a booking back into the gaps on either side of it
+    private void unbook(int index, long fromSecond) {
+        int n = bookingCounts[index];
+        int p = lowerBound(starts[index], n, fromSecond);
+        if (p == n || starts[index][p] != fromSecond) {
+            return;
+        }
+        long toSecond = ends[index][p];
+        long gapStart = p > 0 ? ends[index][p - 1] : Long.MIN_VALUE;
+        long gapEnd = p + 1 < n ? starts[index][p + 1] : Long.MAX_VALUE;
+        if (!retired[index]) {
+            GapTree tree = tree(index);
+            if (gapStart < fromSecond) {
+                tree.remove(gapStart, index);
+            }
+            if (toSecond < gapEnd) {
+                tree.remove(toSecond, index);
+            }
+            tree.insert(gapStart, gapEnd, index);
+        }
+
+        System.arraycopy(starts[index], p + 1, starts[index], p, n - p - 1);
+        System.arraycopy(ends[index], p + 1, ends[index], p, n - p - 1);
+        bookingCounts[index] = n - 1;
+    }
+
+    // First position whose start is at or after the key
+    private static int lowerBound(long[] sorted, int n, long key) {
+        int low = 0;
+        int high = n;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Treap of free gaps in primitive arrays, keyed by (start, slot), where
+     * each node also stores the largest end in its subtree
+     */
+    private static final class GapTree {
+        private long[] gapStarts = new long[16];
+        private long[] gapEnds = new long[16];
+        private long[] maxEnds = new long[16];
+        private int[] slotIndexes = new int[16];
+        private int[] priorities = new int[16];
+        private int[] lefts = new int[16];
+        private int[] rights = new int[16];
+        private int root = -1;
+        private int used;
+        // Removed nodes, linked through lefts
+        private int freeNodes = -1;
+        private int seed = 0x2545F491;
+
+        void insert(long start, long end, int slot) {
+            int node = allocate();
+            gapStarts[node] = start;
+            gapEnds[node] = end;
+            maxEnds[node] = end;
+            slotIndexes[node] = slot;
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            priorities[node] = seed;
+            lefts[node] = -1;
+            rights[node] = -1;
+            root = insert(root, node);
+        }
+
+        void remove(long start, int slot) {
+            root = remove(root, start, slot);
+        }
+
+        /**
+         * Slot of the rightmost gap starting at or before from that ends at
+         * or after to, or -1
+         */
+        int find(long from, long to) {
+            int node = find(root, from, to);
+            return node < 0 ? -1 : slotIndexes[node];
+        }
+
+        // Subtrees whose largest end is too early are skipped whole, so
+        // this follows one root-to-leaf path plus one successful descent
+        private int find(int node, long from, long to) {
+            if (node < 0 || maxEnds[node] < to) {
+                return -1;
+            }
+            if (gapStarts[node] > from) {
+                return find(lefts[node], from, to);
+            }
+            int found = find(rights[node], from, to);
+            if (found >= 0) {
+                return found;
+            }
+            if (gapEnds[node] >= to) {
+                return node;
+            }
+            return find(lefts[node], from, to);
+        }
+
+        private int insert(int node, int added) {
+            if (node < 0) {
+                return added;
+            }
+            if (compare(gapStarts[added], slotIndexes[added], node) < 0) {
+                lefts[node] = insert(lefts[node], added);
+                if (priorities[lefts[node]] > priorities[node]) {
+                    return rotateRight(node);
+                }
+            } else {
+                rights[node] = insert(rights[node], added);
+                if (priorities[rights[node]] > priorities[node]) {
+                    return rotateLeft(node);
+                }
+            }
+            update(node);
+            return node;
+        }
+
+        private int remove(int node, long start, int slot) {
+            if (node < 0) {
+                return -1;
+            }
+            int c = compare(start, slot, node);
+            if (c < 0) {
+                lefts[node] = remove(lefts[node], start, slot);
+            } else if (c > 0) {
+                rights[node] = remove(rights[node], start, slot);
+            } else {
+                int merged = merge(lefts[node], rights[node]);
+                lefts[node] = freeNodes;
+                freeNodes = node;
+                return merged;
+            }
+            update(node);
+            return node;
+        }
+
+        private int merge(int left, int right) {
+            if (left < 0) {
+                return right;
+            }
+            if (right < 0) {
+                return left;
+            }
+            if (priorities[left] > priorities[right]) {
+                rights[left] = merge(rights[left], right);
+                update(left);
+                return left;
+            }
+            lefts[right] = merge(left, lefts[right]);
+            update(right);
+            return right;
+        }
+
+        private int rotateRight(int node) {
+            int left = lefts[node];
+            lefts[node] = rights[left];
+            rights[left] = node;
+            update(node);
+            update(left);
+            return left;
+        }
+
+        private int rotateLeft(int node) {
+            int right = rights[node];
+            rights[node] = lefts[right];
+            lefts[right] = node;
+            update(node);
+            update(right);
+            return right;
+        }
+
+        private void update(int node) {
+            long max = gapEnds[node];
+            if (lefts[node] >= 0) {
+                max = Math.max(max, maxEnds[lefts[node]]);
+            }
+            if (rights[node] >= 0) {
+                max = Math.max(max, maxEnds[rights[node]]);
+            }
+            maxEnds[node] = max;
+        }
+
+        private int compare(long start, int slot, int node) {
+            int c = Long.compare(start, gapStarts[node]);
+            return c != 0 ? c : Integer.compare(slot, slotIndexes[node]);
+        }
+
+        private int allocate() {
+            if (freeNodes >= 0) {
+                int node = freeNodes;
+                freeNodes = lefts[node];
+                return node;
+            }
+            if (used == gapStarts.length) {
+                int capacity = used * 2;
+                gapStarts = Arrays.copyOf(gapStarts, capacity);
+                gapEnds = Arrays.copyOf(gapEnds, capacity);
+                maxEnds = Arrays.copyOf(maxEnds, capacity);
+                slotIndexes = Arrays.copyOf(slotIndexes, capacity);
+                priorities = Arrays.copyOf(priorities, capacity);
+                lefts = Arrays.copyOf(lefts, capacity);
+                rights = Arrays.copyOf(rights, capacity);
+            }
+            return used++;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a ParkingLotRouter over 1, 2, 4, ... in-process shards with one
+ * thread per shard. Every thread keeps a window of parked vehicles, entering
+ * a new one and exiting its oldest (by ticket id, or by plate for one in
+ * ten), so the load and total capacity grow with the shard count. Reports
+ * operations per second and the speedup over the first row. Then checks
+ * spillover when a site fills, exits across sites and a remote shard
+ * behind a loopback GateServer
+ *
+ * java RouterBenchmark shards=1,2,4,8 slots=20000 window=256 millis=2000
+ */
+public class RouterBenchmark {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+    private static final int GATE = 1;
+
+    public static void main(String[] args) throws Exception {
+        int[] shardCounts = {1, 2, 4, 8};
+        Map<String, Integer> params = new HashMap<>();
+        params.put("slots", 20_000);
+        params.put("window", 256);
+        params.put("millis", 2_000);
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length == 2 && pair[0].equals("shards")) {
+                String[] values = pair[1].split(",");
+                shardCounts = new int[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    shardCounts[i] = Integer.parseInt(values[i].trim());
+                }
+            } else if (pair.length == 2 && params.containsKey(pair[0])) {
+                params.put(pair[0], Integer.parseInt(pair[1]));
+            } else {
+                System.out.println("Unknown argument: " + arg + ", expected shards=N,N,.. or one of " + params.keySet());
+                return;
+            }
+        }
+
+        System.out.println("=== SHARDED ROUTER BENCHMARK ===");
+        System.out.println("Cores: " + Runtime.getRuntime().availableProcessors() + ", slots per shard: "
+                + params.get("slots") + ", window per thread: " + params.get("window"));
+        System.out.printf("%-8s %-8s %14s %10s %10s%n", "shards", "threads", "ops/s", "speedup", "rejected");
+        // Untimed warm-up so the first row is not measured cold
+        List<ParkingLot> warm = new ArrayList<>();
+        run(quietly(() -> buildRouter(2, params.get("slots"), warm)), 2, params.get("window"), params.get("millis"));
+        for (ParkingLot lot : warm) {
+            lot.getEvents().close();
+        }
+        double single = 0;
+        boolean drained = true;
+        for (int shards : shardCounts) {
+            List<ParkingLot> lots = new ArrayList<>();
+            ParkingLotRouter router = quietly(() -> buildRouter(shards, params.get("slots"), lots));
+            Result result = run(router, shards, params.get("window"), params.get("millis"));
+            if (single == 0) {
+                single = result.opsPerSecond;
+            }
+            System.out.printf("%-8d %-8d %,14.0f %9.2fx %,10d%n", shards, shards, result.opsPerSecond,
+                    result.opsPerSecond / single, result.rejected);
+            for (ParkingLot lot : lots) {
+                drained &= lot.getActiveTicketCount() == 0;
+                lot.getEvents().close();
+            }
+        }
+        System.out.println("Every shard empty after the drivers drained: " + drained);
+
+        boolean checks = checkSpillover() && checkRemote();
+        boolean passed = drained && checks;
+        System.out.println(passed
+                ? "PASSED: the router spilled over, settled every ticket at its own site and served the remote shard"
+                : "FAILED: a ticket was lost, misrouted or refused while a site had room");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static final class Result {
+        private double opsPerSecond;
+        private long rejected;
+    }
+
+    private static Result run(ParkingLotRouter router, int threads, int window, long millis)
+            throws InterruptedException {
+        AtomicLong operations = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        Thread[] drivers = new Thread[threads];
+        long deadline = System.nanoTime() + millis * 1_000_000;
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            drivers[t] = new Thread(() -> {
+                try {
+                    drive(router, thread, window, deadline, operations, rejected);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }, "router-driver-" + t);
+        }
+        long start = System.nanoTime();
+        for (Thread driver : drivers) {
+            driver.start();
+        }
+        for (Thread driver : drivers) {
+            driver.join();
+        }
+        Result result = new Result();
+        result.opsPerSecond = operations.get() * 1e9 / (System.nanoTime() - start);
+        result.rejected = rejected.get();
+        return result;
+    }
+
+    private static void drive(ParkingLotRouter router, int thread, int window, long deadline,
+                              AtomicLong operations, AtomicLong rejected) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long[] tickets = new long[window];
+        String[] plates = new String[window];
+        long done = 0;
+        long failed = 0;
+        int next = 0;
+        for (long n = 0; System.nanoTime() < deadline; n++) {
+            if (plates[next] != null) {
+                GateClient.BillReply bill = n % 10 == 0
+                        ? router.exitByPlate(GATE, plates[next])
+                        : router.exit(GATE, tickets[next]);
+                if (bill == null) {
+                    throw new IllegalStateException("Router lost the ticket of " + plates[next]);
+                }
+                plates[next] = null;
+                done++;
+            }
+            String plate = "T" + thread + "-" + n;
+            Vehicle vehicle = random.nextInt(20) == 0
+                    ? new Vehicle(plate, SIZES[random.nextInt(SIZES.length)], SlotFeature.CHARGING)
+                    : new Vehicle(plate, SIZES[random.nextInt(SIZES.length)]);
+            GateClient.TicketReply ticket = router.enter(GATE, vehicle);
+            if (ticket != null) {
+                tickets[next] = ticket.ticketId;
+                plates[next] = plate;
+            } else {
+                failed++;
+            }
+            done++;
+            next = (next + 1) % window;
+        }
+        for (int i = 0; i < window; i++) {
+            if (plates[i] != null && router.exit(GATE, tickets[i]) == null) {
+                throw new IllegalStateException("Router lost the ticket of " + plates[i]);
+            }
+        }
+        operations.addAndGet(done);
+        rejected.addAndGet(failed);
+    }
+
+    /**
+     * Two 50-slot sites: 100 vehicles all park, the 101st is turned away
+     * and every ticket exits at the site that issued it
+     */
+    private static boolean checkSpillover() throws Exception {
+        List<ParkingLot> lots = new ArrayList<>();
+        ParkingLotRouter router = quietly(() -> buildRouter(2, 50, lots));
+        System.out.println();
+        System.out.println("=== SPILLOVER (2 sites x 50 slots) ===");
+        List<GateClient.TicketReply> tickets = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            GateClient.TicketReply ticket = router.enter(GATE, new Vehicle("FILL-" + i, VehicleSize.SMALL));
+            if (ticket != null) {
+                tickets.add(ticket);
+            }
+        }
+        GateClient.TicketReply extra = router.enter(GATE, new Vehicle("FILL-100", VehicleSize.SMALL));
+        GateClient.TicketReply again = router.enter(GATE, new Vehicle("FILL-7", VehicleSize.SMALL));
+        System.out.println("Parked " + tickets.size() + " of 100; site 0 has " + lots.get(0).getActiveTicketCount()
+                + ", site 1 has " + lots.get(1).getActiveTicketCount() + "; 101st " + (extra == null ? "refused" : "parked")
+                + ", repeat plate " + (again == null ? "refused" : "parked"));
+        int settled = 0;
+        for (GateClient.TicketReply ticket : tickets) {
+            int site = TicketIdGenerator.siteOf(ticket.ticketId);
+            if (router.shardOf(ticket.ticketId).getSiteId() == site && router.exit(GATE, ticket.ticketId) != null) {
+                settled++;
+            }
+        }
+        System.out.println("Settled by ticket id at the issuing site: " + settled);
+        for (ParkingLot lot : lots) {
+            lot.getEvents().close();
+        }
+        return tickets.size() == 100 && extra == null && again == null && settled == 100;
+    }
+
+    /**
+     * A local site without charging bays and a remote one with them: EVs
+     * must all go to the remote site, and exits by ticket and by plate
+     * reach it over the gate protocol
+     */
+    private static boolean checkRemote() throws Exception {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ParkingLot local = buildLot(1, 200, 0);
+        ParkingLot remoteLot = buildLot(2, 200, 4);
+        System.setOut(console);
+        System.out.println();
+        System.out.println("=== REMOTE SHARD (site 1 local, site 2 over loopback TCP) ===");
+        boolean ok;
+        try (GateServer server = new GateServer(remoteLot, 0);
+             RemoteParkingShard remote = new RemoteParkingShard(2, "127.0.0.1", server.getPort())) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            ParkingLotRouter router = new ParkingLotRouter();
+            router.addShard(new LocalParkingShard(local));
+            router.addShard(remote);
+            System.setOut(console);
+
+            int evs = 0;
+            int evsRemote = 0;
+            int[] perSite = new int[3];
+            List<GateClient.TicketReply> tickets = new ArrayList<>();
+            List<String> plates = new ArrayList<>();
+            for (int i = 0; i < 120; i++) {
+                boolean ev = i % 6 == 0;
+                String plate = (ev ? "EV-" : "CAR-") + i;
+                GateClient.TicketReply ticket = router.enter(GATE, ev
+                        ? new Vehicle(plate, VehicleSize.MEDIUM, SlotFeature.CHARGING)
+                        : new Vehicle(plate, VehicleSize.MEDIUM));
+                if (ticket == null) {
+                    continue;
+                }
+                int site = TicketIdGenerator.siteOf(ticket.ticketId);
+                perSite[site]++;
+                if (ev) {
+                    evs++;
+                    evsRemote += site == 2 ? 1 : 0;
+                }
+                tickets.add(ticket);
+                plates.add(plate);
+            }
+            GateClient.TicketReply found = router.findPlate("EV-0");
+            GateClient.StatusReply status = router.status();
+            System.out.println("Parked " + tickets.size() + " of 120: site 1 " + perSite[1] + ", site 2 " + perSite[2]
+                    + "; EVs at the charging site " + evsRemote + "/" + evs);
+            System.out.println("EV-0 found at " + found + "; router status parked " + status.parked
+                    + ", free charging MEDIUM " + status.available(VehicleSize.MEDIUM, SlotFeature.CHARGING.flag()));
+
+            int settled = 0;
+            for (int i = 0; i < tickets.size(); i++) {
+                GateClient.BillReply bill = i % 2 == 0
+                        ? router.exit(GATE, tickets.get(i).ticketId)
+                        : router.exitByPlate(GATE, plates.get(i));
+                settled += bill != null ? 1 : 0;
+            }
+            System.out.println("Settled half by ticket id, half by plate: " + settled + "; parked after: "
+                    + local.getActiveTicketCount() + " local, " + remoteLot.getActiveTicketCount() + " remote");
+            ok = tickets.size() == 120 && evsRemote == evs && evs == 20 && found != null
+                    && TicketIdGenerator.siteOf(found.ticketId) == 2 && status.parked == 120
+                    && settled == 120 && local.getActiveTicketCount() == 0 && remoteLot.getActiveTicketCount() == 0;
+        }
+        local.getEvents().close();
+        remoteLot.getEvents().close();
+        return ok;
+    }
+
+    private interface Setup<T> {
+        T run() throws IOException;
+    }
+
+    private static <T> T quietly(Setup<T> setup) throws IOException {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            return setup.run();
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    private static ParkingLotRouter buildRouter(int shards, int slots, List<ParkingLot> lots) throws IOException {
+        ParkingLotRouter router = new ParkingLotRouter();
+        for (int site = 0; site < shards; site++) {
+            ParkingLot lot = buildLot(site, slots, 10);
+            lots.add(lot);
+            router.addShard(new LocalParkingShard(lot));
+        }
+        return router;
+    }
+
+    /**
+     * One site of mixed-size slots on 5 floors
+     *
+     * @param chargingEvery One slot in this many charges; 0 for none
+     */
+    private static ParkingLot buildLot(int site, int slots, int chargingEvery) {
+        ParkingLot lot = new ParkingLot(site, new NearestParkingStrategy(),
+                new EventPipeline(new NullEventSink(), 1 << 12, EventPipeline.OverflowPolicy.DROP));
+        Random random = new Random(site);
+        int perFloor = (slots + 4) / 5;
+        for (int f = 0; f * perFloor < slots; f++) {
+            Floor floor = new Floor(f + 1);
+            for (int i = 0; i < perFloor && f * perFloor + i < slots; i++) {
+                Slot slot = new BasicSlot(f * perFloor + i + 1, SIZES[random.nextInt(SIZES.length)], 5.0, i);
+                if (chargingEvery > 0 && i % chargingEvery == 0) {
+                    slot = new ChargingDecorator(slot, 3.0);
+                }
+                floor.addSlot(slot);
+            }
+            lot.addFloor(floor);
+        }
+        lot.addEntryGate(new EntryGate(GATE));
+        lot.addExitGate(new ExitGate(GATE));
+        return lot;
+    }
+}
@@ -0,0 +1,59 @@
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clock that only moves when told to, for load tests that replay a day
+ * in seconds and for checking bills against known stay lengths
+ * Time never goes back, so bills and reservations stay consistent
+ */
+public class SimulatedClock implements ParkingClock {
+    private final AtomicLong now;
+
+    public SimulatedClock(long startEpochMillis) {
+        this.now = new AtomicLong(startEpochMillis);
+    }
+
+    /**
+     * @param start Local wall-clock start time in the system time zone
+     */
+    public SimulatedClock(LocalDateTime start) {
+        this(start.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+    }
+
+    @Override
+    public long millis() {
+        return now.get();
+    }
+
+    /**
+     * Moves the clock forward
+     *
+     * @return The new reading
+     */
+    public long advance(Duration by) {
+        if (by.isNegative()) {
+            throw new IllegalArgumentException("Simulated time cannot go back: " + by);
+        }
+        return now.addAndGet(by.toMillis());
+    }
+
+    /**
+     * Moves the clock to a later instant
+     */
+    public void set(long epochMillis) {
+        long current;
+        do {
+            current = now.get();
+            if (epochMillis < current) {
+                throw new IllegalArgumentException("Simulated time cannot go back: " + epochMillis + " < " + current);
+            }
+        } while (!now.compareAndSet(current, epochMillis));
+    }
+
+    @Override
+    public String toString() {
+        return "SimulatedClock{millis=" + now.get() + "}";
+    }
+}
@@ -18,5 +18,13 @@ public interface Slot extends Comparable<Slot> {
 
     String getFeatures();
 
+    /**
+     * Features as a mask of SlotFeature flags; none unless a decorator
+     * adds one
+     */
+    default int getFeatureFlags() {
+        return 0;
+    }
+
     int getDistanceToGate(int gateId);
 }
\ No newline at end of file
@@ -0,0 +1,35 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for one parking strategy call, committed when parking metrics
+ * are enabled and a recording has the event turned on
+ */
+@Name("parking.SlotAllocation")
+@Label("Slot Allocation")
+@Category({"Parking Lot", "Strategy"})
+@Description("A slot search by the lot's parking strategy")
+public class SlotAllocationEvent extends Event {
+    @Label("Strategy")
+    String strategy;
+
+    @Label("Gate")
+    int gateId;
+
+    @Label("Vehicle Size")
+    String vehicleSize;
+
+    @Label("Slot")
+    int slotId;
+
+    @Label("Slot Size")
+    String slotSize;
+
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+}
@@ -0,0 +1,68 @@
+/**
+ * Enum of optional slot features, each mapped to one bit of a feature mask
+ */
+public enum SlotFeature {
+    CHARGING("Charging"),
+    CLEANING("Cleaning");
+
+    private final String label;
+
+    SlotFeature(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public int flag() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * Converts a Slot.getFeatures() description into a feature mask
+     */
+    public static int parse(String features) {
+        int flags = 0;
+        for (SlotFeature feature : values()) {
+            if (features.contains(feature.label)) {
+                flags |= feature.flag();
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * Features whose flags are set in a mask
+     */
+    public static SlotFeature[] of(int flags) {
+        SlotFeature[] all = values();
+        SlotFeature[] features = new SlotFeature[Integer.bitCount(flags & ((1 << all.length) - 1))];
+        int n = 0;
+        for (SlotFeature feature : all) {
+            if ((flags & feature.flag()) != 0) {
+                features[n++] = feature;
+            }
+        }
+        return features;
+    }
+
+    /**
+     * Converts a feature mask back into the Slot.getFeatures() format
+     */
+    public static String describe(int flags) {
+        if (flags == 0) {
+            return "Basic";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (SlotFeature feature : values()) {
+            if ((flags & feature.flag()) != 0) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(feature.label);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Read-only view of the lot's slots and free-slot indexes, given to
+ * parking strategies
+ * Slots are addressed by index, 0 to count() - 1. Queries never allocate
+ * and never change occupancy: a strategy returns the index it chose and
+ * the lot claims it. Feature arguments are SlotFeature masks; a slot
+ * matches when it has every required feature and none of the avoided ones.
+ * Slots taken out of service keep their index and read as occupied
+ */
+public interface SlotIndexView {
+    int count();
+
+    int id(int index);
+
+    VehicleSize size(int index);
+
+    int floorNumber(int index);
+
+    int featureFlags(int index);
+
+    int distance(int gateId, int index);
+
+    long baseCents(int index);
+
+    boolean isOccupied(int index);
+
+    /**
+     * Nearest free matching slot of a size to the gate
+     *
+     * @return Slot index, or -1 if none is free
+     */
+    int nearest(int gateId, VehicleSize size, int requiredFeatures, int avoidedFeatures);
+
+    /**
+     * Position of a slot in the gate's distance order for the slot's size
+     */
+    int rank(int gateId, int index);
+
+    /**
+     * First free matching slot of a size at or after a position in the
+     * gate's distance order; with rank() this walks any distance range
+     *
+     * @return Slot index, or -1 if none is free
+     */
+    int ceiling(int gateId, VehicleSize size, int fromRank, int requiredFeatures, int avoidedFeatures);
+
+    int totalSlots(VehicleSize size);
+
+    int freeSlots(VehicleSize size);
+
+    int floorCount();
+
+    /**
+     * Floor number of the i-th floor, lowest first
+     */
+    int floorNumberAt(int floor);
+
+    int totalSlotsOnFloor(int floorNumber, VehicleSize size);
+
+    /**
+     * Free matching slots of a size on a floor, from the occupancy counters
+     * An estimate while claims are in flight; counts slots whether or not
+     * a given gate can reach them
+     */
+    int freeSlotsOnFloor(int floorNumber, VehicleSize size, int requiredFeatures, int avoidedFeatures);
+
+    /**
+     * First free matching slot of a size on a floor that the gate can
+     * reach, in the order the floor's slots were laid out
+     *
+     * @return Slot index, or -1 if none is free
+     */
+    int firstFreeOnFloor(int gateId, int floorNumber, VehicleSize size, int requiredFeatures, int avoidedFeatures);
+}
@@ -0,0 +1,1702 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Struct-of-arrays store holding every slot in the parking lot
+ * Slot attributes live in parallel primitive arrays indexed by slot index.
+ * Free slots are tracked per (gate, size, feature mask) in bit sets whose
+ * bit order is the distance order for that gate, so "nearest free slot of a
+ * size with a feature" is a summary-level bit scan over a few bit sets.
+ * Each floor also keeps free bits per (size, feature mask) in the order its
+ * slots were laid out. Strategies read all of this through SlotIndexView
+ * The Slot interface stays available as a thin flyweight view
+ *
+ * Columns and orderings are published together as one immutable version.
+ * Structural changes (adding, removing or replacing slots, adding gates)
+ * build the next version off to the side and swap it in, so gates never
+ * block and never see half of a change. Slot indexes are never reused: a
+ * removed slot keeps its index, closed, and a changed slot gets a new index
+ * that takes over from the old one once the vehicle parked in it leaves
+ */
+public class SlotStore implements SlotIndexView {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+    private static final int SIZE_COUNT = SIZES.length;
+    private static final int DEFAULT_GATE = 0;
+    private static final int RATE_STRIDE = 3;
+    private static final int MASKS = 1 << SlotFeature.values().length;
+    // Bucket head not looked up yet in a batch claim
+    private static final int UNKNOWN = -2;
+    // Successor of a slot that is still in service
+    private static final int OPEN = -2;
+    // Successor of a slot removed without replacement
+    private static final int CLOSED = -1;
+    // Bucket rank of a slot left out of a gate's orderings
+    private static final int UNLISTED = -1;
+    private static final int PAGE_SHIFT = 16;
+    private static final int PAGE_BITS = 1 << PAGE_SHIFT;
+    // Free counts are spaced a cache line apart so buckets do not contend
+    private static final int COUNT_STRIDE = 8;
+
+    // Everything gates read, swapped as a whole on structural changes;
+    // every operation reads it once and works on that version
+    private volatile Tables tables;
+    private final OccupancyCounters counters = new OccupancyCounters();
+
+    public SlotStore() {
+        Tables initial = new Tables();
+        initial.ids = new int[16];
+        initial.sizes = new byte[16];
+        initial.floorNumbers = new int[16];
+        initial.featureFlags = new int[16];
+        initial.baseRates = new double[16];
+        initial.extraHourly = new double[16];
+        initial.extraFlat = new double[16];
+        initial.rateCents = new long[16 * RATE_STRIDE];
+        initial.objects = new Slot[16];
+        initial.cells = new int[16];
+        initial.successors = new int[16];
+        initial.predecessors = new int[16];
+        initial.gateIds = new int[]{DEFAULT_GATE};
+        initial.distances = new int[][]{new int[16]};
+        initial.ranks = new int[][]{new int[16]};
+        initial.bucketRanks = new int[][]{new int[16]};
+        initial.gateCount = 1;
+        initial.gateColumnById.put(DEFAULT_GATE, 0);
+        initial.pages = new ConcurrentBitSet[0];
+        initial.closedPages = new ConcurrentBitSet[0];
+        initial.freeCounts = new AtomicLongArray(SIZE_COUNT * MASKS * COUNT_STRIDE);
+        rebuild(initial);
+        tables = initial;
+    }
+
+    /**
+     * Copies the given slots into the store and publishes orderings that
+     * include them; safe while gates are allocating
+     */
+    public synchronized void addSlots(int floorNumber, Collection<Slot> slots) {
+        Tables current = tables;
+        Tables next = current.copy(current.count + slots.size());
+        int first = next.count;
+        for (Slot slot : slots) {
+            if (next.indexById.get(slot.getId()) >= 0) {
+                throw new IllegalArgumentException("Duplicate slot id: " + slot.getId());
+            }
+            int removed = next.retiredIds.get(slot.getId());
+            if (removed >= 0 && !next.isClosed(removed)) {
+                throw new IllegalArgumentException("Slot id " + slot.getId() + " was removed but is still occupied");
+            }
+            append(next, floorNumber, slot);
+        }
+        counters.addCapacity(next.cells, first, next.count);
+        publish(next, new int[0], splice(current, next, new int[0], first));
+        for (int index = first; index < next.count; index++) {
+            if (next.objects[index].isOccupied()) {
+                claim(index);
+            }
+        }
+    }
+
+    /**
+     * Takes slots out of service. A vacant slot closes at once; an occupied
+     * one stops being offered now and closes when its vehicle leaves
+     *
+     * @param slotIds Ids of the slots to remove
+     * @return Number of slots that were in service and are now removed
+     */
+    public synchronized int removeSlots(int[] slotIds) {
+        Tables current = tables;
+        Tables next = current.copy(current.count);
+        int[] retiring = new int[slotIds.length];
+        int removed = 0;
+        for (int slotId : slotIds) {
+            int index = next.indexById.get(slotId);
+            if (index < 0 || next.successors[index] != OPEN) {
+                continue;
+            }
+            next.successors[index] = CLOSED;
+            next.indexById.remove(slotId);
+            retiring[removed++] = index;
+        }
+        if (removed == 0) {
+            return 0;
+        }
+        retiring = Arrays.copyOf(retiring, removed);
+        publish(next, retiring, splice(current, next, retiring, next.count));
+        return removed;
+    }
+
+    /**
+     * Puts a changed slot (other size, features or charges) in place of the
+     * slot with the same id, on the same floor. The new slot counts as taken
+     * until the vehicle parked in the old one, if any, leaves; the old slot's
+     * capacity and occupied count move to it, so nothing is counted twice
+     * while the old one drains
+     *
+     * @param replacement A vacant slot object with the id of a slot in service
+     * @return The new slot index, or -1 if no slot with that id is in service
+     */
+    public synchronized int replaceSlot(Slot replacement) {
+        Tables current = tables;
+        int old = current.indexById.get(replacement.getId());
+        if (old < 0 || current.successors[old] != OPEN) {
+            return -1;
+        }
+        Tables next = current.copy(current.count + 1);
+        int index = append(next, current.floorNumbers[old], replacement);
+        next.successors[old] = index;
+        next.predecessors[index] = old;
+        counters.moveCapacity(next.cells[old], next.cells[index]);
+        // Taken on behalf of whoever is parked in the old slot
+        next.trySetOccupied(index);
+        counters.increment(next.cells[index]);
+        replacement.occupy();
+        publish(next, new int[]{old}, splice(current, next, new int[]{old}, index));
+        return index;
+    }
+
+    private int append(Tables next, int floorNumber, Slot slot) {
+        int index = next.count++;
+        next.ids[index] = slot.getId();
+        next.sizes[index] = (byte) slot.getSize().ordinal();
+        next.floorNumbers[index] = floorNumber;
+        next.featureFlags[index] = slot.getFeatureFlags();
+        next.baseRates[index] = slot.getBaseRate();
+        // Decorator surcharges are linear in hours: flat + hourly * hours
+        next.extraFlat[index] = slot.getExtraCharges(0);
+        next.extraHourly[index] = slot.getExtraCharges(1) - next.extraFlat[index];
+        compileRates(next, index);
+        next.objects[index] = slot;
+        next.cells[index] = counters.cell(floorNumber, slot.getSize(), next.featureFlags[index]);
+        next.successors[index] = OPEN;
+        int previous = next.indexById.get(slot.getId());
+        next.predecessors[index] = previous >= 0 ? previous : next.retiredIds.get(slot.getId());
+        for (int g = 0; g < next.gateCount; g++) {
+            next.distances[g][index] = slot.getDistanceToGate(next.gateIds[g]);
+        }
+        next.indexById.put(slot.getId(), index);
+        next.freeCounts.incrementAndGet(next.bucket(index) * COUNT_STRIDE);
+        return index;
+    }
+
+    /**
+     * Swaps in a new version, then repairs what gates changed through the
+     * old one meanwhile and closes the vacant retiring slots
+     *
+     * @param changed Buckets with new free bits, or null for all; the others
+     *                share theirs with the old version and need no repair
+     */
+    private void publish(Tables next, int[] retiring, boolean[] changed) {
+        for (int index : retiring) {
+            next.retiredIds.put(next.ids[index], index);
+        }
+        next.version = tables.version + 1;
+        tables = next;
+        // A release seen only by the old version left its slot free there;
+        // releases from now on see this version themselves
+        for (int index = 0; index < next.count; index++) {
+            if (next.successors[index] == OPEN && !next.isOccupied(index)
+                    && (changed == null || changed[next.bucket(index)])) {
+                next.repairFree(index);
+            }
+        }
+        for (int index : retiring) {
+            if (next.trySetOccupied(index)) {
+                close(index, false);
+            } else if (next.successors[index] >= 0) {
+                // Still held: the replacement's hold counts the vehicle, so
+                // the old slot's count is taken back until it closes
+                counters.decrement(next.cells[index]);
+            }
+        }
+    }
+
+    /**
+     * Bulk-loads a lot layout into an empty store
+     * The layout's orderings are already sorted, so this is a linear pass
+     * that checks them and derives ranks and free bits; nothing is sorted
+     * and no slot objects are created
+     */
+    public synchronized void load(LotLayout layout) {
+        if (tables.count != 0) {
+            throw new IllegalStateException("A layout can only be loaded into an empty store");
+        }
+        int n = layout.slotCount();
+        int[] layoutGates = layout.gateIds();
+        if (layoutGates[0] != DEFAULT_GATE) {
+            throw new IllegalArgumentException("Layout gate column 0 must be the default gate");
+        }
+        int[] newIds = layout.ids();
+        byte[] newSizes = layout.sizes();
+        IntIndexMap newIndexById = new IntIndexMap();
+        int[] newTotals = new int[SIZE_COUNT];
+        for (int index = 0; index < n; index++) {
+            if (newSizes[index] < 0 || newSizes[index] >= SIZE_COUNT) {
+                throw new IllegalArgumentException("Corrupt layout: bad size for slot " + newIds[index]);
+            }
+            if (newIndexById.get(newIds[index]) >= 0) {
+                throw new IllegalArgumentException("Duplicate slot id: " + newIds[index]);
+            }
+            newIndexById.put(newIds[index], index);
+            newTotals[newSizes[index]]++;
+        }
+
+        int gates = layoutGates.length;
+        IntIndexMap newGateColumns = new IntIndexMap();
+        int[][] newDistances = new int[gates][];
+        int[] newFeatureFlags = layout.featureFlags();
+        for (int index = 0; index < n; index++) {
+            if (newFeatureFlags[index] >>> SlotFeature.values().length != 0) {
+                throw new IllegalArgumentException("Corrupt layout: bad feature flags for slot " + newIds[index]);
+            }
+        }
+        int[][] newRanks = new int[gates][];
+        int[][] newBucketRanks = new int[gates][];
+        int[][] newOrders = new int[gates * SIZE_COUNT][];
+        int[][] newBucketOrders = new int[gates * SIZE_COUNT * MASKS][];
+        ConcurrentBitSet[] newFree = new ConcurrentBitSet[gates * SIZE_COUNT * MASKS];
+        for (int g = 0; g < gates; g++) {
+            newGateColumns.put(layoutGates[g], g);
+            int[] distance = layout.distances(g);
+            newDistances[g] = distance;
+            newRanks[g] = new int[n];
+            newBucketRanks[g] = new int[n];
+            Arrays.fill(newRanks[g], Integer.MAX_VALUE);
+            Arrays.fill(newBucketRanks[g], UNLISTED);
+            for (int s = 0; s < SIZE_COUNT; s++) {
+                int[] order = layout.order(g, SIZES[s]);
+                if (order.length != newTotals[s]) {
+                    throw new IllegalArgumentException("Corrupt layout: gate " + layoutGates[g] + " has " +
+                            order.length + " " + SIZES[s] + " slots, expected " + newTotals[s]);
+                }
+                // Strictly increasing (distance, id) with matching sizes means
+                // the ordering is a permutation of that size's slots
+                long previous = Long.MIN_VALUE;
+                int reachable = order.length;
+                for (int rank = 0; rank < order.length; rank++) {
+                    int index = order[rank];
+                    if (index < 0 || index >= n || newSizes[index] != s) {
+                        throw new IllegalArgumentException("Corrupt layout: bad slot index in gate " + layoutGates[g] + " order");
+                    }
+                    long key = ((long) distance[index] << 32) | (newIds[index] ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+                    if (key <= previous) {
+                        throw new IllegalArgumentException("Corrupt layout: gate " + layoutGates[g] + " order is not sorted");
+                    }
+                    previous = key;
+                    if (distance[index] == FloorGraph.UNREACHABLE) {
+                        // Unreachable slots sort last; the gate's ordering stops before them
+                        reachable = Math.min(reachable, rank);
+                    } else {
+                        newRanks[g][index] = rank;
+                    }
+                }
+                order = Arrays.copyOf(order, reachable);
+                newOrders[g * SIZE_COUNT + s] = order;
+                partition(order, newFeatureFlags, null, newBucketRanks[g], newBucketOrders, newFree,
+                        (g * SIZE_COUNT + s) * MASKS);
+            }
+        }
+
+        int[] newFloorNumbers = layout.slotFloorNumbers();
+        int[] newCells = new int[n];
+        for (int index = 0; index < n; index++) {
+            newCells[index] = counters.cell(newFloorNumbers[index], SIZES[newSizes[index]], newFeatureFlags[index]);
+        }
+        counters.addCapacity(newCells, 0, n);
+
+        Tables next = new Tables();
+        next.ids = newIds;
+        next.sizes = newSizes;
+        next.floorNumbers = newFloorNumbers;
+        next.featureFlags = newFeatureFlags;
+        next.cells = newCells;
+        next.baseRates = layout.baseRates();
+        next.extraFlat = layout.extraFlat();
+        next.extraHourly = layout.extraHourly();
+        next.rateCents = new long[n * RATE_STRIDE];
+        for (int index = 0; index < n; index++) {
+            compileRates(next, index);
+        }
+        next.objects = new Slot[n];
+        next.successors = new int[n];
+        Arrays.fill(next.successors, OPEN);
+        next.predecessors = new int[n];
+        Arrays.fill(next.predecessors, -1);
+        next.indexById = newIndexById;
+        System.arraycopy(newTotals, 0, next.totals, 0, SIZE_COUNT);
+        next.gateIds = layoutGates;
+        next.gateCount = gates;
+        next.distances = newDistances;
+        next.ranks = newRanks;
+        next.bucketRanks = newBucketRanks;
+        next.gateColumnById = newGateColumns;
+        next.pages = pages(new ConcurrentBitSet[0], n);
+        next.closedPages = pages(new ConcurrentBitSet[0], n);
+        next.freeCounts = tables.freeCounts;
+        for (int index = 0; index < n; index++) {
+            next.freeCounts.incrementAndGet((newSizes[index] * MASKS + newFeatureFlags[index]) * COUNT_STRIDE);
+        }
+        next.orders = newOrders;
+        next.bucketOrders = newBucketOrders;
+        next.free = newFree;
+        next.count = n;
+        rebuildFloors(null, next, null, true);
+        next.version = tables.version + 1;
+        tables = next;
+    }
+
+    /**
+     * Adds a nearest-slot ordering for a new entry gate
+     */
+    public synchronized void addGate(int gateId) {
+        Tables current = tables;
+        if (current.gateColumnById.get(gateId) >= 0) {
+            return;
+        }
+        Tables next = current.copy(current.count);
+        int column = next.gateCount++;
+        next.gateIds = Arrays.copyOf(next.gateIds, next.gateCount);
+        next.distances = Arrays.copyOf(next.distances, next.gateCount);
+        next.ranks = Arrays.copyOf(next.ranks, next.gateCount);
+        next.bucketRanks = Arrays.copyOf(next.bucketRanks, next.gateCount);
+        int capacity = next.ids.length;
+        next.gateIds[column] = gateId;
+        next.distances[column] = new int[capacity];
+        next.ranks[column] = new int[capacity];
+        next.bucketRanks[column] = new int[capacity];
+        for (int index = 0; index < next.count; index++) {
+            next.distances[column][index] = next.objects[index] != null
+                    ? next.objects[index].getDistanceToGate(gateId)
+                    : next.distances[0][index];
+        }
+        next.gateColumnById.put(gateId, column);
+        publish(next, new int[0], splice(current, next, new int[0], next.count));
+    }
+
+    /**
+     * Re-reads every gate's distances from the registered slot objects, e.g.
+     * after their FloorGraph changed, and publishes orderings sorted by
+     * them; view-only slots keep theirs. Safe while gates are allocating
+     */
+    public synchronized void refreshDistances() {
+        Tables next = tables.copy(tables.count);
+        for (int column = 0; column < next.gateCount; column++) {
+            // Existing entries change, so this column cannot be shared
+            next.distances[column] = Arrays.copyOf(next.distances[column], next.ids.length);
+            for (int index = 0; index < next.count; index++) {
+                if (next.objects[index] != null) {
+                    next.distances[column][index] = next.objects[index].getDistanceToGate(next.gateIds[column]);
+                }
+            }
+        }
+        rebuild(next);
+        publish(next, new int[0], null);
+    }
+
+    /**
+     * Grows a page list so it covers the given number of slot indexes;
+     * existing pages are shared, not copied
+     */
+    private static ConcurrentBitSet[] pages(ConcurrentBitSet[] pages, int needed) {
+        int count = (needed + PAGE_BITS - 1) >>> PAGE_SHIFT;
+        if (count <= pages.length) {
+            return pages;
+        }
+        ConcurrentBitSet[] grown = Arrays.copyOf(pages, count);
+        for (int p = pages.length; p < count; p++) {
+            grown[p] = new ConcurrentBitSet(PAGE_BITS);
+        }
+        return grown;
+    }
+
+    /**
+     * Recomputes every (gate, size) ordering of the slots in service, its
+     * feature buckets and their free bits from the current occupancy
+     * A slot at FloorGraph.UNREACHABLE from a gate is left out of that
+     * gate's orderings, so the gate never hands it out
+     */
+    private static void rebuild(Tables t) {
+        splice(null, t, new int[0], t.count);
+    }
+
+    /**
+     * Brings the previous version's orderings up to date for the retiring
+     * slots and the slots appended from firstAdded on, without re-sorting
+     * them: the new slots are sorted on their own and spliced in by binary
+     * search, the retiring ones drop out at their ranks, and ranks are
+     * renumbered from the first change on. Feature buckets nothing changed
+     * in keep their orderings and free bits, shared with the previous
+     * version. Gates the previous version lacks are sorted in full
+     *
+     * @param previous Published version t was copied from, or null to sort everything
+     * @return Buckets (size * MASKS + feature mask) with new free bits, or null if all are new
+     */
+    private static boolean[] splice(Tables previous, Tables t, int[] retiring, int firstAdded) {
+        boolean[] changed = new boolean[SIZE_COUNT * MASKS];
+        if (previous == null) {
+            Arrays.fill(t.totals, 0);
+            for (int index = 0; index < t.count; index++) {
+                if (t.successors[index] == OPEN) {
+                    t.totals[t.sizes[index]]++;
+                }
+            }
+        } else {
+            System.arraycopy(previous.totals, 0, t.totals, 0, SIZE_COUNT);
+            for (int index : retiring) {
+                t.totals[t.sizes[index]]--;
+                changed[t.bucket(index)] = true;
+            }
+            for (int index = firstAdded; index < t.count; index++) {
+                if (t.successors[index] == OPEN) {
+                    t.totals[t.sizes[index]]++;
+                }
+                changed[t.bucket(index)] = true;
+            }
+        }
+        boolean sortedAll = false;
+        int[][] newOrders = new int[t.gateCount * SIZE_COUNT][];
+        int[][] newBucketOrders = new int[t.gateCount * SIZE_COUNT * MASKS][];
+        ConcurrentBitSet[] newFree = new ConcurrentBitSet[t.gateCount * SIZE_COUNT * MASKS];
+        for (int g = 0; g < t.gateCount; g++) {
+            if (previous == null || g >= previous.gateCount) {
+                sort(t, g, newOrders, newBucketOrders, newFree);
+                sortedAll = true;
+                continue;
+            }
+            // Slots the gate cannot reach stay out of its orderings
+            Arrays.fill(t.ranks[g], firstAdded, t.count, Integer.MAX_VALUE);
+            Arrays.fill(t.bucketRanks[g], firstAdded, t.count, UNLISTED);
+            for (int s = 0; s < SIZE_COUNT; s++) {
+                int column = g * SIZE_COUNT + s;
+                // Same slots at the same ranks unless a bucket of this size changed
+                newOrders[column] = previous.orders[column];
+                System.arraycopy(previous.bucketOrders, column * MASKS, newBucketOrders, column * MASKS, MASKS);
+                System.arraycopy(previous.free, column * MASKS, newFree, column * MASKS, MASKS);
+                long[] keys = new long[t.count - firstAdded];
+                int n = 0;
+                for (int index = firstAdded; index < t.count; index++) {
+                    if (t.sizes[index] == s && t.successors[index] == OPEN
+                            && t.distances[g][index] != FloorGraph.UNREACHABLE) {
+                        keys[n++] = key(t, g, index);
+                    }
+                }
+                int[] leaving = new int[retiring.length];
+                int left = 0;
+                for (int index : retiring) {
+                    if (t.sizes[index] == s && t.ranks[g][index] != Integer.MAX_VALUE) {
+                        leaving[left++] = index;
+                    }
+                }
+                if (n == 0 && left == 0) {
+                    continue;
+                }
+                Arrays.sort(keys, 0, n);
+                newOrders[column] = splice(t, g, previous.orders[column], t.ranks[g], leaving, left, keys, n);
+                for (int m = 0; m < MASKS; m++) {
+                    if (!changed[s * MASKS + m]) {
+                        continue;
+                    }
+                    int bucket = column * MASKS + m;
+                    long[] bucketKeys = new long[n];
+                    int bn = 0;
+                    for (int k = 0; k < n; k++) {
+                        if (t.featureFlags[t.indexById.get((int) keys[k] ^ Integer.MIN_VALUE)] == m) {
+                            bucketKeys[bn++] = keys[k];
+                        }
+                    }
+                    int[] bucketLeaving = new int[left];
+                    int bl = 0;
+                    for (int i = 0; i < left; i++) {
+                        if (t.featureFlags[leaving[i]] == m) {
+                            bucketLeaving[bl++] = leaving[i];
+                        }
+                    }
+                    newBucketOrders[bucket] = splice(t, g, previous.bucketOrders[bucket], t.bucketRanks[g],
+                            bucketLeaving, bl, bucketKeys, bn);
+                    newFree[bucket] = freeBits(newBucketOrders[bucket], t);
+                }
+                for (int i = 0; i < left; i++) {
+                    t.ranks[g][leaving[i]] = Integer.MAX_VALUE;
+                    t.bucketRanks[g][leaving[i]] = UNLISTED;
+                }
+            }
+        }
+        t.orders = newOrders;
+        t.bucketOrders = newBucketOrders;
+        t.free = newFree;
+        rebuildFloors(previous, t, changed, false);
+        return sortedAll ? null : changed;
+    }
+
+    /**
+     * Sorts every size ordering of one gate from scratch and partitions
+     * them into feature buckets
+     */
+    private static void sort(Tables t, int g, int[][] newOrders, int[][] newBucketOrders, ConcurrentBitSet[] newFree) {
+        Arrays.fill(t.ranks[g], 0, t.count, Integer.MAX_VALUE);
+        Arrays.fill(t.bucketRanks[g], 0, t.count, UNLISTED);
+        for (int s = 0; s < SIZE_COUNT; s++) {
+            // Sort (distance, id) as packed primitive keys, no boxing
+            long[] keys = new long[t.totals[s]];
+            int n = 0;
+            for (int index = 0; index < t.count; index++) {
+                if (t.sizes[index] == s && t.successors[index] == OPEN
+                        && t.distances[g][index] != FloorGraph.UNREACHABLE) {
+                    keys[n++] = key(t, g, index);
+                }
+            }
+            Arrays.sort(keys, 0, n);
+
+            int[] order = new int[n];
+            for (int rank = 0; rank < n; rank++) {
+                int index = t.indexById.get((int) keys[rank] ^ Integer.MIN_VALUE);
+                order[rank] = index;
+                t.ranks[g][index] = rank;
+            }
+            newOrders[g * SIZE_COUNT + s] = order;
+            partition(order, t.featureFlags, t, t.bucketRanks[g], newBucketOrders, newFree,
+                    (g * SIZE_COUNT + s) * MASKS);
+        }
+    }
+
+    /**
+     * Splices slots into and out of one ordering sorted by (distance, id)
+     * from gate g. Retiring slots leave from the positions recorded for
+     * them, new ones go in where a binary search puts them, and positions
+     * are renumbered from the first change on; the slices between changes
+     * are block copies
+     *
+     * @param position Position of each slot in this ordering, updated in place
+     * @param keys     Sorted (distance, id) keys of the slots to add
+     * @return The new ordering
+     */
+    private static int[] splice(Tables t, int g, int[] order, int[] position, int[] leaving, int left,
+                                long[] keys, int n) {
+        int[] out = new int[left];
+        for (int i = 0; i < left; i++) {
+            out[i] = position[leaving[i]];
+        }
+        Arrays.sort(out);
+        int[] in = new int[n];
+        for (int k = 0; k < n; k++) {
+            int low = k > 0 ? in[k - 1] : 0;
+            int high = order.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (key(t, g, order[mid]) < keys[k]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            in[k] = low;
+        }
+
+        int[] next = new int[order.length - left + n];
+        int from = 0;
+        int to = 0;
+        int r = 0;
+        int k = 0;
+        while (true) {
+            int stop = Math.min(r < left ? out[r] : order.length, k < n ? in[k] : order.length);
+            System.arraycopy(order, from, next, to, stop - from);
+            to += stop - from;
+            from = stop;
+            if (k < n && in[k] == from) {
+                next[to++] = t.indexById.get((int) keys[k++] ^ Integer.MIN_VALUE);
+            } else if (r < left && out[r] == from) {
+                from++;
+                r++;
+            } else {
+                break;
+            }
+        }
+        int first = Math.min(left > 0 ? out[0] : order.length, n > 0 ? in[0] : order.length);
+        for (int p = first; p < next.length; p++) {
+            position[next[p]] = p;
+        }
+        return next;
+    }
+
+    private static long key(Tables t, int g, int index) {
+        return ((long) t.distances[g][index] << 32) | (t.ids[index] ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Free bits for one bucket ordering, set for every slot not occupied
+     * in the given version
+     */
+    private static ConcurrentBitSet freeBits(int[] order, Tables occupiedNow) {
+        ConcurrentBitSet free = new ConcurrentBitSet(order.length);
+        free.setAll();
+        for (int position = 0; position < order.length; position++) {
+            if (occupiedNow.isOccupied(order[position])) {
+                free.clear(position);
+            }
+        }
+        return free;
+    }
+
+    /**
+     * Recomputes the per-floor orderings of the slots in service, in slot
+     * index order, and their free bits; feature buckets nothing changed in
+     * are shared with the previous version
+     *
+     * @param previous Published version t was copied from, or null to partition everything
+     * @param changed  Buckets (size * MASKS + feature mask) whose slots were added or retired
+     * @param allFree  Whether every slot is free, so occupancy need not be read
+     */
+    private static void rebuildFloors(Tables previous, Tables t, boolean[] changed, boolean allFree) {
+        // Collect distinct floors first so only they are sorted
+        IntIndexMap seen = new IntIndexMap();
+        int[] numbers = new int[16];
+        int floors = 0;
+        for (int index = 0; index < t.count; index++) {
+            if (t.successors[index] == OPEN && (floors == 0 || t.floorNumbers[index] != numbers[floors - 1])
+                    && seen.get(t.floorNumbers[index]) < 0) {
+                seen.put(t.floorNumbers[index], floors);
+                if (floors == numbers.length) {
+                    numbers = Arrays.copyOf(numbers, floors * 2);
+                }
+                numbers[floors++] = t.floorNumbers[index];
+            }
+        }
+        Arrays.sort(numbers, 0, floors);
+        IntIndexMap newFloorColumns = new IntIndexMap();
+        for (int f = 0; f < floors; f++) {
+            newFloorColumns.put(numbers[f], f);
+        }
+
+        // Slots come in runs per floor, so the column lookup is cached
+        int[] columns = new int[t.count];
+        int lastFloor = 0;
+        int lastColumn = -1;
+        int[] filled = new int[floors * SIZE_COUNT];
+        int[] newFloorCells = new int[floors];
+        for (int index = 0; index < t.count; index++) {
+            if (t.successors[index] == OPEN) {
+                if (lastColumn < 0 || t.floorNumbers[index] != lastFloor) {
+                    lastFloor = t.floorNumbers[index];
+                    lastColumn = newFloorColumns.get(lastFloor);
+                    newFloorCells[lastColumn] = OccupancyCounters.floorCell(t.cells[index]);
+                }
+                columns[index] = lastColumn;
+                filled[lastColumn * SIZE_COUNT + t.sizes[index]]++;
+            }
+        }
+        int[][] sizeOrders = new int[floors * SIZE_COUNT][];
+        for (int k = 0; k < sizeOrders.length; k++) {
+            sizeOrders[k] = new int[filled[k]];
+            filled[k] = 0;
+        }
+        int[] newFloorBuckets = new int[t.count];
+        for (int index = 0; index < t.count; index++) {
+            if (t.successors[index] != OPEN) {
+                continue;
+            }
+            int k = columns[index] * SIZE_COUNT + t.sizes[index];
+            sizeOrders[k][filled[k]++] = index;
+            newFloorBuckets[index] = k * MASKS + t.featureFlags[index];
+        }
+        int[] newFloorRanks = previous == null ? new int[t.count] : Arrays.copyOf(previous.floorRanks, t.count);
+        int[][] newFloorOrders = new int[floors * SIZE_COUNT * MASKS][];
+        ConcurrentBitSet[] newFloorFree = new ConcurrentBitSet[floors * SIZE_COUNT * MASKS];
+        for (int k = 0; k < sizeOrders.length; k++) {
+            int s = k % SIZE_COUNT;
+            int column = previous == null ? -1 : previous.floorColumnById.get(numbers[k / SIZE_COUNT]);
+            boolean same = column >= 0;
+            for (int m = 0; m < MASKS && same; m++) {
+                same = !changed[s * MASKS + m];
+            }
+            if (!same) {
+                partition(sizeOrders[k], t.featureFlags, allFree ? null : t, newFloorRanks, newFloorOrders,
+                        newFloorFree, k * MASKS);
+            }
+            if (column < 0) {
+                continue;
+            }
+            // Same slots at the same positions, though the floor's column may have moved
+            int from = (column * SIZE_COUNT + s) * MASKS;
+            for (int m = 0; m < MASKS; m++) {
+                if (!changed[s * MASKS + m]) {
+                    newFloorOrders[k * MASKS + m] = previous.floorOrders[from + m];
+                    newFloorFree[k * MASKS + m] = previous.floorFree[from + m];
+                }
+            }
+        }
+
+        t.floorIds = Arrays.copyOf(numbers, floors);
+        t.floorColumnById = newFloorColumns;
+        t.floorCells = newFloorCells;
+        t.floorOrders = newFloorOrders;
+        t.floorFree = newFloorFree;
+        t.floorBuckets = newFloorBuckets;
+        t.floorRanks = newFloorRanks;
+    }
+
+    /**
+     * Splits one (gate or floor, size) ordering into an ordering per feature
+     * mask, keeping its order, and marks the unoccupied slots free
+     *
+     * @param occupiedNow Version whose occupancy to read, or null when every slot is free
+     */
+    private static void partition(int[] order, int[] flags, Tables occupiedNow, int[] bucketRank,
+                                  int[][] bucketOrders, ConcurrentBitSet[] free, int firstBucket) {
+        int[] filled = new int[MASKS];
+        for (int index : order) {
+            filled[flags[index]]++;
+        }
+        for (int m = 0; m < MASKS; m++) {
+            bucketOrders[firstBucket + m] = new int[filled[m]];
+            free[firstBucket + m] = new ConcurrentBitSet(filled[m]);
+            free[firstBucket + m].setAll();
+            filled[m] = 0;
+        }
+        for (int index : order) {
+            int m = flags[index];
+            int position = filled[m]++;
+            bucketOrders[firstBucket + m][position] = index;
+            bucketRank[index] = position;
+            if (occupiedNow != null && occupiedNow.isOccupied(index)) {
+                free[firstBucket + m].clear(position);
+            }
+        }
+    }
+
+    private static int gateColumn(Tables t, int gateId) {
+        int column = t.gateColumnById.get(gateId);
+        return column >= 0 ? column : 0;
+    }
+
+    private static boolean matches(int featureMask, int requiredFeatures, int avoidedFeatures) {
+        return (featureMask & requiredFeatures) == requiredFeatures && (featureMask & avoidedFeatures) == 0;
+    }
+
+    /**
+     * Claims the free slot of the given size nearest to the gate
+     *
+     * @return The claimed slot index, or -1 if none is free
+     */
+    public int claimNearest(int gateId, VehicleSize size) {
+        return claimNearest(gateId, size, 0, 0);
+    }
+
+    /**
+     * Claims the free slot of the given size nearest to the gate among
+     * slots that have every required feature and none of the avoided ones
+     * Looks at the first free bit of each matching (size, feature mask)
+     * bucket and takes the nearest
+     *
+     * @param requiredFeatures SlotFeature flags the slot must have
+     * @param avoidedFeatures  SlotFeature flags the slot must not have
+     * @return The claimed slot index, or -1 if none is free
+     */
+    public int claimNearest(int gateId, VehicleSize size, int requiredFeatures, int avoidedFeatures) {
+        Tables t = tables;
+        int column = gateColumn(t, gateId);
+        int first = (column * SIZE_COUNT + size.ordinal()) * MASKS;
+        int[] rank = t.ranks[column];
+        // Only needed once a CAS is lost, so the common path allocates nothing
+        int[] cursors = null;
+        while (true) {
+            int best = -1;
+            int bestMask = -1;
+            int bestPosition = -1;
+            for (int m = 0; m < MASKS; m++) {
+                if (!matches(m, requiredFeatures, avoidedFeatures)) {
+                    continue;
+                }
+                int position = t.free[first + m].nextSetBit(cursors == null ? 0 : cursors[m]);
+                if (position >= 0) {
+                    int index = t.bucketOrders[first + m][position];
+                    if (best < 0 || rank[index] < rank[best]) {
+                        best = index;
+                        bestMask = m;
+                        bestPosition = position;
+                    }
+                }
+            }
+            if (best < 0) {
+                return -1;
+            }
+            if (occupy(t, best)) {
+                counters.increment(t.cells[best]);
+                return best;
+            }
+            // Another gate took it; its bit is cleared shortly, skip past it
+            if (cursors == null) {
+                cursors = new int[MASKS];
+            }
+            cursors[bestMask] = bestPosition + 1;
+        }
+    }
+
+    /**
+     * Claims the nearest free slot of each requested size for a batch of
+     * vehicles at one gate, in request order
+     *
+     * @param wanted Slot size per request; null entries are skipped
+     * @return Claimed slot index per request, -1 where none was free
+     */
+    public int[] claimNearest(int gateId, VehicleSize[] wanted) {
+        return claimNearest(gateId, wanted, null, null);
+    }
+
+    /**
+     * Claims the nearest free slot of each requested size and features for
+     * a batch of vehicles at one gate, in request order. Each (size,
+     * feature mask) bucket is scanned once, resuming where the previous
+     * request that used it stopped, and the occupancy counters are updated
+     * once for the batch
+     *
+     * @param wanted           Slot size per request; null entries are skipped
+     * @param requiredFeatures Feature flags each slot must have, or null for none
+     * @param avoidedFeatures  Feature flags each slot must not have, or null for none
+     * @return Claimed slot index per request, -1 where none was free
+     */
+    public int[] claimNearest(int gateId, VehicleSize[] wanted, int[] requiredFeatures, int[] avoidedFeatures) {
+        Tables t = tables;
+        int column = gateColumn(t, gateId);
+        int[] rank = t.ranks[column];
+        // Next free position in each (size, feature mask) bucket, found
+        // lazily and kept across requests until it is taken
+        int[] heads = new int[SIZE_COUNT * MASKS];
+        Arrays.fill(heads, UNKNOWN);
+        int[] claimed = new int[wanted.length];
+        int[] claimedCells = new int[wanted.length];
+        int claimedCount = 0;
+        for (int i = 0; i < wanted.length; i++) {
+            claimed[i] = -1;
+            if (wanted[i] == null) {
+                continue;
+            }
+            int required = requiredFeatures != null ? requiredFeatures[i] : 0;
+            int avoided = avoidedFeatures != null ? avoidedFeatures[i] : 0;
+            int firstHead = wanted[i].ordinal() * MASKS;
+            int first = column * SIZE_COUNT * MASKS + firstHead;
+            while (true) {
+                int best = -1;
+                int bestMask = -1;
+                for (int m = 0; m < MASKS; m++) {
+                    if (!matches(m, required, avoided)) {
+                        continue;
+                    }
+                    if (heads[firstHead + m] == UNKNOWN) {
+                        heads[firstHead + m] = t.free[first + m].nextSetBit(0);
+                    }
+                    // -1: nothing left in this bucket for the rest of the batch
+                    int position = heads[firstHead + m];
+                    if (position < 0) {
+                        continue;
+                    }
+                    int index = t.bucketOrders[first + m][position];
+                    if (best < 0 || rank[index] < rank[best]) {
+                        best = index;
+                        bestMask = m;
+                    }
+                }
+                if (best < 0) {
+                    break;
+                }
+                int position = heads[firstHead + bestMask];
+                heads[firstHead + bestMask] = t.free[first + bestMask].nextSetBit(position + 1);
+                if (occupy(t, best)) {
+                    claimed[i] = best;
+                    claimedCells[claimedCount++] = t.cells[best];
+                    break;
+                }
+            }
+        }
+        counters.add(claimedCells, claimedCount, 1);
+        return claimed;
+    }
+
+    /**
+     * Claims a specific slot
+     *
+     * @return true if this call moved the slot from free to occupied; false
+     *         if it was taken or is out of service
+     */
+    public boolean claim(int index) {
+        Tables t = tables;
+        if (!occupy(t, index)) {
+            return false;
+        }
+        counters.increment(t.cells[index]);
+        return true;
+    }
+
+    /**
+     * Occupancy bit, free bits and slot object; counters are the caller's job
+     *
+     * @param t Version the slot was found in
+     */
+    private boolean occupy(Tables t, int index) {
+        if (!t.trySetOccupied(index)) {
+            return false;
+        }
+        // Unlink from every gate's ordering: one bit clear per gate, no rescan
+        if (t.successors[index] == OPEN) {
+            t.clearFree(index);
+        }
+        Tables now = tables;
+        if (now.successors[index] != OPEN) {
+            // Found through an older version; the slot is out of service now
+            close(index);
+            return false;
+        }
+        if (now != t) {
+            now.clearFree(index);
+        }
+        if (now.objects[index] != null) {
+            now.objects[index].occupy();
+        }
+        return true;
+    }
+
+    /**
+     * Vacates a slot and makes it visible to every gate again
+     *
+     * @return false if the slot was not occupied
+     */
+    public boolean release(int index) {
+        Tables t = tables;
+        if (!t.isOccupied(index) || t.isClosed(index)) {
+            return false;
+        }
+        // Count the slot as free before any gate can see it free, so a
+        // gate reclaiming it can never push a count above capacity
+        counters.decrement(t.cells[index]);
+        if (!vacate(index)) {
+            counters.increment(t.cells[index]);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Vacates a batch of slots with one occupancy counter update
+     *
+     * @param indexes Slot indexes; negative entries are skipped
+     * @return Per index, whether this call released it
+     */
+    public boolean[] release(int[] indexes) {
+        Tables t = tables;
+        boolean[] released = new boolean[indexes.length];
+        int[] releasingCells = new int[indexes.length];
+        int releasingCount = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            if (indexes[i] >= 0 && t.isOccupied(indexes[i]) && !t.isClosed(indexes[i])) {
+                released[i] = true;
+                releasingCells[releasingCount++] = t.cells[indexes[i]];
+            }
+        }
+        // As in release(int): counted free before the bits are cleared
+        counters.add(releasingCells, releasingCount, -1);
+        int failedCount = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            if (released[i] && !vacate(indexes[i])) {
+                released[i] = false;
+                releasingCells[failedCount++] = t.cells[indexes[i]];
+            }
+        }
+        counters.add(releasingCells, failedCount, 1);
+        return released;
+    }
+
+    private boolean vacate(int index) {
+        Tables t = tables;
+        if (!t.isOccupied(index)) {
+            return false;
+        }
+        if (t.objects[index] != null) {
+            t.objects[index].vacate();
+        }
+        if (!t.tryClearOccupied(index)) {
+            return false;
+        }
+        // Set the free bits in the newest version; if a new one is published
+        // meanwhile, set them there too, or close the slot if it retired it
+        while (true) {
+            if (t.successors[index] != OPEN) {
+                if (t.trySetOccupied(index)) {
+                    close(index);
+                }
+                return true;
+            }
+            t.setFree(index);
+            Tables now = tables;
+            if (now == t) {
+                return true;
+            }
+            t = now;
+        }
+    }
+
+    private void close(int index) {
+        close(index, true);
+    }
+
+    /**
+     * Finishes taking a retired slot out of service once the store holds its
+     * occupancy bit: drops its capacity and frees the slot that replaced it
+     * A replaced slot's capacity already moved to its successor
+     *
+     * @param drained Whether the slot was held when it retired, so publish
+     *                took its occupied count back and it is returned here
+     */
+    private void close(int index, boolean drained) {
+        Tables t = tables;
+        t.closedPages[index >>> PAGE_SHIFT].set(index & (PAGE_BITS - 1));
+        int successor = t.successors[index];
+        if (successor < 0) {
+            counters.addCapacity(t.cells[index], -1);
+            return;
+        }
+        if (drained) {
+            counters.increment(t.cells[index]);
+        }
+        release(successor);
+    }
+
+    /**
+     * Finds the slot index for a slot object, or -1 if it is not stored here
+     * Objects of replaced slots keep their old index, so a vehicle parked
+     * before a change releases the slot it was given
+     */
+    public int indexOf(Slot slot) {
+        if (slot instanceof SlotView && ((SlotView) slot).store() == this) {
+            return ((SlotView) slot).index;
+        }
+        Tables t = tables;
+        int latest = t.indexById.get(slot.getId());
+        if (latest < 0) {
+            latest = t.retiredIds.get(slot.getId());
+        }
+        for (int index = latest; index >= 0; index = t.predecessors[index]) {
+            if (t.objects[index] == slot) {
+                return index;
+            }
+        }
+        return t.indexById.get(slot.getId());
+    }
+
+    /**
+     * Finds the slot index for the id of a slot in service, or -1
+     */
+    public int indexOfId(int slotId) {
+        return tables.indexById.get(slotId);
+    }
+
+    /**
+     * Whether a slot index is in service; removed and replaced slots are not
+     */
+    public boolean isOpen(int index) {
+        return tables.successors[index] == OPEN;
+    }
+
+    /**
+     * Number of structural changes published so far
+     */
+    public long version() {
+        return tables.version;
+    }
+
+    /**
+     * Returns the registered slot object, or a flyweight view if the slot
+     * was loaded without one
+     */
+    public Slot slotAt(int index) {
+        Slot slot = tables.objects[index];
+        return slot != null ? slot : view(index);
+    }
+
+    public Slot view(int index) {
+        return new SlotView(index);
+    }
+
+    @Override
+    public int count() {
+        return tables.count;
+    }
+
+    @Override
+    public int id(int index) {
+        return tables.ids[index];
+    }
+
+    @Override
+    public VehicleSize size(int index) {
+        return SIZES[tables.sizes[index]];
+    }
+
+    @Override
+    public int floorNumber(int index) {
+        return tables.floorNumbers[index];
+    }
+
+    @Override
+    public int featureFlags(int index) {
+        return tables.featureFlags[index];
+    }
+
+    @Override
+    public int distance(int gateId, int index) {
+        Tables t = tables;
+        return t.distances[gateColumn(t, gateId)][index];
+    }
+
+    public double baseRate(int index) {
+        return tables.baseRates[index];
+    }
+
+    public double extraFlat(int index) {
+        return tables.extraFlat[index];
+    }
+
+    public double extraHourly(int index) {
+        return tables.extraHourly[index];
+    }
+
+    @Override
+    public long baseCents(int index) {
+        return tables.rateCents[index * RATE_STRIDE];
+    }
+
+    public long extraHourlyCents(int index) {
+        return tables.rateCents[index * RATE_STRIDE + 1];
+    }
+
+    public long extraFlatCents(int index) {
+        return tables.rateCents[index * RATE_STRIDE + 2];
+    }
+
+    private static void compileRates(Tables t, int index) {
+        t.rateCents[index * RATE_STRIDE] = Math.round(t.baseRates[index] * 100);
+        t.rateCents[index * RATE_STRIDE + 1] = Math.round(t.extraHourly[index] * 100);
+        t.rateCents[index * RATE_STRIDE + 2] = Math.round(t.extraFlat[index] * 100);
+    }
+
+    /**
+     * Gate ids with their own ordering, in column order (gate 0 first)
+     */
+    public int[] gateIds() {
+        Tables t = tables;
+        return Arrays.copyOf(t.gateIds, t.gateCount);
+    }
+
+    /**
+     * Slot indexes of one size in the gate's (distance, id) order, without
+     * the slots the gate cannot reach
+     */
+    public int[] nearestOrder(int gateId, VehicleSize size) {
+        Tables t = tables;
+        return t.orders[gateColumn(t, gateId) * SIZE_COUNT + size.ordinal()].clone();
+    }
+
+    /**
+     * Out-of-service slots read as occupied
+     */
+    @Override
+    public boolean isOccupied(int index) {
+        return tables.isOccupied(index);
+    }
+
+    @Override
+    public int totalSlots(VehicleSize size) {
+        return tables.totals[size.ordinal()];
+    }
+
+    /**
+     * Occupancy per floor, size and feature mask at one instant, read from
+     * incrementally maintained counters without touching any slot
+     */
+    public OccupancyCounters.Snapshot occupancy() {
+        return counters.snapshot();
+    }
+
+    /**
+     * Counts free slots of a size by popcount over the default gate's bits
+     */
+    @Override
+    public int freeSlots(VehicleSize size) {
+        Tables t = tables;
+        int count = 0;
+        for (int m = 0; m < MASKS; m++) {
+            count += t.free[size.ordinal() * MASKS + m].cardinality();
+        }
+        return count;
+    }
+
+    /**
+     * Whether any slot of the given size or larger with every required
+     * feature is free, from live per-bucket counts: a dozen reads at most,
+     * whatever the size of the lot
+     */
+    public boolean hasFreeSlot(VehicleSize size, int requiredFeatures) {
+        AtomicLongArray freeCounts = tables.freeCounts;
+        for (int s = size.ordinal(); s < SIZE_COUNT; s++) {
+            for (int m = 0; m < MASKS; m++) {
+                if ((m & requiredFeatures) == requiredFeatures && freeCounts.get((s * MASKS + m) * COUNT_STRIDE) > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int nearest(int gateId, VehicleSize size, int requiredFeatures, int avoidedFeatures) {
+        return ceiling(gateId, size, 0, requiredFeatures, avoidedFeatures);
+    }
+
+    @Override
+    public int rank(int gateId, int index) {
+        Tables t = tables;
+        return t.ranks[gateColumn(t, gateId)][index];
+    }
+
+    /**
+     * Takes the first free bit at or after fromRank in each matching feature
+     * bucket and returns the lowest-ranked of them
+     */
+    @Override
+    public int ceiling(int gateId, VehicleSize size, int fromRank, int requiredFeatures, int avoidedFeatures) {
+        Tables t = tables;
+        int column = gateColumn(t, gateId);
+        int first = (column * SIZE_COUNT + size.ordinal()) * MASKS;
+        int[] rank = t.ranks[column];
+        int best = -1;
+        for (int m = 0; m < MASKS; m++) {
+            if (!matches(m, requiredFeatures, avoidedFeatures)) {
+                continue;
+            }
+            int[] order = t.bucketOrders[first + m];
+            int position = t.free[first + m].nextSetBit(fromRank > 0 ? firstAtOrAfter(order, rank, fromRank) : 0);
+            // Skip slots just claimed whose free bit is not cleared yet
+            while (position >= 0 && t.isOccupied(order[position])) {
+                position = t.free[first + m].nextSetBit(position + 1);
+            }
+            if (position >= 0 && (best < 0 || rank[order[position]] < rank[best])) {
+                best = order[position];
+            }
+        }
+        return best;
+    }
+
+    // Bucket orders are sorted by rank, so the start is a binary search
+    private static int firstAtOrAfter(int[] order, int[] rank, int fromRank) {
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (rank[order[mid]] < fromRank) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public int floorCount() {
+        return tables.floorIds.length;
+    }
+
+    @Override
+    public int floorNumberAt(int floor) {
+        return tables.floorIds[floor];
+    }
+
+    @Override
+    public int totalSlotsOnFloor(int floorNumber, VehicleSize size) {
+        Tables t = tables;
+        int column = t.floorColumnById.get(floorNumber);
+        if (column < 0) {
+            return 0;
+        }
+        int total = 0;
+        for (int m = 0; m < MASKS; m++) {
+            total += t.floorOrders[(column * SIZE_COUNT + size.ordinal()) * MASKS + m].length;
+        }
+        return total;
+    }
+
+    @Override
+    public int freeSlotsOnFloor(int floorNumber, VehicleSize size, int requiredFeatures, int avoidedFeatures) {
+        Tables t = tables;
+        int column = t.floorColumnById.get(floorNumber);
+        if (column < 0) {
+            return 0;
+        }
+        // Read from the occupancy counters rather than counting free bits
+        return (int) counters.free(t.floorCells[column], size, requiredFeatures, avoidedFeatures);
+    }
+
+    @Override
+    public int firstFreeOnFloor(int gateId, int floorNumber, VehicleSize size, int requiredFeatures,
+            int avoidedFeatures) {
+        Tables t = tables;
+        int column = t.floorColumnById.get(floorNumber);
+        if (column < 0) {
+            return -1;
+        }
+        int[] distance = t.distances[gateColumn(t, gateId)];
+        int first = (column * SIZE_COUNT + size.ordinal()) * MASKS;
+        int best = -1;
+        for (int m = 0; m < MASKS; m++) {
+            if (!matches(m, requiredFeatures, avoidedFeatures)) {
+                continue;
+            }
+            int[] order = t.floorOrders[first + m];
+            int position = t.floorFree[first + m].nextSetBit(0);
+            while (position >= 0 && (t.isOccupied(order[position])
+                    || distance[order[position]] == FloorGraph.UNREACHABLE)) {
+                position = t.floorFree[first + m].nextSetBit(position + 1);
+            }
+            // Floor orders are in slot index order
+            if (position >= 0 && (best < 0 || order[position] < best)) {
+                best = order[position];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * One published version of the store: slot columns, gate and floor
+     * orderings and their free bits. Never changed once published, except
+     * for free bits; occupancy pages are shared by every version
+     */
+    private static final class Tables {
+        private long version;
+
+        // Slot columns, indexed by slot index
+        private int count;
+        private int[] ids;
+        private byte[] sizes;
+        private int[] floorNumbers;
+        private int[] featureFlags;
+        private double[] baseRates;
+        private double[] extraHourly;
+        private double[] extraFlat;
+        // Rates above in cents, interleaved per slot as [base/h, extra/h, flat]
+        // so a bill reads one cache line
+        private long[] rateCents;
+        // Registered slot objects (decorator chains); null for view-only slots
+        private Slot[] objects;
+        // Occupancy counter cell (floor, size, feature mask) of each slot
+        private int[] cells;
+        // OPEN, CLOSED, or the index of the slot that replaced this one
+        private int[] successors;
+        // Index of the slot with the same id this one replaced, or -1
+        private int[] predecessors;
+
+        // Gate columns; column 0 is the default gate
+        private int gateCount;
+        private int[] gateIds;
+        private int[][] distances;
+        // Position of each slot in its gate's ordering for the slot's size,
+        // and in the ordering of its (size, feature mask) bucket
+        private int[][] ranks;
+        private int[][] bucketRanks;
+
+        // Indexed by gateColumn * SIZE_COUNT + size: slot indexes sorted by
+        // distance
+        private int[][] orders = new int[0][];
+        // Indexed by (gateColumn * SIZE_COUNT + size) * MASKS + featureMask: the
+        // same orderings split by feature mask, with one free bit per position
+        private int[][] bucketOrders = new int[0][];
+        private ConcurrentBitSet[] free = new ConcurrentBitSet[0];
+
+        // Floor numbers, lowest first, and the column of each
+        private int[] floorIds = new int[0];
+        private IntIndexMap floorColumnById = new IntIndexMap();
+        // First occupancy counter cell of each floor column
+        private int[] floorCells = new int[0];
+        // Indexed by (floorColumn * SIZE_COUNT + size) * MASKS + featureMask:
+        // the floor's slot indexes in layout order, with one free bit each
+        private int[][] floorOrders = new int[0][];
+        private ConcurrentBitSet[] floorFree = new ConcurrentBitSet[0];
+        // Floor bucket of each slot and its position there
+        private int[] floorBuckets = new int[0];
+        private int[] floorRanks = new int[0];
+
+        private final int[] totals = new int[SIZE_COUNT];
+        // Slots in service by id, and the last retired index of removed ids
+        private IntIndexMap indexById = new IntIndexMap();
+        private IntIndexMap retiredIds = new IntIndexMap();
+        private IntIndexMap gateColumnById = new IntIndexMap();
+
+        // Authoritative occupancy, one bit per slot index, claimed by CAS;
+        // retired slots keep their bit set and are marked in closedPages
+        private ConcurrentBitSet[] pages;
+        private ConcurrentBitSet[] closedPages;
+        // Clear occupancy bits per (size, feature mask), moved with every
+        // bit change; shared by every version like the pages
+        private AtomicLongArray freeCounts;
+
+        /**
+         * Copy for the next version, with room for the given number of
+         * slots; orderings are left to be rebuilt. Columns that are only
+         * ever written at new indexes are shared while they have room, as
+         * older versions never read past their own count; the columns a
+         * change rewrites are copied
+         */
+        private Tables copy(int capacity) {
+            boolean grow = capacity > ids.length;
+            capacity = grow ? Math.max(capacity, ids.length * 2) : ids.length;
+            Tables next = new Tables();
+            next.count = count;
+            next.ids = grow ? Arrays.copyOf(ids, capacity) : ids;
+            next.sizes = grow ? Arrays.copyOf(sizes, capacity) : sizes;
+            next.floorNumbers = grow ? Arrays.copyOf(floorNumbers, capacity) : floorNumbers;
+            next.featureFlags = grow ? Arrays.copyOf(featureFlags, capacity) : featureFlags;
+            next.baseRates = grow ? Arrays.copyOf(baseRates, capacity) : baseRates;
+            next.extraHourly = grow ? Arrays.copyOf(extraHourly, capacity) : extraHourly;
+            next.extraFlat = grow ? Arrays.copyOf(extraFlat, capacity) : extraFlat;
+            next.rateCents = grow ? Arrays.copyOf(rateCents, capacity * RATE_STRIDE) : rateCents;
+            next.objects = grow ? Arrays.copyOf(objects, capacity) : objects;
+            next.cells = grow ? Arrays.copyOf(cells, capacity) : cells;
+            next.successors = Arrays.copyOf(successors, capacity);
+            next.predecessors = grow ? Arrays.copyOf(predecessors, capacity) : predecessors;
+            next.gateCount = gateCount;
+            next.gateIds = Arrays.copyOf(gateIds, gateCount);
+            next.distances = new int[gateCount][];
+            next.ranks = new int[gateCount][];
+            next.bucketRanks = new int[gateCount][];
+            for (int g = 0; g < gateCount; g++) {
+                next.distances[g] = grow ? Arrays.copyOf(distances[g], capacity) : distances[g];
+                next.ranks[g] = Arrays.copyOf(ranks[g], capacity);
+                next.bucketRanks[g] = Arrays.copyOf(bucketRanks[g], capacity);
+            }
+            next.indexById = indexById.copy();
+            next.retiredIds = retiredIds.copy();
+            next.gateColumnById = gateColumnById.copy();
+            next.pages = pages(pages, capacity);
+            next.closedPages = pages(closedPages, capacity);
+            next.freeCounts = freeCounts;
+            return next;
+        }
+
+        private boolean isOccupied(int index) {
+            return pages[index >>> PAGE_SHIFT].get(index & (PAGE_BITS - 1));
+        }
+
+        private boolean trySetOccupied(int index) {
+            if (!pages[index >>> PAGE_SHIFT].trySet(index & (PAGE_BITS - 1))) {
+                return false;
+            }
+            freeCounts.decrementAndGet(bucket(index) * COUNT_STRIDE);
+            return true;
+        }
+
+        private boolean tryClearOccupied(int index) {
+            if (!pages[index >>> PAGE_SHIFT].tryClear(index & (PAGE_BITS - 1))) {
+                return false;
+            }
+            freeCounts.incrementAndGet(bucket(index) * COUNT_STRIDE);
+            return true;
+        }
+
+        private int bucket(int index) {
+            return sizes[index] * MASKS + featureFlags[index];
+        }
+
+        private boolean isClosed(int index) {
+            return closedPages[index >>> PAGE_SHIFT].get(index & (PAGE_BITS - 1));
+        }
+
+        private void setFree(int index) {
+            int bucket = sizes[index] * MASKS + featureFlags[index];
+            for (int g = 0; g < gateCount; g++) {
+                if (bucketRanks[g][index] != UNLISTED) {
+                    free[g * SIZE_COUNT * MASKS + bucket].set(bucketRanks[g][index]);
+                }
+            }
+            floorFree[floorBuckets[index]].set(floorRanks[index]);
+        }
+
+        // Like setFree, but reads each bit first: after a change nearly all
+        // of them are already set, and the pass should not write them again
+        private void repairFree(int index) {
+            int bucket = sizes[index] * MASKS + featureFlags[index];
+            for (int g = 0; g < gateCount; g++) {
+                int rank = bucketRanks[g][index];
+                if (rank != UNLISTED && !free[g * SIZE_COUNT * MASKS + bucket].get(rank)) {
+                    free[g * SIZE_COUNT * MASKS + bucket].set(rank);
+                }
+            }
+            if (!floorFree[floorBuckets[index]].get(floorRanks[index])) {
+                floorFree[floorBuckets[index]].set(floorRanks[index]);
+            }
+        }
+
+        private void clearFree(int index) {
+            int bucket = sizes[index] * MASKS + featureFlags[index];
+            for (int g = 0; g < gateCount; g++) {
+                if (bucketRanks[g][index] != UNLISTED) {
+                    free[g * SIZE_COUNT * MASKS + bucket].clear(bucketRanks[g][index]);
+                }
+            }
+            floorFree[floorBuckets[index]].clear(floorRanks[index]);
+        }
+    }
+
+    /**
+     * Flyweight Slot backed by the store's columns
+     */
+    private final class SlotView implements Slot {
+        private final int index;
+
+        private SlotView(int index) {
+            this.index = index;
+        }
+
+        private SlotStore store() {
+            return SlotStore.this;
+        }
+
+        @Override
+        public int getId() {
+            return id(index);
+        }
+
+        @Override
+        public VehicleSize getSize() {
+            return size(index);
+        }
+
+        @Override
+        public boolean isOccupied() {
+            return SlotStore.this.isOccupied(index);
+        }
+
+        @Override
+        public void occupy() {
+            claim(index);
+        }
+
+        @Override
+        public void vacate() {
+            release(index);
+        }
+
+        @Override
+        public double getBaseRate() {
+            return baseRate(index);
+        }
+
+        @Override
+        public double getExtraCharges(long hours) {
+            return extraFlat(index) + extraHourly(index) * hours;
+        }
+
+        @Override
+        public String getFeatures() {
+            return SlotFeature.describe(featureFlags(index));
+        }
+
+        @Override
+        public int getFeatureFlags() {
+            return featureFlags(index);
+        }
+
+        @Override
+        public int getDistanceToGate(int gateId) {
+            return distance(gateId, index);
+        }
+
+        @Override
+        public int compareTo(Slot other) {
+            int distanceComparison = Integer.compare(getDistanceToGate(0), other.getDistanceToGate(0));
+            if (distanceComparison == 0) {
+                return Integer.compare(getId(), other.getId());
+            }
+            return distanceComparison;
+        }
+
+        @Override
+        public String toString() {
+            return "SlotView{id=" + getId() + ", size=" + getSize() + ", occupied=" + isOccupied() +
+                    ", features=" + getFeatures() + "}";
+        }
+    }
+
+    /**
+     * Open-addressing int to non-negative int map, returns -1 when absent
+     * Removal leaves a tombstone (value -1) that later puts reuse
+     */
+    static final class IntIndexMap {
+        private int[] keys = new int[16];
+        private int[] values = new int[16];
+        private boolean[] used = new boolean[16];
+        private int size;
+
+        int get(int key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; used[i]; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return -1;
+        }
+
+        void put(int key, int value) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (used[i] && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (!used[i]) {
+                used[i] = true;
+                size++;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        void remove(int key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; used[i]; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    values[i] = -1;
+                    return;
+                }
+            }
+        }
+
+        IntIndexMap copy() {
+            IntIndexMap copy = new IntIndexMap();
+            copy.keys = keys.clone();
+            copy.values = values.clone();
+            copy.used = used.clone();
+            copy.size = size;
+            return copy;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+import java.time.DayOfWeek;
+import java.util.Arrays;
+
+/**
+ * Pricing rules applied on top of each slot's hourly and flat rates
+ * Configured fluently, then compiled against a slot store into a
+ * TariffEngine. A stay is billed in whole units (an hour by default) and
+ * each minute of the billed time is weighted by a time-of-day percentage,
+ * a day-of-week percentage and the progressive tier it falls in. The
+ * default reproduces the original billing: whole hours, truncated, at
+ * least one
+ */
+public class Tariff {
+    // Keeps a year-long stay at $1000/hour within a long of cent-weights
+    public static final int MAX_PERCENT = 400;
+
+    private int unitMinutes = 60;
+    private boolean roundUp;
+    private int minimumUnits = 1;
+    private final int[] hourPercent = new int[24];
+    // Indexed by DayOfWeek ordinal, Monday first
+    private final int[] dayPercent = new int[7];
+    private long[] tierStartMinutes = {0};
+    private int[] tierPercent = {100};
+
+    public Tariff() {
+        Arrays.fill(hourPercent, 100);
+        Arrays.fill(dayPercent, 100);
+    }
+
+    /**
+     * Whole completed hours, minimum one hour, same rate all day
+     */
+    public static Tariff hourly() {
+        return new Tariff();
+    }
+
+    /**
+     * Every started minute is billed, with a minimum of one minute
+     */
+    public static Tariff perMinute() {
+        return new Tariff().unit(1, true).minimumUnits(1);
+    }
+
+    /**
+     * Length of a billing unit
+     *
+     * @param roundUp Bill a started unit in full; otherwise partial units are free
+     */
+    public Tariff unit(int minutes, boolean roundUp) {
+        if (minutes <= 0) {
+            throw new IllegalArgumentException("Billing unit must be at least one minute: " + minutes);
+        }
+        this.unitMinutes = minutes;
+        this.roundUp = roundUp;
+        return this;
+    }
+
+    public Tariff minimumUnits(int units) {
+        if (units < 0) {
+            throw new IllegalArgumentException("Minimum units cannot be negative: " + units);
+        }
+        this.minimumUnits = units;
+        return this;
+    }
+
+    /**
+     * Charges the hours [fromHour, toHour) of every day at a percentage of
+     * the hourly rate; wraps past midnight when fromHour > toHour
+     */
+    public Tariff hours(int fromHour, int toHour, int percent) {
+        if (fromHour < 0 || fromHour > 23 || toHour < 0 || toHour > 24) {
+            throw new IllegalArgumentException("Hours must be within the day: " + fromHour + "-" + toHour);
+        }
+        checkPercent(percent);
+        int span = Math.floorMod(toHour - fromHour, 24);
+        if (span == 0 && toHour != fromHour) {
+            span = 24;
+        }
+        for (int i = 0; i < span; i++) {
+            hourPercent[(fromHour + i) % 24] = percent;
+        }
+        return this;
+    }
+
+    /**
+     * Charges a whole weekday at a percentage, on top of the hour percentages
+     */
+    public Tariff day(DayOfWeek day, int percent) {
+        checkPercent(percent);
+        dayPercent[day.ordinal()] = percent;
+        return this;
+    }
+
+    public Tariff weekend(int percent) {
+        return day(DayOfWeek.SATURDAY, percent).day(DayOfWeek.SUNDAY, percent);
+    }
+
+    /**
+     * Progressive pricing: from the given hour of a stay onwards, minutes
+     * are charged at a percentage of the rate
+     */
+    public Tariff tier(int afterHours, int percent) {
+        if (afterHours <= 0) {
+            throw new IllegalArgumentException("Tiers start after at least one hour: " + afterHours);
+        }
+        checkPercent(percent);
+        long start = afterHours * 60L;
+        int at = 0;
+        while (at < tierStartMinutes.length && tierStartMinutes[at] < start) {
+            at++;
+        }
+        if (at < tierStartMinutes.length && tierStartMinutes[at] == start) {
+            tierPercent[at] = percent;
+            return this;
+        }
+        tierStartMinutes = insert(tierStartMinutes, at, start);
+        int[] percents = new int[tierPercent.length + 1];
+        System.arraycopy(tierPercent, 0, percents, 0, at);
+        percents[at] = percent;
+        System.arraycopy(tierPercent, at, percents, at + 1, tierPercent.length - at);
+        tierPercent = percents;
+        return this;
+    }
+
+    private static long[] insert(long[] values, int at, long value) {
+        long[] result = new long[values.length + 1];
+        System.arraycopy(values, 0, result, 0, at);
+        result[at] = value;
+        System.arraycopy(values, at, result, at + 1, values.length - at);
+        return result;
+    }
+
+    private static void checkPercent(int percent) {
+        if (percent < 0 || percent > MAX_PERCENT) {
+            throw new IllegalArgumentException("Percentage must be in [0, " + MAX_PERCENT + "]: " + percent);
+        }
+    }
+
+    int getUnitMinutes() {
+        return unitMinutes;
+    }
+
+    boolean isRoundUp() {
+        return roundUp;
+    }
+
+    int getMinimumUnits() {
+        return minimumUnits;
+    }
+
+    /**
+     * Weight of each hour of the week, Monday 00:00 first, in hundredths
+     * of a percent (hour percent x day percent)
+     */
+    int[] weekWeights() {
+        int[] weights = new int[7 * 24];
+        for (int hour = 0; hour < weights.length; hour++) {
+            weights[hour] = dayPercent[hour / 24] * hourPercent[hour % 24];
+        }
+        return weights;
+    }
+
+    long[] tierStartMinutes() {
+        return tierStartMinutes.clone();
+    }
+
+    int[] tierPercents() {
+        return tierPercent.clone();
+    }
+}
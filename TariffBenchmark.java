@@ -0,0 +1,163 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the compiled tariff engine against the decorator-chain billing it
+ * replaces, then compares their speed and allocation per bill
+ * The hourly tariff must give the exact cent amount of
+ * baseRate x hours + getExtraCharges(hours) for random decorator stacks and
+ * stays; a per-minute tariff must agree with it on whole-hour stays
+ *
+ * java TariffBenchmark slots=10000 stays=1000000
+ */
+public class TariffBenchmark {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int slotCount = 10_000;
+        int stayCount = 1_000_000;
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length == 2 && pair[0].equals("slots")) {
+                slotCount = Integer.parseInt(pair[1]);
+            } else if (pair.length == 2 && pair[0].equals("stays")) {
+                stayCount = Integer.parseInt(pair[1]);
+            } else {
+                System.out.println("Unknown argument: " + arg + ", expected slots=N or stays=N");
+                return;
+            }
+        }
+
+        Random random = new Random(42);
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ParkingLot lot = new ParkingLot(new NearestParkingStrategy(),
+                new EventPipeline(new NullEventSink(), 1 << 10, EventPipeline.OverflowPolicy.DROP));
+        List<Slot> slots = new ArrayList<>();
+        Floor floor = new Floor(1);
+        for (int i = 0; i < slotCount; i++) {
+            Slot slot = new BasicSlot(i + 1, SIZES[i % SIZES.length], cents(random, 100, 2_000), i);
+            int depth = random.nextInt(4);
+            for (int d = 0; d < depth; d++) {
+                slot = random.nextBoolean()
+                        ? new ChargingDecorator(slot, cents(random, 50, 800))
+                        : new CleaningDecorator(slot, cents(random, 200, 2_500));
+            }
+            floor.addSlot(slot);
+            slots.add(slot);
+        }
+        lot.addFloor(floor);
+        System.setOut(console);
+
+        SlotStore store = lot.getSlotStore();
+        int[] indexes = new int[stayCount];
+        LocalDateTime[] entries = new LocalDateTime[stayCount];
+        LocalDateTime[] exits = new LocalDateTime[stayCount];
+        long[] entrySeconds = new long[stayCount];
+        long[] exitSeconds = new long[stayCount];
+        LocalDateTime origin = LocalDateTime.of(2024, 1, 1, 0, 0);
+        for (int i = 0; i < stayCount; i++) {
+            indexes[i] = random.nextInt(slotCount);
+            entries[i] = origin.plusSeconds(random.nextInt(366 * 24 * 3600));
+            exits[i] = entries[i].plusSeconds(random.nextInt(3 * 24 * 3600));
+            entrySeconds[i] = TariffEngine.localSecond(entries[i]);
+            exitSeconds[i] = TariffEngine.localSecond(exits[i]);
+        }
+
+        System.out.println("=== TARIFF ENGINE CHECK ===");
+        TariffEngine hourly = new TariffEngine(Tariff.hourly(), store);
+        long mismatches = 0;
+        for (int i = 0; i < stayCount; i++) {
+            long expected = Math.round(decoratorCharge(slots.get(indexes[i]), entries[i], exits[i]) * 100);
+            if (hourly.chargeCents(indexes[i], entrySeconds[i], exitSeconds[i]) != expected) {
+                mismatches++;
+            }
+        }
+        System.out.println("Hourly tariff vs decorator chain: " + stayCount + " stays, " + mismatches + " mismatches");
+
+        TariffEngine perMinute = new TariffEngine(Tariff.perMinute(), store);
+        long minuteMismatches = 0;
+        for (int i = 0; i < stayCount; i++) {
+            long wholeHours = entrySeconds[i] + Math.max(1, (exitSeconds[i] - entrySeconds[i]) / 3600) * 3600;
+            if (perMinute.chargeCents(indexes[i], entrySeconds[i], wholeHours)
+                    != hourly.chargeCents(indexes[i], entrySeconds[i], wholeHours)) {
+                minuteMismatches++;
+            }
+        }
+        System.out.println("Per-minute vs hourly tariff on whole-hour stays: " + minuteMismatches + " mismatches");
+
+        Tariff rush = Tariff.perMinute().hours(7, 10, 150).hours(16, 19, 150).hours(22, 6, 60)
+                .weekend(80).day(DayOfWeek.FRIDAY, 110).tier(3, 80).tier(24, 50);
+        TariffEngine rushEngine = new TariffEngine(rush, store);
+        System.out.println("Example rush-hour tariff on slot " + store.id(0) + " ("
+                + store.baseCents(0) + "c/h base, " + store.extraHourlyCents(0) + "c/h + "
+                + store.extraFlatCents(0) + "c extras):");
+        LocalDateTime monday = LocalDateTime.of(2024, 3, 4, 0, 0);
+        printStay(rushEngine, monday.withHour(8), 90);
+        printStay(rushEngine, monday.withHour(12), 90);
+        printStay(rushEngine, monday.plusDays(5).withHour(12), 90);
+        printStay(rushEngine, monday.withHour(12), 30 * 60);
+
+        System.out.println();
+        System.out.printf("%-22s %12s %12s%n", "Billing path", "ns/bill", "bytes/bill");
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            long bytes = THREADS.getCurrentThreadAllocatedBytes();
+            double sink = 0;
+            for (int i = 0; i < stayCount; i++) {
+                sink += decoratorCharge(slots.get(indexes[i]), entries[i], exits[i]);
+            }
+            report("decorator chain", start, bytes, stayCount, round, sink);
+
+            for (TariffEngine engine : new TariffEngine[] {hourly, rushEngine}) {
+                start = System.nanoTime();
+                bytes = THREADS.getCurrentThreadAllocatedBytes();
+                long total = 0;
+                for (int i = 0; i < stayCount; i++) {
+                    total += engine.chargeCents(indexes[i], entrySeconds[i], exitSeconds[i]);
+                }
+                report(engine == hourly ? "engine (hourly)" : "engine (rush, tiers)", start, bytes, stayCount, round, total);
+            }
+        }
+        lot.getEvents().close();
+    }
+
+    /**
+     * The original exit-gate formula: whole hours, minimum one
+     */
+    private static double decoratorCharge(Slot slot, LocalDateTime entry, LocalDateTime exit) {
+        long hours = Duration.between(entry, exit).toHours();
+        if (hours == 0) {
+            hours = 1;
+        }
+        return slot.getBaseRate() * hours + slot.getExtraCharges(hours);
+    }
+
+    private static double cents(Random random, int min, int max) {
+        return (min + random.nextInt(max - min)) / 100.0;
+    }
+
+    private static void printStay(TariffEngine engine, LocalDateTime entry, int minutes) {
+        long from = TariffEngine.localSecond(entry);
+        System.out.printf("  %s %-9s %5d min -> %6d cents%n", entry, entry.getDayOfWeek(), minutes,
+                engine.chargeCents(0, from, from + minutes * 60L));
+    }
+
+    private static void report(String name, long start, long bytes, int count, int round, double sink) {
+        long nanos = System.nanoTime() - start;
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - bytes;
+        // Skip the warm-up round; the sink keeps the loop from being elided
+        if (round > 0 && sink != -1) {
+            System.out.printf("%-22s %12.1f %12.1f%n", name, (double) nanos / count, (double) allocated / count);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+
+/**
+ * A Tariff compiled against a slot store for billing at exit gates
+ * Money is long cents throughout. The week's time-of-day weights are
+ * turned into prefix sums, so the weight of any span of minutes is two
+ * lookups however long the stay; tiers add one span per tier reached.
+ * Slot rates come from the store's precompiled cents columns instead of
+ * the decorator chain. Only the final division rounds (half up), once for
+ * the base charge and once for the extras, so there is no drift
+ */
+public class TariffEngine {
+    private static final int MINUTES_PER_WEEK = 7 * 24 * 60;
+    // 1970-01-01 was a Thursday; shifts epoch minutes to Monday 00:00
+    private static final long EPOCH_TO_MONDAY_MINUTES = 3 * 24 * 60;
+    // Weights are hour% x day% (1/10000) x tier% (1/100) per minute (1/60 h)
+    private static final long WEIGHT_PER_HOUR = 100L * 100 * 100 * 60;
+    private static final ZoneRules ZONE = ZoneId.systemDefault().getRules();
+
+    private final SlotStore store;
+    private final long unitSeconds;
+    private final int unitMinutes;
+    private final boolean roundUp;
+    private final long minimumUnits;
+    private final int[] hourWeights;
+    // Weight of the week before each hour, and of the whole week
+    private final long[] hourPrefix;
+    private final long weekWeight;
+    private final long[] tierStartMinutes;
+    private final int[] tierPercents;
+
+    public TariffEngine(Tariff tariff, SlotStore store) {
+        this.store = store;
+        this.unitMinutes = tariff.getUnitMinutes();
+        this.unitSeconds = unitMinutes * 60L;
+        this.roundUp = tariff.isRoundUp();
+        this.minimumUnits = tariff.getMinimumUnits();
+        this.hourWeights = tariff.weekWeights();
+        this.hourPrefix = new long[hourWeights.length + 1];
+        for (int hour = 0; hour < hourWeights.length; hour++) {
+            hourPrefix[hour + 1] = hourPrefix[hour] + hourWeights[hour] * 60L;
+        }
+        this.weekWeight = hourPrefix[hourWeights.length];
+        this.tierStartMinutes = tariff.tierStartMinutes();
+        this.tierPercents = tariff.tierPercents();
+    }
+
+    /**
+     * Prices a ticket leaving at the given time
+     */
+    public Bill bill(Ticket ticket, LocalDateTime exitTime) {
+        int index = slotIndex(ticket);
+        long weight = weight(localSecond(ticket.getEntryEpochMillis()), localSecond(exitTime));
+        return new Bill(ticket, exitTime, baseCents(index, weight), extraCents(index, weight));
+    }
+
+    /**
+     * Prices a ticket leaving at an instant read from a ParkingClock; no
+     * date-time objects are created
+     */
+    public Bill bill(Ticket ticket, long exitEpochMillis) {
+        int index = slotIndex(ticket);
+        long weight = weight(localSecond(ticket.getEntryEpochMillis()), localSecond(exitEpochMillis));
+        return new Bill(ticket, exitEpochMillis, baseCents(index, weight), extraCents(index, weight));
+    }
+
+    private int slotIndex(Ticket ticket) {
+        int index = store.indexOf(ticket.getSlot());
+        if (index < 0) {
+            throw new IllegalArgumentException("Slot " + ticket.getSlot().getId() + " is not in this lot");
+        }
+        return index;
+    }
+
+    /**
+     * Total charge in cents for a stay in a slot; allocation-free
+     *
+     * @param entrySecond Entry time in local seconds, see localSecond
+     * @param exitSecond  Exit time in local seconds
+     */
+    public long chargeCents(int slotIndex, long entrySecond, long exitSecond) {
+        long weight = weight(entrySecond, exitSecond);
+        return baseCents(slotIndex, weight) + extraCents(slotIndex, weight);
+    }
+
+    public long baseCents(int slotIndex, long weight) {
+        return divide(store.baseCents(slotIndex) * weight);
+    }
+
+    public long extraCents(int slotIndex, long weight) {
+        return divide(store.extraHourlyCents(slotIndex) * weight) + store.extraFlatCents(slotIndex);
+    }
+
+    private static long divide(long value) {
+        return (value + WEIGHT_PER_HOUR / 2) / WEIGHT_PER_HOUR;
+    }
+
+    /**
+     * Billed time of a stay, weighted by time of day, day of week and tier;
+     * WEIGHT_PER_HOUR is one hour at 100%
+     */
+    public long weight(long entrySecond, long exitSecond) {
+        long elapsed = Math.max(0, exitSecond - entrySecond);
+        long units = roundUp ? (elapsed + unitSeconds - 1) / unitSeconds : elapsed / unitSeconds;
+        long minutes = Math.max(units, minimumUnits) * unitMinutes;
+        long start = Math.floorDiv(entrySecond, 60) + EPOCH_TO_MONDAY_MINUTES;
+
+        long weight = 0;
+        for (int tier = 0; tier < tierStartMinutes.length && tierStartMinutes[tier] < minutes; tier++) {
+            long to = tier + 1 < tierStartMinutes.length ? Math.min(minutes, tierStartMinutes[tier + 1]) : minutes;
+            weight += tierPercents[tier] * (cumulative(start + to) - cumulative(start + tierStartMinutes[tier]));
+        }
+        return weight;
+    }
+
+    // Weight of every minute from Monday 00:00 of the epoch's first week
+    private long cumulative(long minute) {
+        long weeks = Math.floorDiv(minute, MINUTES_PER_WEEK);
+        int inWeek = (int) (minute - weeks * MINUTES_PER_WEEK);
+        int hour = inWeek / 60;
+        return weeks * weekWeight + hourPrefix[hour] + (long) (inWeek - hour * 60) * hourWeights[hour];
+    }
+
+    /**
+     * Wall-clock time as seconds since 1970-01-01T00:00 in the same local
+     * calendar, so day and hour boundaries fall where the clock shows them
+     */
+    public static long localSecond(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /**
+     * localSecond of an epoch-millisecond instant in the system time zone,
+     * without building a LocalDateTime
+     */
+    public static long localSecond(long epochMillis) {
+        long second = Math.floorDiv(epochMillis, 1000);
+        int offset = ZONE.isFixedOffset()
+                ? ZONE.getOffset(Instant.EPOCH).getTotalSeconds()
+                : ZONE.getOffset(Instant.ofEpochSecond(second)).getTotalSeconds();
+        return second + offset;
+    }
+}
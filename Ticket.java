@@ -1,22 +1,34 @@
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 
 /**
  * Represents a parking ticket isued when a vehicle enters the parking lot
  */
 public class Ticket {
-    private final int id;
+    private final long id;
     private final Slot slot;
     private final Vehicle vehicle;
-    private final LocalDateTime entryTime;
+    private final long entryEpochMillis;
+    // Built on first use when the ticket was made from epoch millis
+    private LocalDateTime entryTime;
 
-    public Ticket(int id, Slot slot, Vehicle vehicle, LocalDateTime entryTime) {
+    public Ticket(long id, Slot slot, Vehicle vehicle, LocalDateTime entryTime) {
+        this(id, slot, vehicle, entryTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        this.entryTime = entryTime;
+    }
+
+    /**
+     * @param entryEpochMillis Entry time as read from the lot's ParkingClock
+     */
+    public Ticket(long id, Slot slot, Vehicle vehicle, long entryEpochMillis) {
         this.id = id;
         this.slot = slot;
         this.vehicle = vehicle;
-        this.entryTime = entryTime;
+        this.entryEpochMillis = entryEpochMillis;
     }
 
-    public int getId() {
+    public long getId() {
         return id;
     }
 
@@ -28,13 +40,20 @@ public class Ticket {
         return vehicle;
     }
 
+    public long getEntryEpochMillis() {
+        return entryEpochMillis;
+    }
+
     public LocalDateTime getEntryTime() {
+        if (entryTime == null) {
+            entryTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(entryEpochMillis), ZoneId.systemDefault());
+        }
         return entryTime;
     }
 
     @Override
     public String toString() {
-        return "Ticket{id=" + id + ", slot=" + slot.getId() +
-                ", vehicle=" + vehicle.getId() + ", entryTime=" + entryTime + "}";
+        return "Ticket{id=" + id + ", slot=" + getSlot().getId() +
+                ", vehicle=" + getVehicle().getId() + ", entryTime=" + getEntryTime() + "}";
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,66 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures ticket IDs per second as gate threads are added
+ * Compares per-gate generators against a single shared atomic counter
+ */
+public class TicketIdBenchmark {
+    private static final long RUN_MILLIS = 1000;
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== TICKET ID THROUGHPUT ===");
+        System.out.printf("%-8s %20s %20s%n", "Threads", "Per-gate IDs/sec", "Shared CAS IDs/sec");
+
+        // Warm up both paths before measuring
+        run(4, true);
+        run(4, false);
+
+        for (int threads : THREAD_COUNTS) {
+            long perGate = run(threads, true);
+            long shared = run(threads, false);
+            System.out.printf("%-8d %,20d %,20d%n", threads, perGate, shared);
+        }
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+    }
+
+    private static long run(int threads, boolean perGate) throws InterruptedException {
+        AtomicLong sharedCounter = new AtomicLong();
+        LongAdder total = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        long deadline = System.nanoTime() + RUN_MILLIS * 1_000_000 + 50_000_000;
+
+        for (int t = 0; t < threads; t++) {
+            TicketIdGenerator generator = new TicketIdGenerator(0, t + 1);
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long count = 0;
+                long sink = 0;
+                while ((count & 1023) != 0 || System.nanoTime() < deadline) {
+                    sink ^= perGate ? generator.nextId() : sharedCounter.incrementAndGet();
+                    count++;
+                }
+                total.add(count);
+                if (sink == 42) {
+                    System.out.print("");
+                }
+            });
+            workers[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        return total.sum() * 1_000_000_000L / elapsed;
+    }
+}
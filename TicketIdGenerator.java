@@ -0,0 +1,101 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Time-ordered ticket ID generator owned by a single entry gate
+ * IDs are packed into a positive long:
+ * [41 bits millis since 2024-01-01][8 bits site][6 bits gate][8 bits sequence]
+ * Each gate has its own generator, so gates never CAS the same word. IDs are
+ * unique across gates and sites and strictly increasing per gate. When a
+ * gate issues more than 256 tickets in one millisecond it borrows sequence
+ * space from the next millisecond instead of blocking. Time comes from a
+ * ParkingClock; IDs keep increasing if it is set back
+ */
+public class TicketIdGenerator {
+    public static final int SEQUENCE_BITS = 8;
+    public static final int GATE_BITS = 6;
+    public static final int SITE_BITS = 8;
+    public static final int MAX_GATES = 1 << GATE_BITS;
+    public static final int MAX_SITES = 1 << SITE_BITS;
+
+    private static final int GATE_SHIFT = SEQUENCE_BITS;
+    private static final int SITE_SHIFT = GATE_SHIFT + GATE_BITS;
+    private static final int TIME_SHIFT = SITE_SHIFT + SITE_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    // 2024-01-01T00:00:00Z
+    private static final long EPOCH_MILLIS = 1_704_067_200_000L;
+
+    private static final VarHandle LAST;
+
+    static {
+        try {
+            LAST = MethodHandles.lookup().findVarHandle(TicketIdGenerator.class, "last", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final long prefix;
+    private final ParkingClock clock;
+    // (millis << SEQUENCE_BITS | sequence) of the last issued ID
+    private volatile long last;
+    // Keep neighbouring gates' counters on separate cache lines
+    @SuppressWarnings("unused")
+    private long p1, p2, p3, p4, p5, p6, p7;
+
+    public TicketIdGenerator(int siteId, int gateId) {
+        this(siteId, gateId, new PreciseClock());
+    }
+
+    /**
+     * @param clock Time source, e.g. one that reads the lot's current clock
+     */
+    public TicketIdGenerator(int siteId, int gateId, ParkingClock clock) {
+        if (siteId < 0 || siteId >= MAX_SITES) {
+            throw new IllegalArgumentException("Site id must be in [0, " + MAX_SITES + "): " + siteId);
+        }
+        if (gateId < 0 || gateId >= MAX_GATES) {
+            throw new IllegalArgumentException("Gate id must be in [0, " + MAX_GATES + "): " + gateId);
+        }
+        this.prefix = ((long) siteId << SITE_SHIFT) | ((long) gateId << GATE_SHIFT);
+        this.clock = clock;
+    }
+
+    public long nextId() {
+        long now = (clock.millis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        while (true) {
+            long previous = last;
+            // Sequence overflow carries into the millisecond field
+            long next = Math.max(previous + 1, now);
+            if (LAST.compareAndSet(this, previous, next)) {
+                return ((next >>> SEQUENCE_BITS) << TIME_SHIFT) | prefix | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    /**
+     * Makes every later ID larger than an ID issued before, e.g. one a
+     * journal replay restored, whatever the clock reads now
+     */
+    public void advancePast(long ticketId) {
+        long issued = ((ticketId >>> TIME_SHIFT) << SEQUENCE_BITS) | (ticketId & SEQUENCE_MASK);
+        while (true) {
+            long previous = last;
+            if (previous >= issued || LAST.compareAndSet(this, previous, issued)) {
+                return;
+            }
+        }
+    }
+
+    public static int siteOf(long ticketId) {
+        return (int) (ticketId >>> SITE_SHIFT) & (MAX_SITES - 1);
+    }
+
+    public static int gateOf(long ticketId) {
+        return (int) (ticketId >>> GATE_SHIFT) & (MAX_GATES - 1);
+    }
+
+    public static long epochMillisOf(long ticketId) {
+        return (ticketId >>> TIME_SHIFT) + EPOCH_MILLIS;
+    }
+}
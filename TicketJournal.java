@@ -0,0 +1,658 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Durable write-ahead journal of ticket entries, exits and slot changes
+ * Records are appended to a binary segment file through a FileChannel.
+ * A single writer thread group-commits everything appended while the
+ * previous fsync was running, so many tickets share one force() call.
+ * The writer also keeps the set of open entries and the latest state of
+ * every changed slot, and when a segment grows past the compaction
+ * threshold it starts a new segment beginning with a snapshot of both,
+ * which keeps recovery time bounded. A snapshot is written to a temp file
+ * and renamed into place, so the newest segment is never half-written
+ *
+ * Segment layout: [int magic][int version] then records of
+ * [int payloadLength][int crc32][byte type][payload]
+ */
+public class TicketJournal implements AutoCloseable {
+
+    /**
+     * Whether gate threads wait for their record to reach the disk
+     */
+    public enum Durability {
+        // Return only after the record's group commit has been forced
+        SYNC,
+        // Return immediately; the record is forced with the next group
+        ASYNC
+    }
+
+    /**
+     * A vehicle that was parked according to the journal
+     */
+    public static final class EntryRecord {
+        public final long ticketId;
+        public final int slotId;
+        public final VehicleSize size;
+        public final String plate;
+        public final int requestedFeatures;
+        public final long entryEpochMillis;
+
+        EntryRecord(long ticketId, int slotId, VehicleSize size, String plate, int requestedFeatures,
+                    long entryEpochMillis) {
+            this.ticketId = ticketId;
+            this.slotId = slotId;
+            this.size = size;
+            this.plate = plate;
+            this.requestedFeatures = requestedFeatures;
+            this.entryEpochMillis = entryEpochMillis;
+        }
+    }
+
+    /**
+     * A slot as last changed at runtime: added, removed, resized or given
+     * other features. Distances are per gate id, in gateIds order
+     */
+    public static final class SlotRecord {
+        public final int slotId;
+        public final boolean inService;
+        public final int floorNumber;
+        public final VehicleSize size;
+        public final int featureFlags;
+        public final double baseRate;
+        public final double extraHourly;
+        public final double extraFlat;
+        public final int[] gateIds;
+        public final int[] distances;
+
+        SlotRecord(int slotId, boolean inService, int floorNumber, VehicleSize size, int featureFlags,
+                   double baseRate, double extraHourly, double extraFlat, int[] gateIds, int[] distances) {
+            this.slotId = slotId;
+            this.inService = inService;
+            this.floorNumber = floorNumber;
+            this.size = size;
+            this.featureFlags = featureFlags;
+            this.baseRate = baseRate;
+            this.extraHourly = extraHourly;
+            this.extraFlat = extraFlat;
+            this.gateIds = gateIds;
+            this.distances = distances;
+        }
+
+        static SlotRecord removed(int slotId) {
+            return new SlotRecord(slotId, false, 0, VehicleSize.SMALL, 0, 0, 0, 0, new int[0], new int[0]);
+        }
+    }
+
+    // What replay and the writer thread know: open entries by ticket id
+    // and changed slots by slot id, both in log order
+    private static final class State {
+        final Map<Long, EntryRecord> entries = new LinkedHashMap<>();
+        final Map<Integer, SlotRecord> slots = new LinkedHashMap<>();
+    }
+
+    private static final int MAGIC = 0x504B4A31; // "PKJ1"
+    // Version 2 added the requested features to entries and slot records
+    private static final int VERSION = 2;
+    private static final byte ENTRY = 1;
+    private static final byte EXIT = 2;
+    private static final byte SLOT = 3;
+    private static final int RECORD_HEADER = 8;
+    private static final int DEFAULT_COMPACTION_THRESHOLD = 100_000;
+
+    private final Path directory;
+    private final Durability durability;
+    private final int compactionThreshold;
+
+    // Appends go into pending under the lock; the writer swaps buffers
+    private final Object lock = new Object();
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer writing = ByteBuffer.allocate(64 * 1024);
+    private long appendedSequence;
+    private volatile long durableSequence;
+    private volatile boolean running = true;
+    private IOException failure;
+
+    // Owned by the writer thread after open()
+    private final State state;
+    private final Thread writer;
+    private FileChannel channel;
+    private long generation;
+    private int recordsInSegment;
+    // Guarded by lock
+    private final CRC32 crc = new CRC32();
+
+    private TicketJournal(Path directory, Durability durability, int compactionThreshold,
+            long generation, State recovered) throws IOException {
+        this.directory = directory;
+        this.durability = durability;
+        this.compactionThreshold = compactionThreshold;
+        this.state = recovered;
+        this.generation = generation;
+        startSegment();
+        this.writer = new Thread(this::writeLoop, "ticket-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static TicketJournal open(Path directory, Durability durability) throws IOException {
+        return open(directory, durability, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Replays the newest readable segment in the directory and opens a
+     * fresh segment that starts with a snapshot of the recovered state
+     *
+     * @param directory           Where segments are kept
+     * @param durability          Whether appends wait for fsync
+     * @param compactionThreshold Records per segment before a snapshot
+     */
+    public static TicketJournal open(Path directory, Durability durability, int compactionThreshold)
+            throws IOException {
+        Files.createDirectories(directory);
+        // Snapshots that never got renamed into place
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "journal-*.log.tmp")) {
+            for (Path temp : stream) {
+                Files.delete(temp);
+            }
+        }
+        List<Path> segments = listSegments(directory);
+        State state = null;
+        for (int i = segments.size() - 1; i >= 0 && state == null; i--) {
+            State replayed = new State();
+            if (replay(segments.get(i), replayed)) {
+                state = replayed;
+            } else {
+                System.out.println("Journal: skipping unreadable segment " + segments.get(i));
+            }
+        }
+        long generation = 0;
+        if (!segments.isEmpty()) {
+            if (state == null) {
+                throw new IOException("No readable ticket journal segment in " + directory);
+            }
+            generation = generationOf(segments.get(segments.size() - 1));
+        } else {
+            state = new State();
+        }
+        TicketJournal journal = new TicketJournal(directory, durability, compactionThreshold,
+                generation + 1, state);
+        for (Path segment : segments) {
+            Files.deleteIfExists(segment);
+        }
+        return journal;
+    }
+
+    /**
+     * Vehicles that were still parked when the journal was last written
+     */
+    public Collection<EntryRecord> recoveredEntries() {
+        synchronized (lock) {
+            return new ArrayList<>(state.entries.values());
+        }
+    }
+
+    /**
+     * Slots changed at runtime since the lot was set up, latest state of
+     * each; apply them before restoring entries
+     */
+    public Collection<SlotRecord> recoveredSlots() {
+        synchronized (lock) {
+            return new ArrayList<>(state.slots.values());
+        }
+    }
+
+    /**
+     * Appends an entry record; must happen before the ticket becomes
+     * visible to exit gates so the log never holds an exit before its entry
+     */
+    public void logEntry(Ticket ticket, long entryEpochMillis) throws IOException {
+        long sequence;
+        synchronized (lock) {
+            checkFailure();
+            sequence = appendEntry(ticket, entryEpochMillis);
+            lock.notifyAll();
+        }
+        awaitIfSync(sequence);
+    }
+
+    /**
+     * Appends an entry record from its raw fields (compact tickets)
+     */
+    public void logEntry(long ticketId, int slotId, VehicleSize size, String plate, int requestedFeatures,
+                         long entryEpochMillis) throws IOException {
+        long sequence;
+        synchronized (lock) {
+            checkFailure();
+            sequence = appendEntry(ticketId, slotId, size, plate, requestedFeatures, entryEpochMillis);
+            lock.notifyAll();
+        }
+        awaitIfSync(sequence);
+    }
+
+    /**
+     * Appends entry records for a batch of tickets; in SYNC mode the caller
+     * waits for a single group commit covering the whole batch
+     */
+    public void logEntries(Ticket[] tickets, long[] entryEpochMillis) throws IOException {
+        long sequence;
+        synchronized (lock) {
+            checkFailure();
+            sequence = appendedSequence;
+            for (int i = 0; i < tickets.length; i++) {
+                if (tickets[i] != null) {
+                    sequence = appendEntry(tickets[i], entryEpochMillis[i]);
+                }
+            }
+            lock.notifyAll();
+        }
+        awaitIfSync(sequence);
+    }
+
+    private long appendEntry(Ticket ticket, long entryEpochMillis) {
+        Vehicle vehicle = ticket.getVehicle();
+        return appendEntry(ticket.getId(), ticket.getSlot().getId(), vehicle.getSize(), vehicle.getId(),
+                vehicle.getRequestedFeatures(), entryEpochMillis);
+    }
+
+    private long appendEntry(long ticketId, int slotId, VehicleSize size, String plate, int requestedFeatures,
+                             long entryEpochMillis) {
+        pending = putEntry(pending, crc, new EntryRecord(ticketId, slotId, size, plate, requestedFeatures,
+                entryEpochMillis));
+        return ++appendedSequence;
+    }
+
+    private static ByteBuffer putEntry(ByteBuffer buffer, CRC32 crc, EntryRecord entry) {
+        byte[] plate = entry.plate.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 8 + 4 + 1 + 4 + 8 + 2 + plate.length;
+        buffer = reserve(buffer, length);
+        int start = buffer.position() + RECORD_HEADER;
+        buffer.putInt(length).putInt(0)
+                .put(ENTRY)
+                .putLong(entry.ticketId)
+                .putInt(entry.slotId)
+                .put((byte) entry.size.ordinal())
+                .putInt(entry.requestedFeatures)
+                .putLong(entry.entryEpochMillis)
+                .putShort((short) plate.length)
+                .put(plate);
+        sealRecord(crc, buffer, start, length);
+        return buffer;
+    }
+
+    /**
+     * Appends an exit record for a ticket that has been closed
+     */
+    public void logExit(long ticketId, long exitEpochMillis, double amount) throws IOException {
+        long sequence;
+        synchronized (lock) {
+            checkFailure();
+            sequence = appendExit(ticketId, exitEpochMillis, amount);
+            lock.notifyAll();
+        }
+        awaitIfSync(sequence);
+    }
+
+    /**
+     * Appends exit records for a batch of closed tickets with one group
+     * commit wait
+     */
+    public void logExits(long[] ticketIds, long[] exitEpochMillis, double[] amounts) throws IOException {
+        long sequence;
+        synchronized (lock) {
+            checkFailure();
+            sequence = appendedSequence;
+            for (int i = 0; i < ticketIds.length; i++) {
+                sequence = appendExit(ticketIds[i], exitEpochMillis[i], amounts[i]);
+            }
+            lock.notifyAll();
+        }
+        awaitIfSync(sequence);
+    }
+
+    private long appendExit(long ticketId, long exitEpochMillis, double amount) {
+        int length = 1 + 8 + 8 + 8;
+        ByteBuffer buffer = pending = reserve(pending, length);
+        int start = buffer.position() + RECORD_HEADER;
+        buffer.putInt(length).putInt(0)
+                .put(EXIT)
+                .putLong(ticketId)
+                .putLong(exitEpochMillis)
+                .putDouble(amount);
+        sealRecord(crc, buffer, start, length);
+        return ++appendedSequence;
+    }
+
+    /**
+     * Appends the new state of a slot changed at runtime, so a restart
+     * rebuilds the lot as it was rather than as it was set up
+     */
+    public void logSlot(SlotRecord slot) throws IOException {
+        long sequence;
+        synchronized (lock) {
+            checkFailure();
+            pending = putSlot(pending, crc, slot);
+            sequence = ++appendedSequence;
+            lock.notifyAll();
+        }
+        awaitIfSync(sequence);
+    }
+
+    private static ByteBuffer putSlot(ByteBuffer buffer, CRC32 crc, SlotRecord slot) {
+        int length = 1 + 4 + 1 + 4 + 1 + 4 + 8 + 8 + 8 + 2 + slot.gateIds.length * 8;
+        buffer = reserve(buffer, length);
+        int start = buffer.position() + RECORD_HEADER;
+        buffer.putInt(length).putInt(0)
+                .put(SLOT)
+                .putInt(slot.slotId)
+                .put((byte) (slot.inService ? 1 : 0))
+                .putInt(slot.floorNumber)
+                .put((byte) slot.size.ordinal())
+                .putInt(slot.featureFlags)
+                .putDouble(slot.baseRate)
+                .putDouble(slot.extraHourly)
+                .putDouble(slot.extraFlat)
+                .putShort((short) slot.gateIds.length);
+        for (int g = 0; g < slot.gateIds.length; g++) {
+            buffer.putInt(slot.gateIds[g]).putInt(slot.distances[g]);
+        }
+        sealRecord(crc, buffer, start, length);
+        return buffer;
+    }
+
+    /**
+     * Blocks until everything appended so far has been forced to disk
+     */
+    public void sync() throws IOException {
+        long sequence;
+        synchronized (lock) {
+            sequence = appendedSequence;
+        }
+        awaitDurable(sequence);
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private static ByteBuffer reserve(ByteBuffer buffer, int payloadLength) {
+        int needed = RECORD_HEADER + payloadLength;
+        if (buffer.remaining() < needed) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+            buffer.flip();
+            larger.put(buffer);
+            return larger;
+        }
+        return buffer;
+    }
+
+    // Fills in the CRC slot of a record whose payload starts at start
+    private static void sealRecord(CRC32 crc, ByteBuffer buffer, int start, int length) {
+        crc.reset();
+        crc.update(buffer.array(), start, length);
+        buffer.putInt(start - 4, (int) crc.getValue());
+    }
+
+    private void awaitIfSync(long sequence) throws IOException {
+        if (durability == Durability.SYNC) {
+            awaitDurable(sequence);
+        }
+    }
+
+    private void awaitDurable(long sequence) throws IOException {
+        synchronized (lock) {
+            while (durableSequence < sequence && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for journal commit", e);
+                }
+            }
+            checkFailure();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Journal is unusable after an earlier write failure", failure);
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            long target;
+            synchronized (lock) {
+                while (pending.position() == 0 && running) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.position() == 0) {
+                    return;
+                }
+                ByteBuffer swap = writing;
+                writing = pending;
+                pending = swap;
+                target = appendedSequence;
+            }
+
+            try {
+                // One write and one force for the whole group
+                writing.flip();
+                int records = apply(writing.duplicate());
+                while (writing.hasRemaining()) {
+                    channel.write(writing);
+                }
+                channel.force(false);
+                writing.clear();
+                recordsInSegment += records;
+                if (recordsInSegment > compactionThreshold) {
+                    compact();
+                }
+            } catch (IOException e) {
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+
+            synchronized (lock) {
+                durableSequence = target;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    // Keeps the writer's view of open entries and slots in log order
+    private int apply(ByteBuffer records) {
+        int count = 0;
+        synchronized (lock) {
+            while (records.remaining() >= RECORD_HEADER) {
+                int length = records.getInt();
+                records.getInt();
+                ByteBuffer payload = records.slice();
+                payload.limit(length);
+                records.position(records.position() + length);
+                applyRecord(payload, VERSION, state);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void compact() throws IOException {
+        FileChannel old = channel;
+        Path oldPath = segmentPath(generation);
+        generation++;
+        startSegment();
+        old.close();
+        Files.deleteIfExists(oldPath);
+    }
+
+    // Creates the next segment with the open entries and changed slots as
+    // its snapshot. The snapshot is forced under a temp name and renamed
+    // into place, so a crash leaves either no new segment or a whole one,
+    // and the caller deletes the old segment only after that
+    private void startSegment() throws IOException {
+        List<SlotRecord> slots;
+        List<EntryRecord> entries;
+        synchronized (lock) {
+            slots = new ArrayList<>(state.slots.values());
+            entries = new ArrayList<>(state.entries.values());
+        }
+        CRC32 snapshotCrc = new CRC32();
+        ByteBuffer snapshot = ByteBuffer.allocate(8 + slots.size() * 64 + entries.size() * 64);
+        snapshot.putInt(MAGIC).putInt(VERSION);
+        for (SlotRecord slot : slots) {
+            snapshot = putSlot(snapshot, snapshotCrc, slot);
+        }
+        for (EntryRecord entry : entries) {
+            snapshot = putEntry(snapshot, snapshotCrc, entry);
+        }
+        snapshot.flip();
+
+        Path path = segmentPath(generation);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (snapshot.hasRemaining()) {
+                out.write(snapshot);
+            }
+            out.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        recordsInSegment = slots.size() + entries.size();
+    }
+
+    // Makes the rename durable; not every platform can open a directory
+    private void syncDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // The rename is still atomic, only its durability is up to the OS
+        }
+    }
+
+    private Path segmentPath(long generation) {
+        return directory.resolve(String.format("journal-%010d.log", generation));
+    }
+
+    private static long generationOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring("journal-".length(), name.length() - ".log".length()));
+    }
+
+    private static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "journal-*.log")) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        segments.sort((a, b) -> Long.compare(generationOf(a), generationOf(b)));
+        return segments;
+    }
+
+    // Replays a segment, stopping at the first torn or corrupt record
+    // Returns false if the segment has no valid header
+    private static boolean replay(Path segment, State state) throws IOException {
+        ByteBuffer data;
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+            data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        }
+        if (data.remaining() < 8 || data.getInt() != MAGIC) {
+            return false;
+        }
+        int version = data.getInt();
+        if (version < 1 || version > VERSION) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        while (data.remaining() >= RECORD_HEADER) {
+            int length = data.getInt();
+            int expected = data.getInt();
+            if (length <= 0 || length > data.remaining()) {
+                break;
+            }
+            ByteBuffer payload = data.slice();
+            payload.limit(length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != expected) {
+                break;
+            }
+            data.position(data.position() + length);
+            applyRecord(payload, version, state);
+        }
+        return true;
+    }
+
+    // Replay is idempotent: duplicate entries and exits of unknown tickets
+    // are ignored, and a slot record replaces the slot's earlier one
+    private static void applyRecord(ByteBuffer payload, int version, State state) {
+        byte type = payload.get();
+        if (type == ENTRY) {
+            long ticketId = payload.getLong();
+            int slotId = payload.getInt();
+            VehicleSize size = VehicleSize.values()[payload.get()];
+            // Version 1 entries carry no requested features
+            int requestedFeatures = version >= 2 ? payload.getInt() : 0;
+            long entryMillis = payload.getLong();
+            byte[] plate = new byte[payload.getShort()];
+            payload.get(plate);
+            state.entries.putIfAbsent(ticketId, new EntryRecord(ticketId, slotId, size,
+                    new String(plate, StandardCharsets.UTF_8), requestedFeatures, entryMillis));
+        } else if (type == EXIT) {
+            state.entries.remove(payload.getLong());
+        } else if (type == SLOT) {
+            int slotId = payload.getInt();
+            boolean inService = payload.get() != 0;
+            int floorNumber = payload.getInt();
+            VehicleSize size = VehicleSize.values()[payload.get()];
+            int featureFlags = payload.getInt();
+            double baseRate = payload.getDouble();
+            double extraHourly = payload.getDouble();
+            double extraFlat = payload.getDouble();
+            int[] gateIds = new int[payload.getShort()];
+            int[] distances = new int[gateIds.length];
+            for (int g = 0; g < gateIds.length; g++) {
+                gateIds[g] = payload.getInt();
+                distances[g] = payload.getInt();
+            }
+            // Re-inserted so the map keeps the order of the latest changes
+            state.slots.remove(slotId);
+            state.slots.put(slotId, new SlotRecord(slotId, inService, floorNumber, size, featureFlags,
+                    baseRate, extraHourly, extraFlat, gateIds, distances));
+        }
+    }
+}
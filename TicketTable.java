@@ -0,0 +1,288 @@
+import java.util.Arrays;
+
+/**
+ * Active tickets kept as rows of primitives for high-volume days
+ * A row is the ticket id, slot index, plate code (see PlateDictionary),
+ * vehicle size and needs, and entry time in epoch milliseconds - about 30
+ * bytes, against a Ticket, Vehicle, plate string and LocalDateTime per
+ * parked vehicle. Rows are pooled: a freed row is reused by the next
+ * entry, so the day's peak is allocated once. Lookup by ticket id is a
+ * striped LongIndexMap like ActiveTicketRegistry's; Ticket objects are
+ * only built, as lazy views, when a caller asks for one
+ */
+public class TicketTable {
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+
+    private final SlotStore store;
+    private final PlateDictionary plates;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * @param store  Slot store the rows' slot indexes refer to
+     * @param plates Dictionary the rows' plate codes refer to
+     */
+    public TicketTable(SlotStore store, PlateDictionary plates) {
+        this.store = store;
+        this.plates = plates;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public PlateDictionary getPlates() {
+        return plates;
+    }
+
+    /**
+     * Adds a row for a ticket whose slot is already claimed
+     * As in ActiveTicketRegistry, the row goes in before the plate is
+     * marked parked, and comes out again if the plate already is
+     *
+     * @return false if the plate already has an active ticket
+     */
+    public boolean open(long ticketId, int slotIndex, String plate, VehicleSize size, int requestedFeatures,
+                        long entryEpochMillis) {
+        plates.rollover(Math.floorDiv(TariffEngine.localSecond(entryEpochMillis), 86_400));
+        int code = plates.encode(plate);
+        Stripe stripe = stripes[stripeOf(ticketId)];
+        stripe.put(ticketId, slotIndex, code, size, requestedFeatures, entryEpochMillis);
+        if (!plates.open(code, ticketId)) {
+            stripe.discard(ticketId);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Removes an active ticket; exactly one concurrent caller wins. The
+     * row keeps its values, and the plate as it read while the ticket was
+     * open, for the row getters and view() until free() is called
+     *
+     * @return The row, or -1 if the ticket was not active
+     */
+    public int remove(long ticketId) {
+        int stripe = stripeOf(ticketId);
+        int local = stripes[stripe].remove(ticketId, plates);
+        return local >= 0 ? local << STRIPE_BITS | stripe : -1;
+    }
+
+    public int removeByPlate(String plate) {
+        long ticketId = openTicket(plate);
+        return ticketId != 0 ? remove(ticketId) : -1;
+    }
+
+    /**
+     * Returns a removed row to the pool
+     */
+    public void free(int row) {
+        stripes[row & (STRIPES - 1)].free(row >>> STRIPE_BITS);
+    }
+
+    public boolean isParked(String plate) {
+        return openTicket(plate) != 0;
+    }
+
+    private long openTicket(String plate) {
+        int code = plates.find(plate);
+        return code >= 0 ? plates.openTicket(code) : 0;
+    }
+
+    /**
+     * @return A lazy view of the active ticket, or null if it is not active
+     */
+    public Ticket find(long ticketId) {
+        return stripes[stripeOf(ticketId)].find(this, ticketId);
+    }
+
+    public Ticket findByPlate(String plate) {
+        long ticketId = openTicket(plate);
+        return ticketId != 0 ? find(ticketId) : null;
+    }
+
+    /**
+     * Lazy view of a removed row that has not been freed yet
+     */
+    public Ticket view(int row) {
+        return stripes[row & (STRIPES - 1)].view(this, row >>> STRIPE_BITS);
+    }
+
+    public long ticketId(int row) {
+        return stripes[row & (STRIPES - 1)].ticketId(row >>> STRIPE_BITS);
+    }
+
+    public int slotIndex(int row) {
+        return stripes[row & (STRIPES - 1)].slotIndex(row >>> STRIPE_BITS);
+    }
+
+    public int plateCode(int row) {
+        return stripes[row & (STRIPES - 1)].plateCode(row >>> STRIPE_BITS);
+    }
+
+    public long entryEpochMillis(int row) {
+        return stripes[row & (STRIPES - 1)].entryMillis(row >>> STRIPE_BITS);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    private static int stripeOf(long ticketId) {
+        return (int) (LongIndexMap.mix(ticketId) >>> (64 - STRIPE_BITS));
+    }
+
+    /**
+     * Pooled rows of primitive columns, found by ticket id through a
+     * LongIndexMap
+     */
+    private static final class Stripe {
+        private final LongIndexMap rowsById = new LongIndexMap();
+
+        // Row columns; rows [0, rows) have been handed out, freed ones are
+        // stacked in freeRows for reuse
+        private long[] ticketIds = new long[8];
+        private int[] slotIndexes = new int[8];
+        private int[] plateCodes = new int[8];
+        private long[] entryMillis = new long[8];
+        private byte[] shapes = new byte[8];
+        // Plate of each removed row, read before its code could be dropped
+        private String[] removedPlates = new String[8];
+        private int rows;
+        private int[] freeRows = new int[8];
+        private int freeCount;
+
+        synchronized void put(long key, int slotIndex, int plateCode, VehicleSize vehicleSize, int requestedFeatures,
+                              long entryEpochMillis) {
+            if (key == 0) {
+                throw new IllegalArgumentException("Ticket id 0 is reserved");
+            }
+            int row = freeCount > 0 ? freeRows[--freeCount] : newRow();
+            ticketIds[row] = key;
+            slotIndexes[row] = slotIndex;
+            plateCodes[row] = plateCode;
+            entryMillis[row] = entryEpochMillis;
+            shapes[row] = (byte) (vehicleSize.ordinal() << 4 | requestedFeatures & 0xF);
+            rowsById.put(key, row);
+        }
+
+        private int newRow() {
+            if (rows == ticketIds.length) {
+                int length = rows * 2;
+                ticketIds = Arrays.copyOf(ticketIds, length);
+                slotIndexes = Arrays.copyOf(slotIndexes, length);
+                plateCodes = Arrays.copyOf(plateCodes, length);
+                entryMillis = Arrays.copyOf(entryMillis, length);
+                shapes = Arrays.copyOf(shapes, length);
+                removedPlates = Arrays.copyOf(removedPlates, length);
+                freeRows = Arrays.copyOf(freeRows, length);
+            }
+            return rows++;
+        }
+
+        /**
+         * Removes the row and closes its plate's ticket, keeping the plate
+         *
+         * @param plates Dictionary the row's plate code refers to
+         */
+        synchronized int remove(long key, PlateDictionary plates) {
+            int row = rowsById.remove(key);
+            if (row >= 0) {
+                removedPlates[row] = plates.close(plateCodes[row], key);
+            }
+            return row;
+        }
+
+        /**
+         * Removes a row whose plate was never marked parked, straight back
+         * to the pool
+         */
+        synchronized void discard(long key) {
+            int row = rowsById.remove(key);
+            if (row >= 0) {
+                freeRows[freeCount++] = row;
+            }
+        }
+
+        synchronized void free(int row) {
+            removedPlates[row] = null;
+            freeRows[freeCount++] = row;
+        }
+
+        synchronized TicketView find(TicketTable table, long key) {
+            int row = rowsById.get(key);
+            // The ticket is open, so its plate code cannot have been dropped
+            return row >= 0 ? view(table, row, table.plates.plate(plateCodes[row])) : null;
+        }
+
+        synchronized TicketView view(TicketTable table, int row) {
+            return view(table, row, removedPlates[row]);
+        }
+
+        private TicketView view(TicketTable table, int row, String plate) {
+            int shape = shapes[row];
+            return new TicketView(table, ticketIds[row], slotIndexes[row], plate, SIZES[shape >>> 4],
+                    shape & 0xF, entryMillis[row]);
+        }
+
+        synchronized long ticketId(int row) {
+            return ticketIds[row];
+        }
+
+        synchronized int slotIndex(int row) {
+            return slotIndexes[row];
+        }
+
+        synchronized int plateCode(int row) {
+            return plateCodes[row];
+        }
+
+        synchronized long entryMillis(int row) {
+            return entryMillis[row];
+        }
+
+        synchronized int size() {
+            return rowsById.size();
+        }
+    }
+
+    /**
+     * Ticket over a copy of one row; the slot, vehicle and entry time are
+     * built on first use (racing threads may each build an equal vehicle)
+     */
+    private static final class TicketView extends Ticket {
+        private final TicketTable table;
+        private final int slotIndex;
+        private final String plate;
+        private final VehicleSize size;
+        private final int requestedFeatures;
+        private Vehicle vehicle;
+
+        private TicketView(TicketTable table, long id, int slotIndex, String plate, VehicleSize size,
+                           int requestedFeatures, long entryEpochMillis) {
+            super(id, null, null, entryEpochMillis);
+            this.table = table;
+            this.slotIndex = slotIndex;
+            this.plate = plate;
+            this.size = size;
+            this.requestedFeatures = requestedFeatures;
+        }
+
+        @Override
+        public Slot getSlot() {
+            return table.store.slotAt(slotIndex);
+        }
+
+        @Override
+        public Vehicle getVehicle() {
+            if (vehicle == null) {
+                vehicle = new Vehicle(plate, size, requestedFeatures);
+            }
+            return vehicle;
+        }
+    }
+}
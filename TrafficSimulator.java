@@ -0,0 +1,416 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives a parking lot's entry and exit gates with synthetic traffic in
+ * simulated time, for capacity planning and comparing parking strategies
+ * Every entry and exit gate runs on its own thread. Threads advance one
+ * simulated minute at a time in lockstep, so a day of traffic takes as
+ * long as its gate calls do, not 24 hours. Arrivals are Poisson with a
+ * time-of-day rate (rush-hour peaks, quiet nights); dwell times are
+ * log-normal; vehicle sizes follow a configurable mix
+ */
+public class TrafficSimulator {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private final ParkingLot lot;
+    private double arrivalsPerHour = 600;
+    private double rushHourPeak = 2.0;
+    private double[] sizeMix = {0.3, 0.5, 0.2};
+    private double medianDwellMinutes = 120;
+    private double dwellSigma = 0.8;
+    private int days = 1;
+    private int sampleMinutes = 60;
+    private long seed = 1;
+
+    /**
+     * @param lot Lot with at least one entry gate and one exit gate
+     */
+    public TrafficSimulator(ParkingLot lot) {
+        if (lot.getEntryGates().isEmpty() || lot.getExitGates().isEmpty()) {
+            throw new IllegalArgumentException("Simulation needs at least one entry gate and one exit gate");
+        }
+        this.lot = lot;
+    }
+
+    /**
+     * Average arrivals per hour across all entry gates, before the
+     * time-of-day shape is applied
+     */
+    public TrafficSimulator arrivalsPerHour(double arrivalsPerHour) {
+        this.arrivalsPerHour = arrivalsPerHour;
+        return this;
+    }
+
+    /**
+     * Extra arrival rate at the 08:30 and 17:30 peaks, as a multiple of the
+     * base rate (0 for flat traffic)
+     */
+    public TrafficSimulator rushHourPeak(double rushHourPeak) {
+        this.rushHourPeak = rushHourPeak;
+        return this;
+    }
+
+    /**
+     * Relative share of SMALL, MEDIUM and LARGE vehicles
+     */
+    public TrafficSimulator sizeMix(double small, double medium, double large) {
+        double total = small + medium + large;
+        this.sizeMix = new double[] {small / total, medium / total, large / total};
+        return this;
+    }
+
+    /**
+     * Log-normal dwell time with the given median and shape
+     */
+    public TrafficSimulator dwell(double medianMinutes, double sigma) {
+        this.medianDwellMinutes = medianMinutes;
+        this.dwellSigma = sigma;
+        return this;
+    }
+
+    public TrafficSimulator days(int days) {
+        this.days = days;
+        return this;
+    }
+
+    public TrafficSimulator sampleEvery(int minutes) {
+        this.sampleMinutes = minutes;
+        return this;
+    }
+
+    public TrafficSimulator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Arrival rate per minute for the whole lot at a simulated minute
+     */
+    private double arrivalsPerMinute(int minute) {
+        double hour = (minute % MINUTES_PER_DAY) / 60.0;
+        double morning = (hour - 8.5) / 1.0;
+        double evening = (hour - 17.5) / 1.2;
+        double shape = 1 + rushHourPeak * (Math.exp(-morning * morning) + Math.exp(-evening * evening));
+        if (hour < 6) {
+            shape *= 0.2;
+        }
+        return arrivalsPerHour / 60.0 * shape;
+    }
+
+    private static int poisson(Random random, double mean) {
+        if (mean > 30) {
+            return (int) Math.max(0, Math.round(mean + Math.sqrt(mean) * random.nextGaussian()));
+        }
+        double limit = Math.exp(-mean);
+        double product = random.nextDouble();
+        int n = 0;
+        while (product > limit) {
+            product *= random.nextDouble();
+            n++;
+        }
+        return n;
+    }
+
+    private VehicleSize pickSize(Random random) {
+        double r = random.nextDouble();
+        for (int s = 0; s < SIZES.length - 1; s++) {
+            r -= sizeMix[s];
+            if (r < 0) {
+                return SIZES[s];
+            }
+        }
+        return SIZES[SIZES.length - 1];
+    }
+
+    /**
+     * Runs the configured traffic to completion
+     */
+    public Report run() throws InterruptedException {
+        List<EntryGate> entries = lot.getEntryGates();
+        List<ExitGate> exits = lot.getExitGates();
+        int totalMinutes = days * MINUTES_PER_DAY;
+        Report report = new Report(entries, exits, lot.getSlotStore());
+
+        // Departures by simulated minute and exit gate
+        @SuppressWarnings("unchecked")
+        ConcurrentLinkedQueue<Ticket>[][] departures =
+                (ConcurrentLinkedQueue<Ticket>[][]) new ConcurrentLinkedQueue<?>[totalMinutes][exits.size()];
+        for (ConcurrentLinkedQueue<Ticket>[] minute : departures) {
+            for (int x = 0; x < minute.length; x++) {
+                minute[x] = new ConcurrentLinkedQueue<>();
+            }
+        }
+
+        AtomicInteger clock = new AtomicInteger();
+        CyclicBarrier tick = new CyclicBarrier(entries.size() + exits.size(), () -> {
+            int minute = clock.incrementAndGet();
+            if (minute % sampleMinutes == 0 || minute == totalMinutes) {
+                report.sample(minute, lot.getActiveTicketCount());
+            }
+        });
+
+        List<Thread> threads = new ArrayList<>();
+        for (int e = 0; e < entries.size(); e++) {
+            int gateIndex = e;
+            EntryGate gate = entries.get(e);
+            threads.add(new Thread(() -> {
+                Random random = new Random(seed * 31 + gate.getId());
+                LatencyHistogram latency = report.entryLatency[gateIndex];
+                long plate = 0;
+                for (int minute = 0; minute < totalMinutes; minute++) {
+                    int arrivals = poisson(random, arrivalsPerMinute(minute) / entries.size());
+                    for (int i = 0; i < arrivals; i++) {
+                        Vehicle vehicle = new Vehicle("E" + gate.getId() + "-" + plate++, pickSize(random));
+                        long start = System.nanoTime();
+                        Ticket ticket = gate.generateTicket(lot, vehicle);
+                        latency.record(System.nanoTime() - start);
+                        report.arrivals[gateIndex]++;
+                        if (ticket == null) {
+                            report.rejections[gateIndex]++;
+                            continue;
+                        }
+                        int dwell = (int) Math.max(1, Math.round(medianDwellMinutes * Math.exp(dwellSigma * random.nextGaussian())));
+                        // Vehicles leaving after the horizon stay parked
+                        if (minute + dwell < totalMinutes) {
+                            departures[minute + dwell][random.nextInt(exits.size())].add(ticket);
+                        }
+                    }
+                    if (!await(tick)) {
+                        return;
+                    }
+                }
+            }, "sim-entry-" + gate.getId()));
+        }
+        for (int x = 0; x < exits.size(); x++) {
+            int gateIndex = x;
+            ExitGate gate = exits.get(x);
+            threads.add(new Thread(() -> {
+                LatencyHistogram latency = report.exitLatency[gateIndex];
+                for (int minute = 0; minute < totalMinutes; minute++) {
+                    Ticket ticket;
+                    while ((ticket = departures[minute][gateIndex].poll()) != null) {
+                        long start = System.nanoTime();
+                        gate.generateBill(lot, ticket);
+                        latency.record(System.nanoTime() - start);
+                        report.departures[gateIndex]++;
+                    }
+                    // Drop the minute's queues once they are drained
+                    departures[minute][gateIndex] = null;
+                    if (!await(tick)) {
+                        return;
+                    }
+                }
+            }, "sim-exit-" + gate.getId()));
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        report.wallNanos = System.nanoTime() - start;
+        report.simulatedMinutes = totalMinutes;
+        return report;
+    }
+
+    private static boolean await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+            return true;
+        } catch (InterruptedException | BrokenBarrierException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Results of one simulation run
+     */
+    public static class Report {
+        private final List<EntryGate> entries;
+        private final List<ExitGate> exits;
+        private final int capacity;
+        private final LatencyHistogram[] entryLatency;
+        private final LatencyHistogram[] exitLatency;
+        // Written only by the owning gate thread, read between ticks
+        private final long[] arrivals;
+        private final long[] rejections;
+        private final long[] departures;
+        private final List<long[]> timeline = new ArrayList<>();
+        private long lastArrivals;
+        private long lastRejections;
+        private long wallNanos;
+        private int simulatedMinutes;
+
+        private Report(List<EntryGate> entries, List<ExitGate> exits, SlotStore store) {
+            this.entries = entries;
+            this.exits = exits;
+            this.capacity = store.count();
+            this.entryLatency = new LatencyHistogram[entries.size()];
+            this.exitLatency = new LatencyHistogram[exits.size()];
+            for (int i = 0; i < entryLatency.length; i++) {
+                entryLatency[i] = new LatencyHistogram();
+            }
+            for (int i = 0; i < exitLatency.length; i++) {
+                exitLatency[i] = new LatencyHistogram();
+            }
+            this.arrivals = new long[entries.size()];
+            this.rejections = new long[entries.size()];
+            this.departures = new long[exits.size()];
+        }
+
+        private void sample(int minute, int parked) {
+            long totalArrivals = sum(arrivals);
+            long totalRejections = sum(rejections);
+            timeline.add(new long[] {minute, parked, totalArrivals - lastArrivals, totalRejections - lastRejections});
+            lastArrivals = totalArrivals;
+            lastRejections = totalRejections;
+        }
+
+        private static long sum(long[] values) {
+            long total = 0;
+            for (long value : values) {
+                total += value;
+            }
+            return total;
+        }
+
+        public long getArrivals() {
+            return sum(arrivals);
+        }
+
+        public long getRejections() {
+            return sum(rejections);
+        }
+
+        public long getDepartures() {
+            return sum(departures);
+        }
+
+        public double getRejectionRate() {
+            long total = getArrivals();
+            return total == 0 ? 0 : (double) getRejections() / total;
+        }
+
+        /**
+         * Gate operations (entries attempted plus exits) per wall-clock second
+         */
+        public double getThroughput() {
+            return (getArrivals() + getDepartures()) * 1e9 / wallNanos;
+        }
+
+        public void print(PrintStream out) {
+            out.printf("Simulated %d days in %.2f s wall time, %,.0f gate ops/sec%n",
+                    simulatedMinutes / MINUTES_PER_DAY, wallNanos / 1e9, getThroughput());
+            out.printf("Arrivals: %,d  Rejected: %,d (%.2f%%)  Departures: %,d%n",
+                    getArrivals(), getRejections(), getRejectionRate() * 100, getDepartures());
+
+            out.printf("%-14s %10s %10s %10s %10s %10s%n", "Gate", "Vehicles", "p50 us", "p99 us", "p999 us", "Rejected");
+            for (int i = 0; i < entries.size(); i++) {
+                printGate(out, "Entry " + entries.get(i).getId(), arrivals[i], entryLatency[i], rejections[i]);
+            }
+            for (int i = 0; i < exits.size(); i++) {
+                printGate(out, "Exit " + exits.get(i).getId(), departures[i], exitLatency[i], 0);
+            }
+
+            out.printf("%-10s %10s %10s %10s %10s%n", "Time", "Parked", "Occupancy", "Arrivals", "Rejected");
+            for (long[] point : timeline) {
+                int minute = (int) point[0];
+                int day = (minute - 1) / MINUTES_PER_DAY;
+                int ofDay = minute - day * MINUTES_PER_DAY;
+                out.printf("d%d %02d:%02d   %10d %9.1f%% %10d %10d%n", day + 1, ofDay / 60, ofDay % 60,
+                        point[1], capacity == 0 ? 0 : point[1] * 100.0 / capacity, point[2], point[3]);
+            }
+        }
+
+        private static void printGate(PrintStream out, String name, long vehicles, LatencyHistogram latency, long rejected) {
+            out.printf("%-14s %,10d %10.1f %10.1f %10.1f %,10d%n", name, vehicles,
+                    latency.percentile(50) / 1e3, latency.percentile(99) / 1e3,
+                    latency.percentile(99.9) / 1e3, rejected);
+        }
+    }
+
+    /**
+     * Simulates a day at a generated lot, once per parking strategy
+     * Arguments are key=value: slots, entry, exit, perHour, days, peak, dwell
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, Double> params = new LinkedHashMap<>();
+        params.put("slots", 20_000.0);
+        params.put("entry", 8.0);
+        params.put("exit", 6.0);
+        params.put("perHour", 4_000.0);
+        params.put("days", 1.0);
+        params.put("peak", 2.0);
+        params.put("dwell", 180.0);
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length != 2 || !params.containsKey(pair[0])) {
+                System.out.println("Unknown argument: " + arg + ", expected one of " + params.keySet());
+                return;
+            }
+            params.put(pair[0], Double.parseDouble(pair[1]));
+        }
+
+        ParkingStrategy[] strategies = {new NearestParkingStrategy(), new BestFitParkingStrategy(),
+                new FloorBalancingParkingStrategy(), new FillFromTopParkingStrategy()};
+        PrintStream console = System.out;
+        for (ParkingStrategy strategy : strategies) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            ParkingLot lot = buildLot(strategy, params.get("slots").intValue(),
+                    params.get("entry").intValue(), params.get("exit").intValue());
+            System.setOut(console);
+            lot.getMetrics().setEnabled(true);
+
+            Report report = new TrafficSimulator(lot)
+                    .arrivalsPerHour(params.get("perHour"))
+                    .rushHourPeak(params.get("peak"))
+                    .dwell(params.get("dwell"), 0.8)
+                    .days(params.get("days").intValue())
+                    .run();
+            System.out.println("=== TRAFFIC SIMULATION: " + strategy.getStrategyName() + " ===");
+            report.print(System.out);
+            lot.getMetrics().snapshot().forEach((name, value) -> {
+                if (name.startsWith("counter.") || name.startsWith("strategy.")) {
+                    System.out.println(name + " = " + value);
+                }
+            });
+            lot.getEvents().close();
+        }
+    }
+
+    private static ParkingLot buildLot(ParkingStrategy strategy, int slots, int entryGates, int exitGates) {
+        ParkingLot lot = new ParkingLot(strategy,
+                new EventPipeline(new NullEventSink(), 1 << 16, EventPipeline.OverflowPolicy.DROP));
+        int floors = Math.max(1, slots / 2_500);
+        int perFloor = (slots + floors - 1) / floors;
+        for (int g = 1; g <= entryGates; g++) {
+            lot.addEntryGate(new EntryGate(g));
+        }
+        for (int g = 1; g <= exitGates; g++) {
+            lot.addExitGate(new ExitGate(g));
+        }
+        for (int f = 0; f < floors; f++) {
+            Floor floor = new Floor(f + 1);
+            for (int i = 0; i < perFloor && f * perFloor + i < slots; i++) {
+                int[] distances = new int[entryGates + 1];
+                for (int g = 0; g <= entryGates; g++) {
+                    distances[g] = Math.abs(f - g % floors) * perFloor + (i * 31 + g * 17) % perFloor;
+                }
+                VehicleSize size = i % 10 < 3 ? VehicleSize.SMALL : i % 10 < 8 ? VehicleSize.MEDIUM : VehicleSize.LARGE;
+                floor.addSlot(new BasicSlot(f * 100_000 + i + 1, size, 4.0 + size.ordinal() * 3, distances));
+            }
+            lot.addFloor(floor);
+        }
+        return lot;
+    }
+}
@@ -2,12 +2,56 @@
  * Represents a vehicle in the parking lot system
  */
 public class Vehicle {
+    private static final VehicleSize[] SIZES = VehicleSize.values();
+    private static final int MASKS = 1 << SlotFeature.values().length;
+    // One stand-in per (size, requested features), see shape()
+    private static final Vehicle[] SHAPES = new Vehicle[SIZES.length * MASKS];
+
+    static {
+        for (VehicleSize size : SIZES) {
+            for (int mask = 0; mask < MASKS; mask++) {
+                SHAPES[size.ordinal() * MASKS + mask] = new Vehicle("", size, mask);
+            }
+        }
+    }
+
     private final String id;
     private final VehicleSize size;
+    private final int requestedFeatures;
 
     public Vehicle(String id, VehicleSize size) {
+        this(id, size, new SlotFeature[0]);
+    }
+
+    /**
+     * A vehicle that needs slots with the given features, e.g. an EV that
+     * must charge
+     */
+    public Vehicle(String id, VehicleSize size, SlotFeature... requested) {
         this.id = id;
         this.size = size;
+        int flags = 0;
+        for (SlotFeature feature : requested) {
+            flags |= feature.flag();
+        }
+        this.requestedFeatures = flags;
+    }
+
+    /**
+     * @param requestedFeatures Mask of SlotFeature flags
+     */
+    public Vehicle(String id, VehicleSize size, int requestedFeatures) {
+        this.id = id;
+        this.size = size;
+        this.requestedFeatures = requestedFeatures & (MASKS - 1);
+    }
+
+    /**
+     * Shared, plate-less stand-in for any vehicle of this size and needs,
+     * for strategies and waitlists, which never read the plate
+     */
+    public static Vehicle shape(VehicleSize size, int requestedFeatures) {
+        return SHAPES[size.ordinal() * MASKS + (requestedFeatures & (MASKS - 1))];
     }
 
     public String getId() {
@@ -18,8 +62,25 @@ public class Vehicle {
         return size;
     }
 
+    /**
+     * Requested features as a mask of SlotFeature flags
+     */
+    public int getRequestedFeatures() {
+        return requestedFeatures;
+    }
+
     @Override
     public String toString() {
+        return describe(id, size, requestedFeatures);
+    }
+
+    /**
+     * Same text as toString for a vehicle kept as plain fields
+     */
+    static String describe(String id, VehicleSize size, int requestedFeatures) {
+        if (requestedFeatures != 0) {
+            return "Vehicle{id='" + id + "', size=" + size + ", needs=" + SlotFeature.describe(requestedFeatures) + "}";
+        }
         return "Vehicle{id='" + id + "', size=" + size + "}";
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,211 @@
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded first-come, first-served queue of vehicles waiting at one entry
+ * gate of a full lot
+ * A released slot is handed straight to the longest-waiting vehicle it
+ * fits, across every gate's waitlist, without going back to the free-slot
+ * index. Waiters give up after the timeout; when the queue is full new
+ * arrivals are turned away at once, and pressure() tells the gate which
+ * of the two is happening
+ */
+public class Waitlist {
+    /**
+     * Backpressure signal for the gate's display or upstream router
+     */
+    public enum Pressure {
+        // Nobody waiting
+        CLEAR,
+        // Vehicles waiting, room for more
+        QUEUEING,
+        // Queue full; arrivals are turned away without waiting
+        FULL
+    }
+
+    private final int gateId;
+    private final int capacity;
+    private final long timeoutNanos;
+    // Guarded by this
+    private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+    // Read by releasing gates without the lock
+    private volatile int waiting;
+    private long served;
+    private long timedOut;
+    private long turnedAway;
+
+    public Waitlist(int gateId, int capacity, Duration timeout) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Waitlist capacity must be positive: " + capacity);
+        }
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Waitlist timeout must be positive: " + timeout);
+        }
+        this.gateId = gateId;
+        this.capacity = capacity;
+        this.timeoutNanos = timeout.toNanos();
+    }
+
+    public int getGateId() {
+        return gateId;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getWaiting() {
+        return waiting;
+    }
+
+    public synchronized long getServed() {
+        return served;
+    }
+
+    public synchronized long getTimedOut() {
+        return timedOut;
+    }
+
+    public synchronized long getTurnedAway() {
+        return turnedAway;
+    }
+
+    public Pressure pressure() {
+        int n = waiting;
+        return n == 0 ? Pressure.CLEAR : n < capacity ? Pressure.QUEUEING : Pressure.FULL;
+    }
+
+    /**
+     * Queues a vehicle behind those already waiting
+     *
+     * @param sequence Arrival order across every gate of the lot
+     * @return The waiter, or null if the queue is full
+     */
+    synchronized Waiter join(Vehicle vehicle, long sequence) {
+        if (queue.size() >= capacity) {
+            turnedAway++;
+            return null;
+        }
+        Waiter waiter = new Waiter(vehicle, sequence, Thread.currentThread());
+        queue.addLast(waiter);
+        waiting = queue.size();
+        return waiter;
+    }
+
+    /**
+     * Longest-waiting vehicle a slot fits: large enough and with every
+     * requested feature. With keepReserved, vehicles that did not ask for
+     * the slot's reserved features are passed over
+     *
+     * @return The waiter, or null if none fits
+     */
+    synchronized Waiter first(VehicleSize size, int featureFlags, boolean keepReserved) {
+        for (Waiter waiter : queue) {
+            int required = waiter.vehicle.getRequestedFeatures();
+            int reserved = featureFlags & ParkingStrategy.RESERVED_FEATURES & ~required;
+            if (waiter.vehicle.getSize().ordinal() <= size.ordinal()
+                    && (featureFlags & required) == required
+                    && (!keepReserved || reserved == 0)) {
+                return waiter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hands a slot to a waiter found by first() and wakes it
+     *
+     * @return false if the waiter left the queue meanwhile (timed out or
+     *         already served); the slot is still the caller's
+     */
+    synchronized boolean serve(Waiter waiter, Slot slot) {
+        if (!remove(waiter)) {
+            return false;
+        }
+        waiter.slot = slot;
+        if (!waiter.state.compareAndSet(Waiter.WAITING, Waiter.SERVED)) {
+            return false;
+        }
+        served++;
+        LockSupport.unpark(waiter.thread);
+        return true;
+    }
+
+    /**
+     * Takes a waiter out of the queue unless it has been served
+     *
+     * @return true if it was still waiting and now never will be served
+     */
+    synchronized boolean cancel(Waiter waiter) {
+        if (!waiter.state.compareAndSet(Waiter.WAITING, Waiter.CANCELLED)) {
+            return false;
+        }
+        remove(waiter);
+        return true;
+    }
+
+    /**
+     * Blocks the calling gate until a slot is handed over or the timeout
+     * passes. An interrupt gives up the wait and is kept on the thread
+     *
+     * @return The slot, already claimed for the vehicle, or null
+     */
+    Slot await(Waiter waiter) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (waiter.state.get() == Waiter.WAITING) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                if (cancel(waiter)) {
+                    synchronized (this) {
+                        timedOut++;
+                    }
+                    return null;
+                }
+                break;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+        return waiter.slot;
+    }
+
+    private boolean remove(Waiter waiter) {
+        for (Iterator<Waiter> it = queue.iterator(); it.hasNext(); ) {
+            if (it.next() == waiter) {
+                it.remove();
+                waiting = queue.size();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Waitlist{gate=" + gateId + ", waiting=" + queue.size() + "/" + capacity + ", served=" + served
+                + ", timedOut=" + timedOut + ", turnedAway=" + turnedAway + "}";
+    }
+
+    /**
+     * A vehicle in the queue and the slot it was handed, if any
+     */
+    static final class Waiter {
+        private static final int WAITING = 0;
+        private static final int SERVED = 1;
+        private static final int CANCELLED = 2;
+
+        final Vehicle vehicle;
+        final long sequence;
+        private final Thread thread;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private volatile Slot slot;
+
+        private Waiter(Vehicle vehicle, long sequence, Thread thread) {
+            this.vehicle = vehicle;
+            this.sequence = sequence;
+            this.thread = thread;
+        }
+    }
+}